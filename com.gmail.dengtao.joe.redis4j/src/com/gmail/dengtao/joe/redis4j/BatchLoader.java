@@ -0,0 +1,204 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * <p>
+ * Gathers single GETs made within a short window into one MGET, the array reply split back to the callers.
+ * </p>
+ * <pre>
+ * BatchLoader loader = new BatchLoader(redis);
+ * RedisFuture user = loader.getAsync("user:1");	// from one code path
+ * RedisFuture item = loader.getAsync("item:9");	// from another
+ * user.result(timeout);	// both read by one MGET user:1 item:9
+ * </pre>
+ * <b>Window</b>
+ * <pre>
+ * The first key of a batch schedules its MGET on the event loop of the client:
+ * by default on the next loop tick, or after {@link #setWindow(long)} milliseconds.
+ * Keys asked until then join the batch, a key asked twice is read once.
+ * A batch of {@link #setMaxBatch(int)} keys is sent at once, by the caller adding the last key.
+ * Blocking callers of {@link #get(String)} on many threads batch too, each waits the window at most.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class BatchLoader {
+
+	private final Redis redis;
+	private volatile long window = 0;
+	private volatile int maxBatch = 128;
+	private final Object lock = new Object();
+	private Map<String, List<RedisFuture>> batch = new LinkedHashMap<String, List<RedisFuture>>();	// under lock
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * @param redis client sending the MGETs
+	 */
+	public BatchLoader(Redis redis) {
+		if (redis == null) throw new IllegalArgumentException();
+		this.redis = redis;
+	}
+
+	/**
+	 * Get the value of the key in the next batch.
+	 * @param key
+	 * @return pending value, {@link RedisFuture#getResponse()} a String, null if not exists
+	 */
+	public RedisFuture getAsync(String key) {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		RedisFuture future = new RedisFuture(null, ReplyDecoders.RAW);	// completed with the decoded value
+		Map<String, List<RedisFuture>> full = null;
+		Map<String, List<RedisFuture>> first = null;
+		synchronized (lock) {
+			List<RedisFuture> waiting = batch.get(key);
+			if (waiting == null) {
+				waiting = new ArrayList<RedisFuture>(1);
+				batch.put(key, waiting);
+				if (batch.size() == 1) first = batch;
+			}
+			waiting.add(future);
+			if (batch.size() >= maxBatch) {
+				full = batch;
+				batch = new LinkedHashMap<String, List<RedisFuture>>();
+			}
+		}
+		requests.incrementAndGet();
+		if (full != null) {
+			send(full);
+		} else if (first != null) {
+			sendLater(first);
+		}
+		return future;
+	}
+
+	/**
+	 * Get the value of the key in the next batch, wait for it: the client timeout plus the window, forever if the timeout is 0.
+	 * @param key
+	 * @return value, null if not exists
+	 */
+	public String get(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		long timeout = redis.getTimeout();
+		return (String) getAsync(key).result(timeout > 0 ? timeout + window : 0);
+	}
+
+	/**
+	 * Send the batch when its window ends, unless it was sent full meanwhile.
+	 */
+	private void sendLater(final Map<String, List<RedisFuture>> scheduled) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (lock) {
+					if (batch != scheduled) return;
+					batch = new LinkedHashMap<String, List<RedisFuture>>();
+				}
+				send(scheduled);
+			}
+		};
+		long window = this.window;
+		if (window > 0) {
+			redis.getTransport().getEventLoop().schedule(task, window);
+		} else {
+			redis.getTransport().getEventLoop().execute(task);
+		}
+	}
+
+	private void send(final Map<String, List<RedisFuture>> batch) {
+		Object[] args = new Object[batch.size() + 1];
+		args[0] = Protocol.Command.MGET;
+		int i = 1;
+		for (String key : batch.keySet()) {
+			args[i++] = key;
+		}
+		byte[] request = new ProtoBuilder().setCharset(redis.getCharset()).array(args).build();
+		final RedisFuture mget = new RedisFuture(request, ReplyDecoders.RAW);
+		mget.setCompletion(new Runnable() {
+			@Override
+			public void run() {
+				split(batch, mget);
+			}
+		});
+		batches.incrementAndGet();
+		redis.submit(request, mget);
+	}
+
+	/**
+	 * Complete the callers of the batch with their values, or all with the error.
+	 */
+	private void split(Map<String, List<RedisFuture>> batch, RedisFuture mget) {
+		Object reply = mget.getResponse();
+		Throwable cause = mget.getException();
+		if (cause == null && (!(reply instanceof Object[]) || ((Object[]) reply).length != batch.size())) {
+			cause = new RedisException("MGET of " + batch.size() + " keys, unexpected reply:" + reply);
+		}
+		int i = 0;
+		for (List<RedisFuture> waiting : batch.values()) {
+			Object value = cause != null ? cause : ReplyDecoders.STRING.decode(((Object[]) reply)[i++], redis.getCharset());
+			for (RedisFuture future : waiting) {
+				future.complete(value);
+			}
+		}
+	}
+
+	/**
+	 * @return wait for more keys after the first of a batch, in milliseconds, 0 for one loop tick
+	 */
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * Set how long a batch waits for more keys after its first, applies to the next batch.
+	 * @param window in milliseconds, 0 for one loop tick (default)
+	 */
+	public void setWindow(long window) {
+		if (window < 0) throw new IllegalArgumentException();
+		this.window = window;
+	}
+
+	/**
+	 * @return keys of a batch sent at once
+	 */
+	public int getMaxBatch() {
+		return maxBatch;
+	}
+
+	/**
+	 * Set the number of keys a batch is sent at, without waiting the window.
+	 * @param maxBatch default 128
+	 */
+	public void setMaxBatch(int maxBatch) {
+		if (maxBatch < 1) throw new IllegalArgumentException();
+		this.maxBatch = maxBatch;
+	}
+
+	/**
+	 * @return MGETs sent since created
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * @return gets asked since created, requests / batches is the mean batch
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+}
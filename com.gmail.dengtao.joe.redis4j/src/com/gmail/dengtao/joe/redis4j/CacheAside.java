@@ -0,0 +1,289 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * <p>
+ * Cache-aside reads: get the value, on a miss load it and set it with an expire, one loader at a time.
+ * </p>
+ * <pre>
+ * CacheAside cache = new CacheAside(redis);
+ * String user = cache.getOrLoad("user:1", 60000, new CacheAside.Loader() {
+ *     public String load(String key) throws Exception {
+ *         return dao.findUser(1);
+ *     }
+ * });
+ * </pre>
+ * <b>Stampede protection</b>
+ * <pre>
+ * On a miss the caller takes a short lock, SET key:lock token NX PX, loads, sets the value and releases the lock.
+ * Other callers poll for the value meanwhile; if the lock goes away without a value they try to take it.
+ * A loader that dies leaves the lock to expire after {@link #setLockTtl(long)}.
+ * </pre>
+ * <b>Refresh ahead (XFetch)</b>
+ * <pre>
+ * A hit reads the remaining TTL with the value (GET and PTTL pipelined) and reloads early with probability rising
+ * as expiry nears: when -delta * beta * ln(random) &gt;= remaining TTL, delta being the mean load time.
+ * Early reloads take the lock too; without it the current value is returned.
+ * An early reload that fails or loads null returns the current value too, it is logged and counted.
+ * Load times are averaged per CacheAside: use one per kind of value.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class CacheAside {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CacheAside.class);
+	/** delete the lock if still ours */
+	private static final String UNLOCK = "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+	private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	/**
+	 * Loads a value missing in redis.
+	 */
+	public interface Loader {
+
+		/**
+		 * @param key
+		 * @return value to cache, null to cache nothing
+		 * @throws Exception failure, thrown to the caller as a {@link RedisException} on a miss
+		 */
+		public String load(String key) throws Exception;
+
+	}
+
+	private final Redis redis;
+	private volatile long lockTtl = 10000;
+	private volatile long pollInterval = 20;
+	private volatile double beta = 1.0;
+	private volatile double delta = 0;	// mean load time, milliseconds
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong failedRefreshes = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong();
+
+	/**
+	 * @param redis client of the cache
+	 */
+	public CacheAside(Redis redis) {
+		if (redis == null) throw new IllegalArgumentException();
+		this.redis = redis;
+	}
+
+	/**
+	 * Get the value of the key, load and cache it on a miss.
+	 * @param key
+	 * @param ttl expire of a loaded value, in milliseconds
+	 * @param loader loads a missing value
+	 * @return value, null if the loader gave none
+	 * @throws RedisTimeoutException if the value did not show up within the client timeout, unless 0
+	 * @throws RedisException if the loader failed on a miss
+	 */
+	public String getOrLoad(String key, long ttl, Loader loader) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (StringUtils.isBlank(key) || ttl <= 0 || loader == null) throw new IllegalArgumentException();
+		RedisFuture[] replies = redis.pipeline(Arrays.asList(
+				new ProtoBuilder().setCharset(redis.getCharset()).array(Protocol.Command.GET, key).build(),
+				new ProtoBuilder().setCharset(redis.getCharset()).array(Protocol.Command.PTTL, key).build()));
+		String value = (String) replies[0].result(redis.getTimeout());
+		long remain = ReplyDecoders.LONG.decode(replies[1].result(redis.getTimeout()), redis.getCharset());
+		if (value != null) {
+			if (remain < 0 || !early(remain)) return value;
+			String token = lock(key);
+			if (token == null) return value;	// being reloaded
+			refreshes.incrementAndGet();
+			String loaded;
+			try {
+				loaded = load(key, ttl, loader, token);
+			} catch (Exception e) {
+				failedRefreshes.incrementAndGet();
+				LOGGER.warn("[Redis][CacheAside][early reload of " + key + " failed with:" + e.getMessage() + ", current value returned]");
+				return value;
+			}
+			if (loaded == null) {
+				failedRefreshes.incrementAndGet();
+				LOGGER.warn("[Redis][CacheAside][early reload of " + key + " loaded null, current value returned]");
+				return value;
+			}
+			return loaded;
+		}
+		long timeout = redis.getTimeout();
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;	// 0 waits forever
+		for (;;) {
+			String token = lock(key);
+			if (token != null) {
+				value = redis.execute(Protocol.Command.GET, ReplyDecoders.STRING, key);	// set while we took the lock?
+				if (value != null) {
+					unlock(key, token);
+					return value;
+				}
+				return load(key, ttl, loader, token);
+			}
+			waits.incrementAndGet();
+			do {
+				if (System.currentTimeMillis() >= deadline) throw new RedisTimeoutException();
+				try {
+					Thread.sleep(pollInterval);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RedisTimeoutException();
+				}
+				value = redis.execute(Protocol.Command.GET, ReplyDecoders.STRING, key);
+				if (value != null) return value;
+			} while (redis.execute(Protocol.Command.EXISTS, ReplyDecoders.BOOLEAN, lockKey(key)));
+		}
+	}
+
+	/**
+	 * XFetch: reload before expiry, more likely as it nears.
+	 */
+	private boolean early(long remain) {
+		double delta = this.delta;
+		if (delta <= 0) return false;
+		return -delta * beta * Math.log(1 - RANDOM.get().nextDouble()) >= remain;
+	}
+
+	private String load(String key, long ttl, Loader loader, String token) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		try {
+			long start = System.currentTimeMillis();
+			String value;
+			try {
+				value = loader.load(key);
+			} catch (Exception e) {
+				throw new RedisException("load " + key + " failed", e);
+			}
+			loads.incrementAndGet();
+			double elapsed = System.currentTimeMillis() - start;
+			delta = delta <= 0 ? elapsed : delta * 0.8 + elapsed * 0.2;
+			if (value != null) redis.set(key, value, ttl);
+			return value;
+		} finally {
+			unlock(key, token);
+		}
+	}
+
+	/**
+	 * @return token of the lock, null if held by another
+	 */
+	private String lock(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		String token = UUID.randomUUID().toString();
+		return redis.execute(Protocol.Command.SET, ReplyDecoders.OK, lockKey(key), token, "NX", "PX", lockTtl) ? token : null;
+	}
+
+	private void unlock(String key, String token) {
+		try {
+			redis.execute(Protocol.Command.EVAL, ReplyDecoders.RAW, UNLOCK, 1, lockKey(key), token);
+		} catch (Exception e) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][CacheAside][unlock " + key + " failed with:" + e.getMessage() + ", left to expire]");
+			}
+		}
+	}
+
+	private static String lockKey(String key) {
+		return key + ":lock";
+	}
+
+	/**
+	 * @return expire of the load lock, in milliseconds
+	 */
+	public long getLockTtl() {
+		return lockTtl;
+	}
+
+	/**
+	 * Set the expire of the load lock: longer than a load takes, waiters give up on a dead loader after it.
+	 * @param lockTtl in milliseconds, default 10000
+	 */
+	public void setLockTtl(long lockTtl) {
+		if (lockTtl <= 0) throw new IllegalArgumentException();
+		this.lockTtl = lockTtl;
+	}
+
+	/**
+	 * @return poll interval of waiters, in milliseconds
+	 */
+	public long getPollInterval() {
+		return pollInterval;
+	}
+
+	/**
+	 * Set how often waiters read the value while another caller loads it.
+	 * @param pollInterval in milliseconds, default 20
+	 */
+	public void setPollInterval(long pollInterval) {
+		if (pollInterval <= 0) throw new IllegalArgumentException();
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * @return XFetch beta
+	 */
+	public double getBeta() {
+		return beta;
+	}
+
+	/**
+	 * Set how early values are reloaded: above 1 earlier, below later, 0 never.
+	 * @param beta default 1.0
+	 */
+	public void setBeta(double beta) {
+		if (beta < 0) throw new IllegalArgumentException();
+		this.beta = beta;
+	}
+
+	/**
+	 * @return mean load time, in milliseconds
+	 */
+	public double getDelta() {
+		return delta;
+	}
+
+	/**
+	 * @return loader calls since created
+	 */
+	public long getLoads() {
+		return loads.get();
+	}
+
+	/**
+	 * @return loads ahead of expiry since created
+	 */
+	public long getRefreshes() {
+		return refreshes.get();
+	}
+
+	/**
+	 * @return early reloads that failed or loaded null since created, the current value returned
+	 */
+	public long getFailedRefreshes() {
+		return failedRefreshes.get();
+	}
+
+	/**
+	 * @return misses that waited for another caller's load since created
+	 */
+	public long getWaits() {
+		return waits.get();
+	}
+
+}
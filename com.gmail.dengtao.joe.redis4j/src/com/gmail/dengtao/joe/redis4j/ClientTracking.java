@@ -0,0 +1,299 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.cache.NearCache;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoopGroup;
+
+/**
+ * <p>
+ * Server-assisted client side caching (redis 6+): the server tells which keys read by the client changed,
+ * their {@link NearCache} entries are dropped.
+ * </p>
+ * <pre>
+ * Redis redis = new Redis("127.0.0.1", 6379, "pwd");
+ * ClientTracking tracking = new ClientTracking(redis, new TinyLfuCache&lt;String, String&gt;(10000, 600000));
+ * redis.get("key");	// read from redis, tracked, cached
+ * redis.get("key");	// from memory until any client changes the key
+ * tracking.close();	// tracking off, cache dropped
+ * </pre>
+ * <b>Modes</b>
+ * <pre>
+ * {@link Mode#DEFAULT}	keys read by the client are tracked by the server
+ * {@link Mode#OPTIN}		only keys read by {@link Redis#get(String)}, CLIENT CACHING yes is pipelined before each cached read
+ * {@link Mode#BCAST}		no tracking table on the server: all changes of keys of the prefixes are sent,
+ * 				only keys of the prefixes are cached
+ * </pre>
+ * <b>Invalidations</b>
+ * <pre>
+ * A {@link RedisSubscriber} to the same server subscribes __redis__:invalidate, the client redirects to it
+ * by CLIENT TRACKING on REDIRECT &lt;id&gt; (RESP2).
+ * On every reconnect of either connection tracking is enabled again and the cache dropped:
+ * invalidations sent meanwhile are lost. Until the subscriber is back and the client redirects to its new id,
+ * reads bypass the cache.
+ * FLUSHALL and FLUSHDB drop the whole cache.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class ClientTracking implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ClientTracking.class);
+	/** channel of invalidation messages */
+	public static final String INVALIDATE = "__redis__:invalidate";
+
+	/**
+	 * What the server tracks.
+	 */
+	public enum Mode {
+		DEFAULT, OPTIN, BCAST
+	}
+
+	private final Redis redis;
+	private final NearCache<String, String> cache;
+	private final Mode mode;
+	private final String[] prefixes;
+	private final EventLoopGroup group;
+	private final RedisSubscriber subscriber;
+	private final ExecutorService enabler;
+	private final AtomicLong invalidations = new AtomicLong();
+	private volatile boolean active = true;
+	private volatile long enabledId = -1;	// client id the data connection redirects to
+
+	/**
+	 * Track keys read by the client, {@link Mode#DEFAULT}.
+	 * @param redis client to cache reads of, tcp only
+	 * @param cache set as near cache of the client
+	 */
+	public ClientTracking(Redis redis, NearCache<String, String> cache) {
+		this(redis, cache, Mode.DEFAULT);
+	}
+
+	/**
+	 * instance tracking, I/O of the subscriber done by {@link EventLoopGroup#getDefault()}.
+	 * @param redis client to cache reads of, tcp only
+	 * @param cache set as near cache of the client
+	 * @param mode tracking mode
+	 * @param prefixes key prefixes of {@link Mode#BCAST}, none for all keys
+	 */
+	public ClientTracking(Redis redis, NearCache<String, String> cache, Mode mode, String... prefixes) {
+		this(redis, cache, mode, EventLoopGroup.getDefault(), prefixes);
+	}
+
+	/**
+	 * instance tracking.
+	 * @param redis client to cache reads of, tcp only
+	 * @param cache set as near cache of the client
+	 * @param mode tracking mode
+	 * @param group event loop group of the subscriber
+	 * @param prefixes key prefixes of {@link Mode#BCAST}, none for all keys
+	 */
+	public ClientTracking(Redis redis, NearCache<String, String> cache, Mode mode, EventLoopGroup group, String... prefixes) {
+		if (redis == null || cache == null || mode == null || group == null) throw new IllegalArgumentException();
+		if (redis.getHost() == null) throw new IllegalArgumentException("tcp connection required");
+		if (prefixes.length > 0 && mode != Mode.BCAST) throw new IllegalArgumentException("prefixes of BCAST only");
+		this.redis = redis;
+		this.cache = cache;
+		this.mode = mode;
+		this.prefixes = prefixes.clone();
+		this.group = group;
+		this.enabler = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "redis4j-tracking-" + ClientTracking.this.redis.getHost() + ":" + ClientTracking.this.redis.getPort());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.subscriber = new RedisSubscriber(redis.getHost(), redis.getPort(), redis.getPassword(), new RedisMessageListener() {
+			@Override
+			public void onMessage(String channel, Object message) {
+				invalidated(message);
+			}
+
+			@Override
+			public void onSubscribe(String channel) {
+				enableLater();
+			}
+		}, group, true);
+		this.subscriber.setCharset(redis.getCharset());
+		this.subscriber.subscribe(INVALIDATE);
+		redis.setTracking(this);
+		redis.setNearCache(cache);
+	}
+
+	/**
+	 * Tracking like this one for another client, eg the new master after a failover, into the same cache emptied:
+	 * invalidations of this one's server do not cover the other's keys.
+	 */
+	ClientTracking copyFor(Redis redis) {
+		cache.invalidateAll();
+		return new ClientTracking(redis, cache, mode, group, prefixes);
+	}
+
+	/**
+	 * Message of __redis__:invalidate: array of keys, nil when the database is flushed.
+	 */
+	private void invalidated(Object message) {
+		if (message instanceof Object[]) {
+			for (Object key : (Object[]) message) {
+				if (key != null) cache.invalidate(String.valueOf(key));
+			}
+			invalidations.addAndGet(((Object[]) message).length);
+		} else {
+			cache.invalidateAll();
+			invalidations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * The subscriber is (re)connected with a new id: redirect to it, off the event loop.
+	 */
+	private void enableLater() {
+		if (!active) return;
+		try {
+			enabler.execute(new Runnable() {
+				@Override
+				public void run() {
+					enable();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			/* closed meanwhile */
+		}
+	}
+
+	private void enable() {
+		long id = subscriber.getClientId();
+		if (!active || id < 0 || !redis.isConnected()) return;	// sent on connect
+		try {
+			Object[] args = encode(id);
+			redis.execute(Protocol.Command.CLIENT, ReplyDecoders.OK, Arrays.copyOfRange(args, 1, args.length));
+			cache.invalidateAll();	// entries read while invalidations went nowhere
+			enabledId = id;
+		} catch (Exception e) {
+			LOGGER.error("[Redis][Tracking][enable failed with:" + e.getMessage() + "]");
+		}
+	}
+
+	/**
+	 * CLIENT TRACKING of the data connection, sent on connect, the cache dropped.
+	 * @return null if the subscriber is not connected yet, enabled once it is
+	 */
+	byte[] request() {
+		long id = subscriber.getClientId();
+		if (!active || id < 0) {
+			enabledId = -1;
+			return null;
+		}
+		cache.invalidateAll();
+		enabledId = id;	// the connection is open once the handshake is replied
+		return new ProtoBuilder().setCharset(redis.getCharset()).array(encode(id)).build();
+	}
+
+	private Object[] encode(long id) {
+		List<Object> args = new ArrayList<Object>();
+		args.add(Protocol.Command.CLIENT);
+		args.add("TRACKING");
+		args.add("on");
+		args.add("REDIRECT");
+		args.add(String.valueOf(id));
+		if (mode == Mode.BCAST) {
+			args.add("BCAST");
+			for (String prefix : prefixes) {
+				args.add("PREFIX");
+				args.add(prefix);
+			}
+		} else if (mode == Mode.OPTIN) {
+			args.add("OPTIN");
+		}
+		return args.toArray();
+	}
+
+	/**
+	 * @param key
+	 * @return true if changes of the key are sent by the server to the connection of the subscriber, so it may be cached
+	 */
+	boolean covers(String key) {
+		long id = subscriber.getClientId();
+		if (id < 0 || enabledId != id) return false;	// invalidations lost, or sent to an earlier connection
+		if (mode != Mode.BCAST || prefixes.length == 0) return true;
+		for (String prefix : prefixes) {
+			if (key.startsWith(prefix)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return tracking mode
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return key prefixes of {@link Mode#BCAST}
+	 */
+	public List<String> getPrefixes() {
+		return Arrays.asList(prefixes.clone());
+	}
+
+	/**
+	 * @return near cache kept by the server's invalidations
+	 */
+	public NearCache<String, String> getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return keys invalidated by the server, a flush counted once
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * @return true if the subscriber receiving invalidations is connected
+	 */
+	public boolean isConnected() {
+		return subscriber.isConnected();
+	}
+
+	/**
+	 * Stop caching: the near cache of the client is removed and dropped, tracking turned off.
+	 */
+	@Override
+	public void close() throws IOException {
+		active = false;
+		enabler.shutdown();
+		redis.setTracking(null);
+		redis.setNearCache(null);
+		cache.invalidateAll();
+		if (redis.isConnected()) {
+			try {
+				redis.execute(Protocol.Command.CLIENT, ReplyDecoders.OK, "TRACKING", "off");
+			} catch (Exception e) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("[Redis][Tracking][off failed with:" + e.getMessage() + "]");
+				}
+			}
+		}
+		subscriber.close();
+	}
+
+}
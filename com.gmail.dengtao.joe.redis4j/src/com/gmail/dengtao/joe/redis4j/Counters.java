@@ -0,0 +1,230 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoop.ScheduledTask;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * <p>
+ * Counters summed in memory and flushed as pipelined INCRBY and HINCRBY: one command per changed key and flush,
+ * whatever the number of increments.
+ * </p>
+ * <pre>
+ * redis.counter("hits").increment();	// counters of the client, see {@link Redis#counter(String)}
+ * redis.counter("hits:2024-01-01", "home").add(3);	// HINCRBY field
+ *
+ * Counters counters = new Counters(redis, 1000);	// or own ones, flushed every second
+ * counters.counter("views").increment();
+ * counters.close();	// sends what is left
+ * </pre>
+ * <b>Flush</b>
+ * <pre>
+ * Every interval on the event loop of the client, by {@link #flush()} or on close: an increment is
+ * in redis at most one interval plus a round trip after it is added.
+ * A command of a flush failing on I/O, connection or timeout puts its sum back to the next one: if the connection
+ * died after redis applied it, those increments count twice. One failing by an error reply (eg the key holds
+ * no integer) is dropped and logged, it would fail again.
+ * Counters are kept until closed, one per key (and field) asked.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class Counters implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Counters.class);
+
+	private final Redis redis;
+	private final ConcurrentHashMap<List<String>, Counter> counters = new ConcurrentHashMap<List<String>, Counter>();
+	private volatile long interval;
+	private volatile boolean active = true;
+	private volatile ScheduledTask flushTask;
+	private volatile RedisFuture last;	// done once the replies of the last flush are counted
+	/** metrics */
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong commands = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * @param redis client the increments go to
+	 * @param interval flush interval, in milliseconds
+	 */
+	public Counters(Redis redis, long interval) {
+		if (redis == null || interval <= 0) throw new IllegalArgumentException();
+		this.redis = redis;
+		this.interval = interval;
+		schedule();
+	}
+
+	private void schedule() {
+		flushTask = redis.getTransport().getEventLoop().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!active) return;
+				flush();
+				schedule();
+			}
+		}, interval);
+	}
+
+	/**
+	 * @param key
+	 * @return counter of the key, by INCRBY
+	 */
+	public Counter counter(String key) {
+		return counter(key, null);
+	}
+
+	/**
+	 * @param key
+	 * @param field hash field, null for the key itself
+	 * @return counter of the field of the hash, by HINCRBY
+	 */
+	public Counter counter(String key, String field) {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		if (!active) throw new IllegalStateException("closed");
+		List<String> id = Arrays.asList(key, field);
+		Counter counter = counters.get(id);
+		if (counter == null) {
+			Counter created = new Counter(this, key, field);
+			counter = counters.putIfAbsent(id, created);
+			if (counter == null) counter = created;
+		}
+		return counter;
+	}
+
+	/**
+	 * Send the sums added since the last flush, without waiting for the replies.
+	 */
+	public void flush() {
+		final List<Counter> sent = new ArrayList<Counter>();
+		final List<Long> deltas = new ArrayList<Long>();
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		List<RedisFuture> futures = new ArrayList<RedisFuture>();
+		String charset = redis.getCharset();
+		for (Counter counter : counters.values()) {
+			long delta = counter.drain();
+			if (delta == 0) continue;
+			byte[] request = counter.getField() == null
+					? new ProtoBuilder().setCharset(charset).array(Protocol.Command.INCRBY, counter.getKey(), String.valueOf(delta)).build()
+					: new ProtoBuilder().setCharset(charset).array(Protocol.Command.HINCRBY, counter.getKey(), counter.getField(), String.valueOf(delta)).build();
+			futures.add(new RedisFuture(request, ReplyDecoders.RAW));
+			payload.write(request, 0, request.length);
+			sent.add(counter);
+			deltas.add(delta);
+		}
+		if (futures.isEmpty()) return;
+		final RedisFuture[] replies = futures.toArray(new RedisFuture[futures.size()]);
+		final RedisFuture flushed = new RedisFuture(null, ReplyDecoders.RAW);
+		replies[replies.length - 1].setCompletion(new Runnable() {
+			@Override
+			public void run() {	// replies in order: the last one completes all
+				flushes.incrementAndGet();
+				for (int i = 0; i < replies.length; i++) {
+					Throwable cause = replies[i].getException();
+					if (cause == null) {
+						commands.incrementAndGet();
+					} else if (cause instanceof IOException) {	// RedisIOException, RedisConnectionException, RedisTimeoutException
+						failures.incrementAndGet();
+						sent.get(i).restore(deltas.get(i));
+						if (LOGGER.isDebugEnabled()) {
+							LOGGER.debug("[Redis][Counters][" + sent.get(i).getKey() + " kept for the next flush, failed with:" + cause.getMessage() + "]");
+						}
+					} else {
+						failures.incrementAndGet();
+						LOGGER.error("[Redis][Counters][" + sent.get(i).getKey() + " " + deltas.get(i) + " dropped, failed with:" + cause.getMessage() + "]");
+					}
+				}
+				flushed.complete(Boolean.TRUE);
+			}
+		});
+		for (Counter counter : sent) {
+			redis.invalidate(counter.getKey());	// near cache entry stale, key present
+		}
+		last = flushed;
+		redis.submit(payload.toByteArray(), replies);
+	}
+
+	boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * @return flush interval, in milliseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Set the flush interval, from the next flush: the longest an increment waits in memory.
+	 * @param interval in milliseconds
+	 */
+	public void setInterval(long interval) {
+		if (interval <= 0) throw new IllegalArgumentException();
+		this.interval = interval;
+	}
+
+	/**
+	 * @return counters asked since created
+	 */
+	public int size() {
+		return counters.size();
+	}
+
+	/**
+	 * @return flushes replied since created, empty ones not counted
+	 */
+	public long getFlushes() {
+		return flushes.get();
+	}
+
+	/**
+	 * @return INCRBY and HINCRBY done by redis since created
+	 */
+	public long getCommands() {
+		return commands.get();
+	}
+
+	/**
+	 * @return INCRBY and HINCRBY failed since created, their sums put back on I/O failures, dropped on error replies
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Stop counting, flush what is left and wait for it within the client timeout.
+	 * Sums a failed last flush puts back are lost, see {@link Counter#getPending()}.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!active) return;
+		active = false;
+		ScheduledTask task = flushTask;
+		if (task != null) task.cancel();
+		flush();
+		RedisFuture future = last;
+		if (future != null && !future.await(redis.getTimeout())) {
+			LOGGER.warn("[Redis][Counters][close timed out waiting for the last flush]");
+		}
+		for (Counter counter : counters.values()) {
+			long lost = counter.getPending();
+			if (lost != 0) LOGGER.error("[Redis][Counters][" + counter.getKey() + (counter.getField() == null ? "" : " " + counter.getField()) + " lost " + lost + " on close]");
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * When to hedge a read: send it again to a second node if the first has not replied in time,
+ * the first reply wins. See {@link MasterReplicaRedis#setHedgePolicy(HedgePolicy)}.
+ * </p>
+ * <pre>
+ * delay: the reply time percentile of the first node (p95 by default), at least the min delay.
+ *        No hedge before the node has {@link NodeStats#MIN_SAMPLES} reply times.
+ * budget: hedges are at most this fraction of reads, e.g. 0.05 for 5% extra load,
+ *         plus a burst of {@link #BURST} saved up in quiet times.
+ * Only for idempotent reads, a hedged command runs twice.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class HedgePolicy {
+
+	/** hedges that can be saved up */
+	public static final int BURST = 10;
+
+	private static final long UNIT = 1000;	// tokens per hedge
+
+	private final double percentile;
+	private final long minDelay;
+	private final long refill;	// tokens per read
+	private final AtomicLong tokens = new AtomicLong();
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong wins = new AtomicLong();
+
+	/**
+	 * p95 delay, at least 1 millisecond, 5% budget.
+	 */
+	public HedgePolicy() {
+		this(95, 1, 0.05);
+	}
+
+	/**
+	 * @param percentile reply time percentile to wait before hedging, in (0, 100]
+	 * @param minDelay min wait before hedging, in milliseconds
+	 * @param budget max hedges per read, in [0, 1]
+	 */
+	public HedgePolicy(double percentile, long minDelay, double budget) {
+		if (percentile <= 0 || percentile > 100 || minDelay < 0 || budget < 0 || budget > 1) throw new IllegalArgumentException();
+		this.percentile = percentile;
+		this.minDelay = minDelay;
+		this.refill = Math.round(budget * UNIT);
+	}
+
+	/**
+	 * A read is sent, add to the budget.
+	 * @param stats stats of the node the read is sent to
+	 * @return nanoseconds to wait before hedging, -1 if the node is not known well enough
+	 */
+	long begin(NodeStats stats) {
+		reads.incrementAndGet();
+		while (true) {
+			long current = tokens.get();
+			long next = Math.min(BURST * UNIT, current + refill);
+			if (next == current || tokens.compareAndSet(current, next)) break;
+		}
+		long delay = stats.getPercentile(percentile);
+		if (delay < 0) return -1;
+		return Math.max(delay, TimeUnit.MILLISECONDS.toNanos(minDelay));
+	}
+
+	/**
+	 * Take one hedge from the budget.
+	 * @return false if over budget
+	 */
+	boolean acquire() {
+		while (true) {
+			long current = tokens.get();
+			if (current < UNIT) return false;
+			if (tokens.compareAndSet(current, current - UNIT)) {
+				hedges.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * The hedge replied first.
+	 */
+	void won() {
+		wins.incrementAndGet();
+	}
+
+	/**
+	 * @return reads sent under this policy
+	 */
+	public long getReads() {
+		return reads.get();
+	}
+
+	/**
+	 * @return hedges fired
+	 */
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	/**
+	 * @return hedges which replied before the first request
+	 */
+	public long getWins() {
+		return wins.get();
+	}
+
+	/**
+	 * @return reply time percentile to wait before hedging
+	 */
+	public double getPercentile() {
+		return percentile;
+	}
+
+	/**
+	 * @return min wait before hedging, in milliseconds
+	 */
+	public long getMinDelay() {
+		return minDelay;
+	}
+
+	/**
+	 * @return max hedges per read
+	 */
+	public double getBudget() {
+		return (double) refill / UNIT;
+	}
+
+	@Override
+	public String toString() {
+		return "HedgePolicy [reads=" + reads.get() + ", hedges=" + hedges.get() + ", wins=" + wins.get() + "]";
+	}
+
+}
@@ -0,0 +1,426 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.cache.BloomFilter;
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
+import com.gmail.dengtao.joe.redis4j.proto.CommandType;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoder;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoopGroup;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * <p>
+ * Bloom filter of the keys present in redis: {@link Redis#get(String)} and {@link Redis#exists(String)} of a key
+ * it never saw answer null and false locally, without a round trip.
+ * </p>
+ * <pre>
+ * KeyFilter keys = new KeyFilter(redis, 1000000, 0.01);	// notify-keyspace-events E and A added if missing
+ * redis.get("missing");	// null, from memory once the filter is built
+ * keys.getSkipRate();	// share of reads answered locally
+ * keys.close();
+ * </pre>
+ * <b>Kept up to date by</b>
+ * <pre>
+ * SCAN of the database selected by the client, on start, after every reconnect of the subscriber
+ * and after every {@link Redis#select(int)} of another database, its events subscribed instead;
+ * writes through the client: set, append, setFrom, the no-wait writes, {@link WriteBehind}, {@link Counters},
+ * and {@link Redis#execute(CommandType, ReplyDecoder, Object...)} of a non-read command, its first key marked
+ * (all keys of MSET and MSETNX);
+ * keyspace events of other clients: a PSUBSCRIBE __keyevent@&lt;db&gt;__:* connection, every event but
+ * del, expired and evicted marks its key.
+ * </pre>
+ * <b>Consistency</b>
+ * <pre>
+ * Before every build notify-keyspace-events is read by CONFIG GET, E and A added by CONFIG SET if an event
+ * class of writes is missing. If the flags cannot be confirmed (eg CONFIG denied) the filter is never built.
+ * Until built, and from a disconnect of the subscriber until built again on its new connection, every read
+ * goes to redis. A failed SCAN is retried after the reconnect interval of the client.
+ * A key written by another client reads as absent until its event arrives, within a round trip or so.
+ * Keys written by scripts (EVAL) or other commands of many keys are seen by their events only.
+ * Deleted keys stay in the filter: reads of them go to redis, counted in {@link #getFalsePositives()}.
+ * Sized for the expected keys: more and the false positive rate rises, see {@link #getExpectedFpp()}.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class KeyFilter implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(KeyFilter.class);
+	/** events of a key going away */
+	private static final Set<String> REMOVALS = new HashSet<String>(Arrays.asList("del", "expired", "evicted"));
+	/** event classes of the writes creating keys, all in A */
+	private static final String CLASSES = "g$lshzt";
+	/** commands not creating keys, their first argument not marked */
+	private static final Set<CommandType> READS = new HashSet<CommandType>(Redis.READS);
+
+	static {
+		READS.addAll(Arrays.<CommandType>asList(Protocol.Command.DEL, Protocol.Command.UNLINK,
+				Protocol.Command.EXPIRE, Protocol.Command.PEXPIRE, Protocol.Command.PERSIST));
+	}
+
+	private final Redis redis;
+	private final long expected;
+	private final double fpp;
+	private final EventLoopGroup group;
+	private final RedisSubscriber subscriber;
+	private final ScheduledExecutorService builder;
+	private final Object lock = new Object();
+	private BloomFilter building = null;	// under lock, filled by SCAN and events
+	private volatile BloomFilter filter = null;	// null until built
+	private long buildingFor = -1;	// under lock, connection of the subscriber the build started on
+	private volatile long builtFor = -1;	// of the filter: it answers while that connection is open
+	private volatile int db;	// of the filter and events, the one selected by the client
+	private volatile boolean active = true;
+	/** metrics */
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong falsePositives = new AtomicLong();
+	private final AtomicLong builds = new AtomicLong();
+
+	/**
+	 * Filter of database 0, events received on {@link EventLoopGroup#getDefault()}.
+	 * @param redis client to skip reads of, tcp only
+	 * @param expected keys the filter is sized for
+	 * @param fpp false positive rate at the expected keys, eg 0.01
+	 */
+	public KeyFilter(Redis redis, long expected, double fpp) {
+		this(redis, expected, fpp, 0, EventLoopGroup.getDefault());
+	}
+
+	/**
+	 * @param redis client to skip reads of, tcp only
+	 * @param expected keys the filter is sized for
+	 * @param fpp false positive rate at the expected keys, eg 0.01
+	 * @param db database selected by the client, followed when it selects another
+	 * @param group event loop group of the subscriber
+	 */
+	public KeyFilter(Redis redis, long expected, double fpp, int db, EventLoopGroup group) {
+		if (redis == null || expected < 1 || fpp <= 0 || fpp >= 1 || db < 0 || group == null) throw new IllegalArgumentException();
+		if (redis.getHost() == null) throw new IllegalArgumentException("tcp connection required");
+		this.redis = redis;
+		this.expected = expected;
+		this.fpp = fpp;
+		this.group = group;
+		this.db = db;
+		this.builder = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "redis4j-keyfilter-" + KeyFilter.this.redis.getHost() + ":" + KeyFilter.this.redis.getPort());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.subscriber = new RedisSubscriber(redis.getHost(), redis.getPort(), redis.getPassword(), new RedisMessageListener() {
+			@Override
+			public void onMessage(String channel, Object message) {
+				event(channel, message);
+			}
+
+			@Override
+			public void onSubscribe(String channel) {
+				if (channel.equals(pattern(KeyFilter.this.db))) rebuildLater();
+			}
+		}, group);
+		this.subscriber.setCharset(redis.getCharset());
+		this.subscriber.psubscribe(pattern(db));
+		redis.setKeyFilter(this);
+	}
+
+	/**
+	 * A filter sized like this one for another client, eg the new master after a failover, built afresh.
+	 */
+	KeyFilter copyFor(Redis redis) {
+		return new KeyFilter(redis, expected, fpp, redis.getDb(), group);
+	}
+
+	private static String pattern(int db) {
+		return "__keyevent@" + db + "__:*";
+	}
+
+	/**
+	 * The client selected another database: forget the filter, subscribe the events of that one,
+	 * built again by SCAN once confirmed.
+	 */
+	void select(int db) {
+		int previous;
+		synchronized (lock) {
+			if (!active || db == this.db) return;
+			previous = this.db;
+			this.db = db;
+			filter = null;
+			building = null;
+		}
+		subscriber.punsubscribe(pattern(previous));
+		subscriber.psubscribe(pattern(db));
+	}
+
+	/**
+	 * Keyspace event, the key as message.
+	 */
+	private void event(String channel, Object message) {
+		if (message == null) return;
+		int colon = channel.indexOf("__:");
+		if (colon >= 0 && REMOVALS.contains(channel.substring(colon + 3))) return;
+		mark(String.valueOf(message));
+	}
+
+	/**
+	 * Events before the confirmation are lost: forget the filter, build it again from SCAN.
+	 */
+	private void rebuildLater() {
+		if (!active) return;
+		synchronized (lock) {
+			filter = null;
+			building = new BloomFilter(expected, fpp);	// events from now on
+			buildingFor = subscriber.getConnects();
+		}
+		buildLater(0);
+	}
+
+	private void buildLater(long delay) {
+		try {
+			builder.schedule(new Runnable() {
+				@Override
+				public void run() {
+					rebuild();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			/* closed meanwhile */
+		}
+	}
+
+	private void rebuild() {
+		BloomFilter target;
+		int db;
+		synchronized (lock) {
+			target = building;
+			db = this.db;
+		}
+		if (!active || target == null) return;
+		if (redis.getDb() != db) {	// the client is on another database, eg reconnected to 0
+			buildLater(redis.getReconnect());
+			return;
+		}
+		try {
+			if (!confirm()) return;
+			String cursor = "0";
+			do {
+				Object[] reply = (Object[]) redis.execute(Protocol.Command.SCAN, ReplyDecoders.OBJECT, cursor, "COUNT", 1000);
+				cursor = String.valueOf(reply[0]);
+				for (Object key : (Object[]) reply[1]) {
+					target.put(String.valueOf(key));
+				}
+			} while (!"0".equals(cursor) && active);
+		} catch (Exception e) {
+			LOGGER.error("[Redis][KeyFilter][SCAN failed with:" + e.getMessage() + ", again in " + redis.getReconnect() + " ms]");
+			buildLater(redis.getReconnect());	// into the same filter, events kept
+			return;
+		}
+		synchronized (lock) {
+			if (building != target || redis.getDb() != db) return;	// resubscribed or selected meanwhile
+			building = null;
+			builtFor = buildingFor;
+			filter = target;
+		}
+		builds.incrementAndGet();
+		if (target.getCount() > expected) {
+			LOGGER.warn("[Redis][KeyFilter][" + target.getCount() + " keys over the " + expected + " expected, false positive rate " + target.getExpectedFpp() + "]");
+		}
+	}
+
+	/**
+	 * Make sure the server sends the events of writes, adding E and A to notify-keyspace-events if needed.
+	 * @return false if not confirmed, the filter is not built
+	 */
+	private boolean confirm() throws RedisConnectionException, RedisIOException, RedisTimeoutException {
+		try {
+			for (int i = 0; ; i++) {
+				List<String> reply = redis.execute(Protocol.Command.CONFIG, ReplyDecoders.LIST, "GET", "notify-keyspace-events");
+				String flags = reply.size() > 1 && reply.get(1) != null ? reply.get(1) : "";
+				if (covers(flags)) return true;
+				if (i > 0) break;	// set, not taken
+				StringBuilder needed = new StringBuilder(flags);
+				if (needed.indexOf("E") < 0) needed.append('E');
+				if (needed.indexOf("A") < 0) needed.append('A');
+				redis.execute(Protocol.Command.CONFIG, ReplyDecoders.OK, "SET", "notify-keyspace-events", needed.toString());
+			}
+			LOGGER.error("[Redis][KeyFilter][notify-keyspace-events not set, filter not built]");
+		} catch (RedisException e) {
+			LOGGER.error("[Redis][KeyFilter][notify-keyspace-events not confirmed:" + e.getMessage() + ", filter not built]");
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the flags have key events of every class of writes
+	 */
+	private static boolean covers(String flags) {
+		if (flags.indexOf('E') < 0) return false;
+		if (flags.indexOf('A') >= 0) return true;
+		for (int i = 0; i < CLASSES.length(); i++) {
+			if (flags.indexOf(CLASSES.charAt(i)) < 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Mark the key present, before a write of it is sent.
+	 */
+	void mark(String key) {
+		synchronized (lock) {	// never between a build published and the filter it replaces
+			BloomFilter target = building != null ? building : filter;
+			if (target != null) target.put(key);
+		}
+	}
+
+	/**
+	 * Mark the keys a command may create.
+	 */
+	void mark(CommandType command, Object... args) {
+		if (READS.contains(command) || args.length == 0) return;
+		if (command == Protocol.Command.MSET || command == Protocol.Command.MSETNX) {
+			for (int i = 0; i < args.length; i += 2) {
+				mark(key(args[i]));
+			}
+		} else {
+			mark(key(args[0]));
+		}
+	}
+
+	private String key(Object arg) {
+		return arg instanceof byte[] ? StringUtils.toString((byte[]) arg, redis.getCharset()) : String.valueOf(arg);
+	}
+
+	/**
+	 * @param key
+	 * @return true if the key surely does not exist, false if it may or the filter is not ready
+	 */
+	boolean absent(String key) {
+		BloomFilter filter = this.filter;
+		if (filter == null || !current()) return false;
+		lookups.incrementAndGet();
+		if (filter.mightContain(key)) return false;
+		skipped.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * A key the filter let through did not exist.
+	 */
+	void missed() {
+		if (filter != null) falsePositives.incrementAndGet();
+	}
+
+	/**
+	 * @return true if built and receiving events: absent keys are answered locally
+	 */
+	public boolean isReady() {
+		return filter != null && current();
+	}
+
+	/**
+	 * @return true if the filter was built on the connection of the subscriber still open, for the database selected:
+	 * after a reconnect it stops answering at once, not only once the subscription is confirmed again
+	 */
+	private boolean current() {
+		return subscriber.isConnected() && builtFor == subscriber.getConnects() && redis.getDb() == db;
+	}
+
+	/**
+	 * @return reads checked against the filter since created
+	 */
+	public long getLookups() {
+		return lookups.get();
+	}
+
+	/**
+	 * @return reads answered locally, the keys surely absent
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return reads let through of keys that did not exist
+	 */
+	public long getFalsePositives() {
+		return falsePositives.get();
+	}
+
+	/**
+	 * @return share of reads answered locally
+	 */
+	public double getSkipRate() {
+		long lookups = this.lookups.get();
+		return lookups == 0 ? 0 : (double) skipped.get() / lookups;
+	}
+
+	/**
+	 * @return share of reads of absent keys sent to redis anyway, measured
+	 */
+	public double getFalsePositiveRate() {
+		long falsePositives = this.falsePositives.get();
+		long negatives = falsePositives + skipped.get();
+		return negatives == 0 ? 0 : (double) falsePositives / negatives;
+	}
+
+	/**
+	 * @return false positive rate expected from the keys in the filter, 1 if not built
+	 */
+	public double getExpectedFpp() {
+		BloomFilter filter = this.filter;
+		return filter == null ? 1 : filter.getExpectedFpp();
+	}
+
+	/**
+	 * @return keys in the filter, approximately, deleted ones included
+	 */
+	public long getCount() {
+		BloomFilter filter = this.filter;
+		return filter == null ? 0 : filter.getCount();
+	}
+
+	/**
+	 * @return times built from SCAN since created
+	 */
+	public long getBuilds() {
+		return builds.get();
+	}
+
+	/**
+	 * Stop filtering: reads go to redis, the subscriber is closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		active = false;
+		builder.shutdown();
+		redis.setKeyFilter(null);
+		synchronized (lock) {
+			filter = null;
+			building = null;
+		}
+		subscriber.close();
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+
+/**
+ * <p>
+ * Keys of a multi-key command (MGET/MSET/DEL/EXISTS) going to one node as one sub-command.
+ * </p>
+ * <pre>
+ * Keys are split by slot or shard, sub-commands of a node are pipelined in one write,
+ * all nodes at once; replies are put back at the positions of the keys in the caller's list.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+class KeyGroup {
+
+	/** max keys of one sub-command, bigger groups are split and pipelined */
+	static final int MAX_KEYS = 512;
+
+	final Redis node;
+	final int slot;	// cluster slot, -1 if sharded
+	final List<String> keys = new ArrayList<String>();
+	final List<Integer> positions = new ArrayList<Integer>();
+	byte[] request;
+	RedisFuture future;
+
+	KeyGroup(Redis node, int slot) {
+		this.node = node;
+		this.slot = slot;
+	}
+
+	/**
+	 * Build the sub-command of the group.
+	 * @param values values by key for MSET, null otherwise
+	 */
+	byte[] build(Protocol.Command command, Map<String, String> values, String charset) {
+		Object[] args = new Object[1 + keys.size() * (values == null ? 1 : 2)];
+		int i = 0;
+		args[i++] = command;
+		for (String key : keys) {
+			args[i++] = key;
+			if (values != null) args[i++] = values.get(key);
+		}
+		request = new ProtoBuilder().setCharset(charset).array(args).build();
+		return request;
+	}
+
+	/**
+	 * Split groups bigger than {@link #MAX_KEYS}.
+	 */
+	static List<KeyGroup> chunk(Collection<KeyGroup> groups) {
+		List<KeyGroup> result = new ArrayList<KeyGroup>(groups.size());
+		for (KeyGroup group : groups) {
+			if (group.keys.size() <= MAX_KEYS) {
+				result.add(group);
+				continue;
+			}
+			for (int from = 0; from < group.keys.size(); from += MAX_KEYS) {
+				KeyGroup chunk = new KeyGroup(group.node, group.slot);
+				int to = Math.min(from + MAX_KEYS, group.keys.size());
+				chunk.keys.addAll(group.keys.subList(from, to));
+				chunk.positions.addAll(group.positions.subList(from, to));
+				result.add(chunk);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Build and send all groups, one pipelined write per node.
+	 * Keys written (MSET, DEL) are invalidated on their node before the write is sent, see {@link Redis#invalidate(String)}.
+	 * @param values values by key for MSET, null otherwise
+	 */
+	static void send(List<KeyGroup> groups, Protocol.Command command, Map<String, String> values, String charset) {
+		boolean write = command == Protocol.Command.MSET || command == Protocol.Command.DEL;
+		Map<Redis, List<KeyGroup>> byNode = new LinkedHashMap<Redis, List<KeyGroup>>();
+		for (KeyGroup group : groups) {
+			List<KeyGroup> list = byNode.get(group.node);
+			if (list == null) {
+				list = new ArrayList<KeyGroup>();
+				byNode.put(group.node, list);
+			}
+			list.add(group);
+		}
+		for (Map.Entry<Redis, List<KeyGroup>> entry : byNode.entrySet()) {
+			List<byte[]> requests = new ArrayList<byte[]>(entry.getValue().size());
+			for (KeyGroup group : entry.getValue()) {
+				requests.add(group.build(command, values, charset));
+				if (write) {
+					for (String key : group.keys) {
+						entry.getKey().invalidate(key);
+					}
+				}
+			}
+			RedisFuture[] futures = entry.getKey().pipeline(requests);
+			for (int i = 0; i < futures.length; i++) {
+				entry.getValue().get(i).future = futures[i];
+			}
+		}
+	}
+
+	/**
+	 * Time left of a batch.
+	 * @return milliseconds, at least 1; 0 (wait forever) if timeout is 0
+	 */
+	static long remain(long deadline, long timeout) {
+		if (timeout == 0) return 0;
+		return Math.max(1, deadline - System.currentTimeMillis());
+	}
+
+	/**
+	 * Put the MGET reply of the group to the positions of its keys.
+	 */
+	void fill(Object[] result, Object reply) {
+		Object[] values = (Object[]) reply;
+		for (int i = 0; i < positions.size(); i++) {
+			result[positions.get(i)] = values[i];
+		}
+	}
+
+}
@@ -0,0 +1,26 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.util.Set;
+
+/**
+ * <p>
+ * Listener of keys changed in redis, by {@link KeyspaceNotifications}, called on the event loop thread:
+ * keep it short, never block.
+ * </p>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface KeyspaceListener {
+
+	/**
+	 * Keys changed by any client: written, deleted, expired or evicted.
+	 * @param keys distinct keys of the events received in one read, in order of first event
+	 */
+	public void onInvalidate(Set<String> keys);
+
+	/**
+	 * Events may have been lost, the subscriber reconnected: whatever is cached may be stale.
+	 */
+	public void onInvalidateAll();
+
+}
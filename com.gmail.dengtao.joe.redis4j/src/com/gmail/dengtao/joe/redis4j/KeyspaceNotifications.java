@@ -0,0 +1,319 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gmail.dengtao.joe.redis4j.cache.NearCache;
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoopGroup;
+
+/**
+ * <p>
+ * Keyspace notifications of a database, turned into invalidations of local caches: keys changed by any client
+ * are dropped from the {@link NearCache}s registered and passed to {@link KeyspaceListener}s.
+ * </p>
+ * <pre>
+ * KeyspaceNotifications notifications = new KeyspaceNotifications(redis);
+ * notifications.enable();	// CONFIG SET notify-keyspace-events, if not done on the server
+ * notifications.register(redis.getNearCache());
+ * notifications.addListener(listener);
+ * </pre>
+ * <b>Modes</b>
+ * <pre>
+ * {@link Mode#KEYEVENT}	PSUBSCRIBE __keyevent@&lt;db&gt;__:*, the key is the message, one pattern for all keys
+ * {@link Mode#KEYSPACE}	PSUBSCRIBE __keyspace@&lt;db&gt;__:&lt;pattern&gt;, the key in the channel: the server
+ * 			sends events of keys of the pattern only, eg "user:*"
+ * </pre>
+ * <b>Fast path</b>
+ * <pre>
+ * The key and event are found at the known prefix length of the channel, no split:
+ * of KEYEVENT the event is compared in place, the key is the message as received;
+ * of KEYSPACE the key is one substring, the event the message.
+ * Events of {@link #setIgnored(String...)} (default expire and new, a TTL set or a key created before its write event)
+ * are dropped there.
+ * </pre>
+ * <b>Batches</b>
+ * <pre>
+ * Keys of the events of one read are gathered, distinct, and dispatched once the read is done,
+ * on the event loop of the subscriber: a burst of events costs one call per cache and listener.
+ * On every (re)subscribe the caches are dropped whole and listeners told {@link KeyspaceListener#onInvalidateAll()}:
+ * events sent while disconnected are lost.
+ * </pre>
+ * <b>Covering</b>
+ * <pre>
+ * Changes are seen from the subscribe confirmed on the current connection of the subscriber, while the client is on
+ * the database of the notifications, see {@link #isCovering()}. The near cache of the client registered here is
+ * bypassed by {@link Redis#get(String)} otherwise: reads go to redis while events may be lost.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class KeyspaceNotifications implements Closeable {
+
+	/**
+	 * Channels subscribed.
+	 */
+	public enum Mode {
+		KEYEVENT, KEYSPACE
+	}
+
+	private final Redis redis;
+	private final int db;
+	private final Mode mode;
+	private final String prefix;	// of the channels, up to the event or key
+	private final RedisSubscriber subscriber;
+	private final List<NearCache<String, ?>> caches = new CopyOnWriteArrayList<NearCache<String, ?>>();
+	private final List<KeyspaceListener> listeners = new CopyOnWriteArrayList<KeyspaceListener>();
+	private volatile String[] ignored = { "expire", "new" };
+	private Set<String> pending = new LinkedHashSet<String>();	// on the loop of the subscriber
+	/** metrics */
+	private final AtomicLong events = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong invalidated = new AtomicLong();
+	private final AtomicLong resyncs = new AtomicLong();
+	private volatile long coveredFor = -1;	// connection of the subscriber resynced on
+	private volatile boolean active = true;
+
+	/**
+	 * Key events of database 0, I/O of the subscriber done by {@link EventLoopGroup#getDefault()}.
+	 * @param redis client the notifications are of, tcp only
+	 */
+	public KeyspaceNotifications(Redis redis) {
+		this(redis, 0, Mode.KEYEVENT, null, EventLoopGroup.getDefault());
+	}
+
+	/**
+	 * @param redis client the notifications are of, tcp only
+	 * @param db database
+	 * @param mode channels subscribed
+	 * @param pattern key pattern of {@link Mode#KEYSPACE}, null for all keys
+	 * @param group event loop group of the subscriber
+	 */
+	public KeyspaceNotifications(Redis redis, int db, Mode mode, String pattern, EventLoopGroup group) {
+		if (redis == null || db < 0 || mode == null || group == null) throw new IllegalArgumentException();
+		if (redis.getHost() == null) throw new IllegalArgumentException("tcp connection required");
+		if (pattern != null && mode != Mode.KEYSPACE) throw new IllegalArgumentException("pattern of KEYSPACE only");
+		this.redis = redis;
+		this.db = db;
+		this.mode = mode;
+		this.prefix = (mode == Mode.KEYEVENT ? "__keyevent@" : "__keyspace@") + db + "__:";
+		this.subscriber = new RedisSubscriber(redis.getHost(), redis.getPort(), redis.getPassword(), new RedisMessageListener() {
+			@Override
+			public void onMessage(String channel, Object message) {
+				event(channel, message);
+			}
+
+			@Override
+			public void onSubscribe(String channel) {
+				resync();
+			}
+		}, group);
+		this.subscriber.setCharset(redis.getCharset());
+		this.subscriber.psubscribe(prefix + (pattern == null ? "*" : pattern));
+	}
+
+	/**
+	 * Decode one notification, on the loop of the subscriber.
+	 */
+	private void event(String channel, Object message) {
+		if (!(message instanceof String) || !channel.startsWith(prefix)) return;
+		events.incrementAndGet();
+		String key;
+		if (mode == Mode.KEYEVENT) {
+			if (ignored(channel, prefix.length())) return;
+			key = (String) message;
+		} else {
+			String event = (String) message;
+			if (ignored(event, 0)) return;
+			key = channel.substring(prefix.length());
+		}
+		if (pending.isEmpty()) {
+			subscriber.getEventLoop().execute(new Runnable() {
+				@Override
+				public void run() {
+					dispatch();
+				}
+			});
+		}
+		pending.add(key);
+	}
+
+	/**
+	 * @return true if the text from the offset to its end is an ignored event
+	 */
+	private boolean ignored(String text, int offset) {
+		int length = text.length() - offset;
+		for (String event : ignored) {
+			if (event.length() == length && text.regionMatches(offset, event, 0, length)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Keys of the events of the last read to the caches and listeners.
+	 */
+	private void dispatch() {
+		Set<String> keys = pending;
+		if (keys.isEmpty()) return;	// resynced meanwhile
+		pending = new LinkedHashSet<String>();
+		batches.incrementAndGet();
+		invalidated.addAndGet(keys.size());
+		for (NearCache<String, ?> cache : caches) {
+			for (String key : keys) {
+				cache.invalidate(key);
+			}
+		}
+		Set<String> unmodifiable = Collections.unmodifiableSet(keys);
+		for (KeyspaceListener listener : listeners) {
+			listener.onInvalidate(unmodifiable);
+		}
+	}
+
+	private void resync() {
+		pending.clear();
+		resyncs.incrementAndGet();
+		for (NearCache<String, ?> cache : caches) {
+			cache.invalidateAll();
+		}
+		for (KeyspaceListener listener : listeners) {
+			listener.onInvalidateAll();
+		}
+		coveredFor = subscriber.getConnects();	// after the drop: entries cached from now on are kept by events
+	}
+
+	/**
+	 * Have the server send the events subscribed: adds K or E and A to its notify-keyspace-events,
+	 * keeping what is set. The setting is of the whole server, for every client.
+	 * @return true on success
+	 * @throws RedisException if CONFIG is denied, eg renamed by the server
+	 */
+	public boolean enable() throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		List<String> reply = redis.execute(Protocol.Command.CONFIG, ReplyDecoders.LIST, "GET", "notify-keyspace-events");
+		StringBuilder flags = new StringBuilder(reply.size() > 1 && reply.get(1) != null ? reply.get(1) : "");
+		String needed = mode == Mode.KEYEVENT ? "E" : "K";
+		if (flags.indexOf(needed) < 0) flags.append(needed);
+		if (flags.indexOf("A") < 0) flags.append('A');
+		return redis.execute(Protocol.Command.CONFIG, ReplyDecoders.OK, "SET", "notify-keyspace-events", flags.toString());
+	}
+
+	/**
+	 * Drop keys changed from the cache, the whole cache on a resubscribe.
+	 * The near cache of the client is bypassed while not {@link #isCovering()}.
+	 * @param cache eg {@link Redis#getNearCache()}
+	 */
+	public void register(NearCache<String, ?> cache) {
+		if (cache == null) throw new IllegalArgumentException();
+		caches.add(cache);
+		if (cache == redis.getNearCache()) redis.setNotifications(this);
+	}
+
+	/**
+	 * @param cache
+	 * @return true if it was registered
+	 */
+	public boolean unregister(NearCache<String, ?> cache) {
+		boolean removed = caches.remove(cache);
+		if (cache == redis.getNearCache()) unlink();
+		return removed;
+	}
+
+	private void unlink() {
+		if (redis.getNotifications() == this) redis.setNotifications(null);
+	}
+
+	/**
+	 * @param listener told keys changed, in batches
+	 */
+	public void addListener(KeyspaceListener listener) {
+		if (listener == null) throw new IllegalArgumentException();
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 * @return true if it was added
+	 */
+	public boolean removeListener(KeyspaceListener listener) {
+		return listeners.remove(listener);
+	}
+
+	/**
+	 * Set the events not invalidating, eg of a change of TTL only.
+	 * @param events event names as sent by redis, none to invalidate on every event; default expire, new
+	 */
+	public void setIgnored(String... events) {
+		this.ignored = events.clone();
+	}
+
+	/**
+	 * @return channels subscribed
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return true if the subscriber is connected: changes are seen
+	 */
+	public boolean isConnected() {
+		return subscriber.isConnected();
+	}
+
+	/**
+	 * @return true if changes are seen: subscribed on the current connection, the client on the database
+	 */
+	public boolean isCovering() {
+		return active && subscriber.isConnected() && coveredFor == subscriber.getConnects() && redis.getDb() == db;
+	}
+
+	/**
+	 * @return notifications received since created, ignored ones included
+	 */
+	public long getEvents() {
+		return events.get();
+	}
+
+	/**
+	 * @return batches dispatched since created
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * @return keys dispatched since created, distinct per batch
+	 */
+	public long getInvalidated() {
+		return invalidated.get();
+	}
+
+	/**
+	 * @return (re)subscribes since created, each dropping the caches whole
+	 */
+	public long getResyncs() {
+		return resyncs.get();
+	}
+
+	/**
+	 * Stop receiving notifications, the subscriber is closed. Caches registered are kept as they are,
+	 * the near cache of the client is no longer bypassed.
+	 */
+	@Override
+	public void close() throws IOException {
+		active = false;
+		unlink();
+		subscriber.close();
+	}
+
+}
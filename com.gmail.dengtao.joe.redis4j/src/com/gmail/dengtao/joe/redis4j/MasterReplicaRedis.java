@@ -0,0 +1,240 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * <p>
+ * Master/replica client of standalone redis: writes go to the master,
+ * reads where the {@link ReadPreference} says.
+ * </p>
+ * <pre>
+ * MasterReplicaRedis redis = new MasterReplicaRedis(new Redis("10.0.0.1", 6379, "pwd"),
+ *         Arrays.asList(new Redis("10.0.0.2", 6379, "pwd"), new Redis("10.0.0.3", 6379, "pwd")));
+ * redis.setReadPreference(ReadPreference.REPLICA);
+ * redis.set("key", "value");	// master
+ * redis.get("key");			// fastest replica of two random ones, may be stale
+ * redis.setHedgePolicy(new HedgePolicy());	// a read slower than p95 goes to a second replica too
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class MasterReplicaRedis implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MasterReplicaRedis.class);
+
+	private final Redis master;
+	private final List<Redis> replicas;
+	private volatile ReadPreference readPreference = ReadPreference.MASTER;
+	private volatile HedgePolicy hedgePolicy;	// null for no hedging
+
+	/**
+	 * instance a master/replica client.
+	 * @param master master client
+	 * @param replicas replica clients
+	 */
+	public MasterReplicaRedis(Redis master, List<Redis> replicas) {
+		if (master == null || replicas == null) throw new IllegalArgumentException();
+		this.master = master;
+		this.replicas = new CopyOnWriteArrayList<Redis>(replicas);
+	}
+
+	/**
+	 * @return client the next read goes to
+	 */
+	public Redis getReadNode() {
+		return readPreference.select(master, replicas);
+	}
+
+	/**
+	 * @see Redis#set(String, String)
+	 */
+	public boolean set(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return master.set(key, val);
+	}
+
+	/**
+	 * @see Redis#set(String, String, long)
+	 */
+	public boolean set(String key, String val, long expire) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return master.set(key, val, expire);
+	}
+
+	/**
+	 * @see Redis#append(String, String)
+	 */
+	public boolean append(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return master.append(key, val);
+	}
+
+	/**
+	 * @see Redis#del(String)
+	 */
+	public boolean del(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return master.del(key);
+	}
+
+	/**
+	 * Read from the node picked by the read preference.
+	 * @see Redis#get(String)
+	 */
+	public Object get(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		return read(Protocol.Command.GET, key);
+	}
+
+	/**
+	 * Read from the node picked by the read preference.
+	 * @see Redis#exists(String)
+	 */
+	public boolean exists(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		return "1".equals(String.valueOf(read(Protocol.Command.EXISTS, key)));
+	}
+
+	/**
+	 * Get values of the keys by one MGET, from the node picked by the read preference.
+	 * @param keys
+	 * @return values in order of the keys, null if not exists
+	 */
+	public List<Object> mget(List<String> keys) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (keys.isEmpty()) return Collections.emptyList();
+		Object[] args = new Object[keys.size() + 1];
+		args[0] = Protocol.Command.MGET;
+		for (int i = 0; i < keys.size(); i++) {
+			if (StringUtils.isBlank(keys.get(i))) throw new IllegalArgumentException();
+			args[i + 1] = keys.get(i);
+		}
+		return Arrays.asList((Object[]) read(args));
+	}
+
+	/**
+	 * Send a read to the node picked by the read preference, hedged by the hedge policy.
+	 * @param args command and arguments
+	 * @return reply
+	 */
+	private Object read(Object... args) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		ReadPreference preference = readPreference;
+		Redis node = preference.select(master, replicas);
+		byte[] request = new ProtoBuilder().setCharset(node.getCharset()).array(args).build();
+		long timeout = node.getTimeout();
+		RedisFuture first = node.submit(request);
+		HedgePolicy hedge = hedgePolicy;
+		if (hedge == null) return first.result(timeout);
+		long start = System.currentTimeMillis();
+		long delay = hedge.begin(node.getStats());
+		if (delay < 0 || first.await(delay, TimeUnit.NANOSECONDS)) return first.result(timeout);
+		Redis other = preference.alternate(master, replicas, node);
+		if (other == null || !hedge.acquire()) return first.result(timeout);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("[Redis][MasterReplica][hedge " + args[0] + " to " + other.getHost() + ":" + other.getPort() + " after " + delay / 1000 + "us]");
+		}
+		RedisFuture second = other.submit(request);
+		long remain = Math.max(1, timeout - (System.currentTimeMillis() - start));
+		RedisFuture winner = RedisFuture.first(timeout > 0 ? remain : 0, first, second);
+		if (winner == null) throw new RedisTimeoutException();
+		if (winner == second) hedge.won();
+		return winner.result(timeout);
+	}
+
+	/**
+	 * @return master client
+	 */
+	public Redis getMaster() {
+		return master;
+	}
+
+	/**
+	 * @return replica clients
+	 */
+	public List<Redis> getReplicas() {
+		return Collections.unmodifiableList(replicas);
+	}
+
+	/**
+	 * Add a replica, reads may go to it at once.
+	 * @param replica replica client
+	 */
+	public void addReplica(Redis replica) {
+		if (replica == null) throw new IllegalArgumentException();
+		replicas.add(replica);
+	}
+
+	/**
+	 * Remove a replica, not closed.
+	 * @param replica replica client
+	 * @return true if removed
+	 */
+	public boolean removeReplica(Redis replica) {
+		return replicas.remove(replica);
+	}
+
+	/**
+	 * @return where reads go
+	 */
+	public ReadPreference getReadPreference() {
+		return readPreference;
+	}
+
+	/**
+	 * Set where reads go, default {@link ReadPreference#MASTER}.
+	 * @param readPreference
+	 */
+	public void setReadPreference(ReadPreference readPreference) {
+		if (readPreference == null) throw new IllegalArgumentException();
+		this.readPreference = readPreference;
+	}
+
+	/**
+	 * @return hedge policy of reads, null if not hedged
+	 */
+	public HedgePolicy getHedgePolicy() {
+		return hedgePolicy;
+	}
+
+	/**
+	 * Hedge reads: if the node has not replied within its reply time percentile,
+	 * send the read to a second node as well and take the first reply.
+	 * Only with a replica read preference, there is no second node otherwise.
+	 * @param hedgePolicy null for no hedging (default)
+	 */
+	public void setHedgePolicy(HedgePolicy hedgePolicy) {
+		this.hedgePolicy = hedgePolicy;
+	}
+
+	/**
+	 * Close master and replica clients.
+	 */
+	@Override
+	public void close() throws IOException {
+		List<Redis> all = new ArrayList<Redis>(replicas);
+		all.add(0, master);
+		for (Redis redis : all) {
+			try {
+				redis.close();
+			} catch (IOException e) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("[Redis][MasterReplica][close failed with:" + e.getMessage() + "]", e);
+				}
+			}
+		}
+	}
+
+}
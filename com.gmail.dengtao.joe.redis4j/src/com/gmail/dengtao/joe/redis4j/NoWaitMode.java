@@ -0,0 +1,28 @@
+package com.gmail.dengtao.joe.redis4j;
+
+/**
+ * <p>
+ * How {@link Redis} sends fire-and-forget writes, eg {@link Redis#setNoWait(String, String)}.
+ * </p>
+ * <pre>
+ * Both modes pipeline: the caller never waits a round trip, write throughput is bound by bandwidth.
+ * CLIENT REPLY OFF is never used, the connection is shared with waiting requests which need their replies.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public enum NoWaitMode {
+
+	/**
+	 * The server replies as usual, replies are dropped when they arrive 
+	 * and error replies reported to the {@link RedisErrorListener}.
+	 */
+	ACKED,
+	
+	/**
+	 * Each write is prefixed with CLIENT REPLY SKIP (redis 3.2+), the server sends no reply at all.
+	 * Saves reply bandwidth and server work, only send failures and lost connections are reported.
+	 */
+	SKIP
+	;
+}
@@ -0,0 +1,104 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Load and latency of one connection, for picking the best node to read from.
+ * </p>
+ * <pre>
+ * latency: exponentially weighted moving average of reply times, alpha {@link #ALPHA}.
+ * in-flight: requests sent and not yet replied.
+ * percentiles: over the last {@link #SAMPLES} reply times.
+ * Lost requests (I/O, connection, timeout) count at least twice the current average,
+ * so a failing node loses traffic; error replies of the server count as usual.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class NodeStats {
+
+	/** weight of the newest sample */
+	public static final double ALPHA = 0.2;
+	/** reply times kept for percentiles */
+	public static final int SAMPLES = 128;
+	/** reply times needed before a percentile is known */
+	public static final int MIN_SAMPLES = 16;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile double latency = 0;	// nanoseconds
+	private final long[] samples = new long[SAMPLES];	// ring of recent reply times, nanoseconds
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * A request is sent.
+	 * @return start time to pass to {@link #end(long, boolean)}
+	 */
+	long begin() {
+		inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * A request is done.
+	 * @param start from {@link #begin()}
+	 * @param lost true if no reply came (I/O, connection error or timeout)
+	 */
+	void end(long start, boolean lost) {
+		inFlight.decrementAndGet();
+		long elapsed = System.nanoTime() - start;
+		long index = count.getAndIncrement();
+		samples[(int) (index % SAMPLES)] = elapsed;
+		double sample = elapsed;
+		double current = latency;
+		if (lost) sample = Math.max(sample, current * 2);
+		// racy read-modify-write, a lost sample now and then does not matter
+		latency = current == 0 ? sample : current + ALPHA * (sample - current);
+	}
+
+	/**
+	 * @return average reply time in nanoseconds, 0 before the first reply
+	 */
+	public double getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Reply time percentile over recent requests, lost ones included.
+	 * @param percentile in (0, 100], e.g. 95
+	 * @return nanoseconds, -1 before {@link #MIN_SAMPLES} replies
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if (total < MIN_SAMPLES) return -1;
+		int size = (int) Math.min(total, SAMPLES);
+		long[] sorted = new long[size];
+		System.arraycopy(samples, 0, sorted, 0, size);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100 * size) - 1;
+		return sorted[Math.max(0, Math.min(size - 1, index))];
+	}
+
+	/**
+	 * @return requests sent and not yet replied
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Expected wait of a new request, lower is better.
+	 * @return score
+	 */
+	public double getScore() {
+		return (latency + 1) * (inFlight.get() + 1);
+	}
+
+	@Override
+	public String toString() {
+		return "NodeStats [latency=" + (long) latency / 1000 + "us, inFlight=" + inFlight.get() + "]";
+	}
+
+}
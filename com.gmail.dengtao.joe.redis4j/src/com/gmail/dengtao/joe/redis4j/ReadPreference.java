@@ -0,0 +1,94 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>
+ * Where read-only commands go, see {@link MasterReplicaRedis} and {@link RedisCluster#setReadPreference(ReadPreference)}.
+ * </p>
+ * <pre>
+ * Replicas are picked by power of two choices: two connected candidates at random,
+ * the one with the lower {@link NodeStats#getScore()} (latency EWMA x in-flight) wins.
+ * Load spreads over all replicas while slow or busy ones are avoided.
+ * Replicas lag behind the master, reads from them may be stale.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public enum ReadPreference {
+
+	/**
+	 * Always the master.
+	 */
+	MASTER,
+
+	/**
+	 * A replica, the master only if no replica is connected.
+	 */
+	REPLICA,
+
+	/**
+	 * The master or a replica, whichever answers faster.
+	 */
+	NEAREST
+	;
+
+	private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	/**
+	 * Pick the node to read from.
+	 * @param master master connection
+	 * @param replicas replica connections, may be empty
+	 * @return node to read from, the master if nothing better is connected
+	 */
+	Redis select(Redis master, List<Redis> replicas) {
+		if (this == MASTER || replicas == null || replicas.isEmpty()) return master;
+		List<Redis> candidates = new ArrayList<Redis>(replicas.size() + 1);
+		if (this == NEAREST && master != null && master.isConnected()) candidates.add(master);
+		for (Redis replica : replicas) {
+			if (replica.isConnected()) candidates.add(replica);
+		}
+		Redis best = choose(candidates);
+		return best == null ? master : best;
+	}
+
+	/**
+	 * Pick a second node for a hedged read.
+	 * @param except node the read went to first
+	 * @return null if there is no other node to read from
+	 */
+	Redis alternate(Redis master, List<Redis> replicas, Redis except) {
+		if (this == MASTER || replicas == null) return null;
+		List<Redis> candidates = new ArrayList<Redis>(replicas.size() + 1);
+		if (this == NEAREST && master != null && master != except && master.isConnected()) candidates.add(master);
+		for (Redis replica : replicas) {
+			if (replica != except && replica.isConnected()) candidates.add(replica);
+		}
+		return choose(candidates);
+	}
+
+	/**
+	 * Power of two choices.
+	 * @return null if no candidate
+	 */
+	static Redis choose(List<Redis> candidates) {
+		int size = candidates.size();
+		if (size == 0) return null;
+		if (size == 1) return candidates.get(0);
+		Random random = RANDOM.get();
+		int i = random.nextInt(size);
+		int j = random.nextInt(size - 1);
+		if (j >= i) j++;
+		Redis a = candidates.get(i);
+		Redis b = candidates.get(j);
+		return a.getStats().getScore() <= b.getStats().getScore() ? a : b;
+	}
+
+}
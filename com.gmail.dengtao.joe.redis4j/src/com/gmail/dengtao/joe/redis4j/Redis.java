@@ -1,817 +1,1655 @@
-package com.gmail.dengtao.joe.redis4j;
-
-import java.io.Closeable;
-import java.io.IOException;
-import java.net.ConnectException;
-import java.nio.charset.Charset;
-import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
-import com.gmail.dengtao.joe.redis4j.exception.RedisException;
-import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
-import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
-import com.gmail.dengtao.joe.redis4j.filter.ProtoFilter;
-import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
-import com.gmail.dengtao.joe.redis4j.proto.Protocol;
-import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
-import com.gmail.dengtao.joe.transport.SocketConnector;
-import com.gmail.dengtao.joe.transport.handler.HandlerAdapter;
-import com.gmail.dengtao.joe.transport.session.IdleStatus;
-import com.gmail.dengtao.joe.transport.session.Session;
-
-/**
- * <p>
- * Minimalist redis client implementation.
- * </p>
- * <b> Core Methods</b>
- * <pre>
- * {@link #select(int)} to select redis database.
- * {@link #set(String, String)} set key to hold the string value. 
- * {@link #set(String, String, long)} set key to hold the string value and specified expire time. 
- * {@link #append(String, String)} appends the value at the end of the string.
- * {@link #get(String)} get the value of key.
- * {@link #del(String)} to delete a key.
- * {@link #exists(String)} to check key exists.
- * {@link #ping()} to test if a connection is still alive, or to measure latency.
- * {@link #close()} to close redis connection.
- * </pre>
- * <b>To custom deep socket</b>
- * <pre>
- * All in {@link #getConnector()}.
- * </pre>
- * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
- * @version 1.0
- */
-public class Redis implements Closeable {
-
-	private static final Logger LOGGER = LoggerFactory.getLogger(Redis.class);
-	/** Connection information */
-	private final String host;
-	private final int port;
-	private final String password;
-	private String charset = Protocol.DEFAULT_CHARSET;
-	/** connection reconnect timeout */
-	private long reconnect = 5000;
-	/** connection idle timeout */
-	private long idleTime = 720000;
-	/** redis query timeout */
-	private long timeout = 30000;
-	
-	/** Redis connection */
-	private volatile boolean active = true;
-	private volatile Session connection = null;
-	private final Object lock = this;
-	
-	/** Socket Connect.... */
-	private final SocketConnector connector = new SocketConnector();
-	private final MessageHandler handler = new MessageHandler();
-	
-	/**
-	 * instance a redis client.
-	 * @param host	redis host
-	 * @param port  redis port
-	 * @param password redis password
-	 */
-	public Redis(String host, int port, String password) {
-		if (host == null || password == null || port < 1 || port > 65535) throw new IllegalArgumentException();
-		this.host = host; this.port = port; this.password = password;
-		this.connect(this.host, this.port, this.password);
-	}
-	
-	/**
-	 * do redis connect...
-	 * @param host
-	 * @param port
-	 * @param password
-	 */
-    private void connect(String host, int port, String password) {
-    	// Close current
-    	if (connection != null) {
-			try { this.close(); } catch (Exception cause) { /* nothing */ }
-    	}
-    	synchronized (lock) {
-    		active = true;
-    		new RedisConnectionThread(host, port, lock).start();
-    		// waite channel open
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Connect][waite connection open...]");
-			}
-			try { lock.wait(); } catch (Exception cause) { /* nothing */ }
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Connect][connection opened]");
-			}
-			// waite session open and auth
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Connect][waite session open...]");
-			}
-			try { lock.wait(); } catch (Exception cause) { /* nothing */ }
-			if (LOGGER.isDebugEnabled()) {
-				if (connection == null) {	// session open failed
-					LOGGER.error("[Redis][Connect][session open failed...]");
-				} else {
-					LOGGER.debug("[Redis][Connect][session opened]");
-				}
-			}
-		}
-    }
-    
-    /**
-     * Select the DB with having the specified zero-based numeric index. 
-     * New connections always use DB 0.
-     * @param index
-     * @return
-     * @throws RedisConnectionException 
-     * @throws RedisIOException 
-     * @throws RedisTimeoutException 
-     */
-    public boolean select(int index) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
-    	if (index < 0) throw new IllegalArgumentException();
-    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
-    	try {
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Select][try to select db:" + index + "]");
-			}
-    		RedisResult result = handler.request(new ProtoBuilder().array(Protocol.Command.SELECT, String.valueOf(index)).build(), timeout);
-    		if (result == null) {
-    			throw new RedisTimeoutException();
-    		}
-    		if (result.getException() != null) {
-				throw result.getException();
-			}
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Select][select db:" + (result.getResponse() == null ? "error" : result.getResponse()) + "]");
-			}
-    		return result.getResponse() == null ? false : true;
-    	} catch (RedisConnectionException e) {
-    		throw e;
-    	} catch (RedisTimeoutException e) {
-    		throw e;
-    	} catch (RedisIOException e) {
-    		throw e;
-    	} catch (RedisException e) {
-    		throw e;
-		} catch (Throwable e) {
-			throw new RedisException(e);
-		}
-    }
-
-	/**
-     * Set key to hold the string value. If key already holds a value, it is overwritten, regardless of its type.
-     * @param key
-     * @param val
-     * @return return true on success
-     * @throws RedisConnectionException 
-	 * @throws RedisTimeoutException 
-     */
-    public boolean set(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
-    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
-    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
-    	try {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Set][try to set [" + key + "=>" + val + "]]");
-			}
-			RedisResult result = handler.request(new ProtoBuilder().setCharset(charset).array(Protocol.Command.SET, key, val).build(), timeout);
-			if (result == null) {
-    			throw new RedisTimeoutException();
-    		}
-			if (result.getException() != null) {
-				throw result.getException();
-			}
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Set][set [" + key + "=>" + val + "] " + (result.getResponse() == null ? "error" : result.getResponse()) + "]");
-			}
-			return result.getResponse() == null ? false : true;
-    	} catch (RedisConnectionException e) {
-    		throw e;
-    	} catch (RedisTimeoutException e) {
-    		throw e;
-    	} catch (RedisIOException e) {
-    		throw e;
-    	} catch (RedisException e) {
-    		throw e;
-		} catch (Throwable e) {
-			throw new RedisException(e);
-		}
-	}
-    
-    /**
-     * Set key to hold the string value. If key already holds a value, it is overwritten, regardless of its type.
-     * @param key
-     * @param val
-     * @param expire Set the specified expire time, in milliseconds.
-     * @return return true on success
-     * @throws RedisTimeoutException 
-     */
-    public boolean set(String key, String val, long expire) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
-    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
-    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
-    	try {
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Set][try to set [" + key + "=>" + val + ", expire in " + expire + " ms]]");
-			}
-			RedisResult result = handler.request(new ProtoBuilder().setCharset(charset).array(Protocol.Command.SET, key, val, "PX", String.valueOf(expire)).build(), timeout);
-			if (result == null) {
-    			throw new RedisTimeoutException();
-    		}
-    		if (result.getException() != null) {
-				throw result.getException();
-			}
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Set][set [" + key + "=>" + val + ", expire in " + expire + " ms] " + (result.getResponse() == null ? "error" : result.getResponse()) + "]");
-			}
-    		return result.getResponse() == null ? false : true;
-    	} catch (RedisConnectionException e) {
-    		throw e;
-    	} catch (RedisTimeoutException e) {
-    		throw e;
-    	} catch (RedisIOException e) {
-    		throw e;
-    	} catch (RedisException e) {
-    		throw e;
-		} catch (Throwable e) {
-			throw new RedisException(e);
-		}
-    }
-    
-    /**
-	 * If key already exists and is a string,
-	 * this command appends the value at the end of the string. 
-	 * If key does not exist it is created and set as an empty string, 
-	 * so APPEND will be similar to SET in this special case.
-	 * @param key
-	 * @param val
-	 * @return
-	 * @throws RedisTimeoutException 
-	 */
-	public boolean append(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
-		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
-		if (connection == null) throw new RedisConnectionException("server not connect yet!");
-		try {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Append][try to append [" + key + "=>>" + val + "]]");
-			}
-			RedisResult result = handler.request(new ProtoBuilder().setCharset(charset).array(Protocol.Command.APPEND, key, val).build(), timeout);
-			if (result == null) {
-				throw new RedisTimeoutException();
-			}
-			if (result.getException() != null) {
-				throw result.getException();
-			}
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Append][append [" + key + "=>>" + val + "] " + (result.getResponse() == null ? "error" : result.getResponse()) + "]");
-			}
-			return result.getResponse() == null ? false : true;
-		} catch (RedisConnectionException e) {
-			throw e;
-		} catch (RedisTimeoutException e) {
-			throw e;
-		} catch (RedisIOException e) {
-			throw e;
-		} catch (RedisException e) {
-			throw e;
-		} catch (Throwable e) {
-			throw new RedisException(e);
-		}
-	}
-
-	/**
-     * Get the value of key. 
-     * If the key does not exist the special value nil is returned. 
-     * @param key
-     * @return
-     * @throws RedisConnectionException 
-     * @throws RedisIOException 
-     * @throws RedisException 
-     * @throws RedisTimeoutException 
-     */
-    public Object get(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
-    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
-    	try {
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Get][try to get [" + key + "]]");
-			}
-    		RedisResult result = handler.request(new ProtoBuilder().setCharset(charset).array(Protocol.Command.GET, key).build(), timeout);
-    		if (result == null) {
-    			throw new RedisTimeoutException();
-    		}
-    		if (result.getException() != null) {
-				throw result.getException();
-			}
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Get][get [" + key + "=>" + result.getResponse() + "]]");
-			}
-    		return result.getResponse();
-    	} catch (RedisConnectionException e) {
-    		throw e;
-    	} catch (RedisTimeoutException e) {
-    		throw e;
-    	} catch (RedisIOException e) {
-    		throw e;
-    	} catch (RedisException e) {
-    		throw e;
-		} catch (Throwable e) {
-			throw new RedisException(e);
-		}
-    }
-    
-    /**
-     * Removes the specified keys. 
-     * A key is ignored if it does not exist.
-     * @param key
-     * @return
-     * @throws RedisTimeoutException 
-     */
-    public boolean del(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
-    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
-    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
-    	try {
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Del][try to del [" + key + "]]");
-			}
-    		RedisResult result = handler.request(new ProtoBuilder().setCharset(charset).array(Protocol.Command.DEL, key).build(), timeout);
-    		if (result == null) {
-    			throw new RedisTimeoutException();
-    		}
-    		if (result.getException() != null) {
-				throw result.getException();
-			}
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Del][del [" + key + "] " + ("1".equals(String.valueOf(result.getResponse())) ? true : false) + "]");
-			}
-    		return "1".equals(String.valueOf(result.getResponse())) ? true : false;
-    	} catch (RedisConnectionException e) {
-    		throw e;
-    	} catch (RedisTimeoutException e) {
-    		throw e;
-    	} catch (RedisIOException e) {
-    		throw e;
-    	} catch (RedisException e) {
-    		throw e;
-		} catch (Throwable e) {
-			throw new RedisException(e);
-		}
-    }
-    
-    /**
-     * Returns if key exists.
-     * @param key
-     * @return
-     * @throws RedisTimeoutException 
-     */
-    public boolean exists(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
-    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
-    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
-    	try {
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Exists][try to check [" + key + "] exists]");
-			}
-    		RedisResult result = handler.request(new ProtoBuilder().setCharset(charset).array(Protocol.Command.EXISTS, key).build(), timeout);
-    		if (result == null) {
-    			throw new RedisTimeoutException();
-    		}
-    		if (result.getException() != null) {
-				throw result.getException();
-			}
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Exists][[" + key + "] " + ("1".equals(String.valueOf(result.getResponse())) ? "exists" : "not exists") + "]");
-			}
-    		return "1".equals(String.valueOf(result.getResponse())) ? true : false;
-    	} catch (RedisConnectionException e) {
-    		throw e;
-    	} catch (RedisTimeoutException e) {
-    		throw e;
-    	} catch (RedisIOException e) {
-    		throw e;
-    	} catch (RedisException e) {
-    		throw e;
-		} catch (Throwable e) {
-			throw new RedisException(e);
-		}
-    }
-    
-    /**
-     * Delete all the keys of the currently selected DB.
-     * @throws RedisConnectionException 
-     * @throws RedisTimeoutException 
-     * @throws RedisIOException 
-     * @throws RedisException 
-     * @return return true on success
-     */
-    public boolean flush() throws RedisConnectionException, RedisTimeoutException, RedisIOException, RedisException {
-    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
-    	try {
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Flush][try to delete current db's all keys]");
-			}
-    		RedisResult result = handler.request(new ProtoBuilder().setCharset(charset).array(Protocol.Command.FLUSHDB).build(), timeout);
-    		if (result == null) {
-    			throw new RedisTimeoutException();
-    		}
-    		if (result.getException() != null) {
-				throw result.getException();
-			}
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Flush][delete keys " + (result.getResponse() == null ? "failed" : "success") + "]");
-			}
-    		return result.getResponse() == null ? false : true;
-    	} catch (RedisConnectionException e) {
-    		throw e;
-    	} catch (RedisTimeoutException e) {
-    		throw e;
-    	} catch (RedisIOException e) {
-    		throw e;
-    	} catch (RedisException e) {
-    		throw e;
-		} catch (Throwable e) {
-			throw new RedisException(e);
-		}
-    }
-    
-    /**
-     * Test if a connection is still alive, or to measure latency.
-     * @return
-     */
-    public long ping() {
-    	if (connection == null) return -1;
-    	try {
-    		long start = System.currentTimeMillis();
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Ping][try to ping server:" + start + "]");
-			}
-    		RedisResult result = handler.request(new ProtoBuilder().array(Protocol.Command.PING).build(), timeout);
-    		if (result == null) {
-    			throw new RedisTimeoutException();
-    		}
-    		if (result.getException() != null) {
-				throw result.getException();
-			}
-    		if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Ping][ping finish in " + (System.currentTimeMillis() - start) + " ms]");
-			}
-    		return System.currentTimeMillis() - start;
-		} catch (Throwable e) {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Ping][ping failed with:" + e.getMessage() + "]", e);
-			}
-			return -1;
-		}
-    }
-    
-	@Override
-	public void close() throws IOException {
-		if (connection == null) return;
-		active = false;
-    	try {
-    		RedisResult result = handler.request(new ProtoBuilder().array(Protocol.Command.QUIT).build(), timeout);
-    		if (result == null) {
-    			throw new RedisTimeoutException();
-    		}
-    		if (result.getException() != null) {
-				throw result.getException();
-			}
-    		connector.close();
-		} catch (Throwable e) {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Ping][ping failed with:" + e.getMessage() + "]", e);
-			}
-			connector.close();
-		}
-	}
-
-	/**
-	 * Get current socket connector
-	 * @return SocketConnector
-	 */
-    public SocketConnector getConnector() {
-		return connector;
-	}
-
-	/**
-     * Set charset for current redis connection.
-     * @param charset charset name eg:UTF-8, ISO-8859-1
-     */
-    public void setCharset(String charset) {
-    	Charset.forName(charset);
-    	this.charset = charset;
-    }
-    
-    /**
-     * Get current redis connection charset;
-     * @return charset name
-     */
-    public String getCharset() {
-		return charset;
-	}
-
-    /**
-     * Get current redis connection reconnect sleep time.
-     * @return the length of time to reconnect sleep in milliseconds.
-     */
-	public long getReconnect() {
-		return reconnect;
-	}
-
-	/**
-	 * Set auto reconnect timeout.
-	 * @param reconnect reconnect sleep time in milliseconds.
-	 */
-	public void setReconnect(long reconnect) {
-		if (idleTime < 0) throw new IllegalArgumentException(">0 required!");
-		this.reconnect = reconnect;
-	}
-	
-	/**
-	 * Get redis connection idle time for write.
-	 * @return connection write idle time in milliseconds.
-	 */
-	public long getIdleTime() {
-		return (connection == null) ? idleTime : connection.getIdleTime(IdleStatus.WRITE_IDLE);
-	}
-
-	/**
-	 * Set redis connection write idle time.
-	 * @param idleTime idle in milliseconds.
-	 */
-	public void setIdleTime(long idleTime) {
-		if (idleTime < 0) throw new IllegalArgumentException(">=0 required!");
-		this.idleTime = idleTime;
-		if (connection != null) connection.setIdleTime(IdleStatus.WRITE_IDLE, this.idleTime);
-	}
-	
-	/**
-	 * Get redis connection query timeout.
-	 * @return quert timeout in milliseconds.
-	 */
-	public long getTimeout() {
-		return timeout;
-	}
-
-	/**
-	 * Set redis connection quert timeout 
-	 * @param timeout quert timeout in milliseconds.
-	 */
-	public void setTimeout(long timeout) {
-		if (timeout < 0) throw new IllegalArgumentException(">=0 required!");
-		this.timeout = timeout;
-	}
-	
-	/*
-	 * Redis connection thread, auto reconnect. 
-	 * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
-	 * @version 1.0
-	 */
-    class RedisConnectionThread extends Thread {
-
-    	private final String host;
-    	private final int port;
-    	private final Object lock;
-    	
-		public RedisConnectionThread(String host, int port, Object lock) {
-			super();
-			this.setName("RedisConnectionThread");
-			this.setDaemon(true);
-			this.host = host;
-			this.port = port;
-			this.lock = lock;
-			connector.getFilterChain().addLast("ProtoFilter", new ProtoFilter(connector));
-		}
-
-		@Override
-		public void run() {
-			while (active) {
-				try {
-					connector.init();
-					connector.setHandler(handler);
-					connector.open(host, port, lock);
-				} catch (Exception e) {
-					if (LOGGER.isDebugEnabled()) {
-						LOGGER.error("[Redis][Connect][connection error:" + e.getMessage() + "]", e);
-					}
-					try { connector.close(); } catch (Exception cause) { /* nothing */ }
-				}
-				if (active) {
-					if (LOGGER.isDebugEnabled()) {
-						LOGGER.debug("[Redis][Connect][server gone away! reconnect in " + reconnect + " ms]");
-					}
-					try { Thread.sleep(reconnect); } catch (Exception cause) { /* nothing */ }
-				}
-			}
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Connect][shutdown...]");
-			}
-		}
-    	
-    }
-    
-    /*
-     * RedisConnectionHandler 
-     * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
-     * @version 1.0
-     */
-    class MessageHandler extends HandlerAdapter {
-    	private Session session;
-    	private Map<Object, RedisResult> results = new ConcurrentHashMap<Object, Redis.RedisResult>();
-    	private Queue<Object> queue = new ConcurrentLinkedQueue<Object>();
-    	
-		@Override
-		public void sessionOpened(Session session) throws Exception {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Connect][connection established.]");
-			}
-			this.session = session;
-			if (password == null) {
-				synchronized (lock) {
-					connection = session;
-					lock.notifyAll();
-				}
-				session.setIdleTime(IdleStatus.WRITE_IDLE, idleTime);
-			} else {
-				new RedisAuthThread(password).start();
-			}
-		}
-
-		@Override
-		public void sessionIdle(Session session, IdleStatus status)
-				throws Exception {
-			// Connection Idle, Heart Beat!
-			session.send(new ProtoBuilder().setCharset(charset).array(Protocol.Command.ECHO, String.valueOf(System.currentTimeMillis())).build());
-		}
-
-		@Override
-		public void dataReceived(Session session, Object data) throws Exception {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Receive][" + data + "]");
-			}
-			Object request = queue.poll();
-			RedisResult result = null;
-			if (data instanceof Exception) {
-				result = new RedisResult((Throwable) data);
-			} else {
-				result = new RedisResult(session, data);
-			}
-			results.put(request, result);
-			synchronized (request) {
-				request.notifyAll();
-			}
-		}
-
-		@Override
-		public void dataSent(Session session, Object data) throws Exception {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Sent][" + new String((byte[]) data) + "]");
-			}
-			queue.offer(data);
-		}
-
-		@Override
-		public void dataNotSent(Session session, Object data) throws Exception {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.warn("[Redis][NotSent][" + new String((byte[]) data) + "]");
-			}
-			RedisResult result = new RedisResult(new RedisIOException("request not sent:" + data));
-			results.put(data, result);
-			synchronized (data) {
-				data.notifyAll();
-			}
-		}
-
-		@Override
-		public void exceptionCaught(Session session, Throwable cause) {
-			if (cause instanceof ConnectException) {
-				session.close();
-				if (LOGGER.isDebugEnabled()) {
-					LOGGER.error("[Redis][Error][connection error:" + cause.getMessage() + "]", cause);
-				}
-				synchronized (lock) {
-					connection = null;
-					lock.notifyAll();
-				}
-			} else {
-				LOGGER.error("[Redis][Error][" + cause.getMessage() + "][deep error?]", cause);
-			}
-		}
-
-		@Override
-		public void sessionClosed(Session session) throws Exception {
-			this.session = null;
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("[Redis][Connect][session closed...]");
-			}
-			// Notify All Exception
-			for (Object request : queue) {
-				RedisResult result = new RedisResult(new RedisConnectionException("connection closed!"));
-				results.put(request, result);
-				synchronized (request) {
-					request.notifyAll();
-				}
-			}
-			connection = null;
-			this.session = null;
-			this.queue.clear();
-			this.results.clear();
-		}
-		
-		private RedisResult request(byte[] request, long timeout) throws RedisConnectionException {
-			if (session == null) {
-				throw new RedisConnectionException("server not connect yet!");
-			}
-			synchronized (request) {
-				session.send(request);
-				try { request.wait(timeout); } catch (Exception cause) { /* nothing */ }
-				return results.remove(request);
-			}
-		}
-		
-		/*
-	     * Redis auth thread. Send auth command
-	     * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
-	     * @version 1.0
-	     */
-	    class RedisAuthThread extends Thread {
-
-	    	private String password;
-	    	
-	    	public RedisAuthThread(String password) {
-				super();
-				this.password = password;
-				this.setName("RedisAuthThread");
-				this.setDaemon(true);
-			}
-
-			@Override
-			public void run() {
-				byte[] request = new ProtoBuilder().setCharset(charset).array(Protocol.Command.AUTH, password).build();
-				try {
-					RedisResult result = request(request, timeout);
-					if (result == null) {
-		    			throw new RedisTimeoutException();
-		    		}
-					if (result.getException() != null) {
-						throw result.getException();
-					}
-					if (result.getConnection() == null) {
-						throw new RuntimeException("result not valid! maybe deep error?");
-					}
-					synchronized (lock) {
-						connection = result.getConnection();
-						lock.notifyAll();
-					}
-					session.setIdleTime(IdleStatus.WRITE_IDLE, idleTime);
-				} catch (Throwable e) {
-					if (LOGGER.isDebugEnabled()) {
-						LOGGER.error("[Redis][Auth][auth failed with:" + e.getMessage() + "]", e);
-					}
-					synchronized (lock) {
-						connection = null;
-						lock.notifyAll();
-					}
-					connector.close();
-				}
-			}
-	    }
-	
-    }
-    
-    /*
-     * Redis Result
-     * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
-     * @version 1.0
-     */
-    class RedisResult {
-    	
-    	private Session connection;
-    	private Object response;
-    	private Throwable exception;
-
-		public RedisResult(Session connection, Object response) {
-			super();
-			this.connection = connection;
-			this.response = response;
-		}
-
-		public RedisResult(Throwable exception) {
-			super();
-			this.exception = exception;
-		}
-
-		public Object getResponse() {
-			return response;
-		}
-
-		public Throwable getException() {
-			return exception;
-		}
-
-		public Session getConnection() {
-			return connection;
-		}
-    	
-    }
-    
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.cache.NearCache;
+import com.gmail.dengtao.joe.redis4j.cache.OffHeapCache;
+import com.gmail.dengtao.joe.redis4j.cache.TinyLfuCache;
+import com.gmail.dengtao.joe.redis4j.codec.CompressionCodec;
+import com.gmail.dengtao.joe.redis4j.codec.RedisCodec;
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
+import com.gmail.dengtao.joe.redis4j.filter.ProtoFilter;
+import com.gmail.dengtao.joe.redis4j.filter.ReplyTargets;
+import com.gmail.dengtao.joe.redis4j.proto.CommandType;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoder;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyVisitor;
+import com.gmail.dengtao.joe.redis4j.transport.ChannelRegion;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoop.ScheduledTask;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoopGroup;
+import com.gmail.dengtao.joe.redis4j.transport.HandlerAdapter;
+import com.gmail.dengtao.joe.redis4j.transport.IdleStatus;
+import com.gmail.dengtao.joe.redis4j.transport.NioTransport;
+import com.gmail.dengtao.joe.redis4j.transport.Session;
+import com.gmail.dengtao.joe.redis4j.transport.SocketOptions;
+import com.gmail.dengtao.joe.redis4j.transport.Transport;
+import com.gmail.dengtao.joe.redis4j.transport.UnixDomainSockets;
+import com.gmail.dengtao.joe.redis4j.utils.ByteUtils;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * <p>
+ * Minimalist redis client implementation.
+ * </p>
+ * <b> Core Methods</b>
+ * <pre>
+ * {@link #select(int)} to select redis database.
+ * {@link #set(String, String)} set key to hold the string value. 
+ * {@link #set(String, String, long)} set key to hold the string value and specified expire time. 
+ * {@link #append(String, String)} appends the value at the end of the string.
+ * {@link #get(String)} get the value of key.
+ * {@link #del(String)} to delete a key.
+ * {@link #exists(String)} to check key exists.
+ * {@link #ping()} to test if a connection is still alive, or to measure latency.
+ * {@link #close()} to close redis connection.
+ * </pre>
+ * <b>Any command</b>
+ * <pre>
+ * {@link #execute(CommandType, ReplyDecoder, Object...)} sends any {@link Protocol.Command}, the reply decoded to a type:
+ * Long n = redis.execute(Protocol.Command.INCRBY, ReplyDecoders.LONG, "counter", 5);
+ * Map&lt;String, String&gt; hash = redis.execute(Protocol.Command.HGETALL, ReplyDecoders.MAP, "user");
+ * {@link #executeAsync(CommandType, ReplyDecoder, Object...)} returns a {@link RedisFuture} at once, to pipeline.
+ * {@link #visit(CommandType, ReplyVisitor, Object...)} walks a reply in the receive buffer, for large arrays folded on the fly.
+ * Arguments: String, byte[] (binary safe), numbers.
+ * </pre>
+ * <b>Codecs</b>
+ * <pre>
+ * {@link #set(Object, Object, RedisCodec)} and {@link #get(Object, RedisCodec)} take keys and values of a {@link RedisCodec},
+ * eg objects as JSON, longs, or large values deflated by {@link CompressionCodec}.
+ * With {@link #execute(CommandType, ReplyDecoder, Object...)}: pass codec.encodeValue(v) and decode by {@link ReplyDecoders#value(RedisCodec)}.
+ * </pre>
+ * <b>Near cache</b>
+ * <pre>
+ * {@link #setNearCache(NearCache)} serves repeated {@link #get(String)} from memory, writes through this client drop the entry, SELECT all entries.
+ * {@link TinyLfuCache} keeps entries on the heap, {@link OffHeapCache} in direct memory for large hot sets.
+ * {@link ClientTracking} has the server drop entries changed by any client (redis 6+).
+ * </pre>
+ * <b>Absent keys</b>
+ * <pre>
+ * {@link KeyFilter} answers {@link #get(String)} and {@link #exists(String)} of keys surely not in redis locally.
+ * </pre>
+ * <b>Large values</b>
+ * <pre>
+ * {@link #getTo(String, WritableByteChannel)} streams a value to a channel or stream as it arrives,
+ * {@link #setFrom(String, ReadableByteChannel, long)} sends one from a channel, zero-copy from a file.
+ * Memory stays bounded whatever the size of the value.
+ * </pre>
+ * <b>Fire-and-forget writes</b>
+ * <pre>
+ * {@link #setNoWait(String, String)}, {@link #appendNoWait(String, String)}, {@link #delNoWait(String)} return once queued,
+ * failures go to {@link #setErrorListener(RedisErrorListener)} and {@link #getNoWaitErrors()}, see {@link NoWaitMode}.
+ * Replies keep the order of requests, a later waiting call (eg {@link #ping()}) returns after all earlier writes are done.
+ * </pre>
+ * <b>Counters</b>
+ * <pre>
+ * redis.counter("hits").increment();
+ * Increments summed in memory, sent as one INCRBY (HINCRBY with a field) per key every 100 ms and on {@link #close()},
+ * see {@link Counters}.
+ * </pre>
+ * <b>Single flight</b>
+ * <pre>
+ * redis.setSingleFlight(Protocol.Command.GET, Protocol.Command.HGET, Protocol.Command.EXISTS);
+ * Identical reads while one is in flight share its reply, {@link #getCoalesced()} counts them.
+ * </pre>
+ * <b>To custom deep socket</b>
+ * <pre>
+ * All in {@link #getTransport()}.
+ * </pre>
+ * <b>Connect</b>
+ * <pre>
+ * new Redis("127.0.0.1", 6379, "pwd");
+ * new Redis("redis://127.0.0.1:6379", "pwd");
+ * new Redis("unix:///var/run/redis.sock", "pwd");	// unix domain socket, JDK 16+ required
+ * </pre>
+ * <b>Threads</b>
+ * <pre>
+ * I/O, heartbeat and reconnect of a client are done by one loop of an {@link EventLoopGroup},
+ * clients created without a group share {@link EventLoopGroup#getDefault()}.
+ * </pre>
+ * <b>Socket options</b>
+ * <pre>
+ * new Redis("127.0.0.1", 6379, "pwd", EventLoopGroup.getDefault(), new SocketOptions().setReceiveBufferSize(256 * 1024));
+ * {@link #getEffectiveSocketOptions()} to read back what the os applied.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class Redis implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Redis.class);
+	private static final byte[] CLIENT_REPLY_SKIP = new ProtoBuilder().array(Protocol.Command.CLIENT, "REPLY", "SKIP").build();
+	private static final byte[] CLIENT_CACHING_YES = new ProtoBuilder().array(Protocol.Command.CLIENT, "CACHING", "yes").build();
+	/** commands writing no key, any other sent by {@link #executeAsync(CommandType, ReplyDecoder, Object...)} drops its keys from the near cache */
+	static final Set<CommandType> READS = Collections.unmodifiableSet(new HashSet<CommandType>(Arrays.<CommandType>asList(
+			Protocol.Command.GET, Protocol.Command.MGET, Protocol.Command.EXISTS, Protocol.Command.TYPE,
+			Protocol.Command.TTL, Protocol.Command.PTTL, Protocol.Command.STRLEN, Protocol.Command.GETRANGE,
+			Protocol.Command.SCAN, Protocol.Command.KEYS,
+			Protocol.Command.HGET, Protocol.Command.HMGET, Protocol.Command.HGETALL, Protocol.Command.HEXISTS,
+			Protocol.Command.HLEN, Protocol.Command.HKEYS, Protocol.Command.HVALS, Protocol.Command.HSCAN,
+			Protocol.Command.LRANGE, Protocol.Command.LLEN, Protocol.Command.LINDEX,
+			Protocol.Command.SMEMBERS, Protocol.Command.SISMEMBER, Protocol.Command.SCARD, Protocol.Command.SSCAN,
+			Protocol.Command.ZRANGE, Protocol.Command.ZSCORE, Protocol.Command.ZCARD, Protocol.Command.ZRANK, Protocol.Command.ZSCAN,
+			Protocol.Command.XRANGE, Protocol.Command.XLEN, Protocol.Command.XREAD,
+			Protocol.Command.PING, Protocol.Command.ECHO, Protocol.Command.SELECT, Protocol.Command.AUTH,
+			Protocol.Command.CLIENT, Protocol.Command.CONFIG, Protocol.Command.INFO, Protocol.Command.DBSIZE,
+			Protocol.Command.QUIT, Protocol.Command.PUBLISH)));
+	/** Connection information */
+	private final String host;
+	private final int port;
+	private final String path;	// unix domain socket path, null for tcp
+	private final String password;
+	private String charset = Protocol.DEFAULT_CHARSET;
+	/** connection reconnect timeout */
+	private long reconnect = 5000;
+	/** connection idle timeout */
+	private long idleTime = 720000;
+	/** redis query timeout */
+	private long timeout = 30000;
+	/** fire-and-forget writes */
+	private volatile NoWaitMode noWaitMode = NoWaitMode.ACKED;
+	private volatile RedisErrorListener errorListener = null;
+	private final AtomicLong noWaitSent = new AtomicLong();
+	private final AtomicLong noWaitErrors = new AtomicLong();
+	/** single-flight reads */
+	private volatile Set<CommandType> singleFlight = Collections.emptySet();
+	private final ConcurrentHashMap<Flight, Flight.Pending> flights = new ConcurrentHashMap<Flight, Flight.Pending>();
+	private final AtomicLong writes = new AtomicLong();	// bumped after every other request is queued
+	private final AtomicLong coalesced = new AtomicLong();
+	/** READONLY on connect, for cluster replicas */
+	private volatile boolean readOnly = false;
+	private volatile NearCache<String, String> nearCache = null;
+	private volatile int db = 0;	// selected, 0 again on every connect
+	private volatile ClientTracking tracking = null;	// CLIENT TRACKING on connect
+	private volatile KeyFilter keyFilter = null;
+	private volatile KeyspaceNotifications notifications = null;	// of the near cache
+	private volatile Counters counters = null;	// created by the first counter
+	private final NodeStats stats = new NodeStats();
+	
+	/** Redis connection */
+	private volatile boolean active = true;
+	private volatile boolean connecting = false;
+	private volatile Session connection = null;
+	private volatile ScheduledTask reconnectTask = null;
+	private final Object lock = this;
+	
+	/** Socket Connect.... */
+	private final NioTransport transport;
+	private final MessageHandler handler = new MessageHandler();
+	
+	/**
+	 * instance a redis client, I/O done by {@link EventLoopGroup#getDefault()}.
+	 * @param host	redis host
+	 * @param port  redis port
+	 * @param password redis password, null if AUTH not required
+	 */
+	public Redis(String host, int port, String password) {
+		this(host, port, password, EventLoopGroup.getDefault());
+	}
+	
+	/**
+	 * instance a redis client, I/O done by one loop of the group.
+	 * @param host	redis host
+	 * @param port  redis port
+	 * @param password redis password, null if AUTH not required
+	 * @param group event loop group shared with other clients
+	 */
+	public Redis(String host, int port, String password, EventLoopGroup group) {
+		this(host, port, null, password, group, new SocketOptions());
+	}
+	
+	/**
+	 * instance a redis client with socket options, I/O done by one loop of the group.
+	 * @param host	redis host
+	 * @param port  redis port
+	 * @param password redis password, null if AUTH not required
+	 * @param group event loop group shared with other clients
+	 * @param options socket options, applied on every (re)connect
+	 */
+	public Redis(String host, int port, String password, EventLoopGroup group, SocketOptions options) {
+		this(host, port, null, password, group, options);
+	}
+	
+	/**
+	 * instance a redis client by uri, I/O done by {@link EventLoopGroup#getDefault()}.
+	 * @param uri redis://host[:port] or unix:///path/to/redis.sock
+	 * @param password redis password, null if AUTH not required
+	 */
+	public Redis(String uri, String password) {
+		this(uri, password, EventLoopGroup.getDefault());
+	}
+	
+	/**
+	 * instance a redis client by uri, I/O done by one loop of the group.
+	 * @param uri redis://host[:port] or unix:///path/to/redis.sock
+	 * @param password redis password, null if AUTH not required
+	 * @param group event loop group shared with other clients
+	 */
+	public Redis(String uri, String password, EventLoopGroup group) {
+		this(toURI(uri), password, group, new SocketOptions());
+	}
+	
+	/**
+	 * instance a redis client by uri with socket options, I/O done by one loop of the group.
+	 * @param uri redis://host[:port] or unix:///path/to/redis.sock
+	 * @param password redis password, null if AUTH not required
+	 * @param group event loop group shared with other clients
+	 * @param options socket options, applied on every (re)connect
+	 */
+	public Redis(String uri, String password, EventLoopGroup group, SocketOptions options) {
+		this(toURI(uri), password, group, options);
+	}
+	
+	private Redis(URI uri, String password, EventLoopGroup group, SocketOptions options) {
+		this(uri.getHost(), uri.getPort() == -1 ? Protocol.DEFAULT_PORT : uri.getPort(), 
+				"unix".equalsIgnoreCase(uri.getScheme()) ? uri.getPath() : null, password, group, options);
+	}
+	
+	private Redis(String host, int port, String path, String password, EventLoopGroup group, SocketOptions options) {
+		if (path == null && (host == null || port < 1 || port > 65535)) throw new IllegalArgumentException();
+		if (path != null && !UnixDomainSockets.isSupported()) throw new UnsupportedOperationException("unix domain socket requires JDK 16+");
+		if (group == null || options == null) throw new IllegalArgumentException();
+		this.host = host; this.port = port; this.path = path; this.password = password;
+		this.transport = new NioTransport(group.next());
+		this.transport.setSocketOptions(options);
+		ProtoFilter filter = new ProtoFilter(true);	// bulk strings as byte[], decoded per request
+		filter.setTargets(handler);	// or streamed, see getTo, or visited, see visit
+		this.transport.setFilter(filter);
+		this.transport.setHandler(handler);
+		this.connect();
+	}
+	
+	/**
+	 * do redis connect, waite session open and auth in {@link #timeout}.
+	 */
+    private void connect() {
+    	synchronized (lock) {
+    		active = true;
+    		connecting = true;
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Connect][waite session open...]");
+			}
+			doConnect();
+			long deadline = System.currentTimeMillis() + timeout;
+			while (connecting) {
+				long remain = deadline - System.currentTimeMillis();
+				if (timeout > 0 && remain <= 0) break;
+				try { lock.wait(timeout > 0 ? remain : 0); } catch (InterruptedException cause) { break; }
+			}
+			if (LOGGER.isDebugEnabled()) {
+				if (connection == null) {	// session open failed
+					LOGGER.error("[Redis][Connect][session open failed...]");
+				} else {
+					LOGGER.debug("[Redis][Connect][session opened]");
+				}
+			}
+		}
+    }
+    
+    private void doConnect() {
+    	if (path != null) {
+    		transport.connect(UnixDomainSockets.address(path));
+    	} else {
+    		transport.connect(host, port);
+    	}
+    }
+    
+    private static URI toURI(String uri) {
+    	if (uri == null) throw new IllegalArgumentException();
+    	URI result = URI.create(uri);
+    	String scheme = result.getScheme();
+    	if ("unix".equalsIgnoreCase(scheme)) {
+    		if (StringUtils.isBlank(result.getPath())) throw new IllegalArgumentException("socket path required:" + uri);
+    	} else if ("redis".equalsIgnoreCase(scheme)) {
+    		if (result.getHost() == null) throw new IllegalArgumentException("host required:" + uri);
+    	} else {
+    		throw new IllegalArgumentException("redis:// or unix:// required:" + uri);
+    	}
+    	return result;
+    }
+    
+    /**
+     * Schedule reconnect on the loop if client still active.
+     */
+    private void reconnectLater() {
+    	if (!active) return;
+    	if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("[Redis][Connect][server gone away! reconnect in " + reconnect + " ms]");
+		}
+    	reconnectTask = transport.getEventLoop().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (active) doConnect();
+			}
+		}, reconnect);
+    }
+    
+    /**
+     * Select the DB with having the specified zero-based numeric index. 
+     * New connections always use DB 0.
+     * @param index
+     * @return
+     * @throws RedisConnectionException 
+     * @throws RedisIOException 
+     * @throws RedisTimeoutException 
+     */
+    public boolean select(int index) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (index < 0) throw new IllegalArgumentException();
+    	boolean selected = execute(Protocol.Command.SELECT, ReplyDecoders.OK, index);
+    	if (selected) selected(index);	// the reply does it too, maybe after the caller is woken
+    	return selected;
+    }
+
+	/**
+     * Set key to hold the string value. If key already holds a value, it is overwritten, regardless of its type.
+     * @param key
+     * @param val
+     * @return return true on success
+     * @throws RedisConnectionException 
+	 * @throws RedisTimeoutException 
+     */
+    public boolean set(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+    	return write(key, Protocol.Command.SET, ReplyDecoders.OK, key, val);
+	}
+    
+    /**
+     * Set key to hold the string value. If key already holds a value, it is overwritten, regardless of its type.
+     * @param key
+     * @param val
+     * @param expire Set the specified expire time, in milliseconds.
+     * @return return true on success
+     * @throws RedisTimeoutException 
+     */
+    public boolean set(String key, String val, long expire) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+    	return write(key, Protocol.Command.SET, ReplyDecoders.OK, key, val, "PX", expire);
+    }
+    
+    /**
+	 * If key already exists and is a string,
+	 * this command appends the value at the end of the string. 
+	 * If key does not exist it is created and set as an empty string, 
+	 * so APPEND will be similar to SET in this special case.
+	 * @param key
+	 * @param val
+	 * @return
+	 * @throws RedisTimeoutException 
+	 */
+	public boolean append(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		return write(key, Protocol.Command.APPEND, ReplyDecoders.OK, key, val);
+	}
+
+	/**
+     * Get the value of key. 
+     * If the key does not exist the special value nil is returned. 
+     * @param key
+     * @return
+     * @throws RedisConnectionException 
+     * @throws RedisIOException 
+     * @throws RedisException 
+     * @throws RedisTimeoutException 
+     */
+    public Object get(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	KeyFilter filter = keyFilter;
+    	if (filter == null || key == null) return read(key);
+    	if (filter.absent(key)) return null;
+    	String value = read(key);
+    	if (value == null) filter.missed();
+    	return value;
+    }
+    
+    /**
+     * GET through the near cache, if any, the entry living as long as the key (PTTL pipelined with the GET),
+     * capped by the max staleness of the cache.
+     */
+    private String read(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	NearCache<String, String> cache = nearCache;
+    	ClientTracking tracking = this.tracking;
+    	if (cache == null) return execute(Protocol.Command.GET, ReplyDecoders.STRING, key);
+    	if (key == null) throw new IllegalArgumentException();
+    	if (tracking != null && !tracking.covers(key)) return execute(Protocol.Command.GET, ReplyDecoders.STRING, key);
+    	KeyspaceNotifications notifications = this.notifications;
+    	if (notifications != null && !notifications.isCovering()) return execute(Protocol.Command.GET, ReplyDecoders.STRING, key);
+    	String value = cache.get(key);
+    	if (value != null) return value;
+    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
+    	long stamp = cache.stamp(key);	// before sending: a write meanwhile keeps the reply out
+    	RedisFuture future;
+    	RedisFuture ttl;
+    	if (tracking != null && tracking.getMode() == ClientTracking.Mode.OPTIN) {
+    		// one payload, the read right after CLIENT CACHING yes is tracked
+    		byte[] request = encode(Protocol.Command.GET, key);
+    		byte[] pttl = encode(Protocol.Command.PTTL, key);
+    		RedisFuture caching = new RedisFuture(CLIENT_CACHING_YES, ReplyDecoders.OK);
+    		future = new RedisFuture(request, ReplyDecoders.STRING);
+    		ttl = new RedisFuture(pttl, ReplyDecoders.LONG);
+    		submit(ByteUtils.merge(ByteUtils.merge(CLIENT_CACHING_YES, request), pttl), caching, future, ttl);
+    		value = (String) future.result(timeout);
+    		caching.result(timeout);
+    	} else {
+    		future = executeAsync(Protocol.Command.GET, ReplyDecoders.STRING, key);
+    		ttl = executeAsync(Protocol.Command.PTTL, ReplyDecoders.LONG, key);
+    		value = (String) future.result(timeout);
+    	}
+    	if (value == null) return null;
+    	long life;
+    	try {
+    		life = (Long) ttl.result(timeout);
+    	} catch (RedisException e) {
+    		LOGGER.warn("[Redis][NearCache][PTTL " + key + " failed with:" + e.getMessage() + ", not cached]");
+    		return value;
+    	}
+    	if (life == -1) life = Long.MAX_VALUE;	// no expire
+    	if (life > 0) cache.put(key, value, life, stamp);	// -2: expired since the GET
+    	return value;
+    }
+    
+    /**
+     * Removes the specified keys. 
+     * A key is ignored if it does not exist.
+     * @param key
+     * @return
+     * @throws RedisTimeoutException 
+     */
+    public boolean del(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+    	return write(key, Protocol.Command.DEL, ReplyDecoders.BOOLEAN, key);
+    }
+    
+    /**
+     * Returns if key exists.
+     * @param key
+     * @return
+     * @throws RedisTimeoutException 
+     */
+    public boolean exists(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+    	KeyFilter filter = keyFilter;
+    	if (filter == null) return execute(Protocol.Command.EXISTS, ReplyDecoders.BOOLEAN, key);
+    	if (filter.absent(key)) return false;
+    	boolean exists = execute(Protocol.Command.EXISTS, ReplyDecoders.BOOLEAN, key);
+    	if (!exists) filter.missed();
+    	return exists;
+    }
+    
+    /**
+     * Delete all the keys of the currently selected DB.
+     * @throws RedisConnectionException 
+     * @throws RedisTimeoutException 
+     * @throws RedisIOException 
+     * @throws RedisException 
+     * @return return true on success
+     */
+    public boolean flush() throws RedisConnectionException, RedisTimeoutException, RedisIOException, RedisException {
+    	NearCache<String, String> cache = nearCache;
+    	if (cache != null) cache.invalidateAll();
+    	try {
+    		return execute(Protocol.Command.FLUSHDB, ReplyDecoders.OK);
+    	} finally {
+    		if (cache != null) cache.invalidateAll();
+    	}
+    }
+    
+    /**
+     * Send a write of the key, its near cache entry dropped before and after.
+     */
+    private <T> T write(String key, CommandType command, ReplyDecoder<T> decoder, Object... args) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	NearCache<String, String> cache = nearCache;
+    	if (cache == null) return execute(command, decoder, args);
+    	cache.invalidate(key);
+    	try {
+    		return execute(command, decoder, args);
+    	} finally {
+    		cache.invalidate(key);	// a read sent before the write may have been cached in between
+    	}
+    }
+    
+    /**
+     * Drop the near cache entry of the key, if any, mark it present in the key filter: a write of it is sent.
+     */
+    void invalidate(String key) {
+    	NearCache<String, String> cache = nearCache;
+    	if (cache != null) cache.invalidate(key);
+    	KeyFilter filter = keyFilter;
+    	if (filter != null) filter.mark(key);
+    }
+    
+    /**
+     * Set key to hold the value, both encoded by the codec.
+     * @param key
+     * @param val
+     * @param codec codec of key and value, eg {@link CompressionCodec}
+     * @return return true on success
+     */
+    public <K, V> boolean set(K key, V val, RedisCodec<K, V> codec) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (key == null || val == null || codec == null) throw new IllegalArgumentException();
+    	byte[] bytes = codec.encodeKey(key);
+    	return write(StringUtils.toString(bytes, charset), Protocol.Command.SET, ReplyDecoders.OK, bytes, codec.encodeValue(val));
+    }
+
+    /**
+     * Set key to hold the value with an expire time, both encoded by the codec.
+     * @param key
+     * @param val
+     * @param expire Set the specified expire time, in milliseconds.
+     * @param codec codec of key and value
+     * @return return true on success
+     */
+    public <K, V> boolean set(K key, V val, long expire, RedisCodec<K, V> codec) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (key == null || val == null || codec == null) throw new IllegalArgumentException();
+    	byte[] bytes = codec.encodeKey(key);
+    	return write(StringUtils.toString(bytes, charset), Protocol.Command.SET, ReplyDecoders.OK, bytes, codec.encodeValue(val), "PX", expire);
+    }
+
+    /**
+     * Get the value of key, decoded by the codec.
+     * @param key
+     * @param codec codec of key and value
+     * @return value, null if the key does not exist
+     * @throws RedisException error reply, or bytes the codec does not take
+     */
+    public <K, V> V get(K key, RedisCodec<K, V> codec) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (key == null || codec == null) throw new IllegalArgumentException();
+    	byte[] bytes = codec.encodeKey(key);
+    	KeyFilter filter = keyFilter;
+    	if (filter == null) return execute(Protocol.Command.GET, ReplyDecoders.value(codec), bytes);
+    	if (filter.absent(StringUtils.toString(bytes, charset))) return null;
+    	V value = execute(Protocol.Command.GET, ReplyDecoders.value(codec), bytes);
+    	if (value == null) filter.missed();
+    	return value;
+    }
+
+    /**
+     * Copy the value of key to the sink chunk by chunk as it arrives, never held in memory whole.
+     * The sink is written on the I/O thread of the client: it should be fast, eg a file.
+     * @param key
+     * @param sink where the value goes
+     * @return number of bytes copied, -1 if the key does not exist
+     * @throws RedisIOException if the sink failed, the rest of the value is dropped
+     */
+    public long getTo(String key, WritableByteChannel sink) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (StringUtils.isBlank(key) || sink == null) throw new IllegalArgumentException();
+    	byte[] request = encode(Protocol.Command.GET, key);
+    	RedisFuture future = new RedisFuture(request, ReplyDecoders.LONG);
+    	future.setSink(sink);
+    	submit(request, future);
+    	Long length = (Long) future.result(timeout);
+    	return length == null ? -1 : length;
+    }
+
+    /**
+     * Copy the value of key to the stream, see {@link #getTo(String, WritableByteChannel)}.
+     * @param key
+     * @param out where the value goes, not closed
+     * @return number of bytes copied, -1 if the key does not exist
+     */
+    public long getTo(String key, OutputStream out) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (out == null) throw new IllegalArgumentException();
+    	return getTo(key, Channels.newChannel(out));
+    }
+
+    /**
+     * Set key to hold length bytes read from the source, never held in memory whole.
+     * A {@link FileChannel} is sent from its position by zero-copy transfer, see {@link ChannelRegion}.
+     * The source is read on the I/O thread of the client: it should be fast and blocking, eg a file.
+     * If it ends early the connection is closed, the key is not set.
+     * @param key
+     * @param source where the value comes from, not closed
+     * @param length number of bytes of the value
+     * @return return true on success
+     */
+    public boolean setFrom(String key, ReadableByteChannel source, long length) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (StringUtils.isBlank(key) || source == null || length < 0) throw new IllegalArgumentException();
+    	byte[] head = new ProtoBuilder().setCharset(charset).array(Protocol.Command.SET, key).buildHead(length);
+    	ChannelRegion region;
+    	try {
+    		region = new ChannelRegion(head, source, length, Protocol.BTS_CRLF);
+    	} catch (IOException e) {
+    		throw new RedisIOException(e);
+    	}
+    	RedisFuture future = new RedisFuture(head, ReplyDecoders.OK);
+    	invalidate(key);
+    	submit(region, future);
+    	try {
+    		return (Boolean) future.result(timeout);
+    	} finally {
+    		invalidate(key);
+    	}
+    }
+
+    /**
+     * Send any command and wait for its reply.
+     * <pre>
+     * redis.execute(Protocol.Command.INCRBY, ReplyDecoders.LONG, "counter", 5);
+     * redis.execute(Protocol.Command.HGETALL, ReplyDecoders.MAP, "user:1");
+     * </pre>
+     * @param command command name
+     * @param decoder decoder of the reply, see {@link ReplyDecoders}
+     * @param args String, byte[] (binary safe), Number or {@link CommandType}
+     * @return decoded reply
+     * @throws RedisException error reply, or a reply the decoder does not take
+     */
+    public <T> T execute(CommandType command, ReplyDecoder<T> decoder, Object... args) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
+    	if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("[Redis][Execute][" + command + " " + Arrays.toString(args) + "]");
+		}
+    	@SuppressWarnings("unchecked")
+		T reply = (T) executeAsync(command, decoder, args).result(timeout);
+    	return reply;
+    }
+    
+    /**
+     * Send any command without blocking, it is pipelined with other requests on the connection.
+     * @param command command name
+     * @param decoder decoder of the reply, see {@link ReplyDecoders}
+     * @param args String, byte[] (binary safe), Number or {@link CommandType}
+     * @return pending reply, {@link RedisFuture#getResponse()} is what the decoder returns
+     */
+    public RedisFuture executeAsync(CommandType command, ReplyDecoder<?> decoder, Object... args) {
+    	byte[] request = encode(command, args);
+    	KeyFilter filter = keyFilter;
+    	if (filter != null) filter.mark(command, args);	// before sent, see KeyFilter
+    	final NearCache<String, String> cache = READS.contains(command) ? null : nearCache;
+    	if (cache != null) invalidate(cache, command, args);
+    	if (singleFlight.contains(command)) return join(request, decoder);
+    	final RedisFuture future = new RedisFuture(request, decoder);
+    	if (command == Protocol.Command.SELECT && args.length == 1) {
+    		NearCache<String, String> selecting = nearCache;
+    		if (selecting != null) selecting.invalidateAll();	// keys of the near cache are of one database
+    		final Object index = args[0];
+    		future.setCompletion(new Runnable() {
+				@Override
+				public void run() {
+					if (future.getException() == null) selected(Integer.parseInt(text(index)));
+				}
+			});
+    	} else if (cache != null) {
+    		final CommandType written = command;
+    		final Object[] keys = args;
+    		future.setCompletion(new Runnable() {
+				@Override
+				public void run() {
+					invalidate(cache, written, keys);	// a read sent before the write may have been cached in between
+				}
+			});
+    	}
+    	submit(request, future);
+    	return future;
+    }
+    
+    /**
+     * Drop the keys a command writes from the near cache, found by their positions in the arguments:
+     * every other argument of MSET, all of DEL, source and destination of RENAME, COPY, SMOVE and LMOVE,
+     * the destination of BITOP, the STORE target of SORT and GEORADIUS, the declared keys of EVAL and FCALL,
+     * the first of others. FLUSHDB, FLUSHALL and MIGRATE drop every entry.
+     */
+    private void invalidate(NearCache<String, String> cache, CommandType command, Object[] args) {
+    	if (command == Protocol.Command.FLUSHDB || command == Protocol.Command.FLUSHALL || command == Protocol.Command.MIGRATE) {
+    		cache.invalidateAll();
+    		return;
+    	}
+    	if (args.length == 0) return;
+    	if (!(command instanceof Protocol.Command)) {
+    		cache.invalidate(text(args[0]));
+    		return;
+    	}
+    	switch ((Protocol.Command) command) {
+    	case MSET:
+    	case MSETNX:
+    		for (int i = 0; i < args.length; i += 2) {
+    			cache.invalidate(text(args[i]));
+    		}
+    		break;
+    	case DEL:
+    	case UNLINK:
+    		invalidate(cache, args, 0, args.length);
+    		break;
+    	case RENAME:
+    	case RENAMENX:
+    	case COPY:
+    	case SMOVE:
+    	case LMOVE:
+    	case BLMOVE:
+    	case RPOPLPUSH:
+    	case BRPOPLPUSH:
+    		invalidate(cache, args, 0, 2);
+    		break;
+    	case BITOP:
+    		invalidate(cache, args, 1, 2);
+    		break;
+    	case SORT:
+    	case GEORADIUS:
+    	case GEORADIUSBYMEMBER:
+    		for (int i = 1; i + 1 < args.length; i++) {
+    			String option = text(args[i]);
+    			if ("STORE".equalsIgnoreCase(option) || "STOREDIST".equalsIgnoreCase(option)) {
+    				cache.invalidate(text(args[i + 1]));
+    			}
+    		}
+    		break;
+    	case EVAL:
+    	case EVALSHA:
+    	case FCALL:
+    		int keys;
+    		try {
+    			keys = args.length > 1 ? Integer.parseInt(text(args[1])) : 0;
+    		} catch (NumberFormatException e) {
+    			cache.invalidateAll();	// keys unknown
+    			break;
+    		}
+    		invalidate(cache, args, 2, 2 + keys);
+    		break;
+    	default:
+    		cache.invalidate(text(args[0]));
+    	}
+    }
+    
+    private void invalidate(NearCache<String, String> cache, Object[] args, int from, int to) {
+    	for (int i = from; i < to && i < args.length; i++) {
+    		cache.invalidate(text(args[i]));
+    	}
+    }
+    
+    private String text(Object arg) {
+    	return arg instanceof byte[] ? StringUtils.toString((byte[]) arg, charset) : String.valueOf(arg);
+    }
+    
+    /**
+     * The database selected changed, by SELECT or a new connection: entries of the near cache are of another one,
+     * the key filter follows.
+     */
+    private void selected(int index) {
+    	if (index == db) return;
+    	db = index;
+    	NearCache<String, String> cache = nearCache;
+    	if (cache != null) cache.invalidateAll();
+    	KeyFilter filter = keyFilter;
+    	if (filter != null) filter.select(index);
+    }
+    
+    /**
+     * Attach to an identical read in flight, or send it.
+     * A read in flight is joined only if no other request was queued since it was sent:
+     * a read after a write of this client never gets a reply older than the write.
+     */
+    private RedisFuture join(byte[] request, ReplyDecoder<?> decoder) {
+    	final Flight flight = new Flight(request, decoder);
+    	final Flight.Pending pending = new Flight.Pending(writes.get(), new RedisFuture(request, decoder));
+    	for (;;) {
+    		Flight.Pending current = flights.get(flight);
+    		if (current != null && current.epoch == pending.epoch && !current.future.isDone()) {
+    			coalesced.incrementAndGet();
+    			return current.future;
+    		}
+    		if (current == null ? flights.putIfAbsent(flight, pending) == null : flights.replace(flight, current, pending)) break;
+    	}
+    	pending.future.setCompletion(new Runnable() {
+			@Override
+			public void run() {
+				flights.remove(flight, pending);
+			}
+		});
+    	send(request, false, pending.future);
+    	return pending.future;
+    }
+    
+    /**
+     * Send any command and walk its reply by the visitor, no object made per element.
+     * <pre>
+     * long sum = redis.visit(Protocol.Command.LRANGE, new Sum(), "numbers", 0, -1).sum;
+     * </pre>
+     * @param command command name
+     * @param visitor walks the reply on the I/O thread, see {@link ReplyVisitor}
+     * @param args String, byte[] (binary safe), Number or {@link CommandType}
+     * @return the visitor, done
+     * @throws RedisException error reply, or the visitor failed
+     */
+    public <V extends ReplyVisitor> V visit(CommandType command, V visitor, Object... args) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+    	if (visitor == null) throw new IllegalArgumentException();
+    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
+    	byte[] request = encode(command, args);
+    	RedisFuture future = new RedisFuture(request, ReplyDecoders.RAW);
+    	future.setVisitor(visitor);
+    	submit(request, future);
+    	future.result(timeout);
+    	return visitor;
+    }
+    
+    /**
+     * Encode a command, numbers are sent as bulk strings.
+     */
+    private byte[] encode(CommandType command, Object... args) {
+    	if (command == null) throw new IllegalArgumentException();
+    	Object[] array = new Object[args.length + 1];
+    	array[0] = command;
+    	for (int i = 0; i < args.length; i++) {
+    		Object arg = args[i];
+    		if (arg == null) throw new IllegalArgumentException("null argument " + i + " of " + command);
+    		array[i + 1] = arg instanceof Number ? String.valueOf(arg) : arg;
+    	}
+    	return new ProtoBuilder().setCharset(charset).array(array).build();
+    }
+    
+    /**
+     * Set key to hold the string value without waiting for the reply, see {@link NoWaitMode}.
+     * @param key
+     * @param val
+     * @throws RedisConnectionException if not connected
+     */
+    public void setNoWait(String key, String val) throws RedisConnectionException {
+    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+    	invalidate(key);
+    	noWait(new ProtoBuilder().setCharset(charset).array(Protocol.Command.SET, key, val).build());
+    }
+    
+    /**
+     * Set key to hold the string value with expire time without waiting for the reply, see {@link NoWaitMode}.
+     * @param key
+     * @param val
+     * @param expire Set the specified expire time, in milliseconds.
+     * @throws RedisConnectionException if not connected
+     */
+    public void setNoWait(String key, String val, long expire) throws RedisConnectionException {
+    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+    	invalidate(key);
+    	noWait(new ProtoBuilder().setCharset(charset).array(Protocol.Command.SET, key, val, "PX", String.valueOf(expire)).build());
+    }
+    
+    /**
+     * Append the value at the end of the string without waiting for the reply, see {@link NoWaitMode}.
+     * @param key
+     * @param val
+     * @throws RedisConnectionException if not connected
+     */
+    public void appendNoWait(String key, String val) throws RedisConnectionException {
+    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+    	invalidate(key);
+    	noWait(new ProtoBuilder().setCharset(charset).array(Protocol.Command.APPEND, key, val).build());
+    }
+    
+    /**
+     * Remove the key without waiting for the reply, see {@link NoWaitMode}.
+     * @param key
+     * @throws RedisConnectionException if not connected
+     */
+    public void delNoWait(String key) throws RedisConnectionException {
+    	if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+    	invalidate(key);
+    	noWait(new ProtoBuilder().setCharset(charset).array(Protocol.Command.DEL, key).build());
+    }
+    
+    /**
+     * Send a request without blocking.
+     * @param request RESP encoded command
+     * @return pending reply
+     */
+    RedisFuture submit(byte[] request) {
+    	RedisFuture future = new RedisFuture(request);
+    	submit(request, future);
+    	return future;
+    }
+    
+    /**
+     * Send a payload of pipelined commands in one write, 
+     * nothing else on the connection goes in between.
+     * @param payload RESP encoded commands, byte[] or {@link ChannelRegion}
+     * @param futures pending replies, one per command in order
+     */
+    void submit(Object payload, RedisFuture... futures) {
+    	send(payload, true, futures);
+    }
+    
+    /**
+     * @param write false for a single-flight read, true for anything else
+     */
+    private void send(Object payload, boolean write, RedisFuture... futures) {
+    	for (RedisFuture future : futures) {
+    		future.track(stats, charset);
+    	}
+    	if (connection == null) {
+    		for (RedisFuture future : futures) {
+    			future.complete(new RedisConnectionException("server not connect yet!"));
+    		}
+    		return;
+    	}
+    	handler.submit(payload, futures);
+    	if (write) writes.incrementAndGet();	// after queued, see join
+    }
+    
+    /**
+     * Send commands pipelined in one payload without blocking.
+     * @param requests RESP encoded commands
+     * @return pending replies in order of the commands
+     */
+    RedisFuture[] pipeline(List<byte[]> requests) {
+    	RedisFuture[] futures = new RedisFuture[requests.size()];
+    	if (futures.length == 0) return futures;
+    	int size = 0;
+    	for (byte[] request : requests) {
+    		size += request.length;
+    	}
+    	byte[] payload = new byte[size];
+    	int position = 0;
+    	for (int i = 0; i < futures.length; i++) {
+    		byte[] request = requests.get(i);
+    		futures[i] = new RedisFuture(request);
+    		System.arraycopy(request, 0, payload, position, request.length);
+    		position += request.length;
+    	}
+    	submit(payload, futures);
+    	return futures;
+    }
+    
+    private void noWait(byte[] request) throws RedisConnectionException {
+    	if (connection == null) throw new RedisConnectionException("server not connect yet!");
+    	if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("[Redis][NoWait][" + noWaitMode + "][" + new String(request) + "]");
+		}
+    	handler.post(request, noWaitMode == NoWaitMode.SKIP);
+    	writes.incrementAndGet();
+    	noWaitSent.incrementAndGet();
+    }
+    
+    /**
+     * Test if a connection is still alive, or to measure latency.
+     * @return
+     */
+    public long ping() {
+    	if (connection == null) return -1;
+    	try {
+    		long start = System.currentTimeMillis();
+    		execute(Protocol.Command.PING, ReplyDecoders.RAW);
+    		return System.currentTimeMillis() - start;
+		} catch (Exception e) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Ping][ping failed with:" + e.getMessage() + "]", e);
+			}
+			return -1;
+		}
+    }
+    
+    /**
+     * Counter of the key, increments sent by INCRBY every 100 ms (see {@link #getCounters()}) and on close.
+     * @param key
+     * @return the same counter for the same key
+     */
+    public Counter counter(String key) {
+    	return getCounters().counter(key);
+    }
+    
+    /**
+     * Counter of a field of the hash, increments sent by HINCRBY every 100 ms (see {@link #getCounters()}) and on close.
+     * @param key
+     * @param field
+     * @return the same counter for the same key and field
+     */
+    public Counter counter(String key, String field) {
+    	if (field == null) throw new IllegalArgumentException();
+    	return getCounters().counter(key, field);
+    }
+    
+	@Override
+	public void close() throws IOException {
+		Counters counters = this.counters;
+		if (counters != null) counters.close();	// sent before QUIT
+		active = false;
+		ScheduledTask task = reconnectTask;
+		if (task != null) task.cancel();
+		if (connection == null) {
+			transport.close();
+			return;
+		}
+    	try {
+    		execute(Protocol.Command.QUIT, ReplyDecoders.RAW);
+		} catch (Exception e) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Close][QUIT failed with:" + e.getMessage() + "]", e);
+			}
+		}
+		transport.close();
+	}
+
+	/**
+	 * @return redis host, null for unix domain socket
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @return redis password, null if AUTH not required
+	 */
+	String getPassword() {
+		return password;
+	}
+
+	/**
+	 * @return tracking of the near cache, null if none
+	 */
+	ClientTracking getTracking() {
+		return tracking;
+	}
+
+	/**
+	 * CLIENT TRACKING on every connect, null for none.
+	 */
+	void setTracking(ClientTracking tracking) {
+		this.tracking = tracking;
+	}
+
+	/**
+	 * @return redis port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return database selected by {@link #select(int)}, 0 after every reconnect
+	 */
+	public int getDb() {
+		return db;
+	}
+
+	/**
+	 * @return load and latency of this connection
+	 */
+	public NodeStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @return true if READONLY is sent on connect
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Send READONLY (or READWRITE) now and on every reconnect, 
+	 * a cluster replica serves reads of its master's slots only in READONLY mode.
+	 * @param readOnly
+	 * @throws RedisException if refused, eg cluster support disabled
+	 */
+	public void setReadOnly(boolean readOnly) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		this.readOnly = readOnly;
+		if (connection == null) return;
+		submit(new ProtoBuilder().array(readOnly ? Protocol.Command.READONLY : Protocol.Command.READWRITE).build()).result(timeout);
+	}
+
+	/**
+	 * @return true if connected and authenticated
+	 */
+	public boolean isConnected() {
+		return connection != null;
+	}
+
+	/**
+	 * Get current transport
+	 * @return Transport
+	 */
+    public Transport getTransport() {
+		return transport;
+	}
+    
+    /**
+     * Get socket options requested for this client.
+     * @return a copy of the socket options
+     */
+    public SocketOptions getSocketOptions() {
+    	return transport.getSocketOptions();
+    }
+    
+    /**
+     * Get socket options in effect on current connection, 
+     * buffer sizes as reported by the os which may round or cap them.
+     * @return socket options, null if not connected
+     */
+    public SocketOptions getEffectiveSocketOptions() {
+    	return transport.getEffectiveOptions();
+    }
+
+	/**
+     * Set charset for current redis connection.
+     * @param charset charset name eg:UTF-8, ISO-8859-1
+     */
+    public void setCharset(String charset) {
+    	Charset.forName(charset);
+    	this.charset = charset;
+    }
+    
+    /**
+     * Get current redis connection charset;
+     * @return charset name
+     */
+    public String getCharset() {
+		return charset;
+	}
+
+    /**
+     * Get current redis connection reconnect sleep time.
+     * @return the length of time to reconnect sleep in milliseconds.
+     */
+	public long getReconnect() {
+		return reconnect;
+	}
+
+	/**
+	 * Set auto reconnect timeout.
+	 * @param reconnect reconnect sleep time in milliseconds.
+	 */
+	public void setReconnect(long reconnect) {
+		if (idleTime < 0) throw new IllegalArgumentException(">0 required!");
+		this.reconnect = reconnect;
+	}
+	
+	/**
+	 * Get redis connection idle time for write.
+	 * @return connection write idle time in milliseconds.
+	 */
+	public long getIdleTime() {
+		return (connection == null) ? idleTime : connection.getIdleTime(IdleStatus.WRITE_IDLE);
+	}
+
+	/**
+	 * Set redis connection write idle time.
+	 * @param idleTime idle in milliseconds.
+	 */
+	public void setIdleTime(long idleTime) {
+		if (idleTime < 0) throw new IllegalArgumentException(">=0 required!");
+		this.idleTime = idleTime;
+		if (connection != null) connection.setIdleTime(IdleStatus.WRITE_IDLE, this.idleTime);
+	}
+	
+	/**
+	 * @return counters of {@link #counter(String)}, created by the first call, flushed every 100 ms
+	 */
+	public Counters getCounters() {
+		Counters counters = this.counters;
+		if (counters == null) {
+			synchronized (lock) {
+				if (this.counters == null) this.counters = new Counters(this, 100);
+				counters = this.counters;
+			}
+		}
+		return counters;
+	}
+	
+	/**
+	 * @return filter of absent keys, null if none
+	 */
+	public KeyFilter getKeyFilter() {
+		return keyFilter;
+	}
+	
+	void setKeyFilter(KeyFilter keyFilter) {
+		this.keyFilter = keyFilter;
+	}
+	
+	/**
+	 * @return notifications the near cache is kept by, null if none
+	 */
+	KeyspaceNotifications getNotifications() {
+		return notifications;
+	}
+	
+	void setNotifications(KeyspaceNotifications notifications) {
+		this.notifications = notifications;
+	}
+	
+	/**
+	 * @return near cache of {@link #get(String)}, null if none
+	 */
+	public NearCache<String, String> getNearCache() {
+		return nearCache;
+	}
+	
+	/**
+	 * Serve {@link #get(String)} from an in-process cache.
+	 * set, append, del (waiting or not), setFrom and flush through this client drop the entry;
+	 * so do writes by {@link #execute(CommandType, ReplyDecoder, Object...)}, for the keys the command names
+	 * (every entry for FLUSHDB, FLUSHALL and MIGRATE); writes by other clients are seen once it expires, or at once
+	 * with {@link ClientTracking} or {@link KeyspaceNotifications}.
+	 * A fire-and-forget write drops the entry when sent only: a read answered before the write is applied may be cached.
+	 * @param nearCache null to read from redis always (default)
+	 */
+	public void setNearCache(NearCache<String, String> nearCache) {
+		this.nearCache = nearCache;
+	}
+	
+	/**
+	 * Get redis connection query timeout.
+	 * @return quert timeout in milliseconds.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Set redis connection quert timeout 
+	 * @param timeout quert timeout in milliseconds.
+	 */
+	public void setTimeout(long timeout) {
+		if (timeout < 0) throw new IllegalArgumentException(">=0 required!");
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Get how fire-and-forget writes are sent.
+	 * @return mode, default {@link NoWaitMode#ACKED}
+	 */
+	public NoWaitMode getNoWaitMode() {
+		return noWaitMode;
+	}
+
+	/**
+	 * Set how fire-and-forget writes are sent, applies to later writes.
+	 * @param noWaitMode mode
+	 */
+	public void setNoWaitMode(NoWaitMode noWaitMode) {
+		if (noWaitMode == null) throw new IllegalArgumentException();
+		this.noWaitMode = noWaitMode;
+	}
+
+	/**
+	 * Get listener of failed fire-and-forget writes.
+	 * @return listener, null if none
+	 */
+	public RedisErrorListener getErrorListener() {
+		return errorListener;
+	}
+
+	/**
+	 * Set listener of failed fire-and-forget writes, called on the event loop thread.
+	 * @param errorListener listener, null to only count errors
+	 */
+	public void setErrorListener(RedisErrorListener errorListener) {
+		this.errorListener = errorListener;
+	}
+	
+	/**
+	 * @return commands read by a single flight
+	 */
+	public Set<CommandType> getSingleFlight() {
+		return singleFlight;
+	}
+
+	/**
+	 * Coalesce identical reads: while a command of these is in flight, the same command with the same arguments
+	 * and decoder attaches to its reply instead of going on the wire, eg GET, HGET, EXISTS in a cache stampede.
+	 * Joined callers share the decoded reply object, do not modify it.
+	 * @param commands read-only commands, none to turn off (default)
+	 */
+	public void setSingleFlight(CommandType... commands) {
+		Set<CommandType> set = new HashSet<CommandType>(Arrays.asList(commands));
+		this.singleFlight = set.isEmpty() ? Collections.<CommandType>emptySet() : Collections.unmodifiableSet(set);
+	}
+
+	/**
+	 * @return reads attached to an identical read in flight since created
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return number of fire-and-forget writes queued since created.
+	 */
+	public long getNoWaitSent() {
+		return noWaitSent.get();
+	}
+	
+	/**
+	 * @return number of fire-and-forget writes failed since created.
+	 */
+	public long getNoWaitErrors() {
+		return noWaitErrors.get();
+	}
+	
+	/**
+	 * @return number of {@link NoWaitMode#ACKED} writes waiting for their replies.
+	 */
+	public int getNoWaitPending() {
+		return handler.noWaits.size();
+	}
+	
+    /*
+     * Single-flight read key: request and decoder.
+     */
+    static final class Flight {
+    	private final byte[] request;
+    	private final ReplyDecoder<?> decoder;
+    	private final int hash;
+    	
+    	Flight(byte[] request, ReplyDecoder<?> decoder) {
+    		this.request = request;
+    		this.decoder = decoder;
+    		this.hash = Arrays.hashCode(request) * 31 + System.identityHashCode(decoder);
+    	}
+    	
+    	@Override
+    	public int hashCode() {
+    		return hash;
+    	}
+    	
+    	@Override
+    	public boolean equals(Object obj) {
+    		if (!(obj instanceof Flight)) return false;
+    		Flight other = (Flight) obj;
+    		return decoder == other.decoder && Arrays.equals(request, other.request);
+    	}
+    	
+    	/*
+    	 * Read in flight: write count it was sent at, and its reply.
+    	 */
+    	static final class Pending {
+    		private final long epoch;
+    		private final RedisFuture future;
+    		
+    		Pending(long epoch, RedisFuture future) {
+    			this.epoch = epoch;
+    			this.future = future;
+    		}
+    	}
+    }
+    
+    /*
+     * RedisConnectionHandler 
+     * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+     * @version 1.0
+     */
+    class MessageHandler extends HandlerAdapter implements ReplyTargets {
+    	private volatile Session session;
+    	private Map<Object, Boolean> handshake = new ConcurrentHashMap<Object, Boolean>();	// AUTH, READONLY
+    	private Map<Object, Boolean> heartbeats = new ConcurrentHashMap<Object, Boolean>();
+    	private Map<Object, Boolean> noWaits = new ConcurrentHashMap<Object, Boolean>();	// replied, nobody waits
+    	private Map<Object, Boolean> skipped = new ConcurrentHashMap<Object, Boolean>();	// never replied
+    	private Map<Object, RedisFuture[]> batches = new ConcurrentHashMap<Object, RedisFuture[]>();	// payload => replies in order
+    	private Queue<Object> queue = new ConcurrentLinkedQueue<Object>();	// replies expected, in order sent
+    	private final Object sending = new Object();	// queue and write order the same
+    	
+		@Override
+		public void sessionOpened(Session session) throws Exception {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Connect][connection established.]");
+			}
+			this.session = session;
+			// handshake replies handled in dataReceived, never block the loop
+			List<byte[]> requests = new ArrayList<byte[]>(2);
+			if (password != null) {
+				requests.add(new ProtoBuilder().setCharset(charset).array(Protocol.Command.AUTH, password).build());
+			}
+			if (readOnly) {
+				requests.add(new ProtoBuilder().array(Protocol.Command.READONLY).build());
+			}
+			ClientTracking tracking = Redis.this.tracking;
+			byte[] enable = tracking == null ? null : tracking.request();
+			if (enable != null) {
+				requests.add(enable);
+			}
+			if (requests.isEmpty()) {
+				opened(session);
+				return;
+			}
+			for (byte[] request : requests) {
+				handshake.put(request, Boolean.TRUE);
+			}
+			for (byte[] request : requests) {
+				send(session, request);
+			}
+		}
+
+		@Override
+		public void sessionIdle(Session session, IdleStatus status)
+				throws Exception {
+			// Connection Idle, Heart Beat!
+			byte[] request = new ProtoBuilder().setCharset(charset).array(Protocol.Command.ECHO, String.valueOf(System.currentTimeMillis())).build();
+			heartbeats.put(request, Boolean.TRUE);
+			send(session, request);
+		}
+
+		@Override
+		public void dataReceived(Session session, Object data) throws Exception {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Receive][" + data + "]");
+			}
+			Object request = queue.poll();
+			if (request == null) {
+				LOGGER.error("[Redis][Receive][reply without request, deep error?][" + data + "]");
+				return;
+			}
+			if (request instanceof RedisFuture) {
+				((RedisFuture) request).complete(data);
+				return;
+			}
+			if (handshake.remove(request) != null) {
+				if (data instanceof Throwable) {
+					if (LOGGER.isDebugEnabled()) {
+						LOGGER.error("[Redis][Auth][handshake failed with:" + ((Throwable) data).getMessage() + "]", (Throwable) data);
+					}
+					handshake.clear();
+					failed();
+					session.close();
+				} else if (handshake.isEmpty()) {
+					opened(session);
+				}
+				return;
+			}
+			if (heartbeats.remove(request) != null) {
+				return;
+			}
+			if (noWaits.remove(request) != null) {
+				if (data instanceof Throwable) {
+					noWaitFailed(request, (Throwable) data);
+				}
+				return;
+			}
+			LOGGER.error("[Redis][Receive][reply of unknown request, deep error?][" + data + "]");
+		}
+
+		@Override
+		public WritableByteChannel nextSink() {
+			Object request = queue.peek();	// the next reply is its
+			return request instanceof RedisFuture ? ((RedisFuture) request).getSink() : null;
+		}
+
+		@Override
+		public ReplyVisitor nextVisitor() {
+			Object request = queue.peek();
+			return request instanceof RedisFuture ? ((RedisFuture) request).getVisitor() : null;
+		}
+
+		@Override
+		public void dataSent(Session session, Object data) throws Exception {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Sent][" + (data instanceof byte[] ? new String((byte[]) data) : data) + "]");
+			}
+			// queued when handed to the session, replies may be read before the last byte is written
+			if (skipped.remove(data) == null) {
+				batches.remove(data);
+			}
+		}
+
+		@Override
+		public void dataNotSent(Session session, Object data) throws Exception {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.warn("[Redis][NotSent][" + (data instanceof byte[] ? new String((byte[]) data) : data) + "]");
+			}
+			if (skipped.remove(data) != null) {
+				noWaitFailed(data, new RedisIOException("request not sent!"));
+				return;
+			}
+			RedisFuture[] futures = batches.remove(data);
+			if (futures != null) {
+				for (RedisFuture future : futures) {
+					queue.remove(future);
+					future.complete(new RedisIOException("request not sent!"));
+				}
+				return;
+			}
+			queue.remove(data);
+			if (heartbeats.remove(data) != null || handshake.remove(data) != null) {
+				return;
+			}
+			if (noWaits.remove(data) != null) {
+				noWaitFailed(data, new RedisIOException("request not sent!"));
+			}
+		}
+
+		@Override
+		public void exceptionCaught(Session session, Throwable cause) {
+			if (cause instanceof ConnectException) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.error("[Redis][Error][connection error:" + cause.getMessage() + "]", cause);
+				}
+				failed();
+				reconnectLater();
+			} else {
+				LOGGER.error("[Redis][Error][" + cause.getMessage() + "][deep error?]", cause);
+			}
+		}
+
+		@Override
+		public void sessionClosed(Session session) throws Exception {
+			this.session = null;
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Connect][session closed...]");
+			}
+			// Notify All Exception
+			for (Object request : queue) {
+				if (request instanceof RedisFuture) {
+					((RedisFuture) request).complete(new RedisConnectionException("connection closed!"));
+					continue;
+				}
+				if (noWaits.remove(request) != null) {
+					noWaitFailed(request, new RedisConnectionException("connection closed!"));
+					continue;
+				}
+			}
+			connection = null;
+			this.session = null;
+			this.handshake.clear();
+			this.queue.clear();
+			this.heartbeats.clear();
+			this.noWaits.clear();
+			this.skipped.clear();
+			this.batches.clear();
+			reconnectLater();
+		}
+		
+		private void opened(Session session) {
+			selected(0);	// new connections use DB 0
+			synchronized (lock) {
+				connection = session;
+				connecting = false;
+				lock.notifyAll();
+			}
+			session.setIdleTime(IdleStatus.WRITE_IDLE, idleTime);
+		}
+		
+		private void failed() {
+			synchronized (lock) {
+				connection = null;
+				connecting = false;
+				lock.notifyAll();
+			}
+		}
+		
+		private void noWaitFailed(Object request, Throwable cause) {
+			noWaitErrors.incrementAndGet();
+			RedisErrorListener listener = errorListener;
+			if (listener == null) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("[Redis][NoWait][failed with:" + cause.getMessage() + "]");
+				}
+				return;
+			}
+			try {
+				listener.onError((byte[]) request, cause);
+			} catch (Exception e) {
+				LOGGER.error("[Redis][NoWait][error listener failed with:" + e.getMessage() + "]", e);
+			}
+		}
+		
+		/**
+		 * Send without waiting, the reply (if any) is dropped in {@link #dataReceived(Session, Object)}.
+		 */
+		private void post(byte[] request, boolean skip) throws RedisConnectionException {
+			Session session = this.session;
+			if (session == null) {
+				throw new RedisConnectionException("server not connect yet!");
+			}
+			if (skip) {
+				// one buffer, never split by other requests on the connection
+				byte[] payload = ByteUtils.merge(CLIENT_REPLY_SKIP, request);
+				skipped.put(payload, Boolean.TRUE);
+				session.send(payload);	// never replied, not queued
+			} else {
+				noWaits.put(request, Boolean.TRUE);
+				send(session, request);
+			}
+		}
+		
+		/**
+		 * Send one payload of one or more commands, futures complete in order with their replies.
+		 */
+		private void submit(Object payload, RedisFuture... futures) {
+			Session session = this.session;
+			if (session == null) {
+				for (RedisFuture future : futures) {
+					future.complete(new RedisConnectionException("server not connect yet!"));
+				}
+				return;
+			}
+			batches.put(payload, futures);
+			synchronized (sending) {
+				for (RedisFuture future : futures) {
+					queue.offer(future);
+				}
+				session.send(payload);
+			}
+		}
+		
+		/**
+		 * Send one request replied once, queued for its reply before any byte is written.
+		 */
+		private void send(Session session, Object request) {
+			synchronized (sending) {
+				queue.offer(request);
+				session.send(request);
+			}
+		}
+		
+    }
+    
 }
\ No newline at end of file
@@ -0,0 +1,636 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoopGroup;
+import com.gmail.dengtao.joe.redis4j.transport.SocketOptions;
+import com.gmail.dengtao.joe.redis4j.utils.ByteUtils;
+import com.gmail.dengtao.joe.redis4j.utils.CRC16;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * <p>
+ * Redis cluster client, routes each command to the node owning the hash slot of its key.
+ * </p>
+ * <b>Routing</b>
+ * <pre>
+ * slot = CRC16(key) % 16384, only the part inside the first non-empty {hashtag} is hashed if there is one.
+ * The slot map is loaded by CLUSTER SLOTS from any known node on start.
+ * -MOVED updates the slot at once and, at most every {@link #getRefreshInterval()} ms, reloads the whole map.
+ * -ASK retries once on the importing node with ASKING written in the same payload, the slot map is kept.
+ * </pre>
+ * <b>Multi-key commands</b>
+ * <pre>
+ * {@link #mget(List)}, {@link #mset(Map)}, {@link #del(Collection)} and {@link #exists(Collection)} take keys of any slots:
+ * one sub-command per slot, pipelined in one write per node, all nodes at once, replies in the caller's order.
+ * </pre>
+ * <b>Replica reads</b>
+ * <pre>
+ * With {@link #setReadPreference(ReadPreference)} other than MASTER, GET/EXISTS/MGET go to replicas of the slot,
+ * connected in READONLY mode, picked by latency and load, see {@link ReadPreference}.
+ * </pre>
+ * <b>Threads</b>
+ * <pre>
+ * One {@link Redis} connection per master node, all sharing the event loops of the group:
+ * commands for different nodes go out in parallel, throughput grows with the number of nodes.
+ * </pre>
+ * <pre>
+ * RedisCluster cluster = new RedisCluster("10.0.0.1:7000,10.0.0.2:7000", null);
+ * cluster.set("{user:1}:name", "joe");
+ * cluster.get("{user:1}:name");
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class RedisCluster implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RedisCluster.class);
+	/** number of hash slots */
+	public static final int SLOTS = 16384;
+	private static final byte[] ASKING = new ProtoBuilder().array(Protocol.Command.ASKING).build();
+
+	/** Connection information */
+	private final List<String> seeds;
+	private final String password;
+	private final EventLoopGroup group;
+	private final SocketOptions options;
+	private String charset = Protocol.DEFAULT_CHARSET;
+	/** redis query timeout */
+	private long timeout = 30000;
+	/** max redirects followed by one command */
+	private int maxRedirects = 5;
+	/** min interval of slot map reloads */
+	private long refreshInterval = 1000;
+
+	private volatile boolean active = true;
+	private final Map<String, Redis> nodes = new ConcurrentHashMap<String, Redis>();
+	private final AtomicReferenceArray<Redis> slots = new AtomicReferenceArray<Redis>(SLOTS);
+	private final AtomicReferenceArray<List<Redis>> replicas = new AtomicReferenceArray<List<Redis>>(SLOTS);	// only loaded for replica reads
+	private volatile ReadPreference readPreference = ReadPreference.MASTER;
+	private final AtomicBoolean refreshing = new AtomicBoolean(false);
+	private volatile long lastRefresh = 0;
+
+	/**
+	 * instance a cluster client, I/O done by {@link EventLoopGroup#getDefault()}.
+	 * @param nodes seed nodes, host:port[,host:port...]
+	 * @param password redis password, null if AUTH not required
+	 */
+	public RedisCluster(String nodes, String password) {
+		this(nodes, password, EventLoopGroup.getDefault());
+	}
+
+	/**
+	 * instance a cluster client, I/O done by the loops of the group.
+	 * @param nodes seed nodes, host:port[,host:port...]
+	 * @param password redis password, null if AUTH not required
+	 * @param group event loop group shared by the node connections
+	 */
+	public RedisCluster(String nodes, String password, EventLoopGroup group) {
+		this(nodes, password, group, new SocketOptions());
+	}
+
+	/**
+	 * instance a cluster client with socket options, I/O done by the loops of the group.
+	 * @param nodes seed nodes, host:port[,host:port...]
+	 * @param password redis password, null if AUTH not required
+	 * @param group event loop group shared by the node connections
+	 * @param options socket options of every node connection
+	 */
+	public RedisCluster(String nodes, String password, EventLoopGroup group, SocketOptions options) {
+		if (StringUtils.isBlank(nodes) || group == null || options == null) throw new IllegalArgumentException();
+		List<String> seeds = new ArrayList<String>();
+		for (String node : nodes.split(",")) {
+			node = node.trim();
+			if (node.length() == 0) continue;
+			if (node.lastIndexOf(':') <= 0) throw new IllegalArgumentException("host:port required:" + node);
+			seeds.add(node);
+		}
+		this.seeds = Collections.unmodifiableList(seeds);
+		this.password = password;
+		this.group = group;
+		this.options = options.clone();
+		if (!refresh()) {
+			LOGGER.error("[Redis][Cluster][no seed node reachable, slot map not loaded][" + nodes + "]");
+		}
+	}
+
+	/**
+	 * Hash slot of a key.
+	 * @param key key bytes
+	 * @return slot in [0, {@link #SLOTS})
+	 */
+	public static int slot(byte[] key) {
+		int start = ByteUtils.indexOf(key, (byte) '{');
+		if (start != -1) {
+			int end = ByteUtils.indexOf(key, (byte) '}', start + 1);
+			if (end > start + 1) {
+				return CRC16.crc16(key, start + 1, end - start - 1) & (SLOTS - 1);
+			}
+		}
+		return CRC16.crc16(key) & (SLOTS - 1);
+	}
+
+	/**
+	 * Hash slot of a key, encoded with the charset of this client.
+	 * @param key
+	 * @return slot in [0, {@link #SLOTS})
+	 */
+	public int slot(String key) {
+		return slot(StringUtils.getBytes(key, charset));
+	}
+
+	/**
+	 * Reload the slot map by CLUSTER SLOTS, from the first known node which answers.
+	 * @return true if loaded
+	 */
+	public boolean refresh() {
+		lastRefresh = System.currentTimeMillis();
+		Set<String> candidates = new LinkedHashSet<String>(nodes.keySet());
+		candidates.addAll(seeds);
+		for (String address : candidates) {
+			Redis node = node(address);
+			if (!node.isConnected()) continue;
+			try {
+				Object reply = node.submit(new ProtoBuilder().array(Protocol.Command.CLUSTER, "SLOTS").build()).result(timeout);
+				apply(node, (Object[]) reply);
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("[Redis][Cluster][slot map loaded from " + address + "][nodes:" + nodes.keySet() + "]");
+				}
+				return true;
+			} catch (Exception e) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("[Redis][Cluster][CLUSTER SLOTS failed on " + address + " with:" + e.getMessage() + "]");
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Apply a CLUSTER SLOTS reply: [[start, end, [host, port, id], replicas...], ...]
+	 */
+	private void apply(Redis from, Object[] reply) {
+		boolean replicaReads = readPreference != ReadPreference.MASTER;
+		for (Object entry : reply) {
+			Object[] range = (Object[]) entry;
+			int start = ((Number) range[0]).intValue();
+			int end = ((Number) range[1]).intValue();
+			Redis node = node(address((Object[]) range[2], from));
+			List<Redis> nodes = Collections.emptyList();
+			if (replicaReads && range.length > 3) {
+				nodes = new ArrayList<Redis>(range.length - 3);
+				for (int i = 3; i < range.length; i++) {
+					Redis replica = node(address((Object[]) range[i], from));
+					if (readOnly(replica)) nodes.add(replica);
+				}
+			}
+			for (int slot = start; slot <= end; slot++) {
+				slots.set(slot, node);
+				replicas.set(slot, nodes);
+			}
+		}
+	}
+
+	private static String address(Object[] node, Redis from) {
+		return address(node[0] == null ? "" : String.valueOf(node[0]), ((Number) node[1]).intValue(), from);
+	}
+
+	/**
+	 * Replica connections serve reads of their master's slots in READONLY mode only.
+	 */
+	private boolean readOnly(Redis replica) {
+		if (replica.isReadOnly()) return true;
+		try {
+			replica.setReadOnly(true);
+			return true;
+		} catch (Exception e) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Cluster][READONLY failed with:" + e.getMessage() + "]");
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * An empty or unknown host means the node which sent it.
+	 */
+	private static String address(String host, int port, Redis from) {
+		if (StringUtils.isBlank(host) || "?".equals(host)) host = from.getHost();
+		return host + ":" + port;
+	}
+
+	private void refreshIfStale() {
+		if (System.currentTimeMillis() - lastRefresh < refreshInterval) return;
+		if (!refreshing.compareAndSet(false, true)) return;	// someone else is on it
+		try {
+			refresh();
+		} finally {
+			refreshing.set(false);
+		}
+	}
+
+	/**
+	 * Connection to a node, created on first use: connected out of the lock,
+	 * of two callers racing for the same node the later one closes its own.
+	 * @param address host:port
+	 */
+	Redis node(String address) {
+		Redis node = nodes.get(address);
+		if (node != null) return node;
+		if (!active) throw new IllegalStateException("cluster closed!");
+		int index = address.lastIndexOf(':');
+		Redis created = new Redis(address.substring(0, index), Integer.parseInt(address.substring(index + 1)), password, group, options);
+		created.setCharset(charset);
+		created.setTimeout(timeout);
+		synchronized (nodes) {
+			node = nodes.get(address);
+			if (node == null && active) {
+				nodes.put(address, created);
+				return created;
+			}
+		}
+		try {
+			created.close();
+		} catch (IOException e) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Cluster][close failed with:" + e.getMessage() + "]", e);
+			}
+		}
+		if (node == null) throw new IllegalStateException("cluster closed!");
+		return node;
+	}
+
+	/**
+	 * Connection to the node owning the slot, any node if unknown (it will redirect).
+	 */
+	Redis nodeOf(int slot) {
+		Redis node = slots.get(slot);
+		if (node == null) {
+			refreshIfStale();
+			node = slots.get(slot);
+		}
+		if (node == null) {
+			for (Redis candidate : nodes.values()) {
+				if (candidate.isConnected()) return candidate;
+			}
+			node = node(seeds.get(0));
+		}
+		return node;
+	}
+
+	/**
+	 * Connection to read the slot from, by the read preference.
+	 */
+	Redis readNodeOf(int slot) {
+		Redis master = nodeOf(slot);
+		if (readPreference == ReadPreference.MASTER) return master;
+		return readPreference.select(master, replicas.get(slot));
+	}
+
+	/**
+	 * Send a command about the key, following MOVED/ASK redirects.
+	 * @param key routing key
+	 * @param request RESP encoded command
+	 * @param read true for read-only commands, which may go to replicas
+	 * @return reply
+	 */
+	Object execute(String key, byte[] request, boolean read) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return execute(slot(key), request, read);
+	}
+
+	Object execute(int slot, byte[] request, boolean read) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		Redis node = read ? readNodeOf(slot) : nodeOf(slot);
+		boolean asking = false;
+		for (int redirects = 0; ; redirects++) {
+			RedisFuture future = new RedisFuture(request);
+			if (asking) {
+				// one payload, no other command of the connection slips in between
+				node.submit(ByteUtils.merge(ASKING, request), new RedisFuture(ASKING), future);
+			} else {
+				node.submit(request, future);
+			}
+			try {
+				return future.result(timeout);
+			} catch (RedisConnectionException e) {
+				refreshIfStale();
+				throw e;
+			} catch (RedisException e) {
+				String[] redirect = redirect(e);
+				if (redirect == null || redirects >= maxRedirects) throw e;
+				Redis target = node(address(redirect[2].substring(0, redirect[2].lastIndexOf(':')),
+						Integer.parseInt(redirect[2].substring(redirect[2].lastIndexOf(':') + 1)), node));
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("[Redis][Cluster][" + redirect[0] + " slot " + redirect[1] + " => " + redirect[2] + "]");
+				}
+				node = target;
+				asking = "ASK".equals(redirect[0]);
+				if (!asking) {
+					slots.set(Integer.parseInt(redirect[1]), target);
+					replicas.set(Integer.parseInt(redirect[1]), null);	// unknown until reloaded
+					refreshIfStale();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return [MOVED|ASK, slot, host:port], null if not a redirect
+	 */
+	static String[] redirect(RedisException e) {
+		String message = e.getMessage();
+		if (message == null || !(message.startsWith("MOVED ") || message.startsWith("ASK "))) return null;
+		String[] redirect = message.split(" ");
+		if (redirect.length != 3 || redirect[2].lastIndexOf(':') == -1) return null;
+		return redirect;
+	}
+
+	/**
+	 * Set key to hold the string value on the node owning its slot.
+	 * @see Redis#set(String, String)
+	 */
+	public boolean set(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		return execute(key, new ProtoBuilder().setCharset(charset).array(Protocol.Command.SET, key, val).build(), false) != null;
+	}
+
+	/**
+	 * Set key to hold the string value and expire time on the node owning its slot.
+	 * @see Redis#set(String, String, long)
+	 */
+	public boolean set(String key, String val, long expire) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		return execute(key, new ProtoBuilder().setCharset(charset).array(Protocol.Command.SET, key, val, "PX", String.valueOf(expire)).build(), false) != null;
+	}
+
+	/**
+	 * Append the value at the end of the string on the node owning its slot.
+	 * @see Redis#append(String, String)
+	 */
+	public boolean append(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		return execute(key, new ProtoBuilder().setCharset(charset).array(Protocol.Command.APPEND, key, val).build(), false) != null;
+	}
+
+	/**
+	 * Get the value of key from the node owning its slot.
+	 * @see Redis#get(String)
+	 */
+	public Object get(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		return execute(key, new ProtoBuilder().setCharset(charset).array(Protocol.Command.GET, key).build(), true);
+	}
+
+	/**
+	 * Remove the key from the node owning its slot.
+	 * @see Redis#del(String)
+	 */
+	public boolean del(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		return "1".equals(String.valueOf(execute(key, new ProtoBuilder().setCharset(charset).array(Protocol.Command.DEL, key).build(), false)));
+	}
+
+	/**
+	 * Check the key exists on the node owning its slot.
+	 * @see Redis#exists(String)
+	 */
+	public boolean exists(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		return "1".equals(String.valueOf(execute(key, new ProtoBuilder().setCharset(charset).array(Protocol.Command.EXISTS, key).build(), true)));
+	}
+
+	/**
+	 * Get values of the keys: one MGET per slot, pipelined per node, all nodes in parallel.
+	 * @param keys
+	 * @return values in order of the keys, null if not exists
+	 */
+	public List<Object> mget(List<String> keys) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		List<KeyGroup> groups = group(keys, true);
+		KeyGroup.send(groups, Protocol.Command.MGET, null, charset);
+		Object[] result = new Object[keys.size()];
+		long deadline = System.currentTimeMillis() + timeout;
+		for (KeyGroup group : groups) {
+			group.fill(result, await(group, deadline));
+		}
+		return Arrays.asList(result);
+	}
+
+	/**
+	 * Set the values: one MSET per slot, pipelined per node, all nodes in parallel.
+	 * Atomic per slot only.
+	 * @param values values by key
+	 * @return true on success
+	 */
+	public boolean mset(Map<String, String> values) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (values.containsValue(null)) throw new IllegalArgumentException("null value!");
+		List<KeyGroup> groups = group(new ArrayList<String>(values.keySet()), false);
+		KeyGroup.send(groups, Protocol.Command.MSET, values, charset);
+		long deadline = System.currentTimeMillis() + timeout;
+		for (KeyGroup group : groups) {
+			await(group, deadline);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the keys: one DEL per slot, pipelined per node, all nodes in parallel.
+	 * @param keys
+	 * @return number of keys removed
+	 */
+	public long del(Collection<String> keys) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return count(Protocol.Command.DEL, keys);
+	}
+
+	/**
+	 * Count existing keys: one EXISTS per slot, pipelined per node, all nodes in parallel.
+	 * @param keys
+	 * @return number of keys exist, a key given twice counts twice
+	 */
+	public long exists(Collection<String> keys) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return count(Protocol.Command.EXISTS, keys);
+	}
+
+	private long count(Protocol.Command command, Collection<String> keys) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		List<KeyGroup> groups = group(new ArrayList<String>(keys), command == Protocol.Command.EXISTS);
+		KeyGroup.send(groups, command, null, charset);
+		long count = 0;
+		long deadline = System.currentTimeMillis() + timeout;
+		for (KeyGroup group : groups) {
+			count += ((Number) await(group, deadline)).longValue();
+		}
+		return count;
+	}
+
+	/**
+	 * Keys by slot (multi-key commands must not cross slots), with their positions.
+	 */
+	private List<KeyGroup> group(List<String> keys, boolean read) {
+		Map<Integer, KeyGroup> groups = new LinkedHashMap<Integer, KeyGroup>();
+		for (int i = 0; i < keys.size(); i++) {
+			String key = keys.get(i);
+			if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+			int slot = slot(key);
+			KeyGroup group = groups.get(slot);
+			if (group == null) {
+				group = new KeyGroup(read ? readNodeOf(slot) : nodeOf(slot), slot);
+				groups.put(slot, group);
+			}
+			group.keys.add(key);
+			group.positions.add(i);
+		}
+		return KeyGroup.chunk(groups.values());
+	}
+
+	/**
+	 * Reply of a sub-command, redirected ones are sent again one by one following MOVED/ASK.
+	 */
+	private Object await(KeyGroup group, long deadline) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		try {
+			return group.future.result(KeyGroup.remain(deadline, timeout));
+		} catch (RedisException e) {
+			if (redirect(e) == null) throw e;
+			return execute(group.slot, group.request, false);	// the master of the slot now
+		}
+	}
+
+	/**
+	 * Get the connection of the node owning the slot of the key, as the slot map knows it.
+	 * @param key
+	 * @return node connection
+	 */
+	public Redis getNode(String key) {
+		return nodeOf(slot(key));
+	}
+
+	/**
+	 * @return connections by host:port, of all nodes seen so far
+	 */
+	public Map<String, Redis> getNodes() {
+		return Collections.unmodifiableMap(nodes);
+	}
+
+	@Override
+	public void close() throws IOException {
+		active = false;
+		synchronized (nodes) {
+			for (Redis node : nodes.values()) {
+				try {
+					node.close();
+				} catch (IOException e) {
+					if (LOGGER.isDebugEnabled()) {
+						LOGGER.debug("[Redis][Cluster][close failed with:" + e.getMessage() + "]", e);
+					}
+				}
+			}
+			nodes.clear();
+		}
+	}
+
+	/**
+	 * Set charset of the cluster client, applies to node connections created later.
+	 * @param charset charset name eg:UTF-8, ISO-8859-1
+	 */
+	public void setCharset(String charset) {
+		Charset.forName(charset);
+		this.charset = charset;
+	}
+
+	/**
+	 * @return charset name
+	 */
+	public String getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return query timeout in milliseconds.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Set query timeout, applies to node connections created later.
+	 * @param timeout query timeout in milliseconds.
+	 */
+	public void setTimeout(long timeout) {
+		if (timeout < 0) throw new IllegalArgumentException(">=0 required!");
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return where reads go
+	 */
+	public ReadPreference getReadPreference() {
+		return readPreference;
+	}
+
+	/**
+	 * Set where reads (GET, EXISTS, MGET) go, default {@link ReadPreference#MASTER}.
+	 * Other than MASTER, replicas are connected in READONLY mode on next slot map load, started at once.
+	 * @param readPreference
+	 */
+	public void setReadPreference(ReadPreference readPreference) {
+		if (readPreference == null) throw new IllegalArgumentException();
+		ReadPreference previous = this.readPreference;
+		this.readPreference = readPreference;
+		if (previous == ReadPreference.MASTER && readPreference != ReadPreference.MASTER) {
+			refresh();
+		}
+	}
+
+	/**
+	 * @return max MOVED/ASK redirects followed by one command.
+	 */
+	public int getMaxRedirects() {
+		return maxRedirects;
+	}
+
+	/**
+	 * Set max MOVED/ASK redirects followed by one command.
+	 * @param maxRedirects
+	 */
+	public void setMaxRedirects(int maxRedirects) {
+		if (maxRedirects < 0) throw new IllegalArgumentException(">=0 required!");
+		this.maxRedirects = maxRedirects;
+	}
+
+	/**
+	 * @return min interval of slot map reloads in milliseconds.
+	 */
+	public long getRefreshInterval() {
+		return refreshInterval;
+	}
+
+	/**
+	 * Set min interval of slot map reloads triggered by MOVED or lost connections.
+	 * @param refreshInterval in milliseconds.
+	 */
+	public void setRefreshInterval(long refreshInterval) {
+		if (refreshInterval < 0) throw new IllegalArgumentException(">=0 required!");
+		this.refreshInterval = refreshInterval;
+	}
+
+}
@@ -0,0 +1,22 @@
+package com.gmail.dengtao.joe.redis4j;
+
+/**
+ * <p>
+ * Side channel for failures of fire-and-forget writes, nobody waits on them.
+ * </p>
+ * <pre>
+ * Called on the event loop thread of the client, must be quick and never block.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface RedisErrorListener {
+
+	/**
+	 * A fire-and-forget write failed.
+	 * @param request RESP encoded request, with the CLIENT REPLY SKIP prefix in {@link NoWaitMode#SKIP}
+	 * @param cause error reply of the server, or the I/O or connection error
+	 */
+	void onError(byte[] request, Throwable cause);
+
+}
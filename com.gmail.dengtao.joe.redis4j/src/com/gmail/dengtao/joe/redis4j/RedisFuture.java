@@ -0,0 +1,284 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoder;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyVisitor;
+
+/**
+ * <p>
+ * Pending reply of a request sent without blocking the caller.
+ * </p>
+ * <pre>
+ * Completed on the event loop thread with the reply, an error reply (as {@link RedisException}),
+ * or the I/O or connection error which lost the request.
+ * The reply is decoded by the {@link ReplyDecoder} of the future, {@link ReplyDecoders#OBJECT} by default.
+ * A sent command can not be taken back, {@link #cancel(boolean)} always returns false.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class RedisFuture implements Future<Object> {
+
+	private final byte[] request;
+	private final ReplyDecoder<?> decoder;
+	private String charset = Protocol.DEFAULT_CHARSET;
+	private volatile boolean done = false;
+	private Object response;
+	private Throwable exception;
+	private NodeStats stats;
+	private long start;
+	private volatile Object waiter;	// monitor of a first(...) call waiting on this too
+	private WritableByteChannel sink;	// bulk string reply streamed to, null if buffered
+	private ReplyVisitor visitor;	// walks the reply, null to parse into objects
+	private volatile Runnable completion;	// run once done
+
+	/**
+	 * @param request RESP encoded request
+	 */
+	public RedisFuture(byte[] request) {
+		this(request, ReplyDecoders.OBJECT);
+	}
+
+	/**
+	 * @param request RESP encoded request
+	 * @param decoder decoder of the reply
+	 */
+	public RedisFuture(byte[] request, ReplyDecoder<?> decoder) {
+		if (decoder == null) throw new IllegalArgumentException();
+		this.request = request;
+		this.decoder = decoder;
+	}
+
+	/**
+	 * @return RESP encoded request
+	 */
+	public byte[] getRequest() {
+		return request;
+	}
+
+	/**
+	 * @return sink a bulk string reply streams to, null if buffered
+	 */
+	WritableByteChannel getSink() {
+		return sink;
+	}
+
+	/**
+	 * Stream a bulk string reply to the sink, the reply is then its length as a Long.
+	 */
+	void setSink(WritableByteChannel sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * @return visitor walking the reply, null if parsed into objects
+	 */
+	ReplyVisitor getVisitor() {
+		return visitor;
+	}
+
+	/**
+	 * Walk the reply by the visitor, the reply is then the visitor itself.
+	 */
+	void setVisitor(ReplyVisitor visitor) {
+		this.visitor = visitor;
+	}
+
+	/**
+	 * Run the task once done, on the thread completing the future.
+	 */
+	void setCompletion(Runnable completion) {
+		this.completion = completion;
+	}
+
+	/**
+	 * Count the request in the stats of the connection until done, decode by the charset of the connection.
+	 */
+	void track(NodeStats stats, String charset) {
+		this.start = stats.begin();
+		this.stats = stats;
+		this.charset = charset;
+	}
+
+	/**
+	 * Complete with a reply, {@link Throwable} data completes exceptionally.
+	 * @param data reply
+	 * @return false if already done
+	 */
+	boolean complete(Object data) {
+		synchronized (this) {
+			if (done) return false;
+			if (data instanceof Throwable) {
+				this.exception = (Throwable) data;
+			} else {
+				try {
+					this.response = decoder.decode(data, charset);
+				} catch (RuntimeException e) {
+					this.exception = new RedisException(e);
+				}
+			}
+			if (stats != null) {
+				stats.end(start, exception != null && !(exception instanceof RedisException));
+			}
+			done = true;
+			notifyAll();
+		}
+		Object lock = waiter;
+		if (lock != null) {
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+		}
+		Runnable task = completion;
+		if (task != null) task.run();
+		return true;
+	}
+
+	/**
+	 * Wait until done.
+	 * @param timeout in milliseconds, 0 to wait forever
+	 * @return true if done
+	 */
+	public boolean await(long timeout) {
+		return await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Wait until done.
+	 * @param timeout 0 to wait forever
+	 * @param unit unit of the timeout
+	 * @return true if done
+	 */
+	public boolean await(long timeout, TimeUnit unit) {
+		if (done) return true;
+		synchronized (this) {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			while (!done) {
+				long remain = deadline - System.nanoTime();
+				if (timeout > 0 && remain <= 0) break;
+				try {
+					if (timeout > 0) {
+						wait(remain / 1000000, (int) (remain % 1000000));
+					} else {
+						wait();
+					}
+				} catch (InterruptedException e) { Thread.currentThread().interrupt(); break; }
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * Wait for the first of the futures to be answered: a reply or an error reply.
+	 * A lost request (I/O, connection error) does not count while others are pending.
+	 * @param timeout in milliseconds, 0 to wait forever
+	 * @param futures sent requests
+	 * @return first answered, the last failed if none is answered, null on timeout
+	 */
+	static RedisFuture first(long timeout, RedisFuture... futures) {
+		Object lock = new Object();
+		for (RedisFuture future : futures) {
+			future.waiter = lock;
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (lock) {
+			while (true) {
+				RedisFuture failed = null;
+				int pending = 0;
+				for (RedisFuture future : futures) {
+					if (!future.done) {
+						pending++;
+					} else if (future.exception == null || future.exception instanceof RedisException) {
+						return future;
+					} else {
+						failed = future;
+					}
+				}
+				if (pending == 0) return failed;
+				long remain = deadline - System.currentTimeMillis();
+				if (timeout > 0 && remain <= 0) return null;
+				try { lock.wait(timeout > 0 ? remain : 0); } catch (InterruptedException e) { Thread.currentThread().interrupt(); return null; }
+			}
+		}
+	}
+
+	/**
+	 * Wait the reply, the way the blocking methods of {@link Redis} report errors.
+	 * @param timeout in milliseconds, 0 to wait forever
+	 * @return reply
+	 * @throws RedisTimeoutException if not done in time
+	 * @throws RedisException error reply
+	 */
+	public Object result(long timeout) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (!await(timeout)) {
+			throw new RedisTimeoutException();
+		}
+		Throwable cause = exception;
+		if (cause == null) return response;
+		if (cause instanceof RedisConnectionException) throw (RedisConnectionException) cause;
+		if (cause instanceof RedisIOException) throw (RedisIOException) cause;
+		if (cause instanceof RedisTimeoutException) throw (RedisTimeoutException) cause;
+		if (cause instanceof RedisException) throw (RedisException) cause;
+		throw new RedisException(cause);
+	}
+
+	/**
+	 * @return reply, null if not done or failed
+	 */
+	public Object getResponse() {
+		return response;
+	}
+
+	/**
+	 * @return error, null if not done or succeeded
+	 */
+	public Throwable getException() {
+		return exception;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public Object get() throws InterruptedException, ExecutionException {
+		await(0);
+		if (Thread.interrupted()) throw new InterruptedException();
+		if (exception != null) throw new ExecutionException(exception);
+		return response;
+	}
+
+	@Override
+	public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long millis = unit.toMillis(timeout);
+		if (!await(millis > 0 ? millis : 1)) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			throw new TimeoutException();
+		}
+		if (exception != null) throw new ExecutionException(exception);
+		return response;
+	}
+
+}
@@ -0,0 +1,26 @@
+package com.gmail.dengtao.joe.redis4j;
+
+/**
+ * <p>
+ * Listener of a {@link RedisSubscriber}, called on the event loop thread: keep it short, never block.
+ * </p>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface RedisMessageListener {
+
+	/**
+	 * A message is published to a subscribed channel, or a channel matching a subscribed pattern.
+	 * @param channel channel the message is published to
+	 * @param message message
+	 */
+	public void onMessage(String channel, Object message);
+
+	/**
+	 * The server confirmed a subscription, again after every reconnect:
+	 * messages published while disconnected are lost.
+	 * @param channel channel or pattern
+	 */
+	public void onSubscribe(String channel);
+
+}
@@ -0,0 +1,357 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.filter.ProtoFilter;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoop;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoop.ScheduledTask;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoopGroup;
+import com.gmail.dengtao.joe.redis4j.transport.HandlerAdapter;
+import com.gmail.dengtao.joe.redis4j.transport.IdleStatus;
+import com.gmail.dengtao.joe.redis4j.transport.NioTransport;
+import com.gmail.dengtao.joe.redis4j.transport.Session;
+
+/**
+ * <p>
+ * Pub/sub connection: subscribed channels and patterns push messages to a {@link RedisMessageListener}.
+ * </p>
+ * <pre>
+ * RedisSubscriber subscriber = new RedisSubscriber("127.0.0.1", 6379, "pwd", listener);
+ * subscriber.subscribe("news");
+ * subscriber.psubscribe("__keyspace@0__:*");
+ * </pre>
+ * <pre>
+ * Connects in the background and never blocks the caller.
+ * On reconnect all channels and patterns are subscribed again, confirmed by {@link RedisMessageListener#onSubscribe(String)}.
+ * A subscribed connection takes no other commands, use a {@link Redis} next to it.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class RedisSubscriber implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RedisSubscriber.class);
+	/** Connection information */
+	private final String host;
+	private final int port;
+	private final String password;
+	private String charset = Protocol.DEFAULT_CHARSET;
+	/** connection reconnect timeout */
+	private long reconnect = 1000;
+	/** connection idle timeout, PING then */
+	private long idleTime = 60000;
+
+	private final RedisMessageListener listener;
+	private final Set<String> channels = new CopyOnWriteArraySet<String>();
+	private final Set<String> patterns = new CopyOnWriteArraySet<String>();
+
+	private volatile boolean active = true;
+	private volatile Session session = null;
+	private final boolean clientId;	// CLIENT ID on connect
+	private volatile long id = -1;
+	private volatile long connects = 0;	// written on the loop only
+	private volatile ScheduledTask reconnectTask = null;
+	private final NioTransport transport;
+
+	/**
+	 * instance a subscriber, I/O done by {@link EventLoopGroup#getDefault()}.
+	 * @param host redis host
+	 * @param port redis port
+	 * @param password redis password, null if AUTH not required
+	 * @param listener listener of messages
+	 */
+	public RedisSubscriber(String host, int port, String password, RedisMessageListener listener) {
+		this(host, port, password, listener, EventLoopGroup.getDefault());
+	}
+
+	/**
+	 * instance a subscriber, I/O done by one loop of the group.
+	 * @param host redis host
+	 * @param port redis port
+	 * @param password redis password, null if AUTH not required
+	 * @param listener listener of messages
+	 * @param group event loop group shared with other clients
+	 */
+	public RedisSubscriber(String host, int port, String password, RedisMessageListener listener, EventLoopGroup group) {
+		this(host, port, password, listener, group, false);
+	}
+
+	/**
+	 * instance a subscriber that asks its client id on connect, for CLIENT TRACKING REDIRECT.
+	 * @param clientId true to send CLIENT ID before subscribing, see {@link #getClientId()}
+	 */
+	RedisSubscriber(String host, int port, String password, RedisMessageListener listener, EventLoopGroup group, boolean clientId) {
+		if (host == null || port < 1 || port > 65535 || listener == null || group == null) throw new IllegalArgumentException();
+		this.host = host; this.port = port; this.password = password;
+		this.listener = listener;
+		this.clientId = clientId;
+		this.transport = new NioTransport(group.next());
+		this.transport.setFilter(new ProtoFilter());
+		this.transport.setHandler(new MessageHandler());
+		this.transport.connect(host, port);
+	}
+
+	/**
+	 * Subscribe channels, now if connected, else on connect.
+	 * @param channels channel names
+	 */
+	public void subscribe(String... channels) {
+		this.channels.addAll(Arrays.asList(channels));
+		send(Protocol.Command.SUBSCRIBE, channels);
+	}
+
+	/**
+	 * Subscribe channel patterns, glob-style.
+	 * @param patterns channel patterns
+	 */
+	public void psubscribe(String... patterns) {
+		this.patterns.addAll(Arrays.asList(patterns));
+		send(Protocol.Command.PSUBSCRIBE, patterns);
+	}
+
+	/**
+	 * Unsubscribe channels.
+	 * @param channels channel names
+	 */
+	public void unsubscribe(String... channels) {
+		this.channels.removeAll(Arrays.asList(channels));
+		send(Protocol.Command.UNSUBSCRIBE, channels);
+	}
+
+	/**
+	 * Unsubscribe channel patterns.
+	 * @param patterns channel patterns
+	 */
+	public void punsubscribe(String... patterns) {
+		this.patterns.removeAll(Arrays.asList(patterns));
+		send(Protocol.Command.PUNSUBSCRIBE, patterns);
+	}
+
+	private void send(Protocol.Command command, String... names) {
+		Session session = this.session;
+		if (session == null || names.length == 0) return;	// (re)subscribed on connect
+		session.send(request(command, names));
+	}
+
+	private byte[] request(Protocol.Command command, String... names) {
+		Object[] args = new Object[names.length + 1];
+		args[0] = command;
+		System.arraycopy(names, 0, args, 1, names.length);
+		return new ProtoBuilder().setCharset(charset).array(args).build();
+	}
+
+	/**
+	 * @return loop doing the I/O of the subscriber, calling the listener
+	 */
+	EventLoop getEventLoop() {
+		return transport.getEventLoop();
+	}
+
+	/**
+	 * Schedule reconnect on the loop if still active.
+	 */
+	private void reconnectLater() {
+		if (!active) return;
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("[Redis][Subscriber][server gone away! reconnect in " + reconnect + " ms]");
+		}
+		reconnectTask = transport.getEventLoop().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (active) transport.connect(host, port);
+			}
+		}, reconnect);
+	}
+
+	/**
+	 * @return true if connected, subscriptions may not be confirmed yet.
+	 */
+	public boolean isConnected() {
+		return session != null;
+	}
+
+	/**
+	 * @return connections opened since created, counted before their subscriptions are sent:
+	 * what was confirmed on an earlier one may have been missed since
+	 */
+	long getConnects() {
+		return connects;
+	}
+
+	/**
+	 * @return client id of the connection, known before the subscriptions are confirmed; -1 if not asked or not connected
+	 */
+	public long getClientId() {
+		return id;
+	}
+
+	/**
+	 * @return redis host
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @return redis port
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Get charset of channel names and messages.
+	 * @return charset
+	 */
+	public String getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Set charset of channel names and messages.
+	 * @param charset charset name
+	 */
+	public void setCharset(String charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * @return reconnect delay in milliseconds
+	 */
+	public long getReconnect() {
+		return reconnect;
+	}
+
+	/**
+	 * Set reconnect delay, applies to next reconnect.
+	 * @param reconnect in milliseconds
+	 */
+	public void setReconnect(long reconnect) {
+		if (reconnect < 0) throw new IllegalArgumentException();
+		this.reconnect = reconnect;
+	}
+
+	/**
+	 * @return write idle time before a PING, in milliseconds
+	 */
+	public long getIdleTime() {
+		return idleTime;
+	}
+
+	/**
+	 * Set write idle time before a PING, applies to next connect.
+	 * @param idleTime in milliseconds
+	 */
+	public void setIdleTime(long idleTime) {
+		this.idleTime = idleTime;
+	}
+
+	/**
+	 * Close the connection, no reconnect.
+	 */
+	@Override
+	public void close() throws IOException {
+		active = false;
+		ScheduledTask task = reconnectTask;
+		if (task != null) task.cancel();
+		transport.close();
+	}
+
+	/*
+	 * Subscriber connection handler
+	 * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+	 * @version 1.0
+	 */
+	class MessageHandler extends HandlerAdapter {
+
+		@Override
+		public void sessionOpened(Session session) throws Exception {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Subscriber][connection established.]");
+			}
+			// pipelined, an AUTH error reply comes first and closes the session
+			if (password != null) {
+				session.send(new ProtoBuilder().setCharset(charset).array(Protocol.Command.AUTH, password).build());
+			}
+			if (clientId) {
+				session.send(new ProtoBuilder().array(Protocol.Command.CLIENT, "ID").build());
+			}
+			connects++;
+			RedisSubscriber.this.session = session;	// before the snapshot: a name added meanwhile is sent twice, never lost
+			if (!channels.isEmpty()) {
+				session.send(request(Protocol.Command.SUBSCRIBE, channels.toArray(new String[0])));
+			}
+			if (!patterns.isEmpty()) {
+				session.send(request(Protocol.Command.PSUBSCRIBE, patterns.toArray(new String[0])));
+			}
+			session.setIdleTime(IdleStatus.WRITE_IDLE, idleTime);
+		}
+
+		@Override
+		public void sessionIdle(Session session, IdleStatus status) throws Exception {
+			session.send(new ProtoBuilder().array(Protocol.Command.PING).build());
+		}
+
+		@Override
+		public void dataReceived(Session session, Object data) throws Exception {
+			if (data instanceof Throwable) {
+				LOGGER.error("[Redis][Subscriber][error reply:" + ((Throwable) data).getMessage() + "]");
+				session.close();
+				return;
+			}
+			if (data instanceof Number) {	// CLIENT ID
+				id = ((Number) data).longValue();
+				return;
+			}
+			if (!(data instanceof Object[])) return;	// +OK of AUTH
+			Object[] reply = (Object[]) data;
+			if (reply.length < 2) return;
+			String kind = String.valueOf(reply[0]);
+			try {
+				if ("message".equals(kind) && reply.length == 3) {
+					listener.onMessage(String.valueOf(reply[1]), reply[2]);
+				} else if ("pmessage".equals(kind) && reply.length == 4) {
+					listener.onMessage(String.valueOf(reply[2]), reply[3]);
+				} else if ("subscribe".equals(kind) || "psubscribe".equals(kind)) {
+					listener.onSubscribe(String.valueOf(reply[1]));
+				}
+			} catch (Exception e) {
+				LOGGER.error("[Redis][Subscriber][listener failed with:" + e.getMessage() + "]", e);
+			}
+		}
+
+		@Override
+		public void exceptionCaught(Session session, Throwable cause) {
+			if (cause instanceof ConnectException) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.error("[Redis][Subscriber][connection error:" + cause.getMessage() + "]", cause);
+				}
+				reconnectLater();
+			} else {
+				LOGGER.error("[Redis][Subscriber][" + cause.getMessage() + "][deep error?]", cause);
+			}
+		}
+
+		@Override
+		public void sessionClosed(Session session) throws Exception {
+			RedisSubscriber.this.session = null;
+			id = -1;
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Subscriber][session closed...]");
+			}
+			reconnectLater();
+		}
+
+	}
+
+}
@@ -0,0 +1,362 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.cache.NearCache;
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
+import com.gmail.dengtao.joe.redis4j.proto.CommandType;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoopGroup;
+
+/**
+ * <p>
+ * Client of a master monitored by Redis Sentinel, follows failovers.
+ * </p>
+ * <pre>
+ * SentinelRedis redis = new SentinelRedis("mymaster", Arrays.asList("10.0.0.1:26379", "10.0.0.2:26379"), "pwd");
+ * redis.set("key", "value");
+ * </pre>
+ * <b>Failover</b>
+ * <pre>
+ * The master address is asked from the sentinels in order, SENTINEL get-master-addr-by-name.
+ * Every sentinel is subscribed for +switch-master: on the first event the client connects the new master
+ * and closes the old connection, requests in flight on it fail.
+ * On every (re)subscribe the sentinel is asked again, events missed while disconnected are caught up.
+ * Switching runs on a thread of its own, never on an event loop; the old client is closed on another.
+ * The new client takes the settings of the old one: timeout, charset, reconnect, idle time, no-wait mode and
+ * error listener, single flight, socket options. Its near cache is the old one emptied, the new master may lack
+ * writes acknowledged by the old; tracking and key filter are set up anew on it.
+ * Sentinels are connected without AUTH.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class SentinelRedis implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SentinelRedis.class);
+	/** channel of failover events */
+	public static final String SWITCH_MASTER = "+switch-master";
+
+	private final String masterName;
+	private final List<String> sentinels;
+	private final String password;
+	private final EventLoopGroup group;
+	private final List<RedisSubscriber> subscribers = new ArrayList<RedisSubscriber>();
+	private final ExecutorService switcher;
+	private final ExecutorService closer;
+	private final AtomicLong failovers = new AtomicLong();
+	private volatile Redis master;
+	private volatile boolean active = true;
+
+	/**
+	 * instance a sentinel client, I/O done by {@link EventLoopGroup#getDefault()}.
+	 * @param masterName name of the master set in sentinel config
+	 * @param sentinels sentinel addresses, host:port
+	 * @param password redis password of master, null if AUTH not required
+	 * @throws RedisConnectionException if no sentinel knows the master
+	 */
+	public SentinelRedis(String masterName, List<String> sentinels, String password) throws RedisConnectionException {
+		this(masterName, sentinels, password, EventLoopGroup.getDefault());
+	}
+
+	/**
+	 * instance a sentinel client, I/O done by the group.
+	 * @param masterName name of the master set in sentinel config
+	 * @param sentinels sentinel addresses, host:port
+	 * @param password redis password of master, null if AUTH not required
+	 * @param group event loop group shared with other clients
+	 * @throws RedisConnectionException if no sentinel knows the master
+	 */
+	public SentinelRedis(String masterName, List<String> sentinels, String password, EventLoopGroup group) throws RedisConnectionException {
+		if (masterName == null || sentinels == null || sentinels.isEmpty() || group == null) throw new IllegalArgumentException();
+		this.masterName = masterName;
+		this.sentinels = new ArrayList<String>(sentinels);
+		this.password = password;
+		this.group = group;
+		String address = null;
+		for (String sentinel : this.sentinels) {
+			address = ask(sentinel);
+			if (address != null) break;
+		}
+		if (address == null) {
+			throw new RedisConnectionException("no sentinel knows master " + masterName);
+		}
+		this.master = connect(address);
+		this.switcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "redis4j-sentinel-" + SentinelRedis.this.masterName);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.closer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "redis4j-sentinel-close-" + SentinelRedis.this.masterName);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		for (final String sentinel : this.sentinels) {
+			String[] hostPort = split(sentinel);
+			RedisSubscriber subscriber = new RedisSubscriber(hostPort[0], Integer.parseInt(hostPort[1]), null, new RedisMessageListener() {
+				@Override
+				public void onMessage(String channel, Object message) {
+					// <master name> <old ip> <old port> <new ip> <new port>
+					String[] parts = String.valueOf(message).split(" ");
+					if (parts.length == 5 && SentinelRedis.this.masterName.equals(parts[0])) {
+						switchLater(parts[3] + ":" + parts[4], sentinel);
+					}
+				}
+
+				@Override
+				public void onSubscribe(String channel) {
+					switchLater(null, sentinel);
+				}
+			}, group);
+			subscriber.subscribe(SWITCH_MASTER);
+			subscribers.add(subscriber);
+		}
+	}
+
+	/**
+	 * Ask a sentinel for the master address.
+	 * @return host:port, null if the sentinel is down or does not know the master
+	 */
+	private String ask(String sentinel) {
+		String[] hostPort = split(sentinel);
+		Redis client = new Redis(hostPort[0], Integer.parseInt(hostPort[1]), null, group);
+		try {
+			byte[] request = new ProtoBuilder().array(Protocol.Command.SENTINEL, "get-master-addr-by-name", masterName).build();
+			Object reply = client.submit(request).result(client.getTimeout());
+			if (!(reply instanceof Object[]) || ((Object[]) reply).length != 2) return null;
+			Object[] address = (Object[]) reply;
+			return address[0] + ":" + address[1];
+		} catch (Exception e) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Sentinel][ask " + sentinel + " failed with:" + e.getMessage() + "]");
+			}
+			return null;
+		} finally {
+			try { client.close(); } catch (IOException e) { /* nothing */ }
+		}
+	}
+
+	private static String[] split(String address) {
+		int index = address.lastIndexOf(':');
+		if (index <= 0) throw new IllegalArgumentException("host:port required:" + address);
+		return new String[] { address.substring(0, index), address.substring(index + 1) };
+	}
+
+	private Redis connect(String address) {
+		String[] hostPort = split(address);
+		return new Redis(hostPort[0], Integer.parseInt(hostPort[1]), password, group);
+	}
+
+	/**
+	 * Connect the master at the address set up like the previous client.
+	 */
+	private Redis connect(String address, Redis previous) {
+		String[] hostPort = split(address);
+		Redis client = new Redis(hostPort[0], Integer.parseInt(hostPort[1]), password, group, previous.getSocketOptions());
+		client.setTimeout(previous.getTimeout());
+		client.setCharset(previous.getCharset());
+		client.setReconnect(previous.getReconnect());
+		client.setIdleTime(previous.getIdleTime());
+		client.setNoWaitMode(previous.getNoWaitMode());
+		client.setErrorListener(previous.getErrorListener());
+		client.setSingleFlight(previous.getSingleFlight().toArray(new CommandType[0]));
+		ClientTracking tracking = previous.getTracking();
+		NearCache<String, String> cache = previous.getNearCache();
+		if (tracking != null) {
+			tracking.copyFor(client);
+		} else if (cache != null) {
+			cache.invalidateAll();
+			client.setNearCache(cache);
+		}
+		KeyFilter filter = previous.getKeyFilter();
+		if (filter != null) filter.copyFor(client);
+		return client;
+	}
+
+	/**
+	 * Switch to the address on the switcher thread.
+	 * @param address new master, null to ask the sentinel
+	 */
+	private void switchLater(final String address, final String sentinel) {
+		if (!active) return;
+		try {
+			switcher.execute(new Runnable() {
+				@Override
+				public void run() {
+					String target = address == null ? ask(sentinel) : address;
+					if (target != null) switchTo(target);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			/* closed meanwhile */
+		}
+	}
+
+	/**
+	 * Connect the master at the address if it is not the current one.
+	 * @return true if switched
+	 */
+	private boolean switchTo(String address) {
+		Redis previous = master;
+		if (!active || address.equals(previous.getHost() + ":" + previous.getPort())) return false;
+		Redis next = connect(address, previous);	// outside the monitor, it waits for the connection
+		synchronized (this) {
+			if (!active || master != previous) {	// closed or switched by another meanwhile
+				closeLater(next);
+				return false;
+			}
+			LOGGER.warn("[Redis][Sentinel][master " + masterName + " switched from " + previous.getHost() + ":" + previous.getPort() + " to " + address + "]");
+			master = next;
+			failovers.incrementAndGet();
+		}
+		closeLater(previous);
+		return true;
+	}
+
+	/**
+	 * Close a client with its tracking and key filter on the closer thread, a dead master may take the timeout.
+	 */
+	private void closeLater(final Redis client) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				closeQuietly(client.getTracking());
+				closeQuietly(client.getKeyFilter());
+				closeQuietly(client);
+			}
+		};
+		try {
+			closer.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.run();	// closed meanwhile
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable == null) return;
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Redis][Sentinel][close old master failed with:" + e.getMessage() + "]");
+			}
+		}
+	}
+
+	/**
+	 * Ask the sentinels for the master now, switch if it moved.
+	 * @return true if switched
+	 * @throws RedisConnectionException if no sentinel knows the master
+	 */
+	public boolean refresh() throws RedisConnectionException {
+		for (String sentinel : sentinels) {
+			String address = ask(sentinel);
+			if (address != null) return switchTo(address);
+		}
+		throw new RedisConnectionException("no sentinel knows master " + masterName);
+	}
+
+	/**
+	 * @see Redis#set(String, String)
+	 */
+	public boolean set(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return master.set(key, val);
+	}
+
+	/**
+	 * @see Redis#set(String, String, long)
+	 */
+	public boolean set(String key, String val, long expire) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return master.set(key, val, expire);
+	}
+
+	/**
+	 * @see Redis#append(String, String)
+	 */
+	public boolean append(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return master.append(key, val);
+	}
+
+	/**
+	 * @see Redis#get(String)
+	 */
+	public Object get(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return master.get(key);
+	}
+
+	/**
+	 * @see Redis#del(String)
+	 */
+	public boolean del(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return master.del(key);
+	}
+
+	/**
+	 * @see Redis#exists(String)
+	 */
+	public boolean exists(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return master.exists(key);
+	}
+
+	/**
+	 * @return client of the current master, replaced on failover
+	 */
+	public Redis getMaster() {
+		return master;
+	}
+
+	/**
+	 * @return name of the master set
+	 */
+	public String getMasterName() {
+		return masterName;
+	}
+
+	/**
+	 * @return number of master switches since created
+	 */
+	public long getFailovers() {
+		return failovers.get();
+	}
+
+	/**
+	 * Close subscriptions and the master client, with its tracking and key filter.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			active = false;
+		}
+		switcher.shutdown();
+		closer.shutdown();
+		for (RedisSubscriber subscriber : subscribers) {
+			subscriber.close();
+		}
+		closeQuietly(master.getTracking());
+		closeQuietly(master.getKeyFilter());
+		master.close();
+	}
+
+}
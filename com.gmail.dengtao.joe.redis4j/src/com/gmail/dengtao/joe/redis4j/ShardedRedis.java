@@ -0,0 +1,440 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisTimeoutException;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.utils.ByteUtils;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * <p>
+ * Client side sharding over standalone redis nodes, by a ketama consistent hash ring.
+ * </p>
+ * <b>Ring</b>
+ * <pre>
+ * Each shard is put on the ring at weight * {@link #getPoints()} points, 4 points per MD5 of "name-i".
+ * A key belongs to the first point at or after MD5(key), only its first non-empty {hashtag} is hashed if there is one.
+ * Points depend on shard names only: adding or removing one of N shards moves about 1/N of the keys.
+ * </pre>
+ * <b>Batches</b>
+ * <pre>
+ * {@link #mget(List)}, {@link #mset(Map)}, {@link #del(Collection)} and {@link #exists(Collection)} split keys by shard,
+ * one sub-command per shard (pipelined chunks for big groups), all shards at once:
+ * a batch costs about one round trip of the slowest shard, replies come back in the caller's order.
+ * </pre>
+ * <pre>
+ * ShardedRedis sharded = new ShardedRedis();
+ * sharded.addShard(new Redis("10.0.0.1", 6379, "pwd"));
+ * sharded.addShard("big", new Redis("10.0.0.2", 6379, "pwd"), 2);
+ * sharded.set("user:1", "joe");
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class ShardedRedis implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShardedRedis.class);
+	/** ring points of a shard per unit of weight, as ketama */
+	public static final int DEFAULT_POINTS = 160;
+
+	private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private final int points;
+	private String charset = Protocol.DEFAULT_CHARSET;
+	/** batch timeout */
+	private long timeout = 30000;
+	private final Map<String, Shard> shards = new LinkedHashMap<String, Shard>();	// guarded by this
+	private volatile TreeMap<Long, Shard> ring = new TreeMap<Long, Shard>();
+
+	/*
+	 * Shard on the ring
+	 */
+	static class Shard {
+		final String name;
+		final Redis redis;
+		final int weight;
+
+		Shard(String name, Redis redis, int weight) {
+			this.name = name;
+			this.redis = redis;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * instance an empty sharded client, {@link #DEFAULT_POINTS} ring points per weight.
+	 */
+	public ShardedRedis() {
+		this(DEFAULT_POINTS);
+	}
+
+	/**
+	 * instance an empty sharded client.
+	 * @param points ring points of a shard per unit of weight, more points spread keys more evenly
+	 */
+	public ShardedRedis(int points) {
+		if (points < 4) throw new IllegalArgumentException(">=4 required!");
+		this.points = points;
+	}
+
+	/**
+	 * instance a sharded client over the clients, all of weight 1, named host:port.
+	 * @param shards clients of the shards
+	 */
+	public ShardedRedis(List<Redis> shards) {
+		this(DEFAULT_POINTS);
+		for (Redis redis : shards) {
+			addShard(redis);
+		}
+	}
+
+	/**
+	 * Add a shard of weight 1 named host:port.
+	 * @param redis client of the shard
+	 */
+	public void addShard(Redis redis) {
+		if (redis == null) throw new IllegalArgumentException();
+		addShard(redis.getHost() + ":" + redis.getPort(), redis, 1);
+	}
+
+	/**
+	 * Add a shard, about 1/N of the keys move to it.
+	 * @param name stable name of the shard, its ring points are derived from it
+	 * @param redis client of the shard
+	 * @param weight relative share of keys
+	 */
+	public synchronized void addShard(String name, Redis redis, int weight) {
+		if (StringUtils.isBlank(name) || redis == null || weight < 1) throw new IllegalArgumentException();
+		if (shards.containsKey(name)) throw new IllegalArgumentException("shard exists:" + name);
+		shards.put(name, new Shard(name, redis, weight));
+		rebuild();
+	}
+
+	/**
+	 * Remove a shard, its keys move to the next shards on the ring.
+	 * @param name name of the shard
+	 * @return client of the removed shard, not closed; null if not found
+	 */
+	public synchronized Redis removeShard(String name) {
+		Shard shard = shards.remove(name);
+		if (shard == null) return null;
+		rebuild();
+		return shard.redis;
+	}
+
+	private void rebuild() {
+		TreeMap<Long, Shard> ring = new TreeMap<Long, Shard>();
+		for (Shard shard : shards.values()) {
+			int digests = shard.weight * points / 4;
+			for (int i = 0; i < digests; i++) {
+				byte[] digest = md5(StringUtils.getBytes(shard.name + "-" + i, Protocol.DEFAULT_CHARSET), 0, -1);
+				for (int h = 0; h < 4; h++) {
+					ring.put(point(digest, h), shard);
+				}
+			}
+		}
+		this.ring = ring;
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("[Redis][Sharded][ring rebuilt][shards:" + shards.keySet() + ", points:" + ring.size() + "]");
+		}
+	}
+
+	private static byte[] md5(byte[] bts, int offset, int length) {
+		MessageDigest md5 = MD5.get();
+		md5.reset();
+		md5.update(bts, offset, length < 0 ? bts.length - offset : length);
+		return md5.digest();
+	}
+
+	/**
+	 * 32 bit little endian point h of a 16 bytes digest, as ketama.
+	 */
+	private static long point(byte[] digest, int h) {
+		return ((long) (digest[3 + h * 4] & 0xFF) << 24)
+				| ((long) (digest[2 + h * 4] & 0xFF) << 16)
+				| ((long) (digest[1 + h * 4] & 0xFF) << 8)
+				| (digest[h * 4] & 0xFF);
+	}
+
+	/**
+	 * Ring position of a key.
+	 * @param key key bytes
+	 * @return position in [0, 2^32)
+	 */
+	public static long hash(byte[] key) {
+		int start = ByteUtils.indexOf(key, (byte) '{');
+		if (start != -1) {
+			int end = ByteUtils.indexOf(key, (byte) '}', start + 1);
+			if (end > start + 1) {
+				return point(md5(key, start + 1, end - start - 1), 0);
+			}
+		}
+		return point(md5(key, 0, -1), 0);
+	}
+
+	private Shard shardOf(String key) {
+		TreeMap<Long, Shard> ring = this.ring;
+		if (ring.isEmpty()) throw new IllegalStateException("no shard!");
+		Map.Entry<Long, Shard> entry = ring.ceilingEntry(hash(StringUtils.getBytes(key, charset)));
+		return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+	}
+
+	/**
+	 * @param key
+	 * @return client of the shard the key belongs to
+	 */
+	public Redis getShard(String key) {
+		return shardOf(key).redis;
+	}
+
+	/**
+	 * @param key
+	 * @return name of the shard the key belongs to
+	 */
+	public String getShardName(String key) {
+		return shardOf(key).name;
+	}
+
+	/**
+	 * @return clients by shard name
+	 */
+	public synchronized Map<String, Redis> getShards() {
+		Map<String, Redis> result = new LinkedHashMap<String, Redis>();
+		for (Shard shard : shards.values()) {
+			result.put(shard.name, shard.redis);
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * @see Redis#set(String, String)
+	 */
+	public boolean set(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return getShard(key).set(key, val);
+	}
+
+	/**
+	 * @see Redis#set(String, String, long)
+	 */
+	public boolean set(String key, String val, long expire) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return getShard(key).set(key, val, expire);
+	}
+
+	/**
+	 * @see Redis#append(String, String)
+	 */
+	public boolean append(String key, String val) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return getShard(key).append(key, val);
+	}
+
+	/**
+	 * @see Redis#get(String)
+	 */
+	public Object get(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return getShard(key).get(key);
+	}
+
+	/**
+	 * @see Redis#del(String)
+	 */
+	public boolean del(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return getShard(key).del(key);
+	}
+
+	/**
+	 * @see Redis#exists(String)
+	 */
+	public boolean exists(String key) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return getShard(key).exists(key);
+	}
+
+	/**
+	 * Get values of the keys, see {@link #mget(List)}.
+	 * @param keys
+	 * @return values by key in order of the keys, null value if not exists
+	 */
+	public Map<String, Object> getAll(Collection<String> keys) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		List<String> list = new ArrayList<String>(new LinkedHashSet<String>(keys));
+		List<Object> values = mget(list);
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < list.size(); i++) {
+			result.put(list.get(i), values.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Set the values, see {@link #mset(Map)}.
+	 * @param values values by key
+	 */
+	public void setAll(Map<String, String> values) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		mset(values);
+	}
+
+	/**
+	 * Get values of the keys: one MGET per shard, all shards in parallel.
+	 * @param keys
+	 * @return values in order of the keys, null if not exists
+	 */
+	public List<Object> mget(List<String> keys) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		List<KeyGroup> groups = group(keys);
+		KeyGroup.send(groups, Protocol.Command.MGET, null, charset);
+		Object[] result = new Object[keys.size()];
+		long deadline = System.currentTimeMillis() + timeout;
+		for (KeyGroup group : groups) {
+			group.fill(result, group.future.result(KeyGroup.remain(deadline, timeout)));
+		}
+		return Arrays.asList(result);
+	}
+
+	/**
+	 * Set the values: one MSET per shard, all shards in parallel.
+	 * Atomic per shard only.
+	 * @param values values by key
+	 * @return true on success
+	 */
+	public boolean mset(Map<String, String> values) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		if (values.containsValue(null)) throw new IllegalArgumentException("null value!");
+		List<KeyGroup> groups = group(new ArrayList<String>(values.keySet()));
+		KeyGroup.send(groups, Protocol.Command.MSET, values, charset);
+		long deadline = System.currentTimeMillis() + timeout;
+		for (KeyGroup group : groups) {
+			group.future.result(KeyGroup.remain(deadline, timeout));
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the keys: one DEL per shard, all shards in parallel.
+	 * @param keys
+	 * @return number of keys removed
+	 */
+	public long del(Collection<String> keys) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return count(Protocol.Command.DEL, keys);
+	}
+
+	/**
+	 * Count existing keys: one EXISTS per shard, all shards in parallel.
+	 * @param keys
+	 * @return number of keys exist, a key given twice counts twice
+	 */
+	public long exists(Collection<String> keys) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		return count(Protocol.Command.EXISTS, keys);
+	}
+
+	private long count(Protocol.Command command, Collection<String> keys) throws RedisConnectionException, RedisIOException, RedisException, RedisTimeoutException {
+		List<KeyGroup> groups = group(new ArrayList<String>(keys));
+		KeyGroup.send(groups, command, null, charset);
+		long count = 0;
+		long deadline = System.currentTimeMillis() + timeout;
+		for (KeyGroup group : groups) {
+			count += ((Number) group.future.result(KeyGroup.remain(deadline, timeout))).longValue();
+		}
+		return count;
+	}
+
+	/**
+	 * Keys by shard, with their positions.
+	 */
+	private List<KeyGroup> group(List<String> keys) {
+		Map<Shard, KeyGroup> groups = new LinkedHashMap<Shard, KeyGroup>();
+		for (int i = 0; i < keys.size(); i++) {
+			String key = keys.get(i);
+			if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+			Shard shard = shardOf(key);
+			KeyGroup group = groups.get(shard);
+			if (group == null) {
+				group = new KeyGroup(shard.redis, -1);
+				groups.put(shard, group);
+			}
+			group.keys.add(key);
+			group.positions.add(i);
+		}
+		return KeyGroup.chunk(groups.values());
+	}
+
+	/**
+	 * Close clients of all shards.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		for (Shard shard : shards.values()) {
+			try {
+				shard.redis.close();
+			} catch (IOException e) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("[Redis][Sharded][close " + shard.name + " failed with:" + e.getMessage() + "]", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return ring points of a shard per unit of weight
+	 */
+	public int getPoints() {
+		return points;
+	}
+
+	/**
+	 * Set charset keys are hashed with, same as the shard clients.
+	 * @param charset charset name eg:UTF-8, ISO-8859-1
+	 */
+	public void setCharset(String charset) {
+		Charset.forName(charset);
+		this.charset = charset;
+	}
+
+	/**
+	 * @return charset name
+	 */
+	public String getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return batch timeout in milliseconds.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Set timeout of a whole batch.
+	 * @param timeout in milliseconds, 0 to wait forever
+	 */
+	public void setTimeout(long timeout) {
+		if (timeout < 0) throw new IllegalArgumentException(">=0 required!");
+		this.timeout = timeout;
+	}
+
+}
@@ -0,0 +1,302 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoop.ScheduledTask;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * <p>
+ * Write-behind buffer of SET and DEL: the last write per key within a flush window is sent, the others never are.
+ * </p>
+ * <pre>
+ * WriteBehind writes = new WriteBehind(redis, 100, 1000);	// flush every 100 ms, or at 1000 keys
+ * writes.set("session:1", json);	// returns at once
+ * writes.set("session:1", json2);	// replaces the write above
+ * writes.close();	// flushes what is left
+ * </pre>
+ * <b>Flush</b>
+ * <pre>
+ * One payload of pipelined commands: MSET of the values, SET PX of values with an expire, DEL of the deletes.
+ * Flushes run on the event loop of the client, or on the caller adding the key that fills the buffer,
+ * one at a time: a batch is submitted before the next is taken, a key's writes reach redis in order.
+ * Failed flushes are logged and counted in {@link #getDropped()}, never retried.
+ * Reads through the client do not see buffered writes; its near cache entries are dropped on buffer and on flush.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class WriteBehind implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehind.class);
+
+	private final Redis redis;
+	private final long interval;
+	private final int maxKeys;
+	private final Object lock = new Object();
+	private final Object sending = new Object();	// taken before lock: batches submitted in the order taken
+	private Map<String, Write> pending = new LinkedHashMap<String, Write>();	// under lock
+	private volatile boolean active = true;
+	private volatile ScheduledTask flushTask;
+	private volatile RedisFuture last;	// done once the replies of the last flush are counted
+	/** metrics */
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+	private volatile long lastLatency = 0;
+
+	/**
+	 * @param redis client the writes go to
+	 * @param interval flush window, in milliseconds
+	 * @param maxKeys keys buffered before a flush at once
+	 */
+	public WriteBehind(Redis redis, long interval, int maxKeys) {
+		if (redis == null || interval <= 0 || maxKeys < 1) throw new IllegalArgumentException();
+		this.redis = redis;
+		this.interval = interval;
+		this.maxKeys = maxKeys;
+		schedule();
+	}
+
+	private void schedule() {
+		flushTask = redis.getTransport().getEventLoop().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!active) return;
+				flush();
+				schedule();
+			}
+		}, interval);
+	}
+
+	/**
+	 * Buffer a SET of the key.
+	 * @param key
+	 * @param val
+	 */
+	public void set(String key, String val) {
+		if (val == null) throw new IllegalArgumentException();
+		buffer(key, new Write(val, 0));
+	}
+
+	/**
+	 * Buffer a SET of the key with an expire.
+	 * @param key
+	 * @param val
+	 * @param expire in milliseconds
+	 */
+	public void set(String key, String val, long expire) {
+		if (val == null || expire <= 0) throw new IllegalArgumentException();
+		buffer(key, new Write(val, expire));
+	}
+
+	/**
+	 * Buffer a DEL of the key.
+	 * @param key
+	 */
+	public void del(String key) {
+		buffer(key, new Write(null, 0));
+	}
+
+	private void buffer(String key, Write write) {
+		if (StringUtils.isBlank(key)) throw new IllegalArgumentException();
+		boolean full;
+		synchronized (lock) {
+			if (!active) throw new IllegalStateException("closed");
+			pending.remove(key);	// the key moves to the end, in order of its last write
+			pending.put(key, write);
+			full = pending.size() >= maxKeys;
+		}
+		writes.incrementAndGet();
+		redis.invalidate(key);
+		if (full) flush();
+	}
+
+	/**
+	 * Send the buffered writes now, without waiting for the replies.
+	 */
+	public void flush() {
+		synchronized (sending) {
+			Map<String, Write> batch;
+			synchronized (lock) {
+				if (pending.isEmpty()) return;
+				batch = pending;
+				pending = new LinkedHashMap<String, Write>();
+			}
+			send(batch);
+		}
+	}
+
+	private void send(final Map<String, Write> batch) {
+		List<Object> mset = new ArrayList<Object>();
+		List<Object> del = new ArrayList<Object>();
+		final List<byte[]> requests = new ArrayList<byte[]>();
+		final List<Integer> counts = new ArrayList<Integer>();	// keys per request
+		String charset = redis.getCharset();
+		mset.add(Protocol.Command.MSET);
+		del.add(Protocol.Command.DEL);
+		for (Map.Entry<String, Write> entry : batch.entrySet()) {
+			Write write = entry.getValue();
+			if (write.value == null) {
+				del.add(entry.getKey());
+			} else if (write.expire > 0) {
+				requests.add(new ProtoBuilder().setCharset(charset).array(Protocol.Command.SET, entry.getKey(), write.value, "PX", String.valueOf(write.expire)).build());
+				counts.add(1);
+			} else {
+				mset.add(entry.getKey());
+				mset.add(write.value);
+			}
+		}
+		if (mset.size() > 1) {
+			requests.add(new ProtoBuilder().setCharset(charset).array(mset.toArray()).build());
+			counts.add(mset.size() / 2);
+		}
+		if (del.size() > 1) {
+			requests.add(new ProtoBuilder().setCharset(charset).array(del.toArray()).build());
+			counts.add(del.size() - 1);
+		}
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		final RedisFuture[] futures = new RedisFuture[requests.size()];
+		for (int i = 0; i < futures.length; i++) {
+			byte[] request = requests.get(i);
+			futures[i] = new RedisFuture(request, ReplyDecoders.RAW);
+			payload.write(request, 0, request.length);
+		}
+		final long start = System.nanoTime();
+		final RedisFuture flushed = new RedisFuture(null, ReplyDecoders.RAW);
+		futures[futures.length - 1].setCompletion(new Runnable() {
+			@Override
+			public void run() {	// replies in order: the last one completes all
+				lastLatency = System.nanoTime() - start;
+				flushes.incrementAndGet();
+				for (int i = 0; i < futures.length; i++) {
+					Throwable cause = futures[i].getException();
+					if (cause == null) {
+						written.addAndGet(counts.get(i));
+					} else {
+						dropped.addAndGet(counts.get(i));
+						LOGGER.error("[Redis][WriteBehind][" + counts.get(i) + " writes dropped:" + cause.getMessage() + "]");
+					}
+				}
+				for (String key : batch.keySet()) {
+					redis.invalidate(key);
+				}
+				flushed.complete(Boolean.TRUE);
+			}
+		});
+		last = flushed;
+		redis.submit(payload.toByteArray(), futures);
+	}
+
+	/**
+	 * @return keys buffered, not sent yet
+	 */
+	public int getPending() {
+		synchronized (lock) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * @return set and del calls since created
+	 */
+	public long getWrites() {
+		return writes.get();
+	}
+
+	/**
+	 * @return writes done by redis since created, fewer than {@link #getWrites()} by the writes replaced in the buffer
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * @return writes lost since created: failed flushes, or left when closed disconnected
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return flushes done since created
+	 */
+	public long getFlushes() {
+		return flushes.get();
+	}
+
+	/**
+	 * @return mean keys per flush
+	 */
+	public double getMeanBatchSize() {
+		long flushes = this.flushes.get();
+		return flushes == 0 ? 0 : (double) (written.get() + dropped.get()) / flushes;
+	}
+
+	/**
+	 * @return time from sending the last flush to its last reply, in microseconds
+	 */
+	public long getLastFlushLatency() {
+		return lastLatency / 1000;
+	}
+
+	/**
+	 * @return flush window, in milliseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return keys buffered before a flush at once
+	 */
+	public int getMaxKeys() {
+		return maxKeys;
+	}
+
+	/**
+	 * Stop buffering, flush what is left and wait for it within the client timeout.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			if (!active) return;
+			active = false;
+		}
+		ScheduledTask task = flushTask;
+		if (task != null) task.cancel();
+		flush();
+		RedisFuture future = last;
+		if (future != null && !future.await(redis.getTimeout())) {
+			LOGGER.warn("[Redis][WriteBehind][close timed out waiting for the last flush]");
+		}
+	}
+
+	/*
+	 * Last write of a key: a value, or a delete if null.
+	 */
+	static final class Write {
+		private final String value;
+		private final long expire;
+
+		Write(String value, long expire) {
+			this.value = value;
+			this.expire = expire;
+		}
+	}
+
+}
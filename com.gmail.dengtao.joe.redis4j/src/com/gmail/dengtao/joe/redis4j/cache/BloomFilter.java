@@ -0,0 +1,141 @@
+package com.gmail.dengtao.joe.redis4j.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Bloom filter of strings: {@link #mightContain(String)} false means never put, true means likely put.
+ * </p>
+ * <pre>
+ * BloomFilter keys = new BloomFilter(1000000, 0.01);	// 1.2 MB, 7 probes
+ * keys.put("user:1");
+ * keys.mightContain("user:1");	// true
+ * keys.mightContain("user:2");	// false, true for about 1% of keys never put
+ * </pre>
+ * <b>Layout</b>
+ * <pre>
+ * Bits m = -n ln p / (ln 2)^2 for n expected strings at false positive rate p, k = m / n ln 2 probes.
+ * Probes by double hashing h1 + i * h2 of one 64-bit hash of the chars.
+ * Thread safe, lock free: bits are set by compare and set, never cleared.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class BloomFilter {
+
+	private final AtomicLongArray bits;
+	private final long size;	// bits
+	private final int probes;
+	private final long capacity;
+	private final AtomicLong puts = new AtomicLong();
+
+	/**
+	 * @param expected strings to be put
+	 * @param fpp false positive rate at the expected count, eg 0.01
+	 */
+	public BloomFilter(long expected, double fpp) {
+		if (expected < 1 || fpp <= 0 || fpp >= 1) throw new IllegalArgumentException();
+		long size = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+		long words = Math.max(1, (size + 63) >>> 6);
+		if (words > Integer.MAX_VALUE) throw new IllegalArgumentException("too large:" + expected);
+		this.bits = new AtomicLongArray((int) words);
+		this.size = words << 6;
+		this.probes = Math.max(1, (int) Math.round((double) this.size / expected * Math.log(2)));
+		this.capacity = expected;
+	}
+
+	/**
+	 * @param value
+	 * @return true if the value was not likely put before
+	 */
+	public boolean put(String value) {
+		long hash = hash(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		boolean changed = false;
+		for (int i = 1; i <= probes; i++) {
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % size;
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			for (;;) {
+				long current = bits.get(word);
+				if ((current & mask) != 0) break;
+				if (bits.compareAndSet(word, current, current | mask)) {
+					changed = true;
+					break;
+				}
+			}
+		}
+		if (changed) puts.incrementAndGet();
+		return changed;
+	}
+
+	/**
+	 * @param value
+	 * @return false if the value was never put, true if likely put
+	 */
+	public boolean mightContain(String value) {
+		long hash = hash(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= probes; i++) {
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % size;
+			if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * FNV-1a over the chars, finished by the murmur3 mix: both halves well spread.
+	 */
+	private static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * @return distinct strings put, approximately: a put colliding on all bits is not counted
+	 */
+	public long getCount() {
+		return puts.get();
+	}
+
+	/**
+	 * @return strings the filter is sized for
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return expected false positive rate at the current count, (1 - e^(-k n / m))^k
+	 */
+	public double getExpectedFpp() {
+		return Math.pow(1 - Math.exp(-(double) probes * puts.get() / size), probes);
+	}
+
+	/**
+	 * @return bits of the filter
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return bits probed per string
+	 */
+	public int getProbes() {
+		return probes;
+	}
+
+}
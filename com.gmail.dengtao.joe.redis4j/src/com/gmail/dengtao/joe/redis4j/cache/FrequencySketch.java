@@ -0,0 +1,87 @@
+package com.gmail.dengtao.joe.redis4j.cache;
+
+/**
+ * <p>
+ * Count-min sketch of 4-bit counters estimating how often a key was seen lately, the TinyLFU admission filter.
+ * </p>
+ * <pre>
+ * Four counters per key in one long of the table, the estimate is the least of them.
+ * After 10 x capacity increments all counters are halved: old popularity fades.
+ * Not thread safe, guarded by the cache lock.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+class FrequencySketch {
+
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	private final long[] table;
+	private final int mask;
+	private final int sampleSize;
+	private int size = 0;
+
+	/**
+	 * @param capacity max entries of the cache
+	 */
+	FrequencySketch(int capacity) {
+		int length = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 1;
+		this.table = new long[length];
+		this.mask = length - 1;
+		this.sampleSize = Math.max(capacity, 8) * 10;
+	}
+
+	/**
+	 * @return estimated count, 0 to 15
+	 */
+	int frequency(int hash) {
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			frequency = Math.min(frequency, count(hash, i));
+		}
+		return frequency;
+	}
+
+	/**
+	 * Count one more sighting.
+	 */
+	void increment(int hash) {
+		int min = frequency(hash);
+		if (min == 15) return;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			if (count(hash, i) == min) {	// conservative update: only the least counters grow
+				int index = index(hash, i);
+				table[index] += 1L << offset(hash, i);
+				added = true;
+			}
+		}
+		if (added && ++size >= sampleSize) {
+			reset();
+		}
+	}
+
+	private int count(int hash, int i) {
+		return (int) ((table[index(hash, i)] >>> offset(hash, i)) & 0xF);
+	}
+
+	private int index(int hash, int i) {
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += h >>> 32;
+		return (int) h & mask;
+	}
+
+	/** counter i of the 16 in the long, its bit offset */
+	private static int offset(int hash, int i) {
+		return (((hash >>> (i << 3)) & 3) << 2 | i) << 2;
+	}
+
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size >>>= 1;
+	}
+
+}
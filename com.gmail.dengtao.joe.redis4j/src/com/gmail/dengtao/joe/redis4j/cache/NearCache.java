@@ -0,0 +1,101 @@
+package com.gmail.dengtao.joe.redis4j.cache;
+
+/**
+ * <p>
+ * In-process cache of values read from redis, see {@link com.gmail.dengtao.joe.redis4j.Redis#setNearCache(NearCache)}.
+ * </p>
+ * <pre>
+ * {@link TinyLfuCache}	on the heap, bounded by entry count, W-TinyLFU eviction
+ * {@link OffHeapCache}	in direct memory, bounded by bytes, values decoded on hit
+ * </pre>
+ * <b>Staleness</b>
+ * <pre>
+ * An entry lives for its TTL, never longer than the max staleness of the cache.
+ * A read sent before an invalidation of its key and answered after it is not cached:
+ * take {@link #stamp(Object)} before sending, put with it after.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface NearCache<K, V> {
+
+	/**
+	 * @param key
+	 * @return cached value, null if absent or expired
+	 */
+	public V get(K key);
+
+	/**
+	 * Cache the value for the max staleness.
+	 * @param key
+	 * @param value not null
+	 */
+	public void put(K key, V value);
+
+	/**
+	 * Cache the value for the TTL, capped by the max staleness.
+	 * @param key
+	 * @param value not null
+	 * @param ttl in milliseconds
+	 */
+	public void put(K key, V value, long ttl);
+
+	/**
+	 * Cache a value read from redis unless the key was invalidated since the read was sent.
+	 * @param key
+	 * @param value not null
+	 * @param ttl in milliseconds, capped by the max staleness
+	 * @param stamp {@link #stamp(Object)} taken before the read was sent
+	 * @return false if not cached: invalidated meanwhile, or no room for it
+	 */
+	public boolean put(K key, V value, long ttl, long stamp);
+
+	/**
+	 * Stamp of the key, to be taken before a read is sent, see {@link #put(Object, Object, long, long)}.
+	 * @param key
+	 * @return current stamp
+	 */
+	public long stamp(K key);
+
+	/**
+	 * Drop the entry, a read in flight for the key is not cached.
+	 * @param key
+	 */
+	public void invalidate(K key);
+
+	/**
+	 * Drop all entries, reads in flight are not cached.
+	 */
+	public void invalidateAll();
+
+	/**
+	 * @return number of entries, expired ones included until read or evicted
+	 */
+	public int size();
+
+	/**
+	 * @return reads answered from memory
+	 */
+	public long getHits();
+
+	/**
+	 * @return reads not cached or expired
+	 */
+	public long getMisses();
+
+	/**
+	 * @return hits / (hits + misses), 0 if never read
+	 */
+	public double getHitRate();
+
+	/**
+	 * @return entries evicted for room
+	 */
+	public long getEvictions();
+
+	/**
+	 * @return invalidate calls
+	 */
+	public long getInvalidations();
+
+}
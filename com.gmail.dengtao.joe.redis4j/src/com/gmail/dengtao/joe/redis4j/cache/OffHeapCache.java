@@ -0,0 +1,444 @@
+package com.gmail.dengtao.joe.redis4j.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.gmail.dengtao.joe.redis4j.codec.RedisCodec;
+
+/**
+ * <p>
+ * {@link NearCache} in direct memory, bounded by bytes: large hot sets stay out of the Java heap.
+ * </p>
+ * <pre>
+ * Redis redis = new Redis("127.0.0.1", 6379, "pwd");
+ * redis.setNearCache(new OffHeapCache&lt;String, String&gt;(StringCodec.UTF_8, 512L &lt;&lt; 20, 5000));	// 512 MB, at most 5 s stale
+ * </pre>
+ * <b>Layout</b>
+ * <pre>
+ * Keys and values are kept encoded by the codec, values decoded on hit only.
+ * The capacity is split into segments of one direct buffer each, one lock each.
+ * A segment is a ring log: entries are appended at the tail, the oldest at the head are evicted (FIFO) for room,
+ * an overwritten or invalidated entry is left as dead bytes until the head passes it.
+ * Entry: hash (4), key length (4), value length (4), expire at (8), key, value.
+ * Entries are found by an open addressing index per segment, a long[] of hash and offset:
+ * the heap holds a few arrays whatever the number of entries, GC stays flat while the cache grows.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class OffHeapCache<K, V> implements NearCache<K, V> {
+
+	/** stripes of invalidation stamps */
+	private static final int STRIPES = 64;
+	/** hash, key length, value length, expire at */
+	private static final int HEADER = 20;
+	/** key length of the padding at the end of a segment */
+	private static final int PADDING = -1;
+
+	private final RedisCodec<K, V> codec;
+	private final long capacity;
+	private final long maxStaleness;	// nanoseconds
+	private final Segment[] segments;
+	private final int shift;
+	private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * @param codec encodes keys and values to bytes
+	 * @param capacity bytes of direct memory, 16 segments
+	 * @param maxStaleness max life of an entry, in milliseconds
+	 */
+	public OffHeapCache(RedisCodec<K, V> codec, long capacity, long maxStaleness) {
+		this(codec, capacity, maxStaleness, 16);
+	}
+
+	/**
+	 * @param codec encodes keys and values to bytes
+	 * @param capacity bytes of direct memory
+	 * @param maxStaleness max life of an entry, in milliseconds
+	 * @param segments number of segments, a power of two: more for less lock contention, an entry fits in one
+	 */
+	public OffHeapCache(RedisCodec<K, V> codec, long capacity, long maxStaleness, int segments) {
+		if (codec == null || maxStaleness <= 0 || segments < 1 || Integer.bitCount(segments) != 1) throw new IllegalArgumentException();
+		long size = capacity / segments;
+		if (size < 1024 || size >= Integer.MAX_VALUE) throw new IllegalArgumentException("segment size out of range:" + size);
+		this.codec = codec;
+		this.capacity = size * segments;
+		this.maxStaleness = TimeUnit.MILLISECONDS.toNanos(maxStaleness);
+		this.segments = new Segment[segments];
+		for (int i = 0; i < segments; i++) {
+			this.segments[i] = new Segment((int) size, stamps, evictions);
+		}
+		this.shift = 32 - Integer.numberOfTrailingZeros(segments);
+	}
+
+	@Override
+	public V get(K key) {
+		byte[] bytes = codec.encodeKey(key);
+		int hash = hash(bytes);
+		byte[] value = segment(hash).get(bytes, hash);
+		if (value == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return codec.decodeValue(value);	// out of the lock
+	}
+
+	@Override
+	public void put(K key, V value) {
+		put(key, value, Long.MAX_VALUE, 0, false);
+	}
+
+	@Override
+	public void put(K key, V value, long ttl) {
+		put(key, value, ttl, 0, false);
+	}
+
+	@Override
+	public boolean put(K key, V value, long ttl, long stamp) {
+		return put(key, value, ttl, stamp, true);
+	}
+
+	private boolean put(K key, V value, long ttl, long stamp, boolean stamped) {
+		if (key == null || value == null || ttl <= 0) throw new IllegalArgumentException();
+		long life = Math.min(maxStaleness, ttl >= Long.MAX_VALUE / 1000000 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(ttl));
+		byte[] bytes = codec.encodeKey(key);
+		byte[] encoded = codec.encodeValue(value);
+		int hash = hash(bytes);
+		return segment(hash).put(bytes, encoded, hash, System.nanoTime() + life, stamped ? stripe(key) : -1, stamp);
+	}
+
+	@Override
+	public long stamp(K key) {
+		return stamps.get(stripe(key));
+	}
+
+	@Override
+	public void invalidate(K key) {
+		stamps.incrementAndGet(stripe(key));
+		invalidations.incrementAndGet();
+		byte[] bytes = codec.encodeKey(key);
+		int hash = hash(bytes);
+		segment(hash).remove(bytes, hash);
+	}
+
+	@Override
+	public void invalidateAll() {
+		for (int i = 0; i < STRIPES; i++) {
+			stamps.incrementAndGet(i);
+		}
+		invalidations.incrementAndGet();
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	private Segment segment(int hash) {
+		return segments.length == 1 ? segments[0] : segments[hash >>> shift];
+	}
+
+	private static int stripe(Object key) {
+		int hash = key.hashCode();
+		hash ^= hash >>> 16;
+		hash *= 0x45d9f3b;
+		return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+	}
+
+	/**
+	 * FNV-1a of the encoded key, mixed: high bits pick the segment, low bits the index slot.
+	 */
+	private static int hash(byte[] key) {
+		int hash = 0x811c9dc5;
+		for (byte b : key) {
+			hash ^= b;
+			hash *= 0x01000193;
+		}
+		hash ^= hash >>> 16;
+		hash *= 0x45d9f3b;
+		return hash ^ (hash >>> 16);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.count;
+		}
+		return size;
+	}
+
+	/**
+	 * @return bytes of direct memory
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return bytes taken by entries, dead ones included until evicted
+	 */
+	public long getUsed() {
+		long used = 0;
+		for (Segment segment : segments) {
+			used += segment.used;
+		}
+		return used;
+	}
+
+	/**
+	 * @return max life of an entry, in milliseconds
+	 */
+	public long getMaxStaleness() {
+		return TimeUnit.NANOSECONDS.toMillis(maxStaleness);
+	}
+
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public double getHitRate() {
+		long hits = this.hits.get();
+		long total = hits + misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/*
+	 * Ring log in one direct buffer and its index, all under the lock.
+	 */
+	static class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final AtomicLongArray stamps;
+		private final AtomicLong evictions;
+		private final int size;
+		private final ByteBuffer data;
+		private final ByteBuffer cursor;	// for bulk copies
+		private long[] slots = new long[1024];	// hash << 32 | offset + 1, 0 for empty
+		private int head;	// oldest entry
+		private int tail;	// next append
+		private volatile int used;	// bytes from head to tail, padding included
+		private volatile int count;	// live entries
+
+		Segment(int size, AtomicLongArray stamps, AtomicLong evictions) {
+			this.size = size;
+			this.stamps = stamps;
+			this.evictions = evictions;
+			this.data = ByteBuffer.allocateDirect(size);
+			this.cursor = data.duplicate();
+		}
+
+		byte[] get(byte[] key, int hash) {
+			lock.lock();
+			try {
+				int slot = lookup(key, hash);
+				if (slot < 0) return null;
+				int offset = offset(slots[slot]);
+				if (System.nanoTime() - data.getLong(offset + 12) >= 0) {
+					removeAt(slot);
+					return null;
+				}
+				byte[] value = new byte[data.getInt(offset + 8)];
+				cursor.clear();
+				cursor.position(offset + HEADER + key.length);
+				cursor.get(value);
+				return value;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		boolean put(byte[] key, byte[] value, int hash, long expireAt, int stripe, long stamp) {
+			lock.lock();
+			try {
+				// checked under the lock: an invalidation takes it too, after bumping the stamp
+				if (stripe >= 0 && stamps.get(stripe) != stamp) return false;
+				int slot = lookup(key, hash);
+				if (slot >= 0) removeAt(slot);	// old bytes left dead
+				int length = HEADER + key.length + value.length;
+				if (length > size || length < 0) return false;
+				int offset = allocate(length);
+				data.putInt(offset, hash);
+				data.putInt(offset + 4, key.length);
+				data.putInt(offset + 8, value.length);
+				data.putLong(offset + 12, expireAt);
+				cursor.clear();
+				cursor.position(offset + HEADER);
+				cursor.put(key);
+				cursor.put(value);
+				insert(hash, offset);
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void remove(byte[] key, int hash) {
+			lock.lock();
+			try {
+				int slot = lookup(key, hash);
+				if (slot >= 0) removeAt(slot);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void clear() {
+			lock.lock();
+			try {
+				Arrays.fill(slots, 0);
+				head = tail = used = count = 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Room for length bytes at the tail, oldest entries evicted.
+		 * @return offset of the room
+		 */
+		private int allocate(int length) {
+			for (;;) {
+				if (used == 0) {
+					head = tail = 0;
+				}
+				if (used == 0 || tail > head) {	// free: tail to end, start to head
+					if (size - tail >= length) break;
+					int padding = size - tail;
+					if (padding >= HEADER) data.putInt(tail + 4, PADDING);
+					used += padding;
+					tail = 0;
+				} else if (head - tail >= length) {	// free: tail to head
+					break;
+				} else {
+					evict();
+				}
+			}
+			int offset = tail;
+			tail += length;
+			used += length;
+			if (tail == size) tail = 0;
+			return offset;
+		}
+
+		/**
+		 * Drop the entry (or padding) at the head.
+		 */
+		private void evict() {
+			int length;
+			if (size - head < HEADER || data.getInt(head + 4) == PADDING) {
+				length = size - head;
+			} else {
+				length = HEADER + data.getInt(head + 4) + data.getInt(head + 8);
+				int slot = find(data.getInt(head), head);
+				if (slot >= 0) {	// live, not overwritten or invalidated
+					removeAt(slot);
+					evictions.incrementAndGet();
+				}
+			}
+			used -= length;
+			head += length;
+			if (head == size) head = 0;
+		}
+
+		private int lookup(byte[] key, int hash) {
+			int mask = slots.length - 1;
+			for (int i = hash & mask; slots[i] != 0; i = (i + 1) & mask) {
+				if ((int) (slots[i] >>> 32) == hash && matches(offset(slots[i]), key)) return i;
+			}
+			return -1;
+		}
+
+		private int find(int hash, int offset) {
+			int mask = slots.length - 1;
+			for (int i = hash & mask; slots[i] != 0; i = (i + 1) & mask) {
+				if (offset(slots[i]) == offset) return i;
+			}
+			return -1;
+		}
+
+		private boolean matches(int offset, byte[] key) {
+			if (data.getInt(offset + 4) != key.length) return false;
+			int start = offset + HEADER;
+			for (int i = 0; i < key.length; i++) {
+				if (data.get(start + i) != key[i]) return false;
+			}
+			return true;
+		}
+
+		private void insert(int hash, int offset) {
+			if ((count + 1) * 4L > slots.length * 3L) {
+				long[] previous = slots;
+				slots = new long[previous.length * 2];
+				for (long slot : previous) {
+					if (slot != 0) place(slot);
+				}
+			}
+			place(((long) hash << 32) | (offset + 1L));
+			count++;
+		}
+
+		private void place(long slot) {
+			int mask = slots.length - 1;
+			int i = (int) (slot >>> 32) & mask;
+			while (slots[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			slots[i] = slot;
+		}
+
+		/**
+		 * Linear probing delete: later slots of the run shift back, no tombstones.
+		 */
+		private void removeAt(int i) {
+			int mask = slots.length - 1;
+			int j = i;
+			for (;;) {
+				slots[i] = 0;
+				for (;;) {
+					j = (j + 1) & mask;
+					if (slots[j] == 0) {
+						count--;
+						return;
+					}
+					int home = (int) (slots[j] >>> 32) & mask;
+					// stays if its home is cyclically in (i, j]
+					if (i <= j ? (i < home && home <= j) : (i < home || home <= j)) continue;
+					break;
+				}
+				slots[i] = slots[j];
+				i = j;
+			}
+		}
+
+		private int offset(long slot) {
+			return (int) (slot & 0xffffffffL) - 1;
+		}
+
+	}
+
+}
@@ -0,0 +1,374 @@
+package com.gmail.dengtao.joe.redis4j.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * {@link NearCache} on the heap, bounded by entry count, evicted by W-TinyLFU.
+ * </p>
+ * <pre>
+ * Redis redis = new Redis("127.0.0.1", 6379, "pwd");
+ * redis.setNearCache(new TinyLfuCache&lt;String, String&gt;(10000, 5000));	// 10000 entries, at most 5 s stale
+ * redis.get("key");	// from redis, then from memory
+ * redis.set("key", "value");	// entry dropped
+ * </pre>
+ * <b>Eviction</b>
+ * <pre>
+ * New entries go to a window LRU of 1% of the capacity, the rest is a segmented LRU:
+ * probation, and protected (80%) for entries read again. An entry leaving the window
+ * only gets into the main space if a {@link FrequencySketch} says it is read more often
+ * than the probation entry it would evict: one-off reads (scans) never push out hot keys.
+ * </pre>
+ * <b>Staleness</b>
+ * <pre>
+ * An entry lives for its TTL, never longer than the max staleness: writes by other clients are seen by then.
+ * Writes through the same client drop the entry at once; an entry read before a write and answered
+ * after it is not cached, see {@link #stamp(Object)}.
+ * </pre>
+ * <pre>
+ * Hits take no lock: a lookup, an expiry check and, when the lock is free, an LRU move.
+ * Misses and puts update the policy under one lock.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class TinyLfuCache<K, V> implements NearCache<K, V> {
+
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+	/** stripes of invalidation stamps */
+	private static final int STRIPES = 64;
+
+	private final int capacity;
+	private final long maxStaleness;	// nanoseconds
+	private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<K, Node<K, V>>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/* under lock */
+	private final FrequencySketch sketch;
+	private final Node<K, V>[] heads;	// sentinels of the three LRU lists, head.next is the eldest
+	private final int[] sizes = new int[3];
+	private final int windowMax;
+	private final int protectedMax;
+
+	/**
+	 * @param capacity max number of entries
+	 * @param maxStaleness max life of an entry, in milliseconds
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public TinyLfuCache(int capacity, long maxStaleness) {
+		if (capacity < 1 || maxStaleness <= 0) throw new IllegalArgumentException();
+		this.capacity = capacity;
+		this.maxStaleness = TimeUnit.MILLISECONDS.toNanos(maxStaleness);
+		this.windowMax = Math.max(1, capacity / 100);
+		this.protectedMax = (int) ((capacity - windowMax) * 0.8);
+		this.sketch = new FrequencySketch(capacity);
+		this.heads = new Node[3];
+		for (int i = 0; i < heads.length; i++) {
+			heads[i] = new Node<K, V>(null, null, 0);
+			heads[i].prev = heads[i].next = heads[i];
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return cached value, null if absent or expired
+	 */
+	@Override
+	public V get(K key) {
+		Node<K, V> node = map.get(key);
+		if (node == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		if (System.nanoTime() - node.expireAt >= 0) {
+			misses.incrementAndGet();
+			lock.lock();
+			try {
+				if (map.remove(key, node)) unlink(node);
+			} finally {
+				lock.unlock();
+			}
+			return null;
+		}
+		hits.incrementAndGet();
+		if (lock.tryLock()) {	// lossy: a busy lock skips the LRU move, never waits
+			try {
+				if (node.queue >= 0) {
+					sketch.increment(node.hash);
+					accessed(node);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return node.value;
+	}
+
+	/**
+	 * Cache the value for the max staleness.
+	 * @param key
+	 * @param value not null
+	 */
+	@Override
+	public void put(K key, V value) {
+		put(key, value, Long.MAX_VALUE, 0, false);
+	}
+
+	/**
+	 * Cache the value for the TTL, capped by the max staleness.
+	 * @param key
+	 * @param value not null
+	 * @param ttl in milliseconds
+	 */
+	@Override
+	public void put(K key, V value, long ttl) {
+		put(key, value, ttl, 0, false);
+	}
+
+	/**
+	 * Cache a value read from redis unless the key was invalidated since the read was sent.
+	 * @param key
+	 * @param value not null
+	 * @param ttl in milliseconds, capped by the max staleness
+	 * @param stamp {@link #stamp(Object)} taken before the read was sent
+	 * @return false if invalidated meanwhile, not cached
+	 */
+	@Override
+	public boolean put(K key, V value, long ttl, long stamp) {
+		return put(key, value, ttl, stamp, true);
+	}
+
+	private boolean put(K key, V value, long ttl, long stamp, boolean stamped) {
+		if (key == null || value == null || ttl <= 0) throw new IllegalArgumentException();
+		long life = Math.min(maxStaleness, ttl >= Long.MAX_VALUE / 1000000 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(ttl));
+		int hash = spread(key.hashCode());
+		lock.lock();
+		try {
+			// checked under the lock: an invalidation takes it too, after bumping the stamp
+			if (stamped && stamps.get(hash & (STRIPES - 1)) != stamp) return false;
+			sketch.increment(hash);
+			Node<K, V> node = map.get(key);
+			if (node != null) {
+				node.value = value;
+				node.expireAt = System.nanoTime() + life;
+				accessed(node);
+				return true;
+			}
+			node = new Node<K, V>(key, value, System.nanoTime() + life);
+			node.hash = hash;
+			map.put(key, node);
+			link(node, WINDOW);
+			while (sizes[WINDOW] > windowMax) {
+				Node<K, V> candidate = heads[WINDOW].next;
+				unlink(candidate);
+				link(candidate, PROBATION);
+				if (map.size() > capacity) evict(candidate);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stamp of the key, to be taken before a read is sent, see {@link #put(Object, Object, long, long)}.
+	 * @param key
+	 * @return current stamp
+	 */
+	@Override
+	public long stamp(K key) {
+		return stamps.get(spread(key.hashCode()) & (STRIPES - 1));
+	}
+
+	/**
+	 * Drop the entry, a read in flight for the key is not cached.
+	 * @param key
+	 */
+	@Override
+	public void invalidate(K key) {
+		stamps.incrementAndGet(spread(key.hashCode()) & (STRIPES - 1));
+		invalidations.incrementAndGet();
+		lock.lock();
+		try {
+			Node<K, V> node = map.remove(key);
+			if (node != null) unlink(node);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drop all entries, reads in flight are not cached.
+	 */
+	@Override
+	public void invalidateAll() {
+		for (int i = 0; i < STRIPES; i++) {
+			stamps.incrementAndGet(i);
+		}
+		invalidations.incrementAndGet();
+		lock.lock();
+		try {
+			map.clear();
+			for (int i = 0; i < heads.length; i++) {
+				heads[i].prev = heads[i].next = heads[i];
+				sizes[i] = 0;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Evict the candidate or the eldest probation entry, whichever is read less often.
+	 */
+	private void evict(Node<K, V> candidate) {
+		Node<K, V> victim = heads[PROBATION].next;
+		if (victim == candidate) {	// probation holds only the candidate
+			victim = sizes[PROTECTED] > 0 ? heads[PROTECTED].next : candidate;
+		}
+		Node<K, V> evicted = victim != candidate && sketch.frequency(candidate.hash) > sketch.frequency(victim.hash) ? victim : candidate;
+		unlink(evicted);
+		map.remove(evicted.key, evicted);
+		evictions.incrementAndGet();
+	}
+
+	/**
+	 * Move to the most recent end, promote a probation entry read again.
+	 */
+	private void accessed(Node<K, V> node) {
+		int queue = node.queue;
+		unlink(node);
+		if (queue == PROBATION || queue == PROTECTED) {
+			link(node, PROTECTED);
+			if (sizes[PROTECTED] > protectedMax) {
+				Node<K, V> demoted = heads[PROTECTED].next;
+				unlink(demoted);
+				link(demoted, PROBATION);
+			}
+		} else {
+			link(node, WINDOW);
+		}
+	}
+
+	private void link(Node<K, V> node, int queue) {
+		Node<K, V> head = heads[queue];
+		node.prev = head.prev;
+		node.next = head;
+		head.prev.next = node;
+		head.prev = node;
+		node.queue = queue;
+		sizes[queue]++;
+	}
+
+	private void unlink(Node<K, V> node) {
+		if (node.queue < 0) return;
+		node.prev.next = node.next;
+		node.next.prev = node.prev;
+		node.prev = node.next = null;
+		sizes[node.queue]--;
+		node.queue = -1;
+	}
+
+	private static int spread(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x45d9f3b;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @return number of entries, expired ones included until read or evicted
+	 */
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * @return max number of entries
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return max life of an entry, in milliseconds
+	 */
+	public long getMaxStaleness() {
+		return TimeUnit.NANOSECONDS.toMillis(maxStaleness);
+	}
+
+	/**
+	 * @return reads answered from memory
+	 */
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return reads not cached or expired
+	 */
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return hits / (hits + misses), 0 if never read
+	 */
+	@Override
+	public double getHitRate() {
+		long hits = this.hits.get();
+		long total = hits + misses.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return entries evicted for capacity
+	 */
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return invalidate calls
+	 */
+	@Override
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/*
+	 * Entry, linked in one of the LRU lists under the lock.
+	 */
+	static class Node<K, V> {
+
+		final K key;
+		volatile V value;
+		volatile long expireAt;	// System.nanoTime()
+		int hash;
+		int queue = -1;	// -1 if not linked
+		Node<K, V> prev;
+		Node<K, V> next;
+
+		Node(K key, V value, long expireAt) {
+			this.key = key;
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+
+	}
+
+}
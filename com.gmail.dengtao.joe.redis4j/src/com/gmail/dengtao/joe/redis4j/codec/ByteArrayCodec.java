@@ -0,0 +1,32 @@
+package com.gmail.dengtao.joe.redis4j.codec;
+
+/**
+ * Keys and values as they are, no copy.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class ByteArrayCodec implements RedisCodec<byte[], byte[]> {
+
+	public static final ByteArrayCodec INSTANCE = new ByteArrayCodec();
+
+	@Override
+	public byte[] encodeKey(byte[] key) {
+		return key;
+	}
+
+	@Override
+	public byte[] decodeKey(byte[] bytes) {
+		return bytes;
+	}
+
+	@Override
+	public byte[] encodeValue(byte[] value) {
+		return value;
+	}
+
+	@Override
+	public byte[] decodeValue(byte[] bytes) {
+		return bytes;
+	}
+
+}
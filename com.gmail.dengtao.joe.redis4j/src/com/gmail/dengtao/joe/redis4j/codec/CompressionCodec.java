@@ -0,0 +1,183 @@
+package com.gmail.dengtao.joe.redis4j.codec;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ * Deflates values of another codec above a size threshold, keys are left as they are.
+ * </p>
+ * <pre>
+ * Compressed values start with a header:
+ * 0xC0 'Z'		magic, 0xC0 never starts UTF-8 text
+ * method		1 byte, 0 stored, 1 deflate
+ * length		4 bytes big endian, length before compression
+ * Values below the threshold, or not getting smaller, are stored as they are and stay readable by other clients;
+ * one that happens to start with the magic is stored behind a header too.
+ * Values without the header are passed to the codec as they are, existing data is read unchanged.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class CompressionCodec<K, V> implements RedisCodec<K, V> {
+
+	/** default threshold, in bytes */
+	public static final int DEFAULT_THRESHOLD = 1024;
+	/** length of the header */
+	public static final int HEADER = 7;
+	private static final byte MAGIC_0 = (byte) 0xC0;
+	private static final byte MAGIC_1 = 'Z';
+	private static final byte STORED = 0;
+	private static final byte DEFLATE = 1;
+	/** max length of a redis string */
+	private static final int MAX_LENGTH = 512 * 1024 * 1024;
+
+	private final RedisCodec<K, V> codec;
+	private final int threshold;
+	private final int level;
+	private final AtomicLong compressed = new AtomicLong();
+	private final AtomicLong saved = new AtomicLong();
+
+	/**
+	 * Compress values of 1 KB and more, {@link Deflater#BEST_SPEED}.
+	 * @param codec codec of keys and values
+	 */
+	public CompressionCodec(RedisCodec<K, V> codec) {
+		this(codec, DEFAULT_THRESHOLD, Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * @param codec codec of keys and values
+	 * @param threshold values of this many bytes and more are compressed
+	 * @param level deflate level, 1 (fast) to 9 (small)
+	 */
+	public CompressionCodec(RedisCodec<K, V> codec, int threshold, int level) {
+		if (codec == null || threshold < 0 || level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) throw new IllegalArgumentException();
+		this.codec = codec;
+		this.threshold = threshold;
+		this.level = level;
+	}
+
+	@Override
+	public byte[] encodeKey(K key) {
+		return codec.encodeKey(key);
+	}
+
+	@Override
+	public K decodeKey(byte[] bytes) {
+		return codec.decodeKey(bytes);
+	}
+
+	@Override
+	public byte[] encodeValue(V value) {
+		byte[] bytes = codec.encodeValue(value);
+		if (bytes.length >= threshold && bytes.length > HEADER) {
+			byte[] deflated = deflate(bytes);
+			if (deflated != null) {
+				compressed.incrementAndGet();
+				saved.addAndGet(bytes.length - deflated.length);
+				return deflated;
+			}
+		}
+		if (isHeader(bytes)) {
+			byte[] stored = new byte[HEADER + bytes.length];
+			System.arraycopy(bytes, 0, stored, HEADER, bytes.length);
+			return header(stored, STORED, bytes.length);
+		}
+		return bytes;
+	}
+
+	@Override
+	public V decodeValue(byte[] bytes) {
+		if (!isHeader(bytes)) return codec.decodeValue(bytes);
+		int length = ((bytes[3] & 0xFF) << 24) | ((bytes[4] & 0xFF) << 16) | ((bytes[5] & 0xFF) << 8) | (bytes[6] & 0xFF);
+		if (length < 0 || length > MAX_LENGTH) throw new IllegalArgumentException("bad length in header:" + length);
+		byte[] value = new byte[length];
+		if (bytes[2] == STORED) {
+			if (bytes.length - HEADER != length) throw new IllegalArgumentException("stored value truncated");
+			System.arraycopy(bytes, HEADER, value, 0, length);
+		} else if (bytes[2] == DEFLATE) {
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(bytes, HEADER, bytes.length - HEADER);
+				int size = 0;
+				while (size < length && !inflater.finished()) {
+					int n = inflater.inflate(value, size, length - size);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+					size += n;
+				}
+				if (size != length || !inflater.finished()) throw new IllegalArgumentException("compressed value truncated");
+			} catch (DataFormatException e) {
+				throw new IllegalArgumentException("bad compressed value", e);
+			} finally {
+				inflater.end();
+			}
+		} else {
+			throw new IllegalArgumentException("unknown compression method:" + bytes[2]);
+		}
+		return codec.decodeValue(value);
+	}
+
+	/**
+	 * @return deflated value with header, null if not smaller
+	 */
+	private byte[] deflate(byte[] bytes) {
+		byte[] out = new byte[bytes.length - 1];	// header and output must beat the input
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			int size = HEADER;
+			while (!deflater.finished() && size < out.length) {
+				size += deflater.deflate(out, size, out.length - size);
+			}
+			if (!deflater.finished()) return null;
+			return header(Arrays.copyOf(out, size), DEFLATE, bytes.length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Write the header into the first bytes.
+	 */
+	private static byte[] header(byte[] out, byte method, int length) {
+		out[0] = MAGIC_0;
+		out[1] = MAGIC_1;
+		out[2] = method;
+		out[3] = (byte) (length >>> 24);
+		out[4] = (byte) (length >>> 16);
+		out[5] = (byte) (length >>> 8);
+		out[6] = (byte) length;
+		return out;
+	}
+
+	private static boolean isHeader(byte[] bytes) {
+		return bytes.length >= HEADER && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+	}
+
+	/**
+	 * @return values compressed since created
+	 */
+	public long getCompressed() {
+		return compressed.get();
+	}
+
+	/**
+	 * @return bytes saved by compression since created
+	 */
+	public long getSaved() {
+		return saved.get();
+	}
+
+	/**
+	 * @return values of this many bytes and more are compressed
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+}
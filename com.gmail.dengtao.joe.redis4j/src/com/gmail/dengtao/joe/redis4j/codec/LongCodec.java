@@ -0,0 +1,38 @@
+package com.gmail.dengtao.joe.redis4j.codec;
+
+import com.gmail.dengtao.joe.redis4j.utils.CharsetUtils;
+
+/**
+ * String keys (UTF-8), long values as decimal text, the form INCRBY and DECRBY work on.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class LongCodec implements RedisCodec<String, Long> {
+
+	public static final LongCodec INSTANCE = new LongCodec();
+
+	@Override
+	public byte[] encodeKey(String key) {
+		return StringCodec.UTF_8.encodeKey(key);
+	}
+
+	@Override
+	public String decodeKey(byte[] bytes) {
+		return StringCodec.UTF_8.decodeKey(bytes);
+	}
+
+	@Override
+	public byte[] encodeValue(Long value) {
+		return value.toString().getBytes(CharsetUtils.US_ASCII);
+	}
+
+	@Override
+	public Long decodeValue(byte[] bytes) {
+		try {
+			return Long.valueOf(new String(bytes, CharsetUtils.US_ASCII));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("not a long value", e);
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.gmail.dengtao.joe.redis4j.codec;
+
+/**
+ * <p>
+ * Turns keys and values into the bytes sent to redis and back.
+ * </p>
+ * <pre>
+ * Redis redis = new Redis("127.0.0.1", 6379, "pwd");
+ * RedisCodec&lt;String, String&gt; codec = new CompressionCodec&lt;String, String&gt;(StringCodec.UTF_8);
+ * redis.set("doc", json, codec);	// deflated if larger than 1 KB
+ * String doc = redis.get("doc", codec);
+ * </pre>
+ * <pre>
+ * Encoded bytes go out as binary safe bulk strings, replies come back as the bytes redis holds.
+ * A codec is shared by all threads of a client, implementations must be thread safe.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface RedisCodec<K, V> {
+
+	/**
+	 * @param key not null
+	 * @return bytes of the key
+	 */
+	public byte[] encodeKey(K key);
+
+	/**
+	 * @param bytes bytes of a key, eg of KEYS or SCAN
+	 * @return key
+	 */
+	public K decodeKey(byte[] bytes);
+
+	/**
+	 * @param value not null
+	 * @return bytes of the value
+	 */
+	public byte[] encodeValue(V value);
+
+	/**
+	 * @param bytes bytes redis holds
+	 * @return value
+	 * @throws IllegalArgumentException if the bytes are not a value of this codec
+	 */
+	public V decodeValue(byte[] bytes);
+
+}
@@ -0,0 +1,61 @@
+package com.gmail.dengtao.joe.redis4j.codec;
+
+import java.nio.charset.Charset;
+
+import com.gmail.dengtao.joe.redis4j.utils.CharsetUtils;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * String keys and values in a charset.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class StringCodec implements RedisCodec<String, String> {
+
+	public static final StringCodec UTF_8 = new StringCodec(CharsetUtils.UTF_8);
+
+	private final Charset charset;
+
+	/**
+	 * @param charset charset of keys and values
+	 */
+	public StringCodec(Charset charset) {
+		if (charset == null) throw new IllegalArgumentException();
+		this.charset = charset;
+	}
+
+	/**
+	 * @param charset charset name of keys and values
+	 */
+	public StringCodec(String charset) {
+		this(CharsetUtils.toCharset(charset));
+	}
+
+	@Override
+	public byte[] encodeKey(String key) {
+		return StringUtils.getBytes(key, charset);
+	}
+
+	@Override
+	public String decodeKey(byte[] bytes) {
+		return new String(bytes, charset);
+	}
+
+	@Override
+	public byte[] encodeValue(String value) {
+		return StringUtils.getBytes(value, charset);
+	}
+
+	@Override
+	public String decodeValue(byte[] bytes) {
+		return new String(bytes, charset);
+	}
+
+	/**
+	 * @return charset of keys and values
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+}
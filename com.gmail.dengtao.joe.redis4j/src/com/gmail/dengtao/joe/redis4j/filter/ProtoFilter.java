@@ -1,73 +1,291 @@
 package com.gmail.dengtao.joe.redis4j.filter;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.gmail.dengtao.joe.redis4j.exception.RedisProtoNotReadyException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
 import com.gmail.dengtao.joe.redis4j.proto.ProtoParser;
 import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyScanner;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyVisitor;
+import com.gmail.dengtao.joe.redis4j.transport.Filter;
+import com.gmail.dengtao.joe.redis4j.transport.Handler;
+import com.gmail.dengtao.joe.redis4j.transport.Session;
 import com.gmail.dengtao.joe.redis4j.utils.ByteUtils;
-import com.gmail.dengtao.joe.transport.SocketConnector;
-import com.gmail.dengtao.joe.transport.filter.FilterAdapter;
-import com.gmail.dengtao.joe.transport.filter.FilterEntity;
-import com.gmail.dengtao.joe.transport.session.Session;
 
-public class ProtoFilter extends FilterAdapter {
+/**
+ * <p>
+ * Decodes RESP replies for the handler, one {@link ProtoParser} result per reply.
+ * </p>
+ * <pre>
+ * Partial replies are buffered until complete, {@link ReplyScanner} goes on where it stopped as bytes arrive.
+ * A bulk string reply whose request has a sink (see {@link #setTargets(ReplyTargets)}) is not buffered:
+ * its payload is written to the sink chunk by chunk as read, the handler gets the number of bytes as a Long,
+ * or a {@link RedisIOException} if the sink failed (the rest of the payload is dropped).
+ * A reply whose request has a {@link ReplyVisitor} is walked in the buffer, the handler gets the visitor;
+ * a visitor failing gives a {@link RedisException}, the connection stays in step.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class ProtoFilter implements Filter {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(ProtoFilter.class);
+	/** max length of a bulk string length line */
+	private static final int MAX_LINE = 32;
+	/** buffer kept between replies, a larger one is dropped once empty */
+	private static final int KEEP = 64 * 1024;
 	
-	private SocketConnector connector;
 	private byte[] buffer = ByteUtils.EMPTY_BYTE_ARRAY;
+	private int start = 0;	// of the current reply
+	private int end = 0;	// of bytes read
+	private final ReplyScanner scanner = new ReplyScanner();
+	private final boolean raw;	// bulk strings as byte[]
+	private ReplyTargets targets;
+	private BulkStream stream;	// bulk string being streamed, null if none
 	
-	public ProtoFilter(SocketConnector connector) {
-		this.connector = connector;
+	public ProtoFilter() {
+		this(false);
 	}
-
+	
+	/**
+	 * @param raw true to give bulk strings as byte[], see {@link ProtoParser#setRaw(boolean)}
+	 */
+	public ProtoFilter(boolean raw) {
+		this.raw = raw;
+	}
+	
+	/**
+	 * @param targets where replies stream to or which visitor walks them, null to parse all into objects
+	 */
+	public void setTargets(ReplyTargets targets) {
+		this.targets = targets;
+	}
+	
 	@Override
-	public void dataReceived(FilterEntity nextEntity, Session session,
-			Object data) throws Exception {
-		buffer = ByteUtils.merge(buffer, (byte[]) data);
-		// Check buffer
-		if (Protocol.isValid(buffer)) {
-			// specifier ready!
-			ProtoParser parser = new ProtoParser();
+	public void dataReceived(Session session, ByteBuffer data, Handler handler) throws Exception {
+		while (true) {
+			if (stream != null) {
+				// bytes buffered before the stream started first, then straight from the read buffer
+				if (start < end) {
+					ByteBuffer pending = ByteBuffer.wrap(buffer, start, end - start);
+					stream.write(pending);
+					start = pending.position();
+				}
+				if (!stream.isDone()) stream.write(data);
+				if (!stream.isDone()) {
+					release();
+					return;
+				}
+				if (!stream.isValid()) {
+					LOGGER.error("[Redis][Proto][streamed bulk string not ended by CRLF, disconnect!]");
+					stream = null;
+					session.close();
+					return;
+				}
+				Object result = stream.result();
+				stream = null;
+				handler.dataReceived(session, result);
+				if (!session.isOpen()) return;
+				continue;
+			}
+			if (start == end && !data.hasRemaining()) {
+				release();
+				return;
+			}
+			if (targets != null && !scanner.isStarted()) {
+				WritableByteChannel sink = targets.nextSink();
+				if (sink != null && (start == end ? data.get(data.position()) : buffer[start]) == Protocol.BTS_SPECIFIER_BULK) {
+					int line = readLine(data);
+					if (line < 0) {
+						if (end - start > MAX_LINE) {
+							LOGGER.error("[Redis][Proto][bulk string length line too long, disconnect!]");
+							session.close();
+						}
+						return;
+					}
+					long length;
+					try {
+						length = ProtoParser.parseLong(buffer, start + 1, line);
+					} catch (RuntimeException e) {
+						LOGGER.error("[Redis][Proto][bulk string length invalid, disconnect!]");
+						session.close();
+						return;
+					}
+					if (length >= 0) {
+						stream = new BulkStream(sink, length);
+						start = line + Protocol.BTS_CRLF.length;
+						continue;
+					}
+					// nil: parsed as usual
+				}
+			}
+			append(data);
+			int stop;
+			Object result;
 			try {
-				parser.parse(buffer);
-				int position = parser.position();
-				if (position < 0) {
+				stop = scanner.scan(buffer, start, end);
+				if (stop < 0) {
 					if (LOGGER.isDebugEnabled()) {
-						LOGGER.error("[Redis][Proto][invalid position, maby deep error, disconnect!][DUMP:" + Arrays.toString(buffer) + "]");
+						LOGGER.debug("[Redis][Proto][protocol not ready, waite...][" + (end - start) + " bytes]");
 					}
-					connector.close();
 					return;
 				}
-				// invoke current
-				super.dataReceived(nextEntity, session, parser.result());
-				// invoke remain
-				buffer = ByteUtils.cut(position, buffer);
-				if (buffer.length > 0) {
-					this.dataReceived(nextEntity, session, ByteUtils.EMPTY_BYTE_ARRAY);
-				}
-			} catch (RedisProtoNotReadyException e) {
-				if (LOGGER.isDebugEnabled()) {
-					LOGGER.debug("[Redis][Proto][protocol not ready, waite...][DUMP:" + Arrays.toString(buffer) + "]");
-				}
+				scanner.reset();
+				result = decode(stop);
 			} catch (RuntimeException e) {
 				if (LOGGER.isDebugEnabled()) {
-					LOGGER.error("[Redis][Proto][protocol parse failed, disconnect!][DUMP:" + Arrays.toString(buffer) + "]");
+					LOGGER.error("[Redis][Proto][protocol parse failed, disconnect!][DUMP:" + Arrays.toString(Arrays.copyOfRange(buffer, start, Math.min(end, start + 256))) + "]");
 				}
-				connector.close();
+				session.close();
 				return;
 			}
-		} else {
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.error("[Redis][Proto][invalid protocol data, disconnect!][DUMP:" + Arrays.toString(buffer) + "]");
+			start = stop;
+			handler.dataReceived(session, result);
+			if (!session.isOpen()) return;
+		}
+	}
+	
+	/**
+	 * Decode the complete reply from start to stop.
+	 */
+	private Object decode(int stop) {
+		ReplyVisitor visitor = targets == null || buffer[start] == Protocol.BTS_SPECIFIER_ERROR ? null : targets.nextVisitor();
+		if (visitor == null) {
+			return new ProtoParser().setRaw(raw).parse(buffer, start, stop).result();
+		}
+		try {
+			new ProtoParser().visit(buffer, start, stop, visitor);
+			return visitor;
+		} catch (RuntimeException e) {
+			return new RedisException(e);	// the visitor failed, the reply is consumed all the same
+		}
+	}
+	
+	/**
+	 * Append all remaining bytes of data to the buffer, compacted or grown if full.
+	 */
+	private void append(ByteBuffer data) {
+		int n = data.remaining();
+		if (n == 0) return;
+		if (end + n > buffer.length) {
+			int size = end - start;
+			byte[] target = size + n > buffer.length ? new byte[Math.max(size + n, Math.max(256, buffer.length * 2))] : buffer;
+			System.arraycopy(buffer, start, target, 0, size);
+			buffer = target;
+			start = 0;
+			end = size;
+		}
+		data.get(buffer, end, n);
+		end += n;
+	}
+	
+	/**
+	 * Forget consumed bytes, drop a large buffer once empty.
+	 */
+	private void release() {
+		if (start < end) return;
+		start = end = 0;
+		if (buffer.length > KEEP) buffer = ByteUtils.EMPTY_BYTE_ARRAY;
+	}
+	
+	/**
+	 * Move bytes from data to the buffer up to the first CRLF after start, never beyond.
+	 * @return position of the CR in the buffer, -1 if no whole line yet
+	 */
+	private int readLine(ByteBuffer data) {
+		int line = ProtoParser.lineEnd(buffer, start, end);
+		if (line >= 0) return line;
+		int from = data.position();
+		int to = from;
+		boolean found = false;
+		while (to < data.limit()) {
+			byte b = data.get(to++);
+			if (b == '\n' && (to - 2 >= from ? data.get(to - 2) == '\r' : end > start && buffer[end - 1] == '\r')) {
+				found = true;
+				break;
+			}
+		}
+		ByteBuffer slice = data.duplicate();
+		slice.limit(to);
+		append(slice);
+		data.position(to);
+		return found ? end - 2 : -1;
+	}
+
+	@Override
+	public void sessionClosed(Session session) {
+		buffer = ByteUtils.EMPTY_BYTE_ARRAY;
+		start = end = 0;
+		scanner.reset();
+		stream = null;
+	}
+	
+	/*
+	 * Payload and CRLF of a bulk string written to a sink.
+	 */
+	static class BulkStream {
+		
+		private final WritableByteChannel sink;
+		private final long length;
+		private long remaining;	// payload bytes still to come
+		private int crlf = 0;	// bytes of the ending CRLF seen
+		private boolean valid = true;
+		private IOException failure;
+		
+		BulkStream(WritableByteChannel sink, long length) {
+			this.sink = sink;
+			this.length = length;
+			this.remaining = length;
+		}
+		
+		/**
+		 * Take what belongs to this bulk string from the source.
+		 */
+		void write(ByteBuffer source) {
+			if (remaining > 0 && source.hasRemaining()) {
+				int n = (int) Math.min(source.remaining(), remaining);
+				ByteBuffer slice = source.duplicate();
+				slice.limit(slice.position() + n);
+				if (failure == null) {
+					try {
+						while (slice.hasRemaining()) {
+							sink.write(slice);
+						}
+					} catch (IOException e) {
+						failure = e;	// drop the rest, keep the connection in step
+					}
+				}
+				source.position(source.position() + n);
+				remaining -= n;
+			}
+			while (remaining == 0 && crlf < 2 && source.hasRemaining()) {
+				if (source.get() != Protocol.BTS_CRLF[crlf]) valid = false;
+				crlf++;
+			}
+		}
+		
+		boolean isDone() {
+			return remaining == 0 && crlf == 2;
+		}
+		
+		boolean isValid() {
+			return valid;
+		}
+		
+		Object result() {
+			if (failure != null) {
+				return new RedisIOException("write to sink failed with:" + failure.getMessage(), failure);
 			}
-			connector.close();
-			return;
+			return length;
 		}
+		
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,25 @@
+package com.gmail.dengtao.joe.redis4j.filter;
+
+import java.nio.channels.WritableByteChannel;
+
+import com.gmail.dengtao.joe.redis4j.proto.ReplyVisitor;
+
+/**
+ * Tells {@link ProtoFilter} where the next reply goes instead of being parsed into objects.
+ * Both asked on the I/O thread before each reply.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface ReplyTargets {
+
+	/**
+	 * @return sink the next reply streams to if it is a bulk string, null to buffer it as usual
+	 */
+	public WritableByteChannel nextSink();
+
+	/**
+	 * @return visitor to walk the next reply, null to parse it into objects
+	 */
+	public ReplyVisitor nextVisitor();
+
+}
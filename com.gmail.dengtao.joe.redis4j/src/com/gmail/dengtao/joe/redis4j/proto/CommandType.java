@@ -0,0 +1,16 @@
+package com.gmail.dengtao.joe.redis4j.proto;
+
+/**
+ * A redis command name, see {@link Protocol.Command} for the built-in table.
+ * Implement it for commands not in the table, eg module commands.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface CommandType {
+
+	/**
+	 * @return command name as sent, eg "GET"
+	 */
+	public byte[] getBytes();
+
+}
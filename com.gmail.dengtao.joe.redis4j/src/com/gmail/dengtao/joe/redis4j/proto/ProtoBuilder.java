@@ -6,6 +6,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.gmail.dengtao.joe.redis4j.utils.ByteUtils;
 import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
 
 /**
@@ -202,6 +203,33 @@ public class ProtoBuilder implements Serializable {
 		return this;
 	}
 	
+	/**
+	 * <p>
+	 * Build the head of the current array with one more bulk string argument of the length,
+	 * the caller sends length bytes and CRLF after it, eg straight from a file.
+	 * </p>
+	 * @param length length of the last argument
+	 * @return RESP up to the payload of the last argument
+	 */
+	public byte[] buildHead(long length) {
+		if (type != Protocol.Type.ARRAY) throw new IllegalStateException("array required!");
+		byte[] array = build();
+		int start = ByteUtils.indexOf(array, Protocol.BTS_CRLF) + Protocol.BTS_CRLF.length;	// arguments after *N CRLF
+		ByteArrayOutputStream bao = new ByteArrayOutputStream(array.length + 32);
+		try {
+			bao.write(Protocol.BTS_SPECIFIER_ARRAY);
+			bao.write(StringUtils.getBytes(String.valueOf(args.size() + 1), charset));
+			bao.write(Protocol.BTS_CRLF);
+			bao.write(array, start, array.length - start);
+			bao.write(Protocol.BTS_SPECIFIER_BULK);
+			bao.write(StringUtils.getBytes(String.valueOf(length), charset));
+			bao.write(Protocol.BTS_CRLF);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return bao.toByteArray();
+	}
+	
 	/**
 	 * <p>
 	 * Build current protocol to bytes
@@ -258,6 +286,20 @@ public class ProtoBuilder implements Serializable {
 							bao.write(Protocol.BTS_CRLF);
 							bao.write(bts);
 							bao.write(Protocol.BTS_CRLF);
+						} else if (arg instanceof byte[]) {
+							byte[] bts = (byte[]) arg;
+							bao.write(Protocol.BTS_SPECIFIER_BULK);
+							bao.write(StringUtils.getBytes(String.valueOf(bts.length), charset));
+							bao.write(Protocol.BTS_CRLF);
+							bao.write(bts);
+							bao.write(Protocol.BTS_CRLF);
+						} else if (arg instanceof CommandType) {
+							byte[] bts = ((CommandType) arg).getBytes();
+							bao.write(Protocol.BTS_SPECIFIER_BULK);
+							bao.write(StringUtils.getBytes(String.valueOf(bts.length), charset));
+							bao.write(Protocol.BTS_CRLF);
+							bao.write(bts);
+							bao.write(Protocol.BTS_CRLF);
 						} else if (arg instanceof Integer || arg instanceof Long) {
 							bao.write(Protocol.BTS_SPECIFIER_INTEGER);
 							bao.write(StringUtils.getBytes(String.valueOf(arg), charset));
@@ -1,16 +1,15 @@
 package com.gmail.dengtao.joe.redis4j.proto;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import com.gmail.dengtao.joe.redis4j.exception.RedisException;
 import com.gmail.dengtao.joe.redis4j.exception.RedisProtoNotReadyException;
-import com.gmail.dengtao.joe.redis4j.utils.ByteUtils;
-import com.gmail.dengtao.joe.redis4j.utils.NumberUtils;
 import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
 
 /**
  * Redis protocol parset. designed for deserialize RESP to object.
+ * <pre>
+ * Parsed in place by offsets, nested arrays never copy the bytes after them.
+ * {@link #visit(byte[], int, int, ReplyVisitor)} walks a reply without making objects, see {@link ReplyVisitor}.
+ * </pre>
  * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
  * @version 1.0
  */
@@ -18,11 +17,11 @@ public class ProtoParser {
 	
 	private static final Object[] EMPTY_ARRAY = new Object[0]; 
 	
-	private int type;
 	private String charset = Protocol.DEFAULT_CHARSET; // charset
-	private int position;
-	private byte[] current;	// for string, int, bulk, error
-	private Object[] array; // for array only!
+	private boolean raw = false;	// bulk strings as byte[]
+	private int position = -1;
+	private boolean parsed = false;
+	private Object result;
 
 	/**
 	 * Get charset for current builder.
@@ -41,104 +40,181 @@ public class ProtoParser {
 		return this;
 	}
 	
+	/**
+	 * @return true if bulk strings are given as byte[]
+	 */
+	public boolean isRaw() {
+		return raw;
+	}
+
+	/**
+	 * Give bulk strings as byte[] instead of decoding them by charset, binary safe.
+	 * @param raw
+	 * @return this
+	 */
+	public ProtoParser setRaw(boolean raw) {
+		this.raw = raw;
+		return this;
+	}
+
 	/**
 	 * Try to parse object FROM RESP bytes.
 	 * @param buf RESP bytes
 	 * @return this
+	 * @throws RedisProtoNotReadyException if the reply is not complete
 	 */
 	public ProtoParser parse(byte[] buf) {
-		type = 0;
+		return parse(buf, 0, buf.length);
+	}
+
+	/**
+	 * Parse one reply at the offset, {@link #position()} is then the position after it.
+	 * @param buf RESP bytes
+	 * @param offset reply start
+	 * @param limit end of bytes
+	 * @return this
+	 * @throws RedisProtoNotReadyException if the reply is not complete
+	 */
+	public ProtoParser parse(byte[] buf, int offset, int limit) {
+		parsed = false;
 		position = -1;
-		array = null;
-		if (ByteUtils.startWith(buf, (byte) Protocol.SPECIFIER_STRING)) {
-			int index = -1;
-			if ((index = ByteUtils.indexOf(buf, Protocol.BTS_CRLF)) == -1) {
-				throw new RedisProtoNotReadyException("buf not ready, waiting CRLF....");
-			}
-			type = Protocol.Type.STRING;
-			current = ByteUtils.cut(buf, 1, index - 1);
-			position = index + Protocol.BTS_CRLF.length;
-		} else if (ByteUtils.startWith(buf, (byte) Protocol.SPECIFIER_ERROR)) {
-			int index = -1;
-			if ((index = ByteUtils.indexOf(buf, Protocol.BTS_CRLF)) == -1) {
-				throw new RedisProtoNotReadyException("buf not ready, waiting CRLF....");
-			}
-			type = Protocol.Type.ERROR;
-			current = ByteUtils.cut(buf, 1, index - 1);
-			position = index + Protocol.BTS_CRLF.length;
-		} else if (ByteUtils.startWith(buf, (byte) Protocol.SPECIFIER_INTEGER)) {
-			int index = -1;
-			if ((index = ByteUtils.indexOf(buf, Protocol.BTS_CRLF)) == -1) {
-				throw new RedisProtoNotReadyException("buf not ready, waiting CRLF....");
-			}
-			current = ByteUtils.cut(buf, 1, index - 1);
-			if (NumberUtils.isInt(new String(current))) {
-				type = Protocol.Type.INTEGER;
-				position = index + Protocol.BTS_CRLF.length;
-			} else {
-				current = null;
-				throw new RuntimeException("bulk string length invalid! maybe deep error?");
-			}
-		} else if (ByteUtils.startWith(buf, (byte) Protocol.SPECIFIER_BULK)) {
-			int index = -1;
-			if ((index = ByteUtils.indexOf(buf, Protocol.BTS_CRLF)) == -1) {
-				throw new RedisProtoNotReadyException("buf not ready, waiting CRLF....");
-			}
-			int length = NumberUtils.toInt(new String(ByteUtils.cut(buf, 1, index - 1)), -2);
-			if (length <= -2) {
-				throw new RuntimeException("bulk string length invalid! maybe deep error?");
-			} else if (length == -1) {	// null string
-				type = Protocol.Type.BULK_STRING;
-				current = null;
-				position = index + Protocol.BTS_CRLF.length;
-			} else {	// empty string
-				position = index + Protocol.BTS_CRLF.length;
-				byte[] tmp = ByteUtils.cut(index + Protocol.BTS_CRLF.length, buf);
-				if ((index = ByteUtils.indexOf(tmp, Protocol.BTS_CRLF)) == -1) {
-					if (tmp.length >= length + 4) {
-						throw new RuntimeException("bulk string length invalid! maybe deep error?");
-					} else {
-						throw new RedisProtoNotReadyException("buf not ready, waiting CRLF....");
-					}
+		result = null;
+		int end = new ReplyScanner().scan(buf, offset, limit);
+		if (end < 0) throw new RedisProtoNotReadyException("buf not ready, waiting more....");
+		position = offset;
+		result = read(buf);
+		parsed = true;
+		return this;
+	}
+
+	/**
+	 * Walk one complete reply at the offset, see {@link ReplyScanner} to know it is complete.
+	 * @param buf RESP bytes
+	 * @param offset reply start
+	 * @param limit end of bytes
+	 * @param visitor takes the elements
+	 * @return position after the reply
+	 */
+	public int visit(byte[] buf, int offset, int limit, ReplyVisitor visitor) {
+		int end = new ReplyScanner().scan(buf, offset, limit);
+		if (end < 0) throw new RedisProtoNotReadyException("buf not ready, waiting more....");
+		position = offset;
+		walk(buf, visitor);
+		return position;
+	}
+	
+	/**
+	 * Read the element at position, scanned complete before.
+	 */
+	private Object read(byte[] buf) {
+		int start = position;
+		int line = lineEnd(buf, start, buf.length);
+		position = line + 2;
+		switch (buf[start]) {
+			case Protocol.SPECIFIER_STRING:
+				return StringUtils.toString(copy(buf, start + 1, line), charset);
+			case Protocol.SPECIFIER_ERROR:
+				return new RedisException(StringUtils.toString(copy(buf, start + 1, line), charset));
+			case Protocol.SPECIFIER_INTEGER:
+				long value = parseLong(buf, start + 1, line);
+				if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) return (int) value;
+				return value;	// Long only when out of int range
+			case Protocol.SPECIFIER_BULK:
+				int length = (int) parseLong(buf, start + 1, line);
+				if (length < 0) return null;
+				byte[] bts = copy(buf, position, position + length);
+				position += length + 2;
+				return raw ? bts : StringUtils.toString(bts, charset);
+			default:	// array
+				int size = (int) parseLong(buf, start + 1, line);
+				if (size < 0) return null;
+				if (size == 0) return EMPTY_ARRAY;
+				Object[] array = new Object[size];
+				for (int i = 0; i < size; i++) {
+					array[i] = read(buf);
+				}
+				return array;
+		}
+	}
+	
+	/**
+	 * Visit the element at position, scanned complete before.
+	 */
+	private void walk(byte[] buf, ReplyVisitor visitor) {
+		int start = position;
+		int line = lineEnd(buf, start, buf.length);
+		position = line + 2;
+		switch (buf[start]) {
+			case Protocol.SPECIFIER_STRING:
+				visitor.onString(buf, start + 1, line - start - 1);
+				break;
+			case Protocol.SPECIFIER_ERROR:
+				visitor.onError(StringUtils.toString(copy(buf, start + 1, line), charset));
+				break;
+			case Protocol.SPECIFIER_INTEGER:
+				visitor.onInteger(parseLong(buf, start + 1, line));
+				break;
+			case Protocol.SPECIFIER_BULK:
+				int length = (int) parseLong(buf, start + 1, line);
+				if (length < 0) {
+					visitor.onNull();
+				} else {
+					visitor.onBulk(buf, position, length);
+					position += length + 2;
 				}
-				type = Protocol.Type.BULK_STRING;
-				current = ByteUtils.cut(tmp, index);
-				position = position + index + Protocol.BTS_CRLF.length;
-			}
-		} else if (ByteUtils.startWith(buf, (byte) Protocol.SPECIFIER_ARRAY)) {
-			int index = -1;
-			if ((index = ByteUtils.indexOf(buf, Protocol.BTS_CRLF)) == -1) {
-				throw new RedisProtoNotReadyException("buf not ready, waiting CRLF....");
-			}
-			int size = NumberUtils.toInt(new String(ByteUtils.cut(buf, 1, index - 1)), -1);
-			if (size < 0) {
-				throw new RuntimeException("array size invalid! maybe deep error?");
-			} else if (size == 0) {	// empty array
-				type = Protocol.Type.ARRAY;
-				array = EMPTY_ARRAY;
-				position = index + Protocol.BTS_CRLF.length;
-			} else {
-				try {
-					position = index + Protocol.BTS_CRLF.length;
-					List<Object> list = new ArrayList<Object>(size);
-					for (int i = 0; i < size; i++) {
-						byte[] tmp = ByteUtils.cut(position, buf);	// array body
-						ProtoParser parser = new ProtoParser().parse(tmp);
-						list.add(parser.result());
-						position += parser.position();
-					}
-					type = Protocol.Type.ARRAY;
-					array = list.toArray(new Object[size]);
-				} catch (RedisProtoNotReadyException e) {
-					position = -1;
-					throw e;
-				} catch (RuntimeException e) {
-					position = -1;
-					throw e;
+				break;
+			default:	// array
+				int size = (int) parseLong(buf, start + 1, line);
+				visitor.onArrayStart(size);
+				if (size < 0) break;
+				for (int i = 0; i < size; i++) {
+					walk(buf, visitor);
 				}
-			}
+				visitor.onArrayEnd();
 		}
-		return this;
+	}
+	
+	private static byte[] copy(byte[] buf, int from, int to) {
+		byte[] bts = new byte[to - from];
+		System.arraycopy(buf, from, bts, 0, bts.length);
+		return bts;
+	}
+	
+	/**
+	 * @return position of the CR of the first CRLF from start, -1 if none before limit
+	 */
+	public static int lineEnd(byte[] buf, int start, int limit) {
+		for (int i = start; i + 1 < limit; i++) {
+			if (buf[i] == '\r' && buf[i + 1] == '\n') return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Parse decimal digits, no String made.
+	 * @param buf bytes
+	 * @param from first byte, may be '-' or '+'
+	 * @param to after the last byte
+	 * @return value
+	 * @throws IllegalStateException if not a number
+	 */
+	public static long parseLong(byte[] buf, int from, int to) {
+		if (from >= to) throw new IllegalStateException("number expected");
+		boolean negative = buf[from] == '-';
+		int i = negative || buf[from] == '+' ? from + 1 : from;
+		if (i >= to || to - i > 19) throw new IllegalStateException("number invalid");
+		// accumulated negatively, as Long.MIN_VALUE has no positive counterpart
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		for (; i < to; i++) {
+			int digit = buf[i] - '0';
+			if (digit < 0 || digit > 9) throw new IllegalStateException("number invalid");
+			if (value < limit / 10) throw new IllegalStateException("number out of range");
+			value *= 10;
+			if (value < limit + digit) throw new IllegalStateException("number out of range");
+			value -= digit;
+		}
+		return negative ? value : -value;
 	}
 	
 	/**
@@ -150,18 +226,9 @@ public class ProtoParser {
 	}
 	
 	public Object result() {
-		if (Protocol.Type.STRING == type) {
-			return StringUtils.toString(current, charset);
-		} else if (Protocol.Type.ERROR == type) {
-			return new RedisException(StringUtils.toString(current, charset));
-		} else if (Protocol.Type.INTEGER == type) {
-			return NumberUtils.toInt(StringUtils.toString(current, charset));
-		} else if (Protocol.Type.BULK_STRING == type) {
-			return current == null ? null : StringUtils.toString(current, charset);
-		} else if (Protocol.Type.ARRAY == type) {
-			return array;
-		} else {
+		if (!parsed) {
 			throw new RuntimeException("parser not ready, parse error or parse not called!");
 		}
+		return result;
 	}
-}
\ No newline at end of file
+}
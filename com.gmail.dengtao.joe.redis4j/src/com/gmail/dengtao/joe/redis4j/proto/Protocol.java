@@ -20,6 +20,7 @@ public class Protocol {
 	public static final String LF = "\n";
 	public static final String CRLF = "\r\n";
     public static final String DEFAULT_CHARSET = "UTF-8";
+    public static final int DEFAULT_PORT = 6379;
 
     public static final byte BTS_SPECIFIER_STRING = (byte) SPECIFIER_STRING;
     public static final byte BTS_SPECIFIER_ERROR = (byte) SPECIFIER_ERROR;
@@ -28,20 +29,281 @@ public class Protocol {
     public static final byte BTS_SPECIFIER_ARRAY = (byte) SPECIFIER_ARRAY;
     public static final byte[] BTS_CRLF = StringUtils.getBytes(CRLF, DEFAULT_CHARSET);
     
-	public enum Command {
+	public enum Command implements CommandType {
+		// connection
 		AUTH,	// Request for authentication in a password-protected Redis server.
 		SELECT,	// Select the DB with having the specified zero-based numeric index.
+		ECHO,	// Returns message.
+		PING,	// This command is often used to test if a connection is still alive, or to measure latency.
+		QUIT,	// Ask the server to close the connection.
+		CLIENT,	// Connection management, CLIENT REPLY ON|OFF|SKIP controls replies of the connection.
+		HELLO,
+		RESET,
+
+		// keys
+		DEL,	// Removes the specified keys. A key is ignored if it does not exist.
+		UNLINK,
+		EXISTS,	// Check if key exists.
+		EXPIRE,	// Set a timeout on key. After the timeout has expired, the key will automatically be deleted.
+		PEXPIRE,
+		EXPIREAT,
+		PEXPIREAT,
+		EXPIRETIME,
+		PEXPIRETIME,
+		TTL,
+		PTTL,
+		PERSIST,
+		TYPE,
+		RENAME,
+		RENAMENX,
+		KEYS,
+		SCAN,
+		RANDOMKEY,
+		TOUCH,
+		DUMP,
+		RESTORE,
+		MOVE,
+		COPY,
+		OBJECT,
+		SORT,
+		SORT_RO,
+		WAIT,
+		MIGRATE,
+
+		// strings
 		SET,	// Set key to hold the string value. If key already holds a value, it is overwritten, regardless of its type.
 		GET,	// Get the value of key. If the key does not exist the special value nil is returned.
+		MGET,	// Returns the values of all specified keys, nil for keys which do not exist.
+		MSET,	// Sets the given keys to their respective values.
+		MSETNX,
+		SETNX,
+		SETEX,
+		PSETEX,
+		GETSET,
+		GETDEL,
+		GETEX,
+		GETRANGE,
+		SETRANGE,
 		APPEND,	// If key already exists and is a string, this command appends the value at the end of the string.
-		DEL,	// Removes the specified keys. A key is ignored if it does not exist.
-		EXPIRE, // Set a timeout on key. After the timeout has expired, the key will automatically be deleted.
-		EXISTS,	// Check if key exists.
-		FLUSHDB,// Delete all the keys of the currently selected DB. This command never fails.
-		ECHO,	// Returns message.
-		PING,	// This command is often used to test if a connection is still alive, or to measure latency.
-		QUIT	// Ask the server to close the connection.
+		STRLEN,
+		INCR,
+		INCRBY,
+		INCRBYFLOAT,
+		DECR,
+		DECRBY,
+		LCS,
+
+		// bitmaps
+		SETBIT,
+		GETBIT,
+		BITCOUNT,
+		BITPOS,
+		BITOP,
+		BITFIELD,
+		BITFIELD_RO,
+
+		// hashes
+		HSET,
+		HSETNX,
+		HGET,
+		HMSET,
+		HMGET,
+		HGETALL,
+		HDEL,
+		HEXISTS,
+		HLEN,
+		HKEYS,
+		HVALS,
+		HINCRBY,
+		HINCRBYFLOAT,
+		HSTRLEN,
+		HSCAN,
+		HRANDFIELD,
+
+		// lists
+		LPUSH,
+		LPUSHX,
+		RPUSH,
+		RPUSHX,
+		LPOP,
+		RPOP,
+		LLEN,
+		LRANGE,
+		LINDEX,
+		LSET,
+		LINSERT,
+		LREM,
+		LTRIM,
+		LPOS,
+		LMOVE,
+		BLMOVE,
+		RPOPLPUSH,
+		BRPOPLPUSH,
+		BLPOP,
+		BRPOP,
+		LMPOP,
+		BLMPOP,
+
+		// sets
+		SADD,
+		SREM,
+		SMEMBERS,
+		SISMEMBER,
+		SMISMEMBER,
+		SCARD,
+		SPOP,
+		SRANDMEMBER,
+		SMOVE,
+		SINTER,
+		SINTERCARD,
+		SINTERSTORE,
+		SUNION,
+		SUNIONSTORE,
+		SDIFF,
+		SDIFFSTORE,
+		SSCAN,
+
+		// sorted sets
+		ZADD,
+		ZREM,
+		ZCARD,
+		ZCOUNT,
+		ZLEXCOUNT,
+		ZSCORE,
+		ZMSCORE,
+		ZINCRBY,
+		ZRANK,
+		ZREVRANK,
+		ZRANGE,
+		ZRANGESTORE,
+		ZRANGEBYSCORE,
+		ZREVRANGE,
+		ZREVRANGEBYSCORE,
+		ZRANGEBYLEX,
+		ZREVRANGEBYLEX,
+		ZREMRANGEBYRANK,
+		ZREMRANGEBYSCORE,
+		ZREMRANGEBYLEX,
+		ZPOPMIN,
+		ZPOPMAX,
+		BZPOPMIN,
+		BZPOPMAX,
+		ZMPOP,
+		BZMPOP,
+		ZRANDMEMBER,
+		ZUNION,
+		ZUNIONSTORE,
+		ZINTER,
+		ZINTERCARD,
+		ZINTERSTORE,
+		ZDIFF,
+		ZDIFFSTORE,
+		ZSCAN,
+
+		// hyperloglog
+		PFADD,
+		PFCOUNT,
+		PFMERGE,
+
+		// geo
+		GEOADD,
+		GEODIST,
+		GEOHASH,
+		GEOPOS,
+		GEOSEARCH,
+		GEOSEARCHSTORE,
+		GEORADIUS,
+		GEORADIUSBYMEMBER,
+
+		// streams
+		XADD,
+		XLEN,
+		XRANGE,
+		XREVRANGE,
+		XREAD,
+		XREADGROUP,
+		XGROUP,
+		XACK,
+		XPENDING,
+		XCLAIM,
+		XAUTOCLAIM,
+		XDEL,
+		XTRIM,
+		XINFO,
+		XSETID,
+
+		// pub/sub
+		PUBLISH,
+		SPUBLISH,
+		SUBSCRIBE,	// Subscribe the connection to channels, it only takes (P)SUBSCRIBE, (P)UNSUBSCRIBE and PING afterwards.
+		PSUBSCRIBE,	// Subscribe the connection to channel patterns.
+		SSUBSCRIBE,
+		UNSUBSCRIBE,	// Unsubscribe the connection from channels.
+		PUNSUBSCRIBE,	// Unsubscribe the connection from channel patterns.
+		SUNSUBSCRIBE,
+		PUBSUB,
+
+		// transactions
+		MULTI,
+		EXEC,
+		DISCARD,
+		WATCH,
+		UNWATCH,
+
+		// scripting
+		EVAL,
+		EVALSHA,
+		EVAL_RO,
+		EVALSHA_RO,
+		SCRIPT,
+		FUNCTION,
+		FCALL,
+		FCALL_RO,
+
+		// server
+		FLUSHDB,	// Delete all the keys of the currently selected DB. This command never fails.
+		FLUSHALL,
+		DBSIZE,
+		INFO,
+		CONFIG,
+		TIME,
+		LASTSAVE,
+		SAVE,
+		BGSAVE,
+		BGREWRITEAOF,
+		SLOWLOG,
+		LATENCY,
+		MEMORY,
+		COMMAND,
+		SWAPDB,
+		MONITOR,
+		DEBUG,
+		ACL,
+		MODULE,
+		SHUTDOWN,
+		REPLICAOF,
+		SLAVEOF,
+		ROLE,
+		FAILOVER,
+		LOLWUT,
+
+		// cluster and sentinel
+		CLUSTER,	// Cluster management, CLUSTER SLOTS returns the slot => node mapping.
+		READONLY,	// Enable reads of the master's slots on a cluster replica connection.
+		READWRITE,	// Disable READONLY of the connection.
+		ASKING,	// Serve the next command for a slot being imported, sent before the command an ASK redirect points to.
+		SENTINEL,	// Sentinel queries, SENTINEL get-master-addr-by-name returns the current master of a monitored set.
 		;
+
+		private final byte[] bytes = StringUtils.getBytes(name(), DEFAULT_CHARSET);
+
+		/**
+		 * @return command name as sent
+		 */
+		@Override
+		public byte[] getBytes() {
+			return bytes;
+		}
 	}
 
 	public interface Type {
@@ -0,0 +1,24 @@
+package com.gmail.dengtao.joe.redis4j.proto;
+
+/**
+ * Turns a parsed reply into a typed value, see {@link ReplyDecoders}.
+ * <pre>
+ * The reply is what {@link ProtoParser} gives in raw mode: byte[] for bulk strings, 
+ * String for simple strings, Integer or Long for integers, Object[] for arrays, null for nil.
+ * Error replies never reach a decoder.
+ * Called on the event loop thread, keep it short.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface ReplyDecoder<T> {
+
+	/**
+	 * @param reply parsed reply
+	 * @param charset charset of the client, for text
+	 * @return decoded value
+	 * @throws RuntimeException if the reply is not of the expected type
+	 */
+	public T decode(Object reply, String charset);
+
+}
@@ -0,0 +1,206 @@
+package com.gmail.dengtao.joe.redis4j.proto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gmail.dengtao.joe.redis4j.codec.RedisCodec;
+import com.gmail.dengtao.joe.redis4j.utils.StringUtils;
+
+/**
+ * Built-in {@link ReplyDecoder}s.
+ * <pre>
+ * OBJECT		bulk strings as String, arrays as Object[] all the way down, as the classic API returns
+ * RAW			as parsed: bulk strings as byte[]
+ * STRING		String, null for nil
+ * BYTES		byte[], null for nil
+ * LONG			Long of an integer or a numeric string, null for nil
+ * DOUBLE		Double of a numeric string (INCRBYFLOAT, ZSCORE), null for nil
+ * BOOLEAN		integer != 0, or a status reply, false for nil
+ * OK			true unless nil (SET NX/XX not done)
+ * LIST			List&lt;String&gt; of an array, nil elements as null
+ * BYTES_LIST	List&lt;byte[]&gt; of an array
+ * MAP			Map&lt;String, String&gt; of a flat key, value array (HGETALL, CONFIG GET), in order
+ * </pre>
+ * Values and keys of a {@link RedisCodec}: {@link #value(RedisCodec)}, {@link #values(RedisCodec)}, {@link #keys(RedisCodec)}.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public final class ReplyDecoders {
+
+	private ReplyDecoders() {
+	}
+
+	public static final ReplyDecoder<Object> OBJECT = new ReplyDecoder<Object>() {
+		@Override
+		public Object decode(Object reply, String charset) {
+			if (reply instanceof byte[]) return StringUtils.toString((byte[]) reply, charset);
+			if (reply instanceof Object[]) {
+				Object[] array = (Object[]) reply;
+				for (int i = 0; i < array.length; i++) {
+					array[i] = decode(array[i], charset);
+				}
+			}
+			return reply;
+		}
+	};
+
+	public static final ReplyDecoder<Object> RAW = new ReplyDecoder<Object>() {
+		@Override
+		public Object decode(Object reply, String charset) {
+			return reply;
+		}
+	};
+
+	public static final ReplyDecoder<String> STRING = new ReplyDecoder<String>() {
+		@Override
+		public String decode(Object reply, String charset) {
+			if (reply == null) return null;
+			if (reply instanceof byte[]) return StringUtils.toString((byte[]) reply, charset);
+			if (reply instanceof Object[]) throw new IllegalStateException("string expected, got array");
+			return String.valueOf(reply);
+		}
+	};
+
+	public static final ReplyDecoder<byte[]> BYTES = new ReplyDecoder<byte[]>() {
+		@Override
+		public byte[] decode(Object reply, String charset) {
+			if (reply == null) return null;
+			if (reply instanceof byte[]) return (byte[]) reply;
+			return StringUtils.getBytes(STRING.decode(reply, charset), charset);
+		}
+	};
+
+	public static final ReplyDecoder<Long> LONG = new ReplyDecoder<Long>() {
+		@Override
+		public Long decode(Object reply, String charset) {
+			if (reply == null) return null;
+			if (reply instanceof Number) return ((Number) reply).longValue();
+			return Long.valueOf(STRING.decode(reply, charset));
+		}
+	};
+
+	public static final ReplyDecoder<Double> DOUBLE = new ReplyDecoder<Double>() {
+		@Override
+		public Double decode(Object reply, String charset) {
+			if (reply == null) return null;
+			if (reply instanceof Number) return ((Number) reply).doubleValue();
+			return Double.valueOf(STRING.decode(reply, charset));
+		}
+	};
+
+	public static final ReplyDecoder<Boolean> BOOLEAN = new ReplyDecoder<Boolean>() {
+		@Override
+		public Boolean decode(Object reply, String charset) {
+			if (reply == null) return Boolean.FALSE;
+			if (reply instanceof Number) return ((Number) reply).longValue() != 0;
+			if (reply instanceof String) return Boolean.TRUE;	// status reply, eg OK
+			String value = STRING.decode(reply, charset);
+			return !"0".equals(value) && !value.isEmpty();
+		}
+	};
+
+	public static final ReplyDecoder<Boolean> OK = new ReplyDecoder<Boolean>() {
+		@Override
+		public Boolean decode(Object reply, String charset) {
+			return reply != null;
+		}
+	};
+
+	public static final ReplyDecoder<List<String>> LIST = new ReplyDecoder<List<String>>() {
+		@Override
+		public List<String> decode(Object reply, String charset) {
+			if (reply == null) return null;
+			Object[] array = array(reply);
+			List<String> list = new ArrayList<String>(array.length);
+			for (Object element : array) {
+				list.add(STRING.decode(element, charset));
+			}
+			return list;
+		}
+	};
+
+	public static final ReplyDecoder<List<byte[]>> BYTES_LIST = new ReplyDecoder<List<byte[]>>() {
+		@Override
+		public List<byte[]> decode(Object reply, String charset) {
+			if (reply == null) return null;
+			Object[] array = array(reply);
+			List<byte[]> list = new ArrayList<byte[]>(array.length);
+			for (Object element : array) {
+				list.add(BYTES.decode(element, charset));
+			}
+			return list;
+		}
+	};
+
+	public static final ReplyDecoder<Map<String, String>> MAP = new ReplyDecoder<Map<String, String>>() {
+		@Override
+		public Map<String, String> decode(Object reply, String charset) {
+			if (reply == null) return Collections.emptyMap();
+			Object[] array = array(reply);
+			if (array.length % 2 != 0) throw new IllegalStateException("key, value array expected, got " + array.length + " elements");
+			Map<String, String> map = new LinkedHashMap<String, String>(array.length);
+			for (int i = 0; i < array.length; i += 2) {
+				map.put(STRING.decode(array[i], charset), STRING.decode(array[i + 1], charset));
+			}
+			return map;
+		}
+	};
+
+	/**
+	 * @return decoder of a value, null for nil
+	 */
+	public static <V> ReplyDecoder<V> value(final RedisCodec<?, V> codec) {
+		return new ReplyDecoder<V>() {
+			@Override
+			public V decode(Object reply, String charset) {
+				byte[] bytes = BYTES.decode(reply, charset);
+				return bytes == null ? null : codec.decodeValue(bytes);
+			}
+		};
+	}
+
+	/**
+	 * @return decoder of an array of values (MGET, LRANGE), nil elements as null
+	 */
+	public static <V> ReplyDecoder<List<V>> values(final RedisCodec<?, V> codec) {
+		return new ReplyDecoder<List<V>>() {
+			@Override
+			public List<V> decode(Object reply, String charset) {
+				List<byte[]> array = BYTES_LIST.decode(reply, charset);
+				if (array == null) return null;
+				List<V> list = new ArrayList<V>(array.size());
+				for (byte[] bytes : array) {
+					list.add(bytes == null ? null : codec.decodeValue(bytes));
+				}
+				return list;
+			}
+		};
+	}
+
+	/**
+	 * @return decoder of an array of keys (KEYS)
+	 */
+	public static <K> ReplyDecoder<List<K>> keys(final RedisCodec<K, ?> codec) {
+		return new ReplyDecoder<List<K>>() {
+			@Override
+			public List<K> decode(Object reply, String charset) {
+				List<byte[]> array = BYTES_LIST.decode(reply, charset);
+				if (array == null) return null;
+				List<K> list = new ArrayList<K>(array.size());
+				for (byte[] bytes : array) {
+					list.add(codec.decodeKey(bytes));
+				}
+				return list;
+			}
+		};
+	}
+
+	private static Object[] array(Object reply) {
+		if (!(reply instanceof Object[])) throw new IllegalStateException("array expected, got " + reply.getClass().getSimpleName());
+		return (Object[]) reply;
+	}
+
+}
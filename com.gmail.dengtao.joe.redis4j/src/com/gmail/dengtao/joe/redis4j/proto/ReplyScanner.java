@@ -0,0 +1,88 @@
+package com.gmail.dengtao.joe.redis4j.proto;
+
+/**
+ * <p>
+ * Finds where a reply ends in bytes arriving bit by bit, without parsing it.
+ * </p>
+ * <pre>
+ * State is kept between calls: each call goes on from the last whole element seen,
+ * a reply of n bytes read in k chunks costs O(n) in total, not O(n x k).
+ * Once {@link #scan(byte[], int, int)} returns the end, {@link #reset()} before the next reply.
+ * Bytes already scanned may move in the buffer (compacted), offsets are kept relative to the reply start.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class ReplyScanner {
+
+	private int scanned = 0;	// bytes of whole elements from the reply start
+	private int[] remaining = new int[8];	// elements left per open array
+	private int depth = 0;
+
+	/**
+	 * @param buf bytes
+	 * @param start reply start
+	 * @param limit end of bytes read so far
+	 * @return position after the reply, -1 if not complete yet
+	 * @throws IllegalStateException on invalid protocol data
+	 */
+	public int scan(byte[] buf, int start, int limit) {
+		int position = start + scanned;
+		while (true) {
+			int line = ProtoParser.lineEnd(buf, position, limit);
+			if (line < 0) return -1;
+			int next = line + 2;
+			byte type = buf[position];
+			if (type == Protocol.BTS_SPECIFIER_BULK) {
+				long length = ProtoParser.parseLong(buf, position + 1, line);
+				if (length >= 0) {
+					if (length > Integer.MAX_VALUE - next - 2) throw new IllegalStateException("bulk string too long:" + length);
+					next += (int) length + 2;
+					if (next > limit) return -1;
+					if (buf[next - 2] != '\r' || buf[next - 1] != '\n') throw new IllegalStateException("bulk string not ended by CRLF");
+				} else if (length != -1) {
+					throw new IllegalStateException("bulk string length invalid:" + length);
+				}
+			} else if (type == Protocol.BTS_SPECIFIER_ARRAY) {
+				long size = ProtoParser.parseLong(buf, position + 1, line);
+				if (size < -1 || size > Integer.MAX_VALUE) throw new IllegalStateException("array size invalid:" + size);
+				if (size > 0) {
+					if (depth == remaining.length) {
+						int[] grown = new int[depth * 2];
+						System.arraycopy(remaining, 0, grown, 0, depth);
+						remaining = grown;
+					}
+					remaining[depth++] = (int) size;
+					position = next;
+					scanned = position - start;
+					continue;	// counted when its elements are
+				}
+			} else if (type != Protocol.BTS_SPECIFIER_STRING && type != Protocol.BTS_SPECIFIER_ERROR && type != Protocol.BTS_SPECIFIER_INTEGER) {
+				throw new IllegalStateException("invalid type:" + (char) type);
+			}
+			position = next;
+			scanned = position - start;
+			// one element done, and the arrays it completes
+			while (depth > 0 && --remaining[depth - 1] == 0) {
+				depth--;
+			}
+			if (depth == 0) return position;
+		}
+	}
+
+	/**
+	 * @return true if part of a reply has been scanned
+	 */
+	public boolean isStarted() {
+		return scanned > 0;
+	}
+
+	/**
+	 * Forget the reply, before scanning the next one.
+	 */
+	public void reset() {
+		scanned = 0;
+		depth = 0;
+	}
+
+}
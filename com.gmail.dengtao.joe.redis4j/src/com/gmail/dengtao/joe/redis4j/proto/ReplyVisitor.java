@@ -0,0 +1,70 @@
+package com.gmail.dengtao.joe.redis4j.proto;
+
+/**
+ * <p>
+ * Takes a reply element by element as {@link ProtoParser#visit(byte[], int, int, ReplyVisitor)} walks the receive buffer,
+ * no object is made per element.
+ * </p>
+ * <pre>
+ * LRANGE of numbers summed up, nothing but the buffer in memory:
+ * class Sum extends ReplyVisitorAdapter {
+ *     long sum;
+ *     public void onBulk(byte[] bytes, int offset, int length) { sum += ProtoParser.parseLong(bytes, offset, offset + length); }
+ * }
+ * long sum = redis.visit(Protocol.Command.LRANGE, new Sum(), "numbers", 0, -1).sum;
+ * </pre>
+ * <pre>
+ * Bytes passed in belong to the receive buffer, valid during the call only: copy what is kept.
+ * An error reply of the command itself never reaches the visitor, it fails the request as usual.
+ * Called on the I/O thread, keep it short.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface ReplyVisitor {
+
+	/**
+	 * An array begins, its elements follow, then {@link #onArrayEnd()}.
+	 * @param size number of elements, -1 for a nil array (no elements, no end)
+	 */
+	public void onArrayStart(int size);
+
+	/**
+	 * The last array begun ends.
+	 */
+	public void onArrayEnd();
+
+	/**
+	 * A bulk string.
+	 * @param bytes buffer holding it
+	 * @param offset start in the buffer
+	 * @param length length in bytes
+	 */
+	public void onBulk(byte[] bytes, int offset, int length);
+
+	/**
+	 * A nil bulk string.
+	 */
+	public void onNull();
+
+	/**
+	 * An integer.
+	 * @param value
+	 */
+	public void onInteger(long value);
+
+	/**
+	 * A simple string, eg OK.
+	 * @param bytes buffer holding it
+	 * @param offset start in the buffer
+	 * @param length length in bytes
+	 */
+	public void onString(byte[] bytes, int offset, int length);
+
+	/**
+	 * An error element of an array, eg of EXEC.
+	 * @param message error message
+	 */
+	public void onError(String message);
+
+}
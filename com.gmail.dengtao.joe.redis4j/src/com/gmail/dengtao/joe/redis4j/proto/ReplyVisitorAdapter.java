@@ -0,0 +1,38 @@
+package com.gmail.dengtao.joe.redis4j.proto;
+
+/**
+ * {@link ReplyVisitor} ignoring every element, override what you need.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class ReplyVisitorAdapter implements ReplyVisitor {
+
+	@Override
+	public void onArrayStart(int size) {
+	}
+
+	@Override
+	public void onArrayEnd() {
+	}
+
+	@Override
+	public void onBulk(byte[] bytes, int offset, int length) {
+	}
+
+	@Override
+	public void onNull() {
+	}
+
+	@Override
+	public void onInteger(long value) {
+	}
+
+	@Override
+	public void onString(byte[] bytes, int offset, int length) {
+	}
+
+	@Override
+	public void onError(String message) {
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>
+ * Bytes of a channel to be written as one piece, framed by a head and a tail, see {@link Session#send(Object)}.
+ * </p>
+ * <pre>
+ * A {@link FileChannel} is sent by {@link FileChannel#transferTo(long, long, WritableByteChannel)} from its current position,
+ * zero-copy where the os allows it; any other channel through one chunk buffer of {@link #CHUNK} bytes.
+ * Memory stays bounded whatever the count.
+ * The source is read on the I/O thread: use a blocking channel that reads fast, eg a file.
+ * If the source ends before count bytes, the connection is closed, the peer got a partial request.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class ChannelRegion {
+
+	/** chunk size for channels other than files */
+	public static final int CHUNK = 64 * 1024;
+
+	private final ByteBuffer head;
+	private final ReadableByteChannel source;
+	private final long position;	// of a file channel
+	private final long count;
+	private final ByteBuffer tail;
+	private long transferred = 0;
+	private ByteBuffer chunk;
+
+	/**
+	 * @param head bytes before, may be empty
+	 * @param source channel to read count bytes from
+	 * @param count number of bytes to send from the source
+	 * @param tail bytes after, may be empty
+	 * @throws IOException if the position of a file channel can not be read
+	 */
+	public ChannelRegion(byte[] head, ReadableByteChannel source, long count, byte[] tail) throws IOException {
+		if (head == null || source == null || count < 0 || tail == null) throw new IllegalArgumentException();
+		this.head = ByteBuffer.wrap(head);
+		this.source = source;
+		this.position = source instanceof FileChannel ? ((FileChannel) source).position() : 0;
+		this.count = count;
+		this.tail = ByteBuffer.wrap(tail);
+	}
+
+	/**
+	 * @return number of bytes from the source
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return bytes of the source sent so far
+	 */
+	public long getTransferred() {
+		return transferred;
+	}
+
+	/**
+	 * Write as much as the target accepts, I/O thread only.
+	 * @return true if head, count bytes and tail are all written
+	 * @throws EOFException if the source ends early
+	 */
+	boolean writeTo(WritableByteChannel target) throws IOException {
+		if (head.hasRemaining() && (target.write(head) == 0 || head.hasRemaining())) return false;
+		while (transferred < count) {
+			long n;
+			if (source instanceof FileChannel) {
+				FileChannel file = (FileChannel) source;
+				n = file.transferTo(position + transferred, count - transferred, target);
+				if (n == 0) {
+					if (position + transferred >= file.size()) throw new EOFException("file ended " + (count - transferred) + " bytes early");
+					return false;
+				}
+			} else {
+				if (chunk == null) {
+					chunk = ByteBuffer.allocate((int) Math.min(CHUNK, count));
+					chunk.flip();
+				}
+				if (!chunk.hasRemaining()) {
+					chunk.clear();
+					chunk.limit((int) Math.min(chunk.capacity(), count - transferred));
+					int read = source.read(chunk);
+					chunk.flip();
+					if (read < 0) throw new EOFException("channel ended " + (count - transferred) + " bytes early");
+					if (read == 0) return false;	// non-blocking source, try again on the next write
+				}
+				n = target.write(chunk);
+				if (n == 0 && chunk.hasRemaining()) return false;
+			}
+			transferred += n;
+		}
+		chunk = null;
+		return !tail.hasRemaining() || (target.write(tail) > 0 && !tail.hasRemaining());
+	}
+
+}
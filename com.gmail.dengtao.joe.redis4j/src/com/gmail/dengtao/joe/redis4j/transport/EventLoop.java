@@ -0,0 +1,252 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * One I/O thread and one selector, shared by all {@link NioTransport}s pinned to it.
+ * Also runs tasks and timers (reconnect, flush...) for them, so a connection costs no thread of its own.
+ * </p>
+ * <pre>
+ * {@link #execute(Runnable)} run a task on the loop thread.
+ * {@link #schedule(Runnable, long)} run a task on the loop thread after delay.
+ * {@link #inEventLoop()} check current thread is the loop thread.
+ * </pre>
+ * Tasks must never block, they are run by the thread doing all I/O of the loop.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class EventLoop {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EventLoop.class);
+
+	/** idle check resolution */
+	private static final long TICK = 1000;
+
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final PriorityQueue<ScheduledTask> scheduled = new PriorityQueue<ScheduledTask>();	// loop thread only
+	private final AtomicBoolean wakenUp = new AtomicBoolean(false);
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile boolean running = true;
+	private long lastTick = System.currentTimeMillis();
+
+	/**
+	 * Create and start an event loop.
+	 * @param name thread name
+	 * @throws IOException if selector open failed
+	 */
+	public EventLoop(String name) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				EventLoop.this.run();
+			}
+		}, name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Run task on the loop thread.
+	 * @param task
+	 */
+	public void execute(Runnable task) {
+		if (task == null) throw new IllegalArgumentException();
+		tasks.offer(task);
+		if (!inEventLoop()) {
+			wakeup();
+		}
+	}
+
+	/**
+	 * Run task on the loop thread after delay.
+	 * @param task
+	 * @param delay delay in milliseconds
+	 * @return the scheduled task, can be cancelled.
+	 */
+	public ScheduledTask schedule(Runnable task, long delay) {
+		if (task == null) throw new IllegalArgumentException();
+		final ScheduledTask scheduledTask = new ScheduledTask(task, System.currentTimeMillis() + Math.max(0, delay), sequence.incrementAndGet());
+		if (inEventLoop()) {
+			scheduled.offer(scheduledTask);
+		} else {
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					scheduled.offer(scheduledTask);
+				}
+			});
+		}
+		return scheduledTask;
+	}
+
+	/**
+	 * @return true if current thread is the loop thread.
+	 */
+	public boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Stop the loop, all registered channels closed.
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Register a channel to this loop, loop thread only.
+	 */
+	SelectionKey register(SelectableChannel channel, int ops, NioTransport transport) throws IOException {
+		return channel.register(selector, ops, transport);
+	}
+
+	void wakeup() {
+		if (wakenUp.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				long timeout = nextTimeout();
+				wakenUp.set(false);
+				if (!tasks.isEmpty()) {
+					selector.selectNow();
+				} else {
+					selector.select(timeout);
+				}
+				processSelectedKeys();
+				runTasks();
+				runScheduledTasks();
+				long now = System.currentTimeMillis();
+				if (now - lastTick >= TICK) {
+					lastTick = now;
+					for (SelectionKey key : selector.keys()) {
+						Object attachment = key.attachment();
+						if (key.isValid() && attachment instanceof NioTransport) {
+							((NioTransport) attachment).checkIdle(now);
+						}
+					}
+				}
+			} catch (Throwable e) {
+				LOGGER.error("[EventLoop][Error][" + e.getMessage() + "][deep error?]", e);
+			}
+		}
+		for (SelectionKey key : selector.keys()) {
+			Object attachment = key.attachment();
+			if (attachment instanceof NioTransport) {
+				((NioTransport) attachment).doClose();
+			}
+		}
+		try { selector.close(); } catch (IOException e) { /* nothing */ }
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("[EventLoop][Shutdown][" + thread.getName() + "]");
+		}
+	}
+
+	private long nextTimeout() {
+		long timeout = TICK;
+		ScheduledTask task = scheduled.peek();
+		if (task != null) {
+			timeout = Math.min(timeout, task.deadline - System.currentTimeMillis());
+		}
+		return Math.max(1, timeout);
+	}
+
+	private void processSelectedKeys() {
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			Object attachment = key.attachment();
+			if (key.isValid() && attachment instanceof NioTransport) {
+				((NioTransport) attachment).process(key);
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (Throwable e) {
+				LOGGER.error("[EventLoop][Task][" + e.getMessage() + "]", e);
+			}
+		}
+	}
+
+	private void runScheduledTasks() {
+		long now = System.currentTimeMillis();
+		ScheduledTask task;
+		while ((task = scheduled.peek()) != null && task.deadline <= now) {
+			scheduled.poll();
+			if (task.cancelled) continue;
+			try {
+				task.task.run();
+			} catch (Throwable e) {
+				LOGGER.error("[EventLoop][Schedule][" + e.getMessage() + "]", e);
+			}
+		}
+	}
+
+	/*
+	 * Delayed task of event loop
+	 * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+	 * @version 1.0
+	 */
+	public static class ScheduledTask implements Comparable<ScheduledTask> {
+
+		private final Runnable task;
+		private final long deadline;
+		private final long sequence;
+		private volatile boolean cancelled = false;
+
+		ScheduledTask(Runnable task, long deadline, long sequence) {
+			this.task = task;
+			this.deadline = deadline;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Cancel this task, no effect if already run.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public int compareTo(ScheduledTask o) {
+			if (deadline != o.deadline) return deadline < o.deadline ? -1 : 1;
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+		}
+
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A fixed number of {@link EventLoop}s shared by many redis clients.
+ * Each connection is pinned to one loop by {@link #next()},
+ * so thread count scales with cores rather than with connections.
+ * </p>
+ * <pre>
+ * EventLoopGroup group = new EventLoopGroup(4);
+ * Redis a = new Redis("10.0.0.1", 6379, "pwd", group);
+ * Redis b = new Redis("10.0.0.2", 6379, "pwd", group);
+ * ...
+ * group.shutdown();
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class EventLoopGroup {
+
+	private static final AtomicInteger GROUP_ID = new AtomicInteger();
+	private static volatile EventLoopGroup defaultGroup;
+
+	private final EventLoop[] loops;
+	private final AtomicInteger index = new AtomicInteger();
+
+	/**
+	 * Create a group with one loop per available processor.
+	 */
+	public EventLoopGroup() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a group.
+	 * @param threads number of I/O threads
+	 */
+	public EventLoopGroup(int threads) {
+		if (threads < 1) throw new IllegalArgumentException(">0 required!");
+		int id = GROUP_ID.incrementAndGet();
+		this.loops = new EventLoop[threads];
+		for (int i = 0; i < threads; i++) {
+			try {
+				loops[i] = new EventLoop("RedisEventLoop-" + id + "-" + i);
+			} catch (IOException e) {
+				for (int j = 0; j < i; j++) {
+					loops[j].shutdown();
+				}
+				throw new IllegalStateException("event loop open failed:" + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * The group shared by clients created without a group, one loop per available processor.
+	 * @return default group
+	 */
+	public static EventLoopGroup getDefault() {
+		if (defaultGroup == null) {
+			synchronized (EventLoopGroup.class) {
+				if (defaultGroup == null) {
+					defaultGroup = new EventLoopGroup();
+				}
+			}
+		}
+		return defaultGroup;
+	}
+
+	/**
+	 * @return next loop in round-robin order
+	 */
+	public EventLoop next() {
+		return loops[(index.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+	}
+
+	/**
+	 * @return number of I/O threads
+	 */
+	public int size() {
+		return loops.length;
+	}
+
+	/**
+	 * Stop all loops, connections of this group closed.
+	 */
+	public void shutdown() {
+		for (EventLoop loop : loops) {
+			loop.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decode raw bytes read by {@link Transport} to messages for {@link Handler}.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface Filter {
+
+	/**
+	 * Called on the I/O thread with the bytes just read. 
+	 * The buffer is reused by the transport, so all remaining bytes must be consumed or copied.
+	 * @param session current session
+	 * @param data bytes read, position to limit
+	 * @param handler handler to fire decoded messages to
+	 * @throws Exception
+	 */
+	public void dataReceived(Session session, ByteBuffer data, Handler handler) throws Exception;
+
+	/**
+	 * Called when session closed, drop any partial message.
+	 * @param session current session
+	 */
+	public void sessionClosed(Session session);
+
+}
@@ -0,0 +1,24 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+/**
+ * Handle session events fired by {@link Transport}.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface Handler {
+
+	public void sessionOpened(Session session) throws Exception;
+
+	public void sessionClosed(Session session) throws Exception;
+
+	public void sessionIdle(Session session, IdleStatus status) throws Exception;
+
+	public void exceptionCaught(Session session, Throwable cause);
+
+	public void dataReceived(Session session, Object data) throws Exception;
+
+	public void dataNotSent(Session session, Object data) throws Exception;
+
+	public void dataSent(Session session, Object data) throws Exception;
+
+}
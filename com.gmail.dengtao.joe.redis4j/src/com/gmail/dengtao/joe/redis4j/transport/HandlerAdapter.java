@@ -0,0 +1,38 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+/**
+ * An adapter class for {@link Handler}, all methods do nothing.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class HandlerAdapter implements Handler {
+
+	@Override
+	public void sessionOpened(Session session) throws Exception {
+	}
+
+	@Override
+	public void sessionClosed(Session session) throws Exception {
+	}
+
+	@Override
+	public void sessionIdle(Session session, IdleStatus status) throws Exception {
+	}
+
+	@Override
+	public void exceptionCaught(Session session, Throwable cause) {
+	}
+
+	@Override
+	public void dataReceived(Session session, Object data) throws Exception {
+	}
+
+	@Override
+	public void dataNotSent(Session session, Object data) throws Exception {
+	}
+
+	@Override
+	public void dataSent(Session session, Object data) throws Exception {
+	}
+
+}
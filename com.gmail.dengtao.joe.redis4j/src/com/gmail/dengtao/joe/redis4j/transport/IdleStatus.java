@@ -0,0 +1,12 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+/**
+ * Session idle status.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public enum IdleStatus {
+	READ_IDLE,	// No data received for the specified idle time.
+	WRITE_IDLE	// No data sent for the specified idle time.
+	;
+}
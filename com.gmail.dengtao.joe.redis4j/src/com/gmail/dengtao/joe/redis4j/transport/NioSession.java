@@ -0,0 +1,214 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Session of {@link NioTransport}, queued data written with gathering writes,
+ * a {@link ChannelRegion} on its own once the buffers before it are written.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class NioSession implements Session {
+
+	/** max buffers per gathering write */
+	private static final int MAX_GATHER = 64;
+
+	private final NioTransport transport;
+	private final SocketChannel channel;
+	private final Queue<WriteRequest> writeQueue = new ConcurrentLinkedQueue<WriteRequest>();
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+	private final WriteRequest[] gathered = new WriteRequest[MAX_GATHER];
+
+	private volatile boolean open = false;
+	private volatile boolean closed = false;
+	private volatile long readIdleTime = 0;
+	private volatile long writeIdleTime = 0;
+	private long lastRead = System.currentTimeMillis();
+	private long lastWrite = System.currentTimeMillis();
+
+	NioSession(NioTransport transport, SocketChannel channel) {
+		this.transport = transport;
+		this.channel = channel;
+	}
+
+	@Override
+	public void send(Object data) {
+		ByteBuffer buffer = null;
+		if (data instanceof byte[]) {
+			buffer = ByteBuffer.wrap((byte[]) data);
+		} else if (data instanceof ByteBuffer) {
+			buffer = ((ByteBuffer) data).duplicate();
+		} else if (!(data instanceof ChannelRegion)) {
+			throw new IllegalArgumentException("data:" + (data == null ? null : data.getClass()) + " not support!");
+		}
+		writeQueue.offer(new WriteRequest(data, buffer));
+		if (closed) {
+			// closed before or while queued
+			failPendingWrites(transport.getHandler());
+			return;
+		}
+		transport.writeRequested();
+	}
+
+	@Override
+	public void close() {
+		transport.close();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void setIdleTime(IdleStatus status, long idleTime) {
+		if (idleTime < 0) throw new IllegalArgumentException(">=0 required!");
+		if (status == IdleStatus.READ_IDLE) {
+			readIdleTime = idleTime;
+		} else {
+			writeIdleTime = idleTime;
+		}
+	}
+
+	@Override
+	public long getIdleTime(IdleStatus status) {
+		return status == IdleStatus.READ_IDLE ? readIdleTime : writeIdleTime;
+	}
+
+	/**
+	 * @return the underlying channel
+	 */
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	void setOpen(boolean open) {
+		this.open = open;
+	}
+
+	void setClosed() {
+		this.open = false;
+		this.closed = true;
+	}
+
+	boolean hasPendingWrites() {
+		return !writeQueue.isEmpty();
+	}
+
+	/**
+	 * Write as much queued data as the socket accepts, in I/O thread only.
+	 * @return true if all queued data written
+	 * @throws IOException
+	 */
+	boolean flush(Handler handler) throws IOException {
+		while (!writeQueue.isEmpty()) {
+			WriteRequest first = writeQueue.peek();
+			if (first.buffer == null) {
+				boolean done = ((ChannelRegion) first.data).writeTo(channel);
+				lastWrite = System.currentTimeMillis();
+				if (!done) {
+					return false;	// socket buffer full
+				}
+				writeQueue.poll();
+				fireDataSent(handler, first.data);
+				continue;
+			}
+			int count = 0;
+			Iterator<WriteRequest> it = writeQueue.iterator();
+			while (count < MAX_GATHER && it.hasNext()) {
+				WriteRequest request = it.next();
+				if (request.buffer == null) break;	// a region goes alone
+				gathered[count] = request;
+				gather[count] = request.buffer;
+				count++;
+			}
+			long written = channel.write(gather, 0, count);
+			if (written > 0) {
+				lastWrite = System.currentTimeMillis();
+			}
+			int done = 0;
+			while (done < count && !gathered[done].buffer.hasRemaining()) {
+				writeQueue.poll();
+				fireDataSent(handler, gathered[done].data);
+				done++;
+			}
+			for (int i = 0; i < count; i++) {
+				gathered[i] = null;
+				gather[i] = null;
+			}
+			if (done < count) {
+				return false;	// socket buffer full
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Fail all queued data.
+	 */
+	void failPendingWrites(Handler handler) {
+		WriteRequest request;
+		while ((request = writeQueue.poll()) != null) {
+			try {
+				handler.dataNotSent(this, request.data);
+			} catch (Exception e) {
+				handler.exceptionCaught(this, e);
+			}
+		}
+	}
+
+	/**
+	 * Fire idle event if idle time reached, in I/O thread only.
+	 */
+	void checkIdle(Handler handler, long now) {
+		if (readIdleTime > 0 && now - lastRead >= readIdleTime) {
+			lastRead = now;
+			fireIdle(handler, IdleStatus.READ_IDLE);
+		}
+		if (writeIdleTime > 0 && now - lastWrite >= writeIdleTime) {
+			lastWrite = now;
+			fireIdle(handler, IdleStatus.WRITE_IDLE);
+		}
+	}
+
+	void dataRead() {
+		lastRead = System.currentTimeMillis();
+	}
+
+	private void fireDataSent(Handler handler, Object data) {
+		try {
+			handler.dataSent(this, data);
+		} catch (Exception e) {
+			handler.exceptionCaught(this, e);
+		}
+	}
+
+	private void fireIdle(Handler handler, IdleStatus status) {
+		try {
+			handler.sessionIdle(this, status);
+		} catch (Exception e) {
+			handler.exceptionCaught(this, e);
+		}
+	}
+
+	/*
+	 * Queued data and its write buffer, null for a region.
+	 */
+	static class WriteRequest {
+
+		private final Object data;
+		private final ByteBuffer buffer;
+
+		WriteRequest(Object data, ByteBuffer buffer) {
+			this.data = data;
+			this.buffer = buffer;
+		}
+
+	}
+
+}
@@ -0,0 +1,380 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Native java.nio transport, pinned to one {@link EventLoop} which does all of its I/O.
+ * </p>
+ * <pre>
+ * Reads go to a reused direct buffer and are handed to the {@link Filter}.
+ * Queued writes are flushed with gathering writes, OP_WRITE is only registered while the socket buffer is full.
+ * Connects to TCP or, on JDK 16+, unix domain socket addresses, see {@link UnixDomainSockets}.
+ * Socket options set by {@link #setSocketOptions(SocketOptions)}, values in effect by {@link #getEffectiveOptions()}.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class NioTransport implements Transport {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NioTransport.class);
+
+	private final EventLoop loop;
+	private volatile SocketOptions options = new SocketOptions();
+	private volatile SocketOptions effectiveOptions;
+	private Filter filter;
+	private Handler handler = new HandlerAdapter();
+
+	private volatile boolean active = false;
+	private volatile NioSession session;
+	private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			writeRequested.set(false);
+			if (opened && (key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+				flush();
+			}
+		}
+	};
+
+	/* loop thread only */
+	private SocketChannel channel;
+	private SelectionKey key;
+	private ByteBuffer readBuffer;
+	private boolean opened = false;
+	private String address;
+	private boolean unix;
+	private EventLoop.ScheduledTask connectTimeoutTask;
+
+	/**
+	 * Create a transport pinned to the loop.
+	 * @param loop event loop
+	 */
+	public NioTransport(EventLoop loop) {
+		if (loop == null) throw new IllegalArgumentException();
+		this.loop = loop;
+	}
+
+	@Override
+	public void setFilter(Filter filter) {
+		this.filter = filter;
+	}
+
+	@Override
+	public void setHandler(Handler handler) {
+		if (handler == null) throw new IllegalArgumentException();
+		this.handler = handler;
+	}
+
+	@Override
+	public void connect(final String host, final int port) {
+		if (filter == null) throw new IllegalStateException("filter required!");
+		active = true;
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				// resolve in loop, never block the caller
+				doConnect(host + ":" + port, null, host, port);
+			}
+		});
+	}
+
+	@Override
+	public void connect(final SocketAddress address) {
+		if (filter == null) throw new IllegalStateException("filter required!");
+		if (address == null) throw new IllegalArgumentException();
+		active = true;
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				doConnect(String.valueOf(address), address, null, 0);
+			}
+		});
+	}
+
+	private void doConnect(String name, SocketAddress remote, String host, int port) {
+		doClose();
+		active = true;
+		address = name;
+		try {
+			if (remote == null) {
+				remote = new InetSocketAddress(host, port);
+			}
+			SocketOptions options = this.options;
+			unix = UnixDomainSockets.isUnixAddress(remote);
+			channel = unix ? UnixDomainSockets.open() : SocketChannel.open();
+			session = new NioSession(this, channel);
+			if (readBuffer == null || readBuffer.capacity() != options.getReadBufferSize()) {
+				readBuffer = ByteBuffer.allocateDirect(options.getReadBufferSize());
+			}
+			channel.configureBlocking(false);
+			applyOptions(channel, unix, options);
+			if (channel.connect(remote)) {
+				key = loop.register(channel, SelectionKey.OP_READ, this);
+				connected();
+			} else {
+				key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+				if (options.getConnectTimeout() > 0) {
+					final SocketChannel connecting = channel;
+					connectTimeoutTask = loop.schedule(new Runnable() {
+						@Override
+						public void run() {
+							if (channel == connecting && !opened) {
+								connectFailed(new SocketTimeoutException("connect timed out"));
+							}
+						}
+					}, options.getConnectTimeout());
+				}
+			}
+		} catch (IOException e) {
+			connectFailed(e);
+		} catch (RuntimeException e) {
+			connectFailed(e);
+		}
+	}
+
+	private void applyOptions(SocketChannel channel, boolean unix, SocketOptions options) throws IOException {
+		if (unix) {
+			UnixDomainSockets.setBufferSizes(channel, options.getSendBufferSize(), options.getReceiveBufferSize());
+			return;
+		}
+		Socket socket = channel.socket();
+		socket.setTcpNoDelay(options.isTcpNoDelay());
+		socket.setKeepAlive(options.isKeepAlive());
+		if (options.getSendBufferSize() > 0) socket.setSendBufferSize(options.getSendBufferSize());
+		if (options.getReceiveBufferSize() > 0) socket.setReceiveBufferSize(options.getReceiveBufferSize());
+	}
+
+	private SocketOptions readOptions(SocketChannel channel) throws IOException {
+		SocketOptions effective = options.clone();
+		if (unix) {
+			effective.setTcpNoDelay(false).setKeepAlive(false)
+				.setSendBufferSize(UnixDomainSockets.getSendBufferSize(channel))
+				.setReceiveBufferSize(UnixDomainSockets.getReceiveBufferSize(channel));
+		} else {
+			Socket socket = channel.socket();
+			effective.setTcpNoDelay(socket.getTcpNoDelay()).setKeepAlive(socket.getKeepAlive())
+				.setSendBufferSize(socket.getSendBufferSize())
+				.setReceiveBufferSize(socket.getReceiveBufferSize());
+		}
+		return effective;
+	}
+
+	private void connected() {
+		opened = true;
+		session.setOpen(true);
+		if (connectTimeoutTask != null) {
+			connectTimeoutTask.cancel();
+			connectTimeoutTask = null;
+		}
+		try {
+			effectiveOptions = readOptions(channel);
+		} catch (IOException e) {
+			effectiveOptions = null;
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("[Transport][Connect][" + address + " connected][" + effectiveOptions + "]");
+		}
+		try {
+			handler.sessionOpened(session);
+		} catch (Exception e) {
+			handler.exceptionCaught(session, e);
+		}
+		// data may be queued before open
+		if (session.hasPendingWrites()) {
+			flush();
+		}
+	}
+
+	private void connectFailed(Exception e) {
+		NioSession session = this.session;
+		doClose();
+		ConnectException cause = new ConnectException(address + " " + e.getMessage());
+		cause.initCause(e);
+		handler.exceptionCaught(session, cause);
+	}
+
+	/**
+	 * Handle selected key, loop thread only.
+	 */
+	void process(SelectionKey key) {
+		if (key.isConnectable()) {
+			try {
+				channel.finishConnect();
+			} catch (IOException e) {
+				connectFailed(e);
+				return;
+			}
+			key.interestOps(SelectionKey.OP_READ);
+			connected();
+		}
+		if (key.isValid() && key.isReadable()) {
+			read();
+		}
+		if (key.isValid() && key.isWritable()) {
+			flush();
+		}
+	}
+
+	private void read() {
+		NioSession session = this.session;
+		try {
+			int n = 0;
+			while (session.isOpen() && (n = channel.read(readBuffer)) > 0) {
+				session.dataRead();
+				readBuffer.flip();
+				filter.dataReceived(session, readBuffer, handler);
+				readBuffer.clear();
+			}
+			if (n < 0) {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("[Transport][Read][end of stream, " + address + " gone away]");
+				}
+				doClose();
+			}
+		} catch (Exception e) {
+			handler.exceptionCaught(session, e);
+			doClose();
+		} finally {
+			readBuffer.clear();
+		}
+	}
+
+	private void flush() {
+		if (!opened) return;
+		try {
+			if (session.flush(handler)) {
+				key.interestOps(SelectionKey.OP_READ);
+			} else {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		} catch (IOException e) {
+			handler.exceptionCaught(session, e);
+			doClose();
+		}
+	}
+
+	/**
+	 * Fire idle events, loop thread only.
+	 */
+	void checkIdle(long now) {
+		if (opened) {
+			session.checkIdle(handler, now);
+		}
+	}
+
+	/**
+	 * Close current channel, loop thread only.
+	 */
+	void doClose() {
+		if (channel == null) return;
+		NioSession session = this.session;
+		boolean opened = this.opened;
+		this.opened = false;
+		this.active = false;
+		this.effectiveOptions = null;
+		if (connectTimeoutTask != null) {
+			connectTimeoutTask.cancel();
+			connectTimeoutTask = null;
+		}
+		if (key != null) key.cancel();
+		try { channel.close(); } catch (IOException e) { /* nothing */ }
+		channel = null;
+		key = null;
+		session.setClosed();
+		session.failPendingWrites(handler);
+		filter.sessionClosed(session);
+		if (opened) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("[Transport][Close][" + address + " closed]");
+			}
+			try {
+				handler.sessionClosed(session);
+			} catch (Exception e) {
+				handler.exceptionCaught(session, e);
+			}
+		}
+	}
+
+	void writeRequested() {
+		if (writeRequested.compareAndSet(false, true)) {
+			loop.execute(flushTask);
+		}
+	}
+
+	Handler getHandler() {
+		return handler;
+	}
+
+	@Override
+	public void close() {
+		active = false;
+		if (loop.inEventLoop()) {
+			doClose();
+		} else {
+			loop.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!active) doClose();
+				}
+			});
+		}
+	}
+
+	@Override
+	public boolean isActive() {
+		return active;
+	}
+
+	@Override
+	public EventLoop getEventLoop() {
+		return loop;
+	}
+
+	/**
+	 * @return current session, null if never connected
+	 */
+	public NioSession getSession() {
+		return session;
+	}
+
+	/**
+	 * @return a copy of the requested socket options
+	 */
+	public SocketOptions getSocketOptions() {
+		return options.clone();
+	}
+
+	/**
+	 * Set socket options, applied on next connect.
+	 * @param options socket options, copied
+	 */
+	public void setSocketOptions(SocketOptions options) {
+		if (options == null) throw new IllegalArgumentException();
+		this.options = options.clone();
+	}
+
+	/**
+	 * Socket options read back from the connected socket, 
+	 * the os may round or cap buffer sizes.
+	 * @return options in effect, null if not connected
+	 */
+	public SocketOptions getEffectiveOptions() {
+		SocketOptions effective = effectiveOptions;
+		return effective == null ? null : effective.clone();
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+/**
+ * A connection between redis client and server.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface Session {
+
+	/**
+	 * Queue data to be written, the data will be sent by the transport's I/O thread.
+	 * @param data byte[], ByteBuffer or {@link ChannelRegion}
+	 */
+	public void send(Object data);
+
+	/**
+	 * Close this session.
+	 */
+	public void close();
+
+	/**
+	 * @return true if the session is connected and not closed.
+	 */
+	public boolean isOpen();
+
+	/**
+	 * Set idle time for the specified status, 0 to disable.
+	 * @param status idle status
+	 * @param idleTime idle time in milliseconds
+	 */
+	public void setIdleTime(IdleStatus status, long idleTime);
+
+	/**
+	 * @param status idle status
+	 * @return idle time in milliseconds
+	 */
+	public long getIdleTime(IdleStatus status);
+
+}
@@ -0,0 +1,155 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+/**
+ * <p>
+ * Socket options of a transport.
+ * Set before construction of the client, read back the values in effect by {@link NioTransport#getEffectiveOptions()}.
+ * </p>
+ * <pre>
+ * SocketOptions options = new SocketOptions()
+ *     .setTcpNoDelay(true)
+ *     .setKeepAlive(true)
+ *     .setSendBufferSize(256 * 1024)
+ *     .setReceiveBufferSize(256 * 1024)
+ *     .setConnectTimeout(3000);
+ * Redis redis = new Redis("127.0.0.1", 6379, "pwd", EventLoopGroup.getDefault(), options);
+ * </pre>
+ * TCP_NODELAY and SO_KEEPALIVE do not apply to unix domain sockets and are reported false for them.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class SocketOptions implements Cloneable {
+
+	public static final int DEFAULT_READ_BUFFER_SIZE = 64 * 1024;
+	public static final long DEFAULT_CONNECT_TIMEOUT = 10000;
+
+	private boolean tcpNoDelay = true;
+	private boolean keepAlive = true;
+	private int sendBufferSize = 0;		// 0: os default
+	private int receiveBufferSize = 0;	// 0: os default
+	private long connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private int readBufferSize = DEFAULT_READ_BUFFER_SIZE;
+
+	/**
+	 * @return TCP_NODELAY, true disables Nagle's algorithm.
+	 */
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	/**
+	 * Set TCP_NODELAY, default true: small commands are sent at once instead of waiting for ACKs.
+	 * @param tcpNoDelay
+	 * @return this
+	 */
+	public SocketOptions setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+		return this;
+	}
+
+	/**
+	 * @return SO_KEEPALIVE
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Set SO_KEEPALIVE, default true.
+	 * @param keepAlive
+	 * @return this
+	 */
+	public SocketOptions setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+		return this;
+	}
+
+	/**
+	 * @return SO_SNDBUF in bytes, 0 for os default.
+	 */
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * Set SO_SNDBUF, larger buffers help big pipelines.
+	 * @param sendBufferSize size in bytes, 0 for os default
+	 * @return this
+	 */
+	public SocketOptions setSendBufferSize(int sendBufferSize) {
+		if (sendBufferSize < 0) throw new IllegalArgumentException(">=0 required!");
+		this.sendBufferSize = sendBufferSize;
+		return this;
+	}
+
+	/**
+	 * @return SO_RCVBUF in bytes, 0 for os default.
+	 */
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * Set SO_RCVBUF, applied before connect so the TCP window can scale to it.
+	 * @param receiveBufferSize size in bytes, 0 for os default
+	 * @return this
+	 */
+	public SocketOptions setReceiveBufferSize(int receiveBufferSize) {
+		if (receiveBufferSize < 0) throw new IllegalArgumentException(">=0 required!");
+		this.receiveBufferSize = receiveBufferSize;
+		return this;
+	}
+
+	/**
+	 * @return connect timeout in milliseconds, 0 for no timeout.
+	 */
+	public long getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Set connect timeout.
+	 * @param connectTimeout timeout in milliseconds, 0 for no timeout
+	 * @return this
+	 */
+	public SocketOptions setConnectTimeout(long connectTimeout) {
+		if (connectTimeout < 0) throw new IllegalArgumentException(">=0 required!");
+		this.connectTimeout = connectTimeout;
+		return this;
+	}
+
+	/**
+	 * @return size of the direct buffer the transport reads into.
+	 */
+	public int getReadBufferSize() {
+		return readBufferSize;
+	}
+
+	/**
+	 * Set size of the direct buffer the transport reads into.
+	 * @param readBufferSize size in bytes
+	 * @return this
+	 */
+	public SocketOptions setReadBufferSize(int readBufferSize) {
+		if (readBufferSize <= 0) throw new IllegalArgumentException(">0 required!");
+		this.readBufferSize = readBufferSize;
+		return this;
+	}
+
+	@Override
+	public SocketOptions clone() {
+		try {
+			return (SocketOptions) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SocketOptions [tcpNoDelay=" + tcpNoDelay + ", keepAlive=" + keepAlive
+				+ ", sendBufferSize=" + sendBufferSize + ", receiveBufferSize=" + receiveBufferSize
+				+ ", connectTimeout=" + connectTimeout + ", readBufferSize=" + readBufferSize + "]";
+	}
+
+}
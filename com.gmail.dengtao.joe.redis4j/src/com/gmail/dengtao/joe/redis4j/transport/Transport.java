@@ -0,0 +1,49 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+import java.net.SocketAddress;
+
+/**
+ * Redis client transport.
+ * <pre>
+ * {@link #setFilter(Filter)} decoder for received bytes.
+ * {@link #setHandler(Handler)} handler for session events.
+ * {@link #connect(String, int)} connect in background, the outcome fired to the handler.
+ * {@link #connect(SocketAddress)} same as above, eg: unix domain socket address.
+ * {@link #close()} close current session.
+ * {@link #getEventLoop()} the loop doing I/O, tasks and timers of this transport.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public interface Transport {
+
+	public void setFilter(Filter filter);
+
+	public void setHandler(Handler handler);
+
+	/**
+	 * Connect to server in background, return immediately. 
+	 * {@link Handler#sessionOpened(Session)} fired on success, 
+	 * {@link Handler#exceptionCaught(Session, Throwable)} with a {@link java.net.ConnectException} on failure.
+	 * Current session closed first if any.
+	 * @param host server host
+	 * @param port server port
+	 */
+	public void connect(String host, int port);
+
+	/**
+	 * Connect to server address in background, see {@link #connect(String, int)}.
+	 * @param address server address, eg: {@link UnixDomainSockets#address(String)}
+	 */
+	public void connect(SocketAddress address);
+
+	public void close();
+
+	/**
+	 * @return true if connecting or connected.
+	 */
+	public boolean isActive();
+
+	public EventLoop getEventLoop();
+
+}
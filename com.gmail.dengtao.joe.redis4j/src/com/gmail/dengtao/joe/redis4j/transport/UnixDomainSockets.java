@@ -0,0 +1,170 @@
+package com.gmail.dengtao.joe.redis4j.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SocketChannel;
+
+/**
+ * <p>
+ * Unix domain socket support, available on JDK 16+.
+ * Looked up by reflection so the library still builds and runs on older JDKs,
+ * where {@link #isSupported()} returns false.
+ * </p>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class UnixDomainSockets {
+
+	private static final ProtocolFamily UNIX;
+	private static final Method OPEN;		// SocketChannel.open(ProtocolFamily)
+	private static final Method ADDRESS;	// UnixDomainSocketAddress.of(String)
+	private static final Class<?> ADDRESS_CLASS;
+	private static final Method SET_OPTION;	// NetworkChannel.setOption(SocketOption, Object)
+	private static final Method GET_OPTION;	// NetworkChannel.getOption(SocketOption)
+	private static final Object SO_SNDBUF;
+	private static final Object SO_RCVBUF;
+
+	static {
+		ProtocolFamily unix = null;
+		Method open = null;
+		Method address = null;
+		Class<?> addressClass = null;
+		Method setOption = null;
+		Method getOption = null;
+		Object sndbuf = null;
+		Object rcvbuf = null;
+		try {
+			unix = Enum.valueOf(StandardProtocolFamily.class, "UNIX");
+			open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+			addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+			address = addressClass.getMethod("of", String.class);
+			Class<?> option = Class.forName("java.net.SocketOption");
+			setOption = SocketChannel.class.getMethod("setOption", option, Object.class);
+			getOption = SocketChannel.class.getMethod("getOption", option);
+			Class<?> options = Class.forName("java.net.StandardSocketOptions");
+			sndbuf = options.getField("SO_SNDBUF").get(null);
+			rcvbuf = options.getField("SO_RCVBUF").get(null);
+		} catch (Exception e) {
+			unix = null;
+		}
+		UNIX = unix;
+		OPEN = open;
+		ADDRESS = address;
+		ADDRESS_CLASS = addressClass;
+		SET_OPTION = setOption;
+		GET_OPTION = getOption;
+		SO_SNDBUF = sndbuf;
+		SO_RCVBUF = rcvbuf;
+	}
+
+	private UnixDomainSockets() {
+	}
+
+	/**
+	 * @return true if current JDK supports unix domain socket channels.
+	 */
+	public static boolean isSupported() {
+		return UNIX != null;
+	}
+
+	/**
+	 * @return the UNIX protocol family
+	 * @throws UnsupportedOperationException if not supported
+	 */
+	public static ProtocolFamily family() {
+		check();
+		return UNIX;
+	}
+
+	/**
+	 * Create a unix domain socket address.
+	 * @param path socket file path
+	 * @return UnixDomainSocketAddress
+	 * @throws UnsupportedOperationException if not supported
+	 */
+	public static SocketAddress address(String path) {
+		if (path == null || path.length() == 0) throw new IllegalArgumentException("path required!");
+		check();
+		try {
+			return (SocketAddress) ADDRESS.invoke(null, path);
+		} catch (InvocationTargetException e) {
+			throw new IllegalArgumentException("invalid unix socket path:" + path, e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+	/**
+	 * @param address socket address
+	 * @return true if it is a unix domain socket address
+	 */
+	public static boolean isUnixAddress(SocketAddress address) {
+		return ADDRESS_CLASS != null && ADDRESS_CLASS.isInstance(address);
+	}
+
+	/**
+	 * Open an unconnected unix domain socket channel.
+	 * @return SocketChannel
+	 * @throws IOException
+	 * @throws UnsupportedOperationException if not supported
+	 */
+	public static SocketChannel open() throws IOException {
+		check();
+		return (SocketChannel) invoke(OPEN, null, UNIX);
+	}
+
+	/**
+	 * Set SO_SNDBUF/SO_RCVBUF of a unix domain socket channel, 0 to keep os default.
+	 * @param channel unix domain socket channel
+	 * @param sendBufferSize
+	 * @param receiveBufferSize
+	 * @throws IOException
+	 */
+	public static void setBufferSizes(SocketChannel channel, int sendBufferSize, int receiveBufferSize) throws IOException {
+		check();
+		if (sendBufferSize > 0) invoke(SET_OPTION, channel, SO_SNDBUF, Integer.valueOf(sendBufferSize));
+		if (receiveBufferSize > 0) invoke(SET_OPTION, channel, SO_RCVBUF, Integer.valueOf(receiveBufferSize));
+	}
+
+	/**
+	 * @param channel unix domain socket channel
+	 * @return SO_SNDBUF in effect
+	 * @throws IOException
+	 */
+	public static int getSendBufferSize(SocketChannel channel) throws IOException {
+		check();
+		return ((Integer) invoke(GET_OPTION, channel, SO_SNDBUF)).intValue();
+	}
+
+	/**
+	 * @param channel unix domain socket channel
+	 * @return SO_RCVBUF in effect
+	 * @throws IOException
+	 */
+	public static int getReceiveBufferSize(SocketChannel channel) throws IOException {
+		check();
+		return ((Integer) invoke(GET_OPTION, channel, SO_RCVBUF)).intValue();
+	}
+
+	private static Object invoke(Method method, Object target, Object... args) throws IOException {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+	private static void check() {
+		if (UNIX == null) {
+			throw new UnsupportedOperationException("unix domain socket requires JDK 16+");
+		}
+	}
+
+}
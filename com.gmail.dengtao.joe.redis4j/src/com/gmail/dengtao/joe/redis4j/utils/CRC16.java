@@ -0,0 +1,52 @@
+package com.gmail.dengtao.joe.redis4j.utils;
+
+/**
+ * <p>
+ * CRC16-CCITT (XMODEM), the checksum redis cluster maps keys to hash slots with.
+ * </p>
+ * <pre>
+ * CRC16.crc16("123456789".getBytes()) = 0x31C3
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class CRC16 {
+
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i << 8;
+			for (int j = 0; j < 8; j++) {
+				crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+			}
+			TABLE[i] = crc & 0xFFFF;
+		}
+	}
+
+	private CRC16() {
+	}
+
+	/**
+	 * @param bts bytes
+	 * @return crc16 of all bytes
+	 */
+	public static int crc16(byte[] bts) {
+		return crc16(bts, 0, bts.length);
+	}
+
+	/**
+	 * @param bts bytes
+	 * @param offset first byte
+	 * @param length number of bytes
+	 * @return crc16 of the range
+	 */
+	public static int crc16(byte[] bts, int offset, int length) {
+		int crc = 0;
+		for (int i = offset; i < offset + length; i++) {
+			crc = ((crc << 8) ^ TABLE[((crc >>> 8) ^ bts[i]) & 0xFF]) & 0xFFFF;
+		}
+		return crc;
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+
+public class BatchLoaderTest {
+
+	private StandInServer server;
+	private Redis redis;
+	private final List<Integer> mgets = new CopyOnWriteArrayList<Integer>();	// keys per MGET
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null) {
+			@Override
+			protected byte[] reply(String command, List<byte[]> args) {
+				if ("MGET".equals(command)) {
+					mgets.add(args.size());
+					if ("broken".equals(new String(args.get(0)))) return "-ERR broken\r\n".getBytes();
+				}
+				return super.reply(command, args);
+			}
+		};
+		redis = new Redis("127.0.0.1", server.getPort(), null);
+		redis.set("a", "1");
+		redis.set("b", "2");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		redis.close();
+		server.close();
+	}
+
+	@Test
+	public void oneMget() throws Exception {
+		BatchLoader loader = new BatchLoader(redis);
+		loader.setWindow(50);
+		RedisFuture a = loader.getAsync("a");
+		RedisFuture b = loader.getAsync("b");
+		RedisFuture again = loader.getAsync("a");
+		RedisFuture missing = loader.getAsync("missing");
+		Assert.assertEquals("1", a.result(1000));
+		Assert.assertEquals("2", b.result(1000));
+		Assert.assertEquals("1", again.result(1000));
+		Assert.assertNull(missing.result(1000));
+		Assert.assertEquals(1, mgets.size());
+		Assert.assertEquals(Integer.valueOf(3), mgets.get(0));
+		Assert.assertEquals(1, loader.getBatches());
+		Assert.assertEquals(4, loader.getRequests());
+		Assert.assertEquals("2", loader.get("b"));
+	}
+
+	@Test
+	public void threads() throws Exception {
+		final BatchLoader loader = new BatchLoader(redis);
+		loader.setWindow(20);
+		final List<Object> values = new CopyOnWriteArrayList<Object>();
+		Thread[] threads = new Thread[16];
+		for (int i = 0; i < threads.length; i++) {
+			final String key = i % 2 == 0 ? "a" : "b";
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						values.add(key + loader.get(key));
+					} catch (Exception e) {
+						values.add(e);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(16, values.size());
+		for (Object value : values) {
+			Assert.assertTrue(String.valueOf(value), "a1".equals(value) || "b2".equals(value));
+		}
+		Assert.assertTrue("mgets:" + mgets.size(), mgets.size() < 16);
+	}
+
+	@Test
+	public void maxBatch() throws Exception {
+		BatchLoader loader = new BatchLoader(redis);
+		loader.setWindow(60000);
+		loader.setMaxBatch(2);
+		RedisFuture a = loader.getAsync("a");
+		RedisFuture b = loader.getAsync("b");
+		Assert.assertEquals("1", a.result(1000));
+		Assert.assertEquals("2", b.result(1000));
+	}
+
+	@Test
+	public void error() throws Exception {
+		BatchLoader loader = new BatchLoader(redis);
+		loader.setWindow(50);
+		RedisFuture broken = loader.getAsync("broken");
+		RedisFuture a = loader.getAsync("a");
+		try {
+			a.result(1000);
+			Assert.fail();
+		} catch (RedisException e) {
+			Assert.assertEquals("ERR broken", e.getMessage());
+		}
+		Assert.assertNotNull(broken.getException());
+	}
+
+	@Test
+	public void noTimeout() throws Exception {
+		BatchLoader loader = new BatchLoader(redis);
+		loader.setWindow(50);
+		redis.setTimeout(0);	// wait forever, not the window alone
+		Assert.assertEquals("1", loader.get("a"));
+	}
+
+}
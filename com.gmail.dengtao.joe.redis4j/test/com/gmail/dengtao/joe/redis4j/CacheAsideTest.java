@@ -0,0 +1,201 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+
+public class CacheAsideTest {
+
+	private StandInServer server;
+	private Redis redis;
+	private final Map<String, Long> ttls = new ConcurrentHashMap<String, Long>();	// PTTL replies
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null) {
+			@Override
+			protected byte[] reply(String command, List<byte[]> args) {
+				String key = args.isEmpty() ? null : new String(args.get(0));
+				if ("SET".equals(command) && args.size() > 2 && "NX".equals(new String(args.get(2)))) {
+					synchronized (data) {
+						if (data.containsKey(key)) return NIL;
+						return super.reply(command, args);
+					}
+				}
+				if ("PTTL".equals(command)) {
+					Long ttl = ttls.get(key);
+					return (":" + (!data.containsKey(key) ? -2 : ttl == null ? 60000 : ttl) + "\r\n").getBytes();
+				}
+				if ("EVAL".equals(command)) {	// the unlock script
+					String lock = new String(args.get(2));
+					synchronized (data) {
+						boolean ours = new String(args.get(3)).equals(data.get(lock));
+						if (ours) data.remove(lock);
+						return (":" + (ours ? 1 : 0) + "\r\n").getBytes();
+					}
+				}
+				return super.reply(command, args);
+			}
+		};
+		redis = new Redis("127.0.0.1", server.getPort(), null);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		redis.close();
+		server.close();
+	}
+
+	@Test
+	public void stampede() throws Exception {
+		final CacheAside cache = new CacheAside(redis);
+		final AtomicInteger loads = new AtomicInteger();
+		final CacheAside.Loader loader = new CacheAside.Loader() {
+			@Override
+			public String load(String key) throws Exception {
+				loads.incrementAndGet();
+				Thread.sleep(100);
+				return "loaded";
+			}
+		};
+		final List<Object> values = new CopyOnWriteArrayList<Object>();
+		Thread[] threads = new Thread[20];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						values.add(cache.getOrLoad("config", 60000, loader));
+					} catch (Exception e) {
+						values.add(e);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(1, loads.get());
+		Assert.assertEquals(20, values.size());
+		for (Object value : values) {
+			Assert.assertEquals("loaded", value);
+		}
+		Assert.assertTrue(cache.getWaits() > 0);
+		Assert.assertFalse(server.data.containsKey("config:lock"));
+	}
+
+	@Test
+	public void failures() throws Exception {
+		CacheAside cache = new CacheAside(redis);
+		try {
+			cache.getOrLoad("k", 1000, new CacheAside.Loader() {
+				@Override
+				public String load(String key) throws Exception {
+					throw new IllegalStateException("db down");
+				}
+			});
+			Assert.fail();
+		} catch (RedisException e) {
+			Assert.assertEquals("db down", e.getCause().getMessage());
+		}
+		Assert.assertFalse(server.data.containsKey("k:lock"));
+		Assert.assertNull(cache.getOrLoad("k", 1000, new CacheAside.Loader() {
+			@Override
+			public String load(String key) throws Exception {
+				return null;
+			}
+		}));
+		Assert.assertFalse(server.data.containsKey("k"));
+	}
+
+	@Test
+	public void refreshAhead() throws Exception {
+		CacheAside cache = new CacheAside(redis);
+		CacheAside.Loader loader = new CacheAside.Loader() {
+			private int version = 0;
+
+			@Override
+			public String load(String key) throws Exception {
+				Thread.sleep(50);
+				return "v" + (++version);
+			}
+		};
+		Assert.assertEquals("v1", cache.getOrLoad("k", 60000, loader));
+		Assert.assertTrue(cache.getDelta() >= 40);
+		ttls.put("k", 100000000L);	// far from expiry
+		for (int i = 0; i < 20; i++) {
+			Assert.assertEquals("v1", cache.getOrLoad("k", 60000, loader));
+		}
+		Assert.assertEquals(0, cache.getRefreshes());
+		ttls.put("k", 1L);	// about to expire
+		String value = "v1";
+		for (int i = 0; i < 20 && "v1".equals(value); i++) {
+			value = cache.getOrLoad("k", 60000, loader);
+		}
+		Assert.assertEquals("v2", value);
+		Assert.assertEquals(1, cache.getRefreshes());
+		Assert.assertEquals("v2", redis.get("k"));
+	}
+
+	@Test
+	public void refreshFailures() throws Exception {
+		CacheAside cache = new CacheAside(redis);
+		CacheAside.Loader loader = new CacheAside.Loader() {
+			private int calls = 0;
+
+			@Override
+			public String load(String key) throws Exception {
+				Thread.sleep(50);
+				calls++;
+				if (calls == 1) return "v1";
+				if (calls == 2) throw new IllegalStateException("db down");
+				return null;
+			}
+		};
+		Assert.assertEquals("v1", cache.getOrLoad("k", 60000, loader));
+		ttls.put("k", 1L);	// about to expire
+		for (int i = 0; i < 20 && cache.getFailedRefreshes() < 2; i++) {
+			Assert.assertEquals("v1", cache.getOrLoad("k", 60000, loader));
+			Assert.assertFalse(server.data.containsKey("k:lock"));
+		}
+		Assert.assertEquals(2, cache.getFailedRefreshes());
+		Assert.assertEquals("v1", redis.get("k"));
+	}
+
+	@Test
+	public void noTimeout() throws Exception {
+		CacheAside cache = new CacheAside(redis);
+		redis.setTimeout(0);	// wait forever
+		server.data.put("k:lock", "other");	// another caller loading
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return;
+				}
+				server.data.put("k", "theirs");
+			}
+		}).start();
+		Assert.assertEquals("theirs", cache.getOrLoad("k", 60000, new CacheAside.Loader() {
+			@Override
+			public String load(String key) throws Exception {
+				return "ours";
+			}
+		}));
+		Assert.assertEquals(1, cache.getWaits());
+	}
+
+}
@@ -0,0 +1,150 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.cache.NearCache;
+import com.gmail.dengtao.joe.redis4j.cache.TinyLfuCache;
+
+public class ClientTrackingTest {
+
+	private StandInServer server;
+	private Redis redis;
+	private NearCache<String, String> cache;
+	private final List<String> clients = new CopyOnWriteArrayList<String>();	// CLIENT commands received
+	private volatile boolean refused = false;	// CLIENT TRACKING fails
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null) {
+			@Override
+			protected byte[] reply(String command, List<byte[]> args) {
+				if (!"CLIENT".equals(command)) return super.reply(command, args);
+				StringBuilder line = new StringBuilder();
+				for (byte[] arg : args) {
+					line.append(line.length() == 0 ? "" : " ").append(new String(arg));
+				}
+				clients.add(line.toString());
+				if (refused && line.toString().startsWith("TRACKING on")) return "-ERR tracking refused\r\n".getBytes();
+				return "ID".equals(line.toString()) ? ":42\r\n".getBytes() : OK;
+			}
+		};
+		redis = new Redis("127.0.0.1", server.getPort(), null);
+		cache = new TinyLfuCache<String, String>(100, 60000);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		redis.close();
+		server.close();
+	}
+
+	private void awaitClient(String command) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!clients.contains(command)) {
+			Assert.assertTrue("no " + command + " in " + clients, System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void invalidate() throws Exception {
+		ClientTracking tracking = new ClientTracking(redis, cache);
+		awaitClient("TRACKING on REDIRECT 42");
+		Assert.assertSame(cache, redis.getNearCache());
+		redis.set("a", "1");
+		redis.set("b", "1");
+		Assert.assertEquals("1", redis.get("a"));
+		Assert.assertEquals("1", redis.get("b"));
+		server.data.put("a", "2");	// by another client
+		Assert.assertEquals(1, server.publish(ClientTracking.INVALIDATE, new String[] { "a" }));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (tracking.getInvalidations() < 1 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals("2", redis.get("a"));
+		Assert.assertEquals("1", cache.get("b"));
+		server.publish(ClientTracking.INVALIDATE, (String[]) null);	// FLUSHALL
+		deadline = System.currentTimeMillis() + 5000;
+		while (tracking.getInvalidations() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals(0, cache.size());
+		tracking.close();
+		Assert.assertTrue(clients.contains("TRACKING off"));
+		Assert.assertNull(redis.getNearCache());
+	}
+
+	@Test
+	public void optin() throws Exception {
+		ClientTracking tracking = new ClientTracking(redis, cache, ClientTracking.Mode.OPTIN);
+		awaitClient("TRACKING on REDIRECT 42 OPTIN");
+		redis.set("a", "1");
+		long deadline = System.currentTimeMillis() + 5000;
+		while (cache.size() == 0) {	// the cache is dropped once more when the redirect is confirmed
+			Assert.assertTrue(System.currentTimeMillis() < deadline);
+			Assert.assertEquals("1", redis.get("a"));
+			Thread.sleep(5);
+		}
+		int caching = caching();
+		long hits = cache.getHits();
+		Assert.assertEquals("1", redis.get("a"));
+		Assert.assertEquals(caching, caching());
+		Assert.assertEquals(hits + 1, cache.getHits());
+		tracking.close();
+	}
+
+	private int caching() {
+		int caching = 0;
+		for (String command : clients) {
+			if ("CACHING yes".equals(command)) caching++;
+		}
+		return caching;
+	}
+
+	@Test
+	public void bcast() throws Exception {
+		ClientTracking tracking = new ClientTracking(redis, cache, ClientTracking.Mode.BCAST, "user:");
+		awaitClient("TRACKING on REDIRECT 42 BCAST PREFIX user:");
+		redis.set("user:1", "joe");
+		redis.set("item:1", "pen");
+		Assert.assertEquals("joe", redis.get("user:1"));
+		Assert.assertEquals("pen", redis.get("item:1"));
+		Assert.assertEquals("joe", cache.get("user:1"));
+		Assert.assertNull(cache.get("item:1"));
+		tracking.close();
+	}
+
+	@Test
+	public void reconnect() throws Exception {
+		ClientTracking tracking = new ClientTracking(redis, cache);
+		awaitClient("TRACKING on REDIRECT 42");
+		redis.setReconnect(10);
+		redis.set("a", "1");
+		Assert.assertEquals("1", redis.get("a"));
+		clients.clear();
+		server.disconnectAll();
+		awaitClient("TRACKING on REDIRECT 42");
+		long deadline = System.currentTimeMillis() + 1000;	// dropped once the reply is read
+		while (cache.get("a") != null && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertNull(cache.get("a"));
+		tracking.close();
+	}
+
+	@Test
+	public void notCachedUntilEnabled() throws Exception {
+		refused = true;
+		ClientTracking tracking = new ClientTracking(redis, cache);
+		awaitClient("TRACKING on REDIRECT 42");
+		Thread.sleep(50);	// the error reply read
+		redis.set("a", "1");
+		Assert.assertEquals("1", redis.get("a"));
+		Assert.assertEquals("1", redis.get("a"));
+		Assert.assertEquals(0, cache.size());	// invalidations would go nowhere
+		Assert.assertEquals(0, cache.getHits());
+		tracking.close();
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CountersTest {
+
+	private StandInServer server;
+	private Redis redis;
+	private final AtomicInteger incrs = new AtomicInteger();
+	private volatile boolean failing = false;
+	private volatile boolean dropping = false;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null) {
+			@Override
+			protected byte[] reply(String command, List<byte[]> args) {
+				if (failing) return "-ERR value is not an integer or out of range\r\n".getBytes();
+				if (dropping && "INCRBY".equals(command)) {
+					disconnectAll();	// connection lost before the reply
+					return null;
+				}
+				if ("INCRBY".equals(command)) incrs.incrementAndGet();
+				if ("HINCRBY".equals(command)) {	// field kept as key/field
+					incrs.incrementAndGet();
+					List<byte[]> incrby = new ArrayList<byte[]>();
+					incrby.add((new String(args.get(0)) + "/" + new String(args.get(1))).getBytes());
+					incrby.add(args.get(2));
+					return super.reply("INCRBY", incrby);
+				}
+				return super.reply(command, args);
+			}
+		};
+		redis = new Redis("127.0.0.1", server.getPort(), null);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		redis.close();
+		server.close();
+	}
+
+	@Test
+	public void manyThreadsOneCommand() throws Exception {
+		final Counters counters = new Counters(redis, 60000);
+		final Counter hits = counters.counter("hits");
+		Assert.assertTrue(hits == counters.counter("hits"));
+		final CountDownLatch done = new CountDownLatch(8);
+		for (int t = 0; t < 8; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 100000; i++) {
+						hits.increment();
+					}
+					counters.counter("page", "home").add(2);
+					done.countDown();
+				}
+			}.start();
+		}
+		done.await();
+		Assert.assertEquals(800000, hits.getPending());
+		counters.close();
+		Assert.assertEquals("800000", redis.get("hits"));
+		Assert.assertEquals("16", redis.get("page/home"));
+		Assert.assertEquals(2, incrs.get());
+		Assert.assertEquals(0, hits.getPending());
+		Assert.assertEquals(2, counters.getCommands());
+		try {
+			hits.increment();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			/* closed */
+		}
+	}
+
+	@Test
+	public void flushOnSchedule() throws Exception {
+		redis.counter("a").add(5);
+		long deadline = System.currentTimeMillis() + 1000;
+		while (redis.getCounters().getCommands() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals("5", redis.get("a"));
+		redis.counter("a").add(-2);
+		redis.getCounters().flush();
+		redis.counter("b").increment();
+		redis.close();	// flushes b
+		Assert.assertEquals("3", server.data.get("a"));
+		Assert.assertEquals("1", server.data.get("b"));
+		Assert.assertEquals(3, incrs.get());
+	}
+
+	@Test
+	public void keptOnConnectionFailure() throws Exception {
+		redis.setReconnect(10);
+		Counters counters = new Counters(redis, 60000);
+		Counter a = counters.counter("a");
+		dropping = true;
+		a.add(4);
+		counters.flush();
+		long deadline = System.currentTimeMillis() + 1000;
+		while (counters.getFailures() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals(1, counters.getFailures());
+		Assert.assertEquals(4, a.getPending());
+		dropping = false;
+		deadline = System.currentTimeMillis() + 5000;
+		while (!redis.isConnected() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		counters.close();
+		Assert.assertEquals("4", redis.get("a"));
+	}
+
+	@Test
+	public void droppedOnErrorReply() throws Exception {
+		Counters counters = new Counters(redis, 60000);
+		Counter a = counters.counter("a");
+		failing = true;
+		a.add(4);
+		counters.flush();
+		long deadline = System.currentTimeMillis() + 1000;
+		while (counters.getFailures() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals(1, counters.getFailures());
+		Assert.assertEquals(0, a.getPending());	// sent again it would fail again
+		failing = false;
+		counters.close();
+		Assert.assertNull(redis.get("a"));
+	}
+
+}
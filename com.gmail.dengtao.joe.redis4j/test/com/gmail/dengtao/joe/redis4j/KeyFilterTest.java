@@ -0,0 +1,186 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.cache.BloomFilter;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+
+public class KeyFilterTest {
+
+	private StandInServer server;
+	private Redis redis;
+	private volatile String flags = "";	// notify-keyspace-events
+	private volatile boolean denied = false;	// CONFIG renamed
+	private volatile int scans = 0;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null) {
+			@Override
+			protected byte[] reply(String command, List<byte[]> args) {
+				if ("CONFIG".equals(command) && !denied) {
+					if ("GET".equals(new String(args.get(0)))) return new ProtoBuilder().array("notify-keyspace-events", flags).build();
+					flags = new String(args.get(2));
+					return OK;
+				}
+				if ("SCAN".equals(command)) scans++;
+				return super.reply(command, args);
+			}
+		};
+		server.data.put("a", "1");
+		redis = new Redis("127.0.0.1", server.getPort(), null);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		redis.close();
+		server.close();
+	}
+
+	private static void awaitReady(KeyFilter filter, long builds) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!(filter.isReady() && filter.getBuilds() >= builds)) {
+			Assert.assertTrue("not ready", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void bloomFilter() {
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.put("key:" + i);
+		}
+		int positives = 0;
+		for (int i = 0; i < 10000; i++) {
+			Assert.assertTrue(filter.mightContain("key:" + i));
+			if (filter.mightContain("other:" + i)) positives++;
+		}
+		Assert.assertTrue("false positives " + positives, positives < 300);
+		Assert.assertTrue(filter.getExpectedFpp() < 0.02);
+	}
+
+	@Test
+	public void absentLocally() throws Exception {
+		KeyFilter filter = new KeyFilter(redis, 1000, 0.01);
+		awaitReady(filter, 1);
+		Assert.assertEquals("1", redis.get("a"));
+		Assert.assertNull(redis.get("missing"));
+		Assert.assertFalse(redis.exists("missing"));
+		Assert.assertEquals(2, filter.getSkipped());
+		Assert.assertEquals(3, filter.getLookups());
+		redis.set("b", "2");	// own writes, marked before sent
+		Assert.assertEquals("2", redis.get("b"));
+		redis.execute(Protocol.Command.MSET, ReplyDecoders.OK, "c", "3", "d", "4");
+		Assert.assertEquals("4", redis.get("d"));
+		server.data.put("e", "5");	// another client
+		Assert.assertNull(redis.get("e"));
+		server.publish("__keyevent@0__:set", "e");
+		long deadline = System.currentTimeMillis() + 1000;
+		while (redis.get("e") == null && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals("5", redis.get("e"));
+		server.data.remove("a");	// deleted keys stay
+		Assert.assertNull(redis.get("a"));
+		Assert.assertEquals(1, filter.getFalsePositives());
+		filter.close();
+		Assert.assertNull(redis.getKeyFilter());
+		Assert.assertEquals("5", redis.get("e"));
+	}
+
+	@Test
+	public void rebuiltOnReconnect() throws Exception {
+		redis.setReconnect(10);
+		KeyFilter filter = new KeyFilter(redis, 1000, 0.01);
+		awaitReady(filter, 1);
+		server.disconnectAll();	// events meanwhile lost
+		server.data.put("f", "6");
+		long deadline = System.currentTimeMillis() + 1000;
+		while (filter.isReady() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		awaitReady(filter, 2);
+		Assert.assertEquals("6", redis.get("f"));
+		filter.close();
+	}
+
+	@Test
+	public void eventsEnabled() throws Exception {
+		flags = "Kx";
+		KeyFilter filter = new KeyFilter(redis, 1000, 0.01);
+		awaitReady(filter, 1);
+		Assert.assertEquals("KxEA", flags);
+		filter.close();
+		flags = "E$gxlshzt";	// every class of writes, kept as is
+		filter = new KeyFilter(redis, 1000, 0.01);
+		awaitReady(filter, 1);
+		Assert.assertEquals("E$gxlshzt", flags);
+		filter.close();
+	}
+
+	@Test
+	public void notReadyUnconfirmed() throws Exception {
+		denied = true;
+		KeyFilter filter = new KeyFilter(redis, 1000, 0.01);
+		Thread.sleep(200);
+		Assert.assertFalse(filter.isReady());
+		Assert.assertEquals(0, filter.getBuilds());
+		Assert.assertNull(redis.get("missing"));	// from redis
+		Assert.assertEquals(0, filter.getSkipped());
+		filter.close();
+	}
+
+	@Test
+	public void marksDuringBuild() throws Exception {
+		for (int round = 0; round < 20; round++) {
+			final KeyFilter filter = new KeyFilter(redis, 100000, 0.01);
+			final String prefix = "m" + round + ":";
+			final int scanned = scans;
+			final int[] range = { -1, 0 };	// marks from the first SCAN on
+			Thread marker = new Thread() {
+				@Override
+				public void run() {
+					int after = -1;	// marks once ready
+					for (int i = 0; after < 200; i++) {
+						filter.mark(prefix + i);	// written by this client, never scanned
+						if (range[0] < 0 && scans > scanned) range[0] = i + 1;
+						if (filter.isReady()) after++;
+						range[1] = i + 1;
+					}
+				}
+			};
+			marker.start();
+			marker.join(10000);
+			Assert.assertTrue(filter.isReady());
+			for (int i = Math.max(0, range[0]); i < range[1]; i++) {
+				Assert.assertFalse(prefix + i, filter.absent(prefix + i));
+			}
+			filter.close();
+		}
+	}
+
+	@Test
+	public void followsSelect() throws Exception {
+		KeyFilter filter = new KeyFilter(redis, 1000, 0.01);
+		awaitReady(filter, 1);
+		Assert.assertNull(redis.get("x"));	// absent locally
+		server.data.put("x", "1");	// in db 1, the stand-in has one keyspace, no event
+		Assert.assertTrue(redis.select(1));
+		Assert.assertEquals("1", redis.get("x"));	// not answered by the filter of db 0, maybe by a new one of db 1
+		awaitReady(filter, 2);
+		Assert.assertEquals("1", redis.get("x"));
+		server.data.put("y", "2");
+		Assert.assertEquals(0, server.publish("__keyevent@0__:set", "y"));	// db 0 no longer subscribed
+		Assert.assertEquals(1, server.publish("__keyevent@1__:set", "y"));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (redis.get("y") == null && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals("2", redis.get("y"));
+		filter.close();
+	}
+
+}
@@ -0,0 +1,162 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.cache.TinyLfuCache;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.transport.EventLoopGroup;
+
+public class KeyspaceNotificationsTest {
+
+	private StandInServer server;
+	private Redis redis;
+	private volatile String flags = "";
+	private final Set<String> invalidated = new CopyOnWriteArraySet<String>();
+	private final AtomicInteger resyncs = new AtomicInteger();
+	private final KeyspaceListener listener = new KeyspaceListener() {
+		@Override
+		public void onInvalidate(Set<String> keys) {
+			invalidated.addAll(keys);
+		}
+
+		@Override
+		public void onInvalidateAll() {
+			resyncs.incrementAndGet();
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null) {
+			@Override
+			protected byte[] reply(String command, List<byte[]> args) {
+				if ("CONFIG".equals(command) && "GET".equals(new String(args.get(0)))) {
+					return new ProtoBuilder().array("notify-keyspace-events", flags).build();
+				}
+				if ("CONFIG".equals(command)) {
+					flags = new String(args.get(2));
+					return OK;
+				}
+				return super.reply(command, args);
+			}
+		};
+		redis = new Redis("127.0.0.1", server.getPort(), null);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		redis.close();
+		server.close();
+	}
+
+	private static void await(KeyspaceNotifications notifications, long resyncs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (notifications.getResyncs() < resyncs) {
+			Assert.assertTrue("not subscribed", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void keyEvents() throws Exception {
+		KeyspaceNotifications notifications = new KeyspaceNotifications(redis);
+		TinyLfuCache<String, String> cache = new TinyLfuCache<String, String>(100, 600000);
+		notifications.register(cache);
+		notifications.addListener(listener);
+		await(notifications, 1);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		cache.put("c", "3");
+		server.publish("__keyevent@0__:set", "a");
+		server.publish("__keyevent@0__:set", "a");
+		server.publish("__keyevent@0__:del", "b");
+		server.publish("__keyevent@0__:expire", "c");	// ignored
+		server.publish("__keyevent@1__:set", "c");	// other database
+		long deadline = System.currentTimeMillis() + 1000;
+		while ((invalidated.size() < 2 || notifications.getEvents() < 4) && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertTrue(invalidated.contains("a"));
+		Assert.assertTrue(invalidated.contains("b"));
+		Assert.assertNull(cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertFalse(invalidated.contains("c"));	// the cache may be dropped by a second subscribe confirmation
+		Assert.assertEquals(4, notifications.getEvents());
+		Assert.assertTrue(notifications.getBatches() >= 1);
+		notifications.setIgnored();
+		server.publish("__keyevent@0__:expire", "c");
+		deadline = System.currentTimeMillis() + 1000;
+		while (!invalidated.contains("c") && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertTrue(invalidated.contains("c"));
+		notifications.close();
+	}
+
+	@Test
+	public void keyspaceOfPattern() throws Exception {
+		KeyspaceNotifications notifications = new KeyspaceNotifications(redis, 2, KeyspaceNotifications.Mode.KEYSPACE, "user:*", EventLoopGroup.getDefault());
+		notifications.addListener(listener);
+		await(notifications, 1);
+		Assert.assertEquals(0, server.publish("__keyspace@2__:item:1", "set"));
+		server.publish("__keyspace@2__:user:1", "expire");	// ignored
+		server.publish("__keyspace@2__:user:2", "hset");
+		long deadline = System.currentTimeMillis() + 1000;
+		while (invalidated.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals(1, invalidated.size());
+		Assert.assertTrue(invalidated.contains("user:2"));
+		Assert.assertTrue(notifications.enable());
+		Assert.assertEquals("KA", flags);
+		flags = "Ex";
+		Assert.assertTrue(notifications.enable());
+		Assert.assertEquals("ExKA", flags);
+		notifications.close();
+	}
+
+	@Test
+	public void resyncOnReconnect() throws Exception {
+		KeyspaceNotifications notifications = new KeyspaceNotifications(redis);
+		TinyLfuCache<String, String> cache = new TinyLfuCache<String, String>(100, 600000);
+		notifications.register(cache);
+		notifications.addListener(listener);
+		await(notifications, 1);
+		cache.put("a", "1");
+		long before = notifications.getResyncs();
+		server.disconnectAll();
+		await(notifications, before + 1);
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals(notifications.getResyncs(), resyncs.get());
+		notifications.close();
+	}
+
+	@Test
+	public void covering() throws Exception {
+		KeyspaceNotifications notifications = new KeyspaceNotifications(redis);
+		TinyLfuCache<String, String> cache = new TinyLfuCache<String, String>(100, 600000);
+		redis.setNearCache(cache);
+		notifications.register(cache);
+		await(notifications, 1);
+		Assert.assertTrue(notifications.isCovering());
+		server.data.put("k", "1");
+		Assert.assertEquals("1", redis.get("k"));
+		server.data.put("k", "2");	// no event
+		Assert.assertEquals("1", redis.get("k"));	// cached
+		Assert.assertTrue(redis.select(1));
+		Assert.assertFalse(notifications.isCovering());	// events of db 0
+		Assert.assertEquals("2", redis.get("k"));
+		server.data.put("k", "3");
+		Assert.assertEquals("3", redis.get("k"));	// bypassed
+		Assert.assertEquals(0, cache.size());
+		Assert.assertTrue(redis.select(0));
+		Assert.assertTrue(notifications.isCovering());
+		notifications.close();
+		Assert.assertFalse(notifications.isCovering());
+		Assert.assertNull(redis.getNotifications());
+	}
+
+}
@@ -0,0 +1,182 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MasterReplicaRedisTest {
+
+	private Replica master;
+	private Replica fast;
+	private Replica slow;
+	private MasterReplicaRedis redis;
+	private final AtomicLong stall = new AtomicLong();	// next GET on any node
+
+	/**
+	 * Stand-in node counting reads, optionally slow.
+	 */
+	class Replica extends StandInServer {
+
+		final AtomicInteger gets = new AtomicInteger();
+		final AtomicInteger readOnly = new AtomicInteger();
+		final long delay;
+
+		Replica(long delay) throws IOException {
+			super(bind(0), null);
+			this.delay = delay;
+		}
+
+		@Override
+		protected byte[] reply(String command, List<byte[]> args) {
+			if ("READONLY".equals(command)) readOnly.incrementAndGet();
+			if ("GET".equals(command)) {
+				gets.incrementAndGet();
+				long sleep = delay + stall.getAndSet(0);
+				if (sleep > 0) {
+					try { Thread.sleep(sleep); } catch (InterruptedException e) { /* nothing */ }
+				}
+			}
+			return super.reply(command, args);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		master = new Replica(0);
+		fast = new Replica(0);
+		slow = new Replica(20);
+		List<Redis> replicas = new ArrayList<Redis>();
+		replicas.add(new Redis("127.0.0.1", fast.getPort(), null));
+		replicas.add(new Redis("127.0.0.1", slow.getPort(), null));
+		redis = new MasterReplicaRedis(new Redis("127.0.0.1", master.getPort(), null), replicas);
+		for (Redis replica : replicas) {
+			replica.setReadOnly(true);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		redis.close();
+		master.close();
+		fast.close();
+		slow.close();
+	}
+
+	@Test
+	public void routing() throws Exception {
+		Assert.assertTrue(redis.set("key", "master"));
+		Assert.assertEquals("master", master.data.get("key"));
+		Assert.assertEquals("master", redis.get("key"));	// MASTER by default
+		fast.data.put("key", "replica");
+		slow.data.put("key", "replica");
+		redis.setReadPreference(ReadPreference.REPLICA);
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals("replica", redis.get("key"));
+		}
+		Assert.assertEquals(Arrays.asList((Object) "replica", null), redis.mget(Arrays.asList("key", "missing")));
+		Assert.assertEquals(1, master.gets.get());
+		Assert.assertEquals(1, fast.readOnly.get());
+		Assert.assertEquals(1, slow.readOnly.get());
+		Assert.assertEquals(0, master.readOnly.get());
+	}
+
+	@Test
+	public void avoidSlow() throws Exception {
+		redis.setReadPreference(ReadPreference.REPLICA);
+		for (int i = 0; i < 200; i++) {
+			redis.get("key");
+		}
+		Assert.assertEquals(200, fast.gets.get() + slow.gets.get());
+		Assert.assertTrue("slow replica got " + slow.gets.get(), slow.gets.get() < 40);
+		Redis fastNode = redis.getReplicas().get(0);
+		Redis slowNode = redis.getReplicas().get(1);
+		Assert.assertTrue(slowNode.getStats().getLatency() > fastNode.getStats().getLatency());
+		Assert.assertEquals(0, fastNode.getStats().getInFlight());
+	}
+
+	@Test
+	public void hedge() throws Exception {
+		redis.removeReplica(redis.getReplicas().get(1));
+		Replica other = new Replica(0);
+		redis.addReplica(new Redis("127.0.0.1", other.getPort(), null));
+		try {
+			HedgePolicy policy = new HedgePolicy(95, 5, 0.1);
+			redis.setReadPreference(ReadPreference.REPLICA);
+			redis.setHedgePolicy(policy);
+			for (Redis replica : redis.getReplicas()) {
+				for (int i = 0; i < NodeStats.SAMPLES; i++) {
+					replica.get("key");	// full window of reply times, stalls stay under 5% of it
+				}
+			}
+			for (int i = 0; i < 100; i++) {
+				redis.get("key");	// save up budget
+			}
+			Assert.assertEquals(0, policy.getHedges());
+			long slowest = 0;
+			for (int i = 0; i < 5; i++) {
+				stall.set(500);
+				long start = System.currentTimeMillis();
+				redis.get("key");
+				slowest = Math.max(slowest, System.currentTimeMillis() - start);
+				for (Redis replica : redis.getReplicas()) {
+					while (replica.getStats().getInFlight() > 0) Thread.sleep(10);	// stalled one done
+				}
+			}
+			Assert.assertTrue("slowest read " + slowest + "ms", slowest < 250);
+			Assert.assertEquals(5, policy.getHedges());
+			Assert.assertEquals(5, policy.getWins());
+			Assert.assertEquals(105, policy.getReads());
+		} finally {
+			other.close();
+		}
+	}
+
+	@Test
+	public void hedgeBudget() {
+		HedgePolicy policy = new HedgePolicy(95, 1, 0.1);
+		NodeStats stats = new NodeStats();
+		Assert.assertEquals(-1, policy.begin(stats));	// no reply times yet
+		for (int i = 1; i < 100; i++) {
+			policy.begin(stats);
+		}
+		int hedges = 0;
+		while (policy.acquire()) hedges++;
+		Assert.assertEquals(10, hedges);
+		for (int i = 0; i < 1000; i++) {
+			policy.begin(stats);
+		}
+		hedges = 0;
+		while (policy.acquire()) hedges++;
+		Assert.assertEquals(HedgePolicy.BURST, hedges);
+		Assert.assertEquals(2 * HedgePolicy.BURST, policy.getHedges());
+	}
+
+	@Test
+	public void percentile() {
+		NodeStats stats = new NodeStats();
+		for (int i = 1; i <= 100; i++) {
+			stats.end(stats.begin() - i * 1000000L, false);
+		}
+		Assert.assertEquals(95, stats.getPercentile(95) / 1000000L);
+		Assert.assertEquals(0, stats.getInFlight());
+	}
+
+	@Test
+	public void noReplica() throws Exception {
+		redis.setReadPreference(ReadPreference.REPLICA);
+		for (Redis replica : redis.getReplicas()) {
+			redis.removeReplica(replica);
+		}
+		master.data.put("key", "master");
+		Assert.assertEquals("master", redis.get("key"));
+	}
+
+}
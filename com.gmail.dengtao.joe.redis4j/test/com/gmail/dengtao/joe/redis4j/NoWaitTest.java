@@ -0,0 +1,72 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NoWaitTest {
+
+	private StandInServer server;
+	private Redis redis;
+	private final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null) {
+			@Override
+			protected byte[] reply(String command, List<byte[]> args) {
+				if ("SET".equals(command) && "readonly".equals(new String(args.get(0)))) {
+					return "-READONLY You can't write against a read only replica.\r\n".getBytes();
+				}
+				return super.reply(command, args);
+			}
+		};
+		redis = new Redis("127.0.0.1", server.getPort(), "");
+		redis.setErrorListener(new RedisErrorListener() {
+			@Override
+			public void onError(byte[] request, Throwable cause) {
+				errors.add(cause);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		redis.close();
+		server.close();
+	}
+
+	@Test
+	public void acked() throws Exception {
+		for (int i = 0; i < 1000; i++) {
+			redis.setNoWait("key" + i, "value" + i);
+		}
+		redis.setNoWait("readonly", "value");
+		Assert.assertTrue(redis.ping() != -1);	// replies in order, all writes done
+		Assert.assertEquals("value999", redis.get("key999"));
+		Assert.assertEquals(1001, redis.getNoWaitSent());
+		Assert.assertEquals(0, redis.getNoWaitPending());
+		Assert.assertEquals(1, redis.getNoWaitErrors());
+		Assert.assertEquals(1, errors.size());
+		Assert.assertTrue(errors.get(0).getMessage().contains("READONLY"));
+	}
+
+	@Test
+	public void skip() throws Exception {
+		redis.setNoWaitMode(NoWaitMode.SKIP);
+		for (int i = 0; i < 1000; i++) {
+			redis.setNoWait("key" + i, "value" + i);
+		}
+		redis.delNoWait("key0");
+		redis.setNoWait("readonly", "value");	// error reply skipped by the server
+		Assert.assertEquals("value999", redis.get("key999"));
+		Assert.assertNull(redis.get("key0"));
+		Assert.assertEquals(0, redis.getNoWaitPending());
+		Assert.assertEquals(0, redis.getNoWaitErrors());
+	}
+
+}
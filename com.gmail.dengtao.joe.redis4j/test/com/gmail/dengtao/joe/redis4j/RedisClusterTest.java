@@ -0,0 +1,185 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.transport.EventLoopGroup;
+import com.gmail.dengtao.joe.redis4j.utils.CRC16;
+
+public class RedisClusterTest {
+
+	private Node a;
+	private Node b;
+	private EventLoopGroup group;
+	private RedisCluster cluster;
+
+	/**
+	 * Stand-in cluster node, owns slots [from, to], redirects the rest.
+	 */
+	class Node extends StandInServer {
+
+		volatile int from;
+		volatile int to;
+		final Set<String> migrating = new CopyOnWriteArraySet<String>();	// keys answered with -ASK to the other node
+		private final ThreadLocal<Boolean> asking = new ThreadLocal<Boolean>();
+
+		Node(int from, int to) throws IOException {
+			super(bind(0), null);
+			this.from = from;
+			this.to = to;
+		}
+
+		boolean owns(int slot) {
+			return slot >= from && slot <= to;
+		}
+
+		@Override
+		protected byte[] reply(String command, List<byte[]> args) {
+			boolean asked = Boolean.TRUE.equals(asking.get());
+			asking.remove();
+			if ("ASKING".equals(command)) {
+				asking.set(Boolean.TRUE);
+				return OK;
+			}
+			if ("CLUSTER".equals(command)) {
+				return slots();
+			}
+			if (args.size() > 0 && !"ECHO".equals(command)) {
+				String key = new String(args.get(0));
+				int slot = RedisCluster.slot(args.get(0));
+				Node other = this == a ? b : a;
+				if (migrating.contains(key)) {
+					return ("-ASK " + slot + " 127.0.0.1:" + other.getPort() + "\r\n").getBytes();
+				}
+				if (!owns(slot) && !asked) {
+					return ("-MOVED " + slot + " 127.0.0.1:" + other.getPort() + "\r\n").getBytes();
+				}
+			}
+			return super.reply(command, args);
+		}
+
+		private byte[] slots() {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			write(out, "*2\r\n");
+			for (Node node : new Node[] { a, b }) {
+				write(out, "*3\r\n:" + node.from + "\r\n:" + node.to + "\r\n*3\r\n");
+				write(out, new String(bulk("127.0.0.1".getBytes())) + ":" + node.getPort() + "\r\n" + new String(bulk(("node" + node.getPort()).getBytes())));
+			}
+			return out.toByteArray();
+		}
+
+		private void write(ByteArrayOutputStream out, String text) {
+			byte[] bts = text.getBytes();
+			out.write(bts, 0, bts.length);
+		}
+
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		a = new Node(0, 8191);
+		b = new Node(8192, RedisCluster.SLOTS - 1);
+		group = new EventLoopGroup(2);
+		cluster = new RedisCluster("127.0.0.1:" + a.getPort(), null, group);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cluster.close();
+		group.shutdown();
+		a.close();
+		b.close();
+	}
+
+	@Test
+	public void slot() {
+		Assert.assertEquals(0x31C3, RedisCluster.slot("123456789".getBytes()));
+		Assert.assertEquals(RedisCluster.slot("user:1".getBytes()), RedisCluster.slot("{user:1}:name".getBytes()));
+		Assert.assertEquals(RedisCluster.slot("{user:1}:name".getBytes()), RedisCluster.slot("{user:1}:mail".getBytes()));
+		// empty hashtag hashes the whole key
+		Assert.assertEquals(CRC16.crc16("{}user".getBytes()) & (RedisCluster.SLOTS - 1), RedisCluster.slot("{}user".getBytes()));
+	}
+
+	@Test
+	public void route() throws Exception {
+		Assert.assertEquals(2, cluster.getNodes().size());
+		for (int i = 0; i < 200; i++) {
+			String key = "key" + i;
+			Assert.assertTrue(cluster.set(key, "value" + i));
+			Node owner = a.owns(cluster.slot(key)) ? a : b;
+			Assert.assertEquals("value" + i, owner.data.get(key));
+			Assert.assertEquals("value" + i, cluster.get(key));
+		}
+		Assert.assertTrue(cluster.exists("key1"));
+		Assert.assertTrue(cluster.del("key1"));
+		Assert.assertFalse(cluster.exists("key1"));
+	}
+
+	@Test
+	public void multiKey() throws Exception {
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		for (int i = 0; i < 1000; i++) {
+			values.put("key" + i, "value" + i);
+		}
+		Assert.assertTrue(cluster.mset(values));
+		Assert.assertTrue(a.data.size() > 0 && b.data.size() > 0);
+		List<String> keys = new ArrayList<String>(values.keySet());
+		Collections.reverse(keys);
+		keys.add(500, "missing");
+		List<Object> result = cluster.mget(keys);
+		Assert.assertEquals(keys.size(), result.size());
+		for (int i = 0; i < keys.size(); i++) {
+			Assert.assertEquals(values.get(keys.get(i)), result.get(i));
+		}
+		// migrate all slots to b, the client is not told, sub-commands follow MOVED
+		b.data.putAll(a.data);
+		a.data.clear();
+		b.from = 0;
+		a.from = -1;
+		a.to = -1;
+		Assert.assertEquals(1000, cluster.exists(keys));
+		Assert.assertEquals(1000, cluster.del(keys));
+		Assert.assertEquals(0, cluster.exists(keys));
+	}
+
+	@Test
+	public void moved() throws Exception {
+		String key = "moved";
+		Node owner = a.owns(cluster.slot(key)) ? a : b;
+		Node other = owner == a ? b : a;
+		// resharding: all slots to the other node, client not told
+		other.from = 0;
+		other.to = RedisCluster.SLOTS - 1;
+		owner.from = -1;
+		owner.to = -1;
+		Assert.assertTrue(cluster.set(key, "value"));
+		Assert.assertEquals("value", other.data.get(key));
+		Assert.assertEquals(other.getPort(), cluster.getNode(key).getPort());
+	}
+
+	@Test
+	public void ask() throws Exception {
+		String key = "asked";
+		Node owner = a.owns(cluster.slot(key)) ? a : b;
+		Node other = owner == a ? b : a;
+		owner.migrating.add(key);
+		Assert.assertTrue(cluster.set(key, "value"));
+		Assert.assertEquals("value", other.data.get(key));
+		Assert.assertEquals("value", cluster.get(key));
+		// ASK is a one-shot redirect, the slot stays with the owner
+		Assert.assertEquals(owner.getPort(), cluster.getNode(key).getPort());
+	}
+
+}
@@ -0,0 +1,255 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.cache.NearCache;
+import com.gmail.dengtao.joe.redis4j.cache.TinyLfuCache;
+import com.gmail.dengtao.joe.redis4j.codec.CompressionCodec;
+import com.gmail.dengtao.joe.redis4j.codec.LongCodec;
+import com.gmail.dengtao.joe.redis4j.codec.StringCodec;
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoParser;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyVisitorAdapter;
+
+public class RedisExecuteTest {
+
+	private StandInServer server;
+	private Redis redis;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null) {
+			@Override
+			protected byte[] reply(String command, List<byte[]> args) {
+				if ("HGETALL".equals(command)) {
+					return "*4\r\n$4\r\nname\r\n$3\r\njoe\r\n$3\r\nage\r\n$2\r\n18\r\n".getBytes();
+				}
+				if ("PTTL".equals(command) && "short".equals(new String(args.get(0)))) {
+					return ":50\r\n".getBytes();
+				}
+				if ("RENAME".equals(command)) {
+					String value = data.remove(new String(args.get(0)));
+					if (value == null) return "-ERR no such key\r\n".getBytes();
+					data.put(new String(args.get(1)), value);
+					return OK;
+				}
+				if ("EVAL".equals(command)) {	// redis.call('SET', KEYS[1], ARGV[1])
+					data.put(new String(args.get(2)), new String(args.get(3)));
+					return OK;
+				}
+				return super.reply(command, args);
+			}
+		};
+		redis = new Redis("127.0.0.1", server.getPort(), null);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		redis.close();
+		server.close();
+	}
+
+	@Test
+	public void typed() throws Exception {
+		Assert.assertEquals(Long.valueOf(5), redis.execute(Protocol.Command.INCRBY, ReplyDecoders.LONG, "counter", 5));
+		Assert.assertEquals(Long.valueOf(6), redis.execute(Protocol.Command.INCR, ReplyDecoders.LONG, "counter"));
+		Assert.assertEquals(Long.valueOf(5000000006L), redis.execute(Protocol.Command.INCRBY, ReplyDecoders.LONG, "counter", 5000000000L));
+		Assert.assertEquals("5000000006", redis.execute(Protocol.Command.GET, ReplyDecoders.STRING, "counter"));
+		Assert.assertTrue(redis.execute(Protocol.Command.EXISTS, ReplyDecoders.BOOLEAN, "counter"));
+		Assert.assertNull(redis.execute(Protocol.Command.GET, ReplyDecoders.BYTES, "missing"));
+		Map<String, String> hash = redis.execute(Protocol.Command.HGETALL, ReplyDecoders.MAP, "user");
+		Assert.assertEquals(Arrays.asList("name", "age"), Arrays.asList(hash.keySet().toArray()));
+		Assert.assertEquals("18", hash.get("age"));
+		Assert.assertEquals(Arrays.asList("5000000006", null), redis.execute(Protocol.Command.MGET, ReplyDecoders.LIST, "counter", "missing"));
+	}
+
+	@Test
+	public void binarySafe() throws Exception {
+		byte[] value = "line1\r\nline2\r\n$3\r\n".getBytes();
+		Assert.assertTrue(redis.execute(Protocol.Command.SET, ReplyDecoders.OK, "bin", value));
+		Assert.assertArrayEquals(value, redis.execute(Protocol.Command.GET, ReplyDecoders.BYTES, "bin"));
+		Assert.assertEquals(new String(value), redis.get("bin"));
+	}
+
+	@Test
+	public void codec() throws Exception {
+		StringBuilder builder = new StringBuilder();
+		while (builder.length() < 10000) builder.append("{\"k\":\"value\"},");
+		String doc = builder.toString();
+		CompressionCodec<String, String> codec = new CompressionCodec<String, String>(StringCodec.UTF_8);
+		Assert.assertTrue(redis.set("doc", doc, codec));
+		Assert.assertEquals(doc, redis.get("doc", codec));
+		Assert.assertTrue(redis.execute(Protocol.Command.GET, ReplyDecoders.BYTES, "doc").length < doc.length() / 10);
+		Assert.assertTrue(redis.set("n", 41L, LongCodec.INSTANCE));
+		Assert.assertEquals(Long.valueOf(42), redis.execute(Protocol.Command.INCR, ReplyDecoders.LONG, "n"));
+		Assert.assertEquals(Long.valueOf(42), redis.get("n", LongCodec.INSTANCE));
+		Assert.assertNull(redis.get("missing", codec));
+	}
+
+	@Test
+	public void visit() throws Exception {
+		String[] keys = new String[1000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = "n" + i;
+			if (i % 2 == 0) redis.set(keys[i], String.valueOf(i));
+		}
+		class Sum extends ReplyVisitorAdapter {
+			long sum;
+			int nils;
+			@Override
+			public void onBulk(byte[] bytes, int offset, int length) {
+				sum += ProtoParser.parseLong(bytes, offset, offset + length);
+			}
+			@Override
+			public void onNull() {
+				nils++;
+			}
+		}
+		Sum sum = redis.visit(Protocol.Command.MGET, new Sum(), (Object[]) keys);
+		Assert.assertEquals(249500, sum.sum);
+		Assert.assertEquals(500, sum.nils);
+		try {
+			redis.visit(Protocol.Command.MGET, new ReplyVisitorAdapter() {
+				@Override
+				public void onBulk(byte[] bytes, int offset, int length) {
+					throw new IllegalStateException("boom");
+				}
+			}, "n0", "n2");
+			Assert.fail();
+		} catch (RedisException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		Assert.assertEquals("2", redis.get("n2"));	// connection still in step
+	}
+
+	@Test
+	public void pipelined() throws Exception {
+		RedisFuture[] futures = new RedisFuture[100];
+		for (int i = 0; i < futures.length; i++) {
+			futures[i] = redis.executeAsync(Protocol.Command.INCR, ReplyDecoders.LONG, "seq");
+		}
+		for (int i = 0; i < futures.length; i++) {
+			Assert.assertEquals(Long.valueOf(i + 1), futures[i].result(1000));
+		}
+	}
+
+	@Test
+	public void errors() throws Exception {
+		try {
+			redis.execute(Protocol.Command.LOLWUT, ReplyDecoders.RAW);
+			Assert.fail();
+		} catch (RedisException e) {
+			Assert.assertTrue(e.getMessage().contains("unknown command"));
+		}
+		redis.set("text", "abc");
+		try {
+			redis.execute(Protocol.Command.GET, ReplyDecoders.LONG, "text");
+			Assert.fail();
+		} catch (RedisException e) {
+			Assert.assertTrue(e.getCause() instanceof NumberFormatException);
+		}
+		Assert.assertEquals("abc", redis.get("text"));	// connection still in step
+	}
+
+	@Test
+	public void nearCache() throws Exception {
+		NearCache<String, String> cache = new TinyLfuCache<String, String>(100, 60000);
+		redis.setNearCache(cache);
+		Assert.assertTrue(redis.set("near", "1"));
+		Assert.assertEquals("1", redis.get("near"));
+		server.data.put("near", "2");	// written by another client, not seen until invalidated
+		Assert.assertEquals("1", redis.get("near"));
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertTrue(redis.append("near", "3"));
+		Assert.assertEquals("23", redis.get("near"));
+		Assert.assertTrue(redis.del("near"));
+		Assert.assertNull(redis.get("near"));
+		Assert.assertNull(cache.get("near"));
+		redis.set("near", "4");
+		Assert.assertEquals("4", redis.get("near"));
+		Assert.assertTrue(redis.flush());
+		Assert.assertEquals(0, cache.size());
+		redis.set("near", "5");
+		Assert.assertEquals("5", redis.get("near"));
+		Assert.assertEquals(Long.valueOf(6), redis.execute(Protocol.Command.INCR, ReplyDecoders.LONG, "near"));	// any write drops the entry
+		Assert.assertEquals("6", redis.get("near"));
+		Assert.assertTrue(redis.execute(Protocol.Command.MSET, ReplyDecoders.OK, "other", "1", "near".getBytes(), "7"));
+		Assert.assertEquals("7", redis.get("near"));
+		Assert.assertEquals(Long.valueOf(1), redis.execute(Protocol.Command.DEL, ReplyDecoders.LONG, "missing", "near"));
+		Assert.assertNull(redis.get("near"));
+		redis.set("near", "8");
+		Assert.assertEquals("8", redis.get("near"));
+		Assert.assertTrue(redis.select(1));
+		Assert.assertEquals(1, redis.getDb());
+		Assert.assertEquals(0, cache.size());	// entries of db 0
+		server.data.put("near", "db1");	// the stand-in has one keyspace
+		Assert.assertEquals("db1", redis.get("near"));
+		Assert.assertTrue(redis.execute(Protocol.Command.SELECT, ReplyDecoders.OK, "0"));
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void nearCacheKeyPositions() throws Exception {
+		NearCache<String, String> cache = new TinyLfuCache<String, String>(100, 60000);
+		redis.setNearCache(cache);
+		redis.set("from", "1");
+		redis.set("to", "2");
+		Assert.assertEquals("1", redis.get("from"));
+		Assert.assertEquals("2", redis.get("to"));
+		Assert.assertTrue(redis.execute(Protocol.Command.RENAME, ReplyDecoders.OK, "from", "to"));
+		Assert.assertNull(redis.get("from"));
+		Assert.assertEquals("1", redis.get("to"));	// the destination is dropped too
+		Assert.assertTrue(redis.execute(Protocol.Command.EVAL, ReplyDecoders.OK,
+				"return redis.call('SET', KEYS[1], ARGV[1])", 1, "to", "3"));
+		Assert.assertEquals("3", redis.get("to"));	// declared keys, not the script
+	}
+
+	@Test
+	public void nearCacheTtl() throws Exception {
+		NearCache<String, String> cache = new TinyLfuCache<String, String>(100, 60000);
+		redis.setNearCache(cache);
+		server.data.put("short", "1");
+		server.data.put("long", "1");
+		Assert.assertEquals("1", redis.get("short"));
+		Assert.assertEquals("1", redis.get("long"));
+		server.data.put("short", "2");	// written by another client
+		server.data.put("long", "2");
+		Thread.sleep(100);
+		Assert.assertEquals("2", redis.get("short"));	// expired with the key
+		Assert.assertEquals("1", redis.get("long"));	// no expire, up to the max staleness
+	}
+
+	@Test
+	public void largePipeline() throws Exception {
+		char[] chars = new char[64 * 1024];
+		Arrays.fill(chars, 'v');
+		String value = new String(chars);
+		List<byte[]> requests = new ArrayList<byte[]>();
+		for (int i = 0; i < 100; i++) {	// about 6.5 MB, written in many parts while replies come back
+			requests.add(new ProtoBuilder().array(Protocol.Command.SET, "big" + i, value + i).build());
+			requests.add(new ProtoBuilder().array(Protocol.Command.GET, "big" + i).build());
+			requests.add(new ProtoBuilder().array(Protocol.Command.INCR, "seq").build());
+		}
+		RedisFuture[] futures = redis.pipeline(requests);
+		Assert.assertEquals(300, futures.length);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals("OK", futures[i * 3].result(10000));
+			Assert.assertEquals(value + i, futures[i * 3 + 1].result(10000));
+			Assert.assertEquals(String.valueOf(i + 1), String.valueOf(futures[i * 3 + 2].result(10000)));
+		}
+		Assert.assertEquals(Long.valueOf(101), redis.execute(Protocol.Command.INCR, ReplyDecoders.LONG, "seq"));
+	}
+
+}
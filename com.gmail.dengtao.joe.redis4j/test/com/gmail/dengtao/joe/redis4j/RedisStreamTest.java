@@ -0,0 +1,133 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.exception.RedisIOException;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+
+public class RedisStreamTest {
+
+	private static final int SIZE = 4 * 1024 * 1024 + 17;
+
+	private StandInServer server;
+	private Redis redis;
+	private File file;
+	private byte[] value;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null);
+		redis = new Redis("127.0.0.1", server.getPort(), null);
+		value = new byte[SIZE];
+		new Random(3).nextBytes(value);
+		file = File.createTempFile("redis4j", ".bin");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(value);
+		} finally {
+			out.close();
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		redis.close();
+		server.close();
+		file.delete();
+	}
+
+	@Test
+	public void file() throws Exception {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			Assert.assertTrue(redis.setFrom("big", in.getChannel(), SIZE));
+		} finally {
+			in.close();
+		}
+		Assert.assertArrayEquals(value, redis.execute(Protocol.Command.GET, ReplyDecoders.BYTES, "big"));
+		File copy = File.createTempFile("redis4j", ".copy");
+		try {
+			FileOutputStream out = new FileOutputStream(copy);
+			try {
+				Assert.assertEquals(SIZE, redis.getTo("big", out.getChannel()));
+			} finally {
+				out.close();
+			}
+			ByteArrayOutputStream read = new ByteArrayOutputStream(SIZE);
+			FileChannel channel = new FileInputStream(copy).getChannel();
+			try {
+				channel.transferTo(0, channel.size(), Channels.newChannel(read));
+			} finally {
+				channel.close();
+			}
+			Assert.assertArrayEquals(value, read.toByteArray());
+		} finally {
+			copy.delete();
+		}
+	}
+
+	@Test
+	public void pipelined() throws Exception {
+		Assert.assertTrue(redis.setFrom("big", Channels.newChannel(new ByteArrayInputStream(value)), SIZE));
+		redis.set("small", "value");
+		RedisFuture before = redis.executeAsync(Protocol.Command.GET, ReplyDecoders.STRING, "small");
+		ByteArrayOutputStream out = new ByteArrayOutputStream(SIZE);
+		Assert.assertEquals(SIZE, redis.getTo("big", out));
+		RedisFuture after = redis.executeAsync(Protocol.Command.GET, ReplyDecoders.STRING, "small");
+		Assert.assertArrayEquals(value, out.toByteArray());
+		Assert.assertEquals("value", before.result(1000));
+		Assert.assertEquals("value", after.result(1000));
+		Assert.assertEquals(-1, redis.getTo("missing", out));
+		Assert.assertTrue(redis.setFrom("empty", Channels.newChannel(new ByteArrayInputStream(new byte[0])), 0));
+		Assert.assertEquals(0, redis.getTo("empty", new ByteArrayOutputStream()));
+	}
+
+	@Test
+	public void sinkFails() throws Exception {
+		redis.setFrom("big", Channels.newChannel(new ByteArrayInputStream(value)), SIZE);
+		OutputStream broken = new OutputStream() {
+			private int count;
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				count += len;
+				if (count > 100000) throw new IOException("disk full");
+			}
+		};
+		try {
+			redis.getTo("big", broken);
+			Assert.fail();
+		} catch (RedisIOException e) {
+			Assert.assertTrue(e.getMessage().contains("disk full"));
+		}
+		redis.set("small", "value");
+		Assert.assertEquals("value", redis.get("small"));	// rest of the value dropped, still in step
+		Assert.assertTrue(redis.isConnected());
+	}
+
+	@Test
+	public void head() {
+		byte[] head = new ProtoBuilder().array(Protocol.Command.SET, "k").buildHead(5);
+		Assert.assertEquals("*3\r\n$3\r\nSET\r\n$1\r\nk\r\n$5\r\n", new String(head));
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.cache.NearCache;
+import com.gmail.dengtao.joe.redis4j.cache.TinyLfuCache;
+import com.gmail.dengtao.joe.redis4j.exception.RedisConnectionException;
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+
+public class SentinelRedisTest {
+
+	private StandInServer a;
+	private StandInServer b;
+	private Sentinel sentinel;
+	private SentinelRedis redis;
+
+	/**
+	 * Stand-in sentinel monitoring "mymaster".
+	 */
+	static class Sentinel extends StandInServer {
+
+		volatile StandInServer master;
+
+		Sentinel(StandInServer master) throws IOException {
+			super(bind(0), null);
+			this.master = master;
+		}
+
+		@Override
+		protected byte[] reply(String command, List<byte[]> args) {
+			if ("SENTINEL".equals(command)) {
+				if (!"mymaster".equals(new String(args.get(1)))) return "*-1\r\n".getBytes();
+				return new ProtoBuilder().array("127.0.0.1", String.valueOf(master.getPort())).build();
+			}
+			return super.reply(command, args);
+		}
+
+		/**
+		 * Fail over to the server, publish until a subscriber got it.
+		 */
+		void failover(StandInServer to) throws InterruptedException {
+			StandInServer from = master;
+			master = to;
+			while (publish(SentinelRedis.SWITCH_MASTER, "mymaster 127.0.0.1 " + from.getPort() + " 127.0.0.1 " + to.getPort()) == 0) {
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		a = StandInServer.tcp(0);
+		b = StandInServer.tcp(0);
+		sentinel = new Sentinel(a);
+		// first sentinel down, the second answers
+		redis = new SentinelRedis("mymaster", Arrays.asList("127.0.0.1:1", "127.0.0.1:" + sentinel.getPort()), null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		redis.close();
+		sentinel.close();
+		a.close();
+		b.close();
+	}
+
+	private static void await(SentinelRedis redis, StandInServer server, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (redis.getMaster().getPort() != server.getPort() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void failover() throws Exception {
+		Assert.assertTrue(redis.set("key", "a"));
+		Assert.assertEquals("a", a.data.get("key"));
+		a.close();
+		long start = System.currentTimeMillis();
+		sentinel.failover(b);
+		await(redis, b, 5000);
+		long elapsed = System.currentTimeMillis() - start;
+		Assert.assertEquals(b.getPort(), redis.getMaster().getPort());
+		Assert.assertTrue("failover took " + elapsed + "ms", elapsed < 1000);
+		Assert.assertTrue(redis.set("key", "b"));
+		Assert.assertEquals("b", b.data.get("key"));
+		Assert.assertEquals(1, redis.getFailovers());
+	}
+
+	@Test
+	public void settingsKept() throws Exception {
+		Redis first = redis.getMaster();
+		first.setTimeout(1234);
+		first.setCharset("ISO-8859-1");
+		first.setReconnect(700);
+		first.setNoWaitMode(NoWaitMode.SKIP);
+		first.setSingleFlight(Protocol.Command.GET);
+		NearCache<String, String> cache = new TinyLfuCache<String, String>(100, 60000);
+		first.setNearCache(cache);
+		KeyFilter filter = new KeyFilter(first, 1000, 0.01);
+		Assert.assertTrue(redis.set("key", "a"));
+		Assert.assertEquals("a", redis.get("key"));
+		Assert.assertEquals(1, cache.size());
+		sentinel.failover(b);
+		await(redis, b, 5000);
+		Redis next = redis.getMaster();
+		Assert.assertEquals(b.getPort(), next.getPort());
+		Assert.assertEquals(1234, next.getTimeout());
+		Assert.assertEquals("ISO-8859-1", next.getCharset());
+		Assert.assertEquals(700, next.getReconnect());
+		Assert.assertEquals(NoWaitMode.SKIP, next.getNoWaitMode());
+		Assert.assertEquals(first.getSingleFlight(), next.getSingleFlight());
+		Assert.assertTrue(next.getNearCache() == cache);
+		Assert.assertEquals(0, cache.size());	// entries of the old master
+		Assert.assertNotNull(next.getKeyFilter());
+		Assert.assertTrue(next.getKeyFilter() != filter);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (first.getKeyFilter() != null && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertNull(first.getKeyFilter());	// closed with the old client
+	}
+
+	@Test
+	public void missedEvent() throws Exception {
+		sentinel.master = b;	// no event published
+		sentinel.disconnectAll();	// subscriber reconnects, asks again
+		await(redis, b, 5000);
+		Assert.assertEquals(b.getPort(), redis.getMaster().getPort());
+		Assert.assertFalse(redis.refresh());
+	}
+
+	@Test
+	public void unknownMaster() throws Exception {
+		try {
+			new SentinelRedis("other", Arrays.asList("127.0.0.1:" + sentinel.getPort()), null);
+			Assert.fail();
+		} catch (RedisConnectionException e) {
+			/* expected */
+		}
+	}
+
+}
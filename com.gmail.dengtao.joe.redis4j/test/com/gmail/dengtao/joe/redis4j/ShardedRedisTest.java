@@ -0,0 +1,136 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.cache.TinyLfuCache;
+
+public class ShardedRedisTest {
+
+	private static final int KEYS = 20000;
+
+	private final List<StandInServer> servers = new ArrayList<StandInServer>();
+	private final List<Redis> clients = new ArrayList<Redis>();
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			StandInServer server = StandInServer.tcp(0);
+			servers.add(server);
+			clients.add(new Redis("127.0.0.1", server.getPort(), null));
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (Redis client : clients) client.close();
+		for (StandInServer server : servers) server.close();
+	}
+
+	private static Map<String, Integer> count(ShardedRedis sharded) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 0; i < KEYS; i++) {
+			String name = sharded.getShardName("key" + i);
+			Integer count = counts.get(name);
+			counts.put(name, count == null ? 1 : count + 1);
+		}
+		return counts;
+	}
+
+	@Test
+	public void balance() {
+		ShardedRedis sharded = new ShardedRedis();
+		sharded.addShard("a", clients.get(0), 1);
+		sharded.addShard("b", clients.get(1), 1);
+		sharded.addShard("c", clients.get(2), 2);
+		Map<String, Integer> counts = count(sharded);
+		Assert.assertEquals(KEYS / 4, counts.get("a"), KEYS / 4 * 0.2);
+		Assert.assertEquals(KEYS / 4, counts.get("b"), KEYS / 4 * 0.2);
+		Assert.assertEquals(KEYS / 2, counts.get("c"), KEYS / 2 * 0.2);
+	}
+
+	@Test
+	public void remap() {
+		ShardedRedis sharded = new ShardedRedis();
+		for (int i = 0; i < 3; i++) {
+			sharded.addShard("shard" + i, clients.get(i), 1);
+		}
+		Map<String, String> before = new HashMap<String, String>();
+		for (int i = 0; i < KEYS; i++) {
+			before.put("key" + i, sharded.getShardName("key" + i));
+		}
+		sharded.addShard("shard3", clients.get(3), 1);
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			String now = sharded.getShardName("key" + i);
+			if (!now.equals(before.get("key" + i))) {
+				Assert.assertEquals("shard3", now);	// keys only move to the new shard
+				moved++;
+			}
+		}
+		Assert.assertEquals(KEYS / 4, moved, KEYS / 4 * 0.2);
+		sharded.removeShard("shard3");
+		for (int i = 0; i < KEYS; i++) {
+			Assert.assertEquals(before.get("key" + i), sharded.getShardName("key" + i));
+		}
+	}
+
+	@Test
+	public void hashtag() {
+		ShardedRedis sharded = new ShardedRedis(clients);
+		for (int i = 0; i < 100; i++) {
+			Assert.assertSame(sharded.getShard("{user:" + i + "}"), sharded.getShard("{user:" + i + "}:name"));
+		}
+	}
+
+	@Test
+	public void batch() throws Exception {
+		ShardedRedis sharded = new ShardedRedis(clients);
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		for (int i = 0; i < 1000; i++) {
+			values.put("key" + i, "value" + i);
+		}
+		sharded.setAll(values);
+		for (StandInServer server : servers) {
+			Assert.assertTrue(server.data.size() > 0);
+		}
+		Assert.assertEquals("value7", sharded.get("key7"));
+		List<String> keys = new ArrayList<String>(values.keySet());
+		keys.add("missing");
+		Map<String, Object> result = sharded.getAll(keys);
+		Assert.assertEquals(keys, new ArrayList<String>(result.keySet()));
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals("value" + i, result.get("key" + i));
+		}
+		Assert.assertNull(result.get("missing"));
+		Assert.assertEquals(1000, sharded.exists(keys));
+		Assert.assertEquals(1000, sharded.del(keys));
+		Assert.assertEquals(0, sharded.exists(keys));
+	}
+
+	@Test
+	public void batchInvalidatesNearCache() throws Exception {
+		for (Redis client : clients) client.setNearCache(new TinyLfuCache<String, String>(100, 60000));
+		ShardedRedis sharded = new ShardedRedis(clients);
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		for (int i = 0; i < 20; i++) values.put("near" + i, "1");
+		Assert.assertTrue(sharded.mset(values));
+		for (String key : values.keySet()) Assert.assertEquals("1", sharded.getShard(key).get(key));	// cached
+		for (String key : values.keySet()) values.put(key, "2");
+		Assert.assertTrue(sharded.mset(values));
+		for (String key : values.keySet()) Assert.assertEquals("2", sharded.getShard(key).get(key));
+		Assert.assertEquals(20, sharded.del(new ArrayList<String>(values.keySet())));
+		for (String key : values.keySet()) Assert.assertNull(sharded.getShard(key).get(key));
+		Assert.assertEquals(Arrays.asList((Object) null), sharded.mget(Arrays.asList("near0")));
+	}
+
+}
@@ -0,0 +1,89 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.proto.Protocol;
+import com.gmail.dengtao.joe.redis4j.proto.ReplyDecoders;
+
+public class SingleFlightTest {
+
+	private StandInServer server;
+	private Redis redis;
+	private final AtomicInteger gets = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null) {
+			@Override
+			protected byte[] reply(String command, List<byte[]> args) {
+				if ("GET".equals(command)) {
+					gets.incrementAndGet();
+					try { Thread.sleep(100); } catch (InterruptedException e) { /* nothing */ }
+				}
+				return super.reply(command, args);
+			}
+		};
+		redis = new Redis("127.0.0.1", server.getPort(), null);
+		redis.setSingleFlight(Protocol.Command.GET, Protocol.Command.EXISTS);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		redis.close();
+		server.close();
+	}
+
+	@Test
+	public void stampede() throws Exception {
+		redis.set("config", "v1");
+		ExecutorService threads = Executors.newFixedThreadPool(32);
+		try {
+			List<Future<Object>> results = new ArrayList<Future<Object>>();
+			for (int i = 0; i < 32; i++) {
+				results.add(threads.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						return redis.get("config");
+					}
+				}));
+			}
+			for (Future<Object> result : results) {
+				Assert.assertEquals("v1", result.get());
+			}
+		} finally {
+			threads.shutdown();
+		}
+		Assert.assertTrue("gets:" + gets.get(), gets.get() < 8);
+		Assert.assertEquals(32, gets.get() + redis.getCoalesced());
+		// other decoder, other flight
+		Assert.assertArrayEquals("v1".getBytes(), redis.execute(Protocol.Command.GET, ReplyDecoders.BYTES, "config"));
+	}
+
+	@Test
+	public void readYourWrite() throws Exception {
+		redis.set("k", "old");
+		RedisFuture slow = redis.executeAsync(Protocol.Command.GET, ReplyDecoders.STRING, "k");
+		redis.set("k", "new");
+		Assert.assertEquals("new", redis.get("k"));
+		Assert.assertEquals("old", slow.result(redis.getTimeout()));
+		Assert.assertEquals(0, redis.getCoalesced());
+		RedisFuture first = redis.executeAsync(Protocol.Command.GET, ReplyDecoders.STRING, "k");
+		Assert.assertSame(first, redis.executeAsync(Protocol.Command.GET, ReplyDecoders.STRING, "k"));
+		Assert.assertEquals(1, redis.getCoalesced());
+		first.result(redis.getTimeout());
+		Assert.assertTrue(first != redis.executeAsync(Protocol.Command.GET, ReplyDecoders.STRING, "k"));
+	}
+
+}
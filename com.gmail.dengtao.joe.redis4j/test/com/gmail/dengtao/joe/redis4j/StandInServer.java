@@ -0,0 +1,440 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
+import com.gmail.dengtao.joe.redis4j.transport.UnixDomainSockets;
+
+/**
+ * Minimal in-process RESP server standing in for redis-server in tests and benchmarks.
+ * Thread per connection, string keys only, values kept binary safe (ISO-8859-1), override {@link #reply(String, List)} for more commands.
+ * CLIENT REPLY SKIP is handled per connection.
+ * SUBSCRIBE/PSUBSCRIBE (glob '*' and '?'), their UNSUBSCRIBE/PUNSUBSCRIBE (named only) and PUBLISH work as pub/sub,
+ * see {@link #publish(String, String)}.
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class StandInServer implements Closeable {
+
+	protected static final byte[] OK = "+OK\r\n".getBytes();
+	protected static final byte[] NIL = "$-1\r\n".getBytes();
+
+	protected final Map<String, String> data = new ConcurrentHashMap<String, String>();
+	private final ServerSocketChannel server;
+	private final List<SocketChannel> clients = new ArrayList<SocketChannel>();
+	private final Map<OutputStream, Set<String>> channels = new ConcurrentHashMap<OutputStream, Set<String>>();
+	private final Map<OutputStream, Set<String>> patterns = new ConcurrentHashMap<OutputStream, Set<String>>();
+	private final String path;
+	private volatile boolean running = true;
+
+	protected StandInServer(ServerSocketChannel server, String path) {
+		this.server = server;
+		this.path = path;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "StandInServer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Start a server on loopback.
+	 * @param port 0 for any free port
+	 */
+	public static StandInServer tcp(int port) throws IOException {
+		return new StandInServer(bind(port), null);
+	}
+
+	/**
+	 * Bind a loopback server channel, for subclasses.
+	 * @param port 0 for any free port
+	 */
+	protected static ServerSocketChannel bind(int port) throws IOException {
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress("127.0.0.1", port));
+		return server;
+	}
+
+	/**
+	 * Start a server on unix domain socket, JDK 16+ required.
+	 * @param path socket file, deleted first if exists
+	 */
+	public static StandInServer unix(String path) throws IOException {
+		new File(path).delete();
+		try {
+			ServerSocketChannel server = (ServerSocketChannel) ServerSocketChannel.class
+					.getMethod("open", ProtocolFamily.class).invoke(null, UnixDomainSockets.family());
+			ServerSocketChannel.class.getMethod("bind", java.net.SocketAddress.class)
+					.invoke(server, UnixDomainSockets.address(path));
+			return new StandInServer(server, path);
+		} catch (java.lang.reflect.InvocationTargetException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Drop all client connections, the server keeps accepting.
+	 */
+	public void disconnectAll() {
+		synchronized (clients) {
+			for (SocketChannel client : clients) {
+				try { client.close(); } catch (IOException e) { /* nothing */ }
+			}
+			clients.clear();
+		}
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		try { server.close(); } catch (IOException e) { /* nothing */ }
+		disconnectAll();
+		if (path != null) new File(path).delete();
+	}
+
+	/**
+	 * Reply of one command.
+	 * @param command upper case command name
+	 * @param args arguments after the command name
+	 * @return RESP reply, null for no reply
+	 */
+	protected byte[] reply(String command, List<byte[]> args) {
+		if ("PING".equals(command)) return "+PONG\r\n".getBytes();
+		if ("AUTH".equals(command) || "SELECT".equals(command) || "QUIT".equals(command)
+				|| "READONLY".equals(command) || "READWRITE".equals(command)) return OK;
+		if ("ECHO".equals(command)) return bulk(args.get(0));
+		if ("SET".equals(command)) {
+			data.put(new String(args.get(0)), text(args.get(1)));
+			return OK;
+		}
+		if ("GET".equals(command)) {
+			String value = data.get(new String(args.get(0)));
+			return value == null ? NIL : bulk(binary(value));
+		}
+		if ("MGET".equals(command)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] head = ("*" + args.size() + "\r\n").getBytes();
+			out.write(head, 0, head.length);
+			for (byte[] key : args) {
+				String value = data.get(new String(key));
+				byte[] bts = value == null ? NIL : bulk(binary(value));
+				out.write(bts, 0, bts.length);
+			}
+			return out.toByteArray();
+		}
+		if ("MSET".equals(command)) {
+			for (int i = 0; i + 1 < args.size(); i += 2) {
+				data.put(new String(args.get(i)), text(args.get(i + 1)));
+			}
+			return OK;
+		}
+		if ("DEL".equals(command) || "EXISTS".equals(command)) {
+			int count = 0;
+			for (byte[] key : args) {
+				if ("DEL".equals(command) ? data.remove(new String(key)) != null : data.containsKey(new String(key))) count++;
+			}
+			return new ProtoBuilder().integer(count).build();
+		}
+		if ("PTTL".equals(command)) {	// keys never expire here
+			return new ProtoBuilder().integer(data.containsKey(new String(args.get(0))) ? -1 : -2).build();
+		}
+		if ("INCR".equals(command) || "INCRBY".equals(command)) {
+			String key = new String(args.get(0));
+			synchronized (data) {
+				String value = data.get(key);
+				long result = (value == null ? 0 : Long.parseLong(value)) + (args.size() > 1 ? Long.parseLong(new String(args.get(1))) : 1);
+				data.put(key, String.valueOf(result));
+				return (":" + result + "\r\n").getBytes();
+			}
+		}
+		if ("APPEND".equals(command)) {
+			String key = new String(args.get(0));
+			synchronized (data) {
+				String value = data.get(key);
+				value = (value == null ? "" : value) + text(args.get(1));
+				data.put(key, value);
+				return (":" + value.length() + "\r\n").getBytes();
+			}
+		}
+		if ("SCAN".equals(command)) {	// one page
+			List<String> keys = new ArrayList<String>(data.keySet());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] head = new ProtoBuilder().array("0").build();
+			out.write('*');
+			out.write('2');
+			out.write(head, 2, head.length - 2);	// *1 as *2
+			byte[] bts = new ProtoBuilder().array(keys.toArray()).build();
+			out.write(bts, 0, bts.length);
+			return out.toByteArray();
+		}
+		if ("FLUSHDB".equals(command)) {
+			data.clear();
+			return OK;
+		}
+		return ("-ERR unknown command '" + command + "'\r\n").getBytes();
+	}
+
+	/** value bytes as a String, one char per byte */
+	protected static String text(byte[] value) {
+		try {
+			return new String(value, "ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected static byte[] binary(String value) {
+		try {
+			return value.getBytes("ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected static byte[] bulk(byte[] value) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(value.length + 16);
+		byte[] head = ("$" + value.length + "\r\n").getBytes();
+		out.write(head, 0, head.length);
+		out.write(value, 0, value.length);
+		out.write('\r');
+		out.write('\n');
+		return out.toByteArray();
+	}
+
+	/**
+	 * Send a message to subscribers of the channel.
+	 * @return number of subscribers reached
+	 */
+	public int publish(String channel, String message) {
+		int count = 0;
+		for (Map.Entry<OutputStream, Set<String>> entry : channels.entrySet()) {
+			if (entry.getValue().contains(channel)) {
+				count += push(entry.getKey(), "message", null, channel, message);
+			}
+		}
+		for (Map.Entry<OutputStream, Set<String>> entry : patterns.entrySet()) {
+			for (String pattern : entry.getValue()) {
+				if (channel.matches(pattern.replace("?", ".").replace("*", ".*"))) {
+					count += push(entry.getKey(), "pmessage", pattern, channel, message);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Send an array message to subscribers of the channel, as redis does on __redis__:invalidate.
+	 * @param elements null for a nil array
+	 * @return number of subscribers reached
+	 */
+	public int publish(String channel, String[] elements) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] head = new ProtoBuilder().array("message", channel).build();
+		out.write('*');
+		out.write('3');
+		out.write(head, 2, head.length - 2);	// *2 as *3
+		byte[] bts = elements == null ? "*-1\r\n".getBytes() : new ProtoBuilder().array(elements).build();
+		out.write(bts, 0, bts.length);
+		int count = 0;
+		for (Map.Entry<OutputStream, Set<String>> entry : channels.entrySet()) {
+			if (entry.getValue().contains(channel) && write(entry.getKey(), out.toByteArray())) count++;
+		}
+		return count;
+	}
+
+	private static int push(OutputStream out, String kind, String pattern, String channel, String message) {
+		ProtoBuilder builder = new ProtoBuilder();
+		byte[] bts = pattern == null ? builder.array(kind, channel, message).build() : builder.array(kind, pattern, channel, message).build();
+		return write(out, bts) ? 1 : 0;
+	}
+
+	private static boolean write(OutputStream out, byte[] bts) {
+		try {
+			synchronized (out) {
+				out.write(bts);
+				out.flush();
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * SUBSCRIBE, PSUBSCRIBE: remember the channels of the connection, confirm each.
+	 */
+	private void subscribe(OutputStream out, String name, List<byte[]> args) throws IOException {
+		Map<OutputStream, Set<String>> all = "SUBSCRIBE".equals(name) ? channels : patterns;
+		Set<String> subscribed = all.get(out);
+		if (subscribed == null) {
+			subscribed = new CopyOnWriteArraySet<String>();
+			all.put(out, subscribed);
+		}
+		for (byte[] arg : args) {
+			subscribed.add(new String(arg));
+			int total = (channels.containsKey(out) ? channels.get(out).size() : 0) + (patterns.containsKey(out) ? patterns.get(out).size() : 0);
+			out.write(new ProtoBuilder().array((Object) name.toLowerCase(), new String(arg), total).build());
+		}
+	}
+
+	/**
+	 * UNSUBSCRIBE, PUNSUBSCRIBE of the names given: forget them, confirm each.
+	 */
+	private void unsubscribe(OutputStream out, String name, List<byte[]> args) throws IOException {
+		Set<String> subscribed = ("UNSUBSCRIBE".equals(name) ? channels : patterns).get(out);
+		for (byte[] arg : args) {
+			if (subscribed != null) subscribed.remove(new String(arg));
+			int total = (channels.containsKey(out) ? channels.get(out).size() : 0) + (patterns.containsKey(out) ? patterns.get(out).size() : 0);
+			out.write(new ProtoBuilder().array((Object) name.toLowerCase(), new String(arg), total).build());
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final SocketChannel client = server.accept();
+				synchronized (clients) {
+					clients.add(client);
+				}
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serve(client);
+					}
+				}, "StandInServer-client");
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(SocketChannel client) {
+		OutputStream out = null;
+		try {
+			InputStream in = new BufferedInputStream(Channels.newInputStream(client));
+			out = new BufferedOutputStream(output(client));
+			boolean skip = false;	// CLIENT REPLY SKIP
+			while (running) {
+				List<byte[]> command = readCommand(in);
+				String name = new String(command.remove(0)).toUpperCase();
+				if ("CLIENT".equals(name) && command.size() == 2 && "REPLY".equalsIgnoreCase(new String(command.get(0)))
+						&& "SKIP".equalsIgnoreCase(new String(command.get(1)))) {
+					skip = true;
+					continue;
+				}
+				synchronized (out) {
+					if ("SUBSCRIBE".equals(name) || "PSUBSCRIBE".equals(name)) {
+						subscribe(out, name, command);
+					} else if ("UNSUBSCRIBE".equals(name) || "PUNSUBSCRIBE".equals(name)) {
+						unsubscribe(out, name, command);
+					} else if ("PUBLISH".equals(name)) {
+						out.write(new ProtoBuilder().integer(publish(new String(command.get(0)), new String(command.get(1)))).build());
+					} else {
+						byte[] reply = reply(name, command);
+						if (reply != null && !skip) out.write(reply);
+					}
+					skip = false;
+					if (in.available() == 0) out.flush();	// flush once per pipelined batch
+				}
+				if ("QUIT".equals(name)) break;
+			}
+		} catch (IOException e) {
+			/* client gone */
+		} finally {
+			if (out != null) {
+				channels.remove(out);
+				patterns.remove(out);
+			}
+			try { client.close(); } catch (IOException e) { /* nothing */ }
+		}
+	}
+
+	/**
+	 * Stream of the channel that never takes its blocking lock, unlike {@link Channels#newOutputStream},
+	 * so pushes are not held up by a read blocked on the same channel.
+	 */
+	private static OutputStream output(final SocketChannel client) {
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+				while (buffer.hasRemaining()) {
+					client.write(buffer);
+				}
+			}
+		};
+	}
+
+	private static List<byte[]> readCommand(InputStream in) throws IOException {
+		String head = readLine(in);
+		if (!head.startsWith("*")) throw new IOException("array required:" + head);
+		int size = Integer.parseInt(head.substring(1));
+		List<byte[]> command = new ArrayList<byte[]>(size);
+		for (int i = 0; i < size; i++) {
+			String bulk = readLine(in);
+			byte[] arg = new byte[Integer.parseInt(bulk.substring(1))];
+			int read = 0;
+			while (read < arg.length) {
+				int n = in.read(arg, read, arg.length - read);
+				if (n < 0) throw new EOFException();
+				read += n;
+			}
+			readLine(in);
+			command.add(arg);
+		}
+		return command;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) throw new EOFException();
+			if (b != '\r') line.append((char) b);
+		}
+		return line.toString();
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gmail.dengtao.joe.redis4j.transport.EventLoopGroup;
+
+/**
+ * <p>
+ * Unix domain socket vs loopback TCP, sequential latency and concurrent throughput of SET.
+ * </p>
+ * <pre>
+ * Against a local redis-server (unixsocket enabled in redis.conf):
+ *   -Dredis.unix=/var/run/redis.sock -Dredis.port=6379 -Dredis.password=pwd
+ * Without redis.unix an in-process {@link StandInServer} serves both sockets.
+ * </pre>
+ * @author <a href="mailto:joe.dengtao@gmail.com">DengTao</a>
+ * @version 1.0
+ */
+public class UnixSocketBenchmark {
+
+	private static final int REQUESTS = Integer.getInteger("requests", 20000);
+	private static final int THREADS = Integer.getInteger("threads", 8);
+
+	public static void main(String[] args) throws Exception {
+		String unix = System.getProperty("redis.unix");
+		int port = Integer.getInteger("redis.port", 6379);
+		String password = System.getProperty("redis.password");	// null: no AUTH
+		StandInServer tcpServer = null;
+		StandInServer unixServer = null;
+		if (unix == null) {
+			tcpServer = StandInServer.tcp(0);
+			port = tcpServer.getPort();
+			unix = new File(System.getProperty("java.io.tmpdir"), "redis4j-bench.sock").getPath();
+			unixServer = StandInServer.unix(unix);
+			System.out.println("stand-in servers: tcp 127.0.0.1:" + port + ", unix " + unix);
+		}
+		EventLoopGroup group = new EventLoopGroup(1);
+		try {
+			Redis tcp = new Redis("127.0.0.1", port, password, group);
+			Redis local = new Redis("unix://" + unix, password, group);
+			// warm up
+			run("warm-up tcp", tcp);
+			run("warm-up unix", local);
+			run("tcp loopback", tcp);
+			run("unix socket", local);
+			tcp.close();
+			local.close();
+		} finally {
+			group.shutdown();
+			if (tcpServer != null) tcpServer.close();
+			if (unixServer != null) unixServer.close();
+		}
+	}
+
+	private static void run(String name, final Redis redis) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < REQUESTS; i++) {
+			redis.set("bench:" + i, "value" + i);
+		}
+		long sequential = System.nanoTime() - start;
+		final CountDownLatch latch = new CountDownLatch(THREADS);
+		final AtomicLong errors = new AtomicLong();
+		start = System.nanoTime();
+		for (int t = 0; t < THREADS; t++) {
+			final int offset = t * REQUESTS;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < REQUESTS; i++) {
+							redis.set("bench:" + (offset + i), "value" + i);
+						}
+					} catch (Exception e) {
+						errors.incrementAndGet();
+					} finally {
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+		latch.await();
+		long concurrent = System.nanoTime() - start;
+		System.out.println(String.format("%-14s sequential avg: %6.1f us, %d threads: %8.0f ops/s%s",
+				name, sequential / 1000.0 / REQUESTS, THREADS, REQUESTS * (double) THREADS / (concurrent / 1e9),
+				errors.get() == 0 ? "" : ", errors: " + errors.get()));
+	}
+
+}
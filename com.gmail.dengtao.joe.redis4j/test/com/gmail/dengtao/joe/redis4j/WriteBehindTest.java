@@ -0,0 +1,135 @@
+package com.gmail.dengtao.joe.redis4j;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindTest {
+
+	private StandInServer server;
+	private Redis redis;
+	private final List<String> commands = new CopyOnWriteArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StandInServer(StandInServer.bind(0), null) {
+			@Override
+			protected byte[] reply(String command, List<byte[]> args) {
+				if (!"PING".equals(command) && !"GET".equals(command)) commands.add(command + " " + args.size());
+				return super.reply(command, args);
+			}
+		};
+		redis = new Redis("127.0.0.1", server.getPort(), null);
+		redis.set("gone", "x");
+		commands.clear();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		redis.close();
+		server.close();
+	}
+
+	@Test
+	public void lastWriteWins() throws Exception {
+		WriteBehind writes = new WriteBehind(redis, 60000, 1000);
+		for (int i = 0; i < 100; i++) {
+			writes.set("a", String.valueOf(i));
+		}
+		writes.set("b", "1");
+		writes.del("b");
+		writes.del("gone");
+		Assert.assertEquals(3, writes.getPending());
+		writes.close();
+		Assert.assertEquals("99", redis.get("a"));
+		Assert.assertNull(redis.get("b"));
+		Assert.assertNull(redis.get("gone"));
+		Assert.assertEquals(2, commands.size());	// MSET a, DEL b gone
+		Assert.assertEquals("MSET 2", commands.get(0));
+		Assert.assertEquals("DEL 2", commands.get(1));
+		Assert.assertEquals(103, writes.getWrites());
+		Assert.assertEquals(3, writes.getWritten());
+		Assert.assertEquals(1, writes.getFlushes());
+		Assert.assertEquals(0, writes.getDropped());
+		try {
+			writes.set("a", "1");
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			/* closed */
+		}
+	}
+
+	@Test
+	public void flushAtMaxKeys() throws Exception {
+		WriteBehind writes = new WriteBehind(redis, 60000, 3);
+		writes.set("a", "1");
+		writes.set("b", "2", 10000);
+		Assert.assertEquals(0, writes.getFlushes());
+		writes.set("c", "3");
+		Assert.assertEquals(0, writes.getPending());
+		long deadline = System.currentTimeMillis() + 1000;
+		while (writes.getFlushes() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals("2", redis.get("b"));
+		Assert.assertEquals("3", redis.get("c"));
+		Assert.assertTrue(commands.contains("SET 4"));
+		Assert.assertTrue(commands.contains("MSET 4"));
+		Assert.assertEquals(3.0, writes.getMeanBatchSize(), 0.001);
+		writes.close();
+	}
+
+	@Test
+	public void flushOnSchedule() throws Exception {
+		WriteBehind writes = new WriteBehind(redis, 20, 1000);
+		writes.set("a", "1");
+		long deadline = System.currentTimeMillis() + 1000;
+		while (writes.getWritten() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals("1", redis.get("a"));
+		writes.set("a", "2");
+		deadline = System.currentTimeMillis() + 1000;
+		while (writes.getWritten() == 1 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals("2", redis.get("a"));
+		Assert.assertEquals(2, writes.getFlushes());
+		writes.close();
+	}
+
+	@Test
+	public void batchesInOrder() throws Exception {
+		final WriteBehind writes = new WriteBehind(redis, 1, 2);	// flushed by the loop and by writers at once
+		Thread[] writers = new Thread[4];
+		for (int t = 0; t < writers.length; t++) {
+			final String key = "k" + t;
+			writers[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 2000; i++) {
+						writes.set(key, String.valueOf(i));
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for (Thread writer : writers) writer.join();
+		writes.close();
+		for (int t = 0; t < writers.length; t++) {
+			Assert.assertEquals("1999", redis.get("k" + t));
+		}
+		Assert.assertEquals(0, writes.getDropped());
+	}
+
+	@Test
+	public void droppedWhenDisconnected() throws Exception {
+		WriteBehind writes = new WriteBehind(redis, 60000, 1000);
+		redis.close();
+		writes.set("a", "1");
+		writes.del("b");
+		writes.close();
+		Assert.assertEquals(2, writes.getDropped());
+		Assert.assertEquals(0, writes.getWritten());
+	}
+
+}
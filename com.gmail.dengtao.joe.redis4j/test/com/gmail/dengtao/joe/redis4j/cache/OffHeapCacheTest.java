@@ -0,0 +1,78 @@
+package com.gmail.dengtao.joe.redis4j.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.gmail.dengtao.joe.redis4j.codec.StringCodec;
+
+public class OffHeapCacheTest {
+
+	@Test
+	public void putGet() throws InterruptedException {
+		OffHeapCache<String, String> cache = new OffHeapCache<String, String>(StringCodec.UTF_8, 64 * 1024, 50, 4);
+		cache.put("a", "1");
+		cache.put("a", "中文");
+		cache.put("b", "", 1);
+		Assert.assertEquals("中文", cache.get("a"));
+		Assert.assertEquals(2, cache.size());
+		Thread.sleep(10);
+		Assert.assertNull(cache.get("b"));
+		long stamp = cache.stamp("a");
+		cache.invalidate("a");
+		Assert.assertFalse(cache.put("a", "stale", Long.MAX_VALUE, stamp));
+		Assert.assertNull(cache.get("a"));
+		Assert.assertFalse(cache.put("big", new String(new char[20000]), Long.MAX_VALUE, cache.stamp("big")));
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void evictOldest() {
+		OffHeapCache<String, String> cache = new OffHeapCache<String, String>(StringCodec.UTF_8, 16 * 1024, 60000, 1);
+		for (int i = 0; i < 1000; i++) {
+			cache.put("key" + i, "value-" + i + "-0123456789");
+		}
+		Assert.assertTrue(cache.getUsed() <= cache.getCapacity());
+		Assert.assertTrue(cache.getEvictions() > 0);
+		Assert.assertEquals(1000 - cache.getEvictions(), cache.size());
+		Assert.assertNull(cache.get("key0"));
+		Assert.assertEquals("value-999-0123456789", cache.get("key999"));
+	}
+
+	/**
+	 * Random puts and invalidations over a small cache: a read gives the last value put or nothing.
+	 */
+	@Test
+	public void neverWrong() {
+		OffHeapCache<String, String> cache = new OffHeapCache<String, String>(StringCodec.UTF_8, 8 * 1024, 60000, 2);
+		Map<String, String> model = new HashMap<String, String>();
+		Random random = new Random(7);
+		for (int i = 0; i < 200000; i++) {
+			String key = "k" + random.nextInt(300);
+			int op = random.nextInt(10);
+			if (op < 5) {
+				char[] chars = new char[random.nextInt(200)];
+				java.util.Arrays.fill(chars, (char) ('a' + random.nextInt(26)));
+				String value = i + new String(chars);
+				cache.put(key, value);
+				model.put(key, value);
+			} else if (op < 6) {
+				cache.invalidate(key);
+				model.remove(key);
+			} else {
+				String value = cache.get(key);
+				if (value != null) Assert.assertEquals(model.get(key), value);
+			}
+		}
+		int present = 0;
+		for (String key : model.keySet()) {
+			if (cache.get(key) != null) present++;
+		}
+		Assert.assertEquals(cache.size(), present);
+	}
+
+}
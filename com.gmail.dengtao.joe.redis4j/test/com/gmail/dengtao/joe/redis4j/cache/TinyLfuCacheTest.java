@@ -0,0 +1,59 @@
+package com.gmail.dengtao.joe.redis4j.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TinyLfuCacheTest {
+
+	@Test
+	public void frequentSurviveScan() {
+		NearCache<String, String> cache = new TinyLfuCache<String, String>(100, 60000);
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 50; i++) {
+				if (cache.get("hot" + i) == null) cache.put("hot" + i, "v" + i);
+			}
+		}
+		for (int i = 0; i < 10000; i++) {
+			cache.put("scan" + i, "x");
+		}
+		Assert.assertTrue(cache.size() <= 100);
+		int kept = 0;
+		for (int i = 0; i < 50; i++) {
+			if (cache.get("hot" + i) != null) kept++;
+		}
+		Assert.assertTrue("hot keys kept:" + kept, kept >= 45);
+		Assert.assertTrue(cache.getEvictions() > 0);
+	}
+
+	@Test
+	public void expire() throws InterruptedException {
+		NearCache<String, String> cache = new TinyLfuCache<String, String>(10, 50);
+		cache.put("a", "1");
+		cache.put("b", "2", 1);
+		Thread.sleep(10);
+		Assert.assertEquals("1", cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Thread.sleep(60);
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void stamp() {
+		NearCache<String, String> cache = new TinyLfuCache<String, String>(10, 60000);
+		long stamp = cache.stamp("a");
+		cache.invalidate("a");
+		Assert.assertFalse(cache.put("a", "stale", Long.MAX_VALUE, stamp));
+		Assert.assertNull(cache.get("a"));
+		stamp = cache.stamp("a");
+		Assert.assertTrue(cache.put("a", "fresh", Long.MAX_VALUE, stamp));
+		stamp = cache.stamp("b");
+		cache.invalidateAll();
+		Assert.assertFalse(cache.put("b", "stale", Long.MAX_VALUE, stamp));
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(2, cache.getInvalidations());
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.gmail.dengtao.joe.redis4j.codec;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressionCodecTest {
+
+	private static String json(int size) {
+		StringBuilder builder = new StringBuilder("[");
+		for (int i = 0; builder.length() < size; i++) {
+			builder.append("{\"id\":").append(i).append(",\"name\":\"user").append(i).append("\",\"active\":true},");
+		}
+		return builder.append("]").toString();
+	}
+
+	@Test
+	public void threshold() {
+		CompressionCodec<String, String> codec = new CompressionCodec<String, String>(StringCodec.UTF_8);
+		String small = "{\"id\":1}";
+		Assert.assertArrayEquals(StringCodec.UTF_8.encodeValue(small), codec.encodeValue(small));
+		String large = json(8192);
+		byte[] bytes = codec.encodeValue(large);
+		Assert.assertEquals((byte) 0xC0, bytes[0]);
+		Assert.assertTrue(bytes.length < large.length() / 4);
+		Assert.assertEquals(large, codec.decodeValue(bytes));
+		Assert.assertEquals(1, codec.getCompressed());
+		Assert.assertEquals(large.length() - bytes.length, codec.getSaved());
+		Assert.assertEquals("plain", codec.decodeValue(StringCodec.UTF_8.encodeValue("plain")));	// written without the codec
+	}
+
+	@Test
+	public void incompressible() {
+		byte[] random = new byte[4096];
+		new Random(7).nextBytes(random);
+		random[0] = 1;
+		CompressionCodec<byte[], byte[]> codec = new CompressionCodec<byte[], byte[]>(ByteArrayCodec.INSTANCE);
+		Assert.assertSame(random, codec.encodeValue(random));
+		Assert.assertEquals(0, codec.getCompressed());
+	}
+
+	@Test
+	public void magicStored() {
+		CompressionCodec<byte[], byte[]> codec = new CompressionCodec<byte[], byte[]>(ByteArrayCodec.INSTANCE);
+		byte[] value = { (byte) 0xC0, 'Z', 1, 0, 0, 0, 9, 'x' };
+		byte[] bytes = codec.encodeValue(value);
+		Assert.assertEquals(CompressionCodec.HEADER + value.length, bytes.length);
+		Assert.assertArrayEquals(value, codec.decodeValue(bytes));
+	}
+
+	@Test
+	public void corrupt() {
+		CompressionCodec<String, String> codec = new CompressionCodec<String, String>(StringCodec.UTF_8, 0, 9);
+		byte[] bytes = codec.encodeValue(json(2048));
+		byte[] truncated = new byte[bytes.length / 2];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		try {
+			codec.decodeValue(truncated);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage().contains("truncated"));
+		}
+	}
+
+	@Test
+	public void longs() {
+		Assert.assertArrayEquals("-42".getBytes(), LongCodec.INSTANCE.encodeValue(-42L));
+		Assert.assertEquals(Long.valueOf(Long.MAX_VALUE), LongCodec.INSTANCE.decodeValue(String.valueOf(Long.MAX_VALUE).getBytes()));
+	}
+
+}
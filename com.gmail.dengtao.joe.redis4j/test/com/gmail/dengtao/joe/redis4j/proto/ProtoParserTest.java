@@ -1,12 +1,17 @@
 package com.gmail.dengtao.joe.redis4j.proto;
 
+import org.junit.Assert;
 import org.junit.Test;
 
+import com.gmail.dengtao.joe.redis4j.exception.RedisException;
+import com.gmail.dengtao.joe.redis4j.exception.RedisProtoNotReadyException;
 import com.gmail.dengtao.joe.redis4j.proto.ProtoBuilder;
 import com.gmail.dengtao.joe.redis4j.proto.ProtoParser;
 
 public class ProtoParserTest {
 
+	private static final byte[] NESTED = "*4\r\n+OK\r\n*2\r\n:42\r\n$-1\r\n$5\r\nab\r\nc\r\n-ERR no\r\n".getBytes();
+
 	@Test
 	public void test() {
 		byte[] data = new ProtoBuilder().array("foo", new String[]{"a", "b", "c"}, "bar").build();
@@ -24,4 +29,87 @@ public class ProtoParserTest {
 		}
 	}
 
+	@Test
+	public void nested() {
+		ProtoParser parser = new ProtoParser().parse(NESTED);
+		Assert.assertEquals(NESTED.length, parser.position());
+		Object[] reply = (Object[]) parser.result();
+		Assert.assertEquals("OK", reply[0]);
+		Assert.assertArrayEquals(new Object[] { 42, null }, (Object[]) reply[1]);
+		Assert.assertEquals("ab\r\nc", reply[2]);
+		Assert.assertTrue(reply[3] instanceof RedisException);
+		try {
+			new ProtoParser().parse("*2\r\n$1\r\na\r\n".getBytes());
+			Assert.fail();
+		} catch (RedisProtoNotReadyException e) {
+			// second element missing
+		}
+	}
+
+	@Test
+	public void scanByteByByte() {
+		byte[] twice = new byte[NESTED.length * 2];
+		System.arraycopy(NESTED, 0, twice, 0, NESTED.length);
+		System.arraycopy(NESTED, 0, twice, NESTED.length, NESTED.length);
+		ReplyScanner scanner = new ReplyScanner();
+		int start = 0;
+		int found = 0;
+		for (int limit = 1; limit <= twice.length; limit++) {
+			int end = scanner.scan(twice, start, limit);
+			if (end >= 0) {
+				Assert.assertEquals(start + NESTED.length, end);
+				scanner.reset();
+				start = end;
+				found++;
+			}
+		}
+		Assert.assertEquals(2, found);
+		try {
+			new ReplyScanner().scan("?x\r\n".getBytes(), 0, 4);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// invalid type
+		}
+	}
+
+	@Test
+	public void visit() {
+		final StringBuilder events = new StringBuilder();
+		int end = new ProtoParser().visit(NESTED, 0, NESTED.length, new ReplyVisitor() {
+			public void onArrayStart(int size) { events.append("[").append(size).append(' '); }
+			public void onArrayEnd() { events.append("] "); }
+			public void onBulk(byte[] bytes, int offset, int length) { events.append('$').append(new String(bytes, offset, length)).append(' '); }
+			public void onNull() { events.append("nil "); }
+			public void onInteger(long value) { events.append(':').append(value).append(' '); }
+			public void onString(byte[] bytes, int offset, int length) { events.append('+').append(new String(bytes, offset, length)).append(' '); }
+			public void onError(String message) { events.append('-').append(message).append(' '); }
+		});
+		Assert.assertEquals(NESTED.length, end);
+		Assert.assertEquals("[4 +OK [2 :42 nil ] $ab\r\nc -ERR no ] ", events.toString());
+	}
+
+	@Test
+	public void parseLong() {
+		byte[] bts = "x-9223372036854775807y".getBytes();
+		Assert.assertEquals(-Long.MAX_VALUE, ProtoParser.parseLong(bts, 1, bts.length - 1));
+		Assert.assertEquals(12, ProtoParser.parseLong("+12".getBytes(), 0, 3));
+		Assert.assertEquals(Long.MIN_VALUE, ProtoParser.parseLong("-9223372036854775808".getBytes(), 0, 20));
+		Assert.assertEquals(Long.MAX_VALUE, ProtoParser.parseLong("9223372036854775807".getBytes(), 0, 19));
+		try {
+			ProtoParser.parseLong("99999999999999999999".getBytes(), 0, 20);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// too long
+		}
+		String[] outOfRange = { "9223372036854775808", "-9223372036854775809", "9999999999999999999" };
+		for (String text : outOfRange) {
+			try {
+				ProtoParser.parseLong(text.getBytes(), 0, text.length());
+				Assert.fail(text);
+			} catch (IllegalStateException e) {
+				// out of range
+			}
+		}
+	}
+
 }